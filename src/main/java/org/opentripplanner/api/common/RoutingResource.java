@@ -432,6 +432,12 @@ public abstract class RoutingResource {
     @QueryParam("disableRemainingWeightHeuristic")
     protected Boolean disableRemainingWeightHeuristic;
 
+    /**
+     * If false, street searches without transit never use the contraction hierarchies of the graph.
+     */
+    @QueryParam("useContractionHierarchy")
+    protected Boolean useContractionHierarchy;
+
     /*
      * Control the size of flag-stop buffer returned in API response. This parameter only applies
      * to GTFS-Flex routing, which must be explicitly turned on via the useFlexService parameter in
@@ -488,6 +494,12 @@ public abstract class RoutingResource {
 
     @QueryParam("heuristicStepsPerMainStep")
     private Integer heuristicStepsPerMainStep;
+
+    /**
+     * @see {@link org.opentripplanner.routing.core.RoutingRequest#maxParallelSearches}
+     */
+    @QueryParam("maxParallelSearches")
+    private Integer maxParallelSearches;
     
     @QueryParam("allowedBikeRentalNetworks")
     private String allowedBikeRentalNetworks;
@@ -749,6 +761,9 @@ public abstract class RoutingResource {
         if (disableRemainingWeightHeuristic != null)
             request.disableRemainingWeightHeuristic = disableRemainingWeightHeuristic;
 
+        if (useContractionHierarchy != null)
+            request.useContractionHierarchy = useContractionHierarchy;
+
         if (flexFlagStopBufferSize != null)
             request.flexFlagStopBufferSize = flexFlagStopBufferSize;
 
@@ -775,6 +790,9 @@ public abstract class RoutingResource {
 
         if (heuristicStepsPerMainStep != null)
             request.heuristicStepsPerMainStep = heuristicStepsPerMainStep;
+
+        if (maxParallelSearches != null)
+            request.maxParallelSearches = maxParallelSearches;
         
         if (allowedBikeRentalNetworks != null)
             request.setAllowedBikeRentalNetworks(allowedBikeRentalNetworks);
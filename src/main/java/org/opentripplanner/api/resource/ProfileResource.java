@@ -12,6 +12,7 @@ import org.opentripplanner.profile.Option;
 import org.opentripplanner.profile.ProfileRequest;
 import org.opentripplanner.profile.ProfileResponse;
 import org.opentripplanner.profile.ProfileRouter;
+import org.opentripplanner.profile.RaptorWorkerDataCache;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Graph;
@@ -42,11 +43,13 @@ public class ProfileResource {
     private static final Logger LOG = LoggerFactory.getLogger(ProfileResource.class);
     private Graph graph;
     private SurfaceCache surfaceCache;
+    private RaptorWorkerDataCache raptorWorkerDataCache;
 
     public ProfileResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
         Router router = otpServer.getRouter(routerId);
         graph = router.graph;
         surfaceCache = otpServer.surfaceCache;
+        raptorWorkerDataCache = router.raptorWorkerDataCache;
     }
 
     @GET
@@ -136,6 +139,7 @@ public class ProfileResource {
             /* There are rarely frequency-only graphs. Use the Raptor profile router for both freqs and schedules. */
             RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(graph, req);
             router.banAgency = banAgency;
+            router.raptorWorkerDataCache = raptorWorkerDataCache;
             router.route();
             result = router.timeSurfaceRangeSet;
             Map<String, Integer> idForSurface = Maps.newHashMap();
@@ -0,0 +1,111 @@
+package org.opentripplanner.api.resource;
+
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.api.param.HourMinuteSecond;
+import org.opentripplanner.api.param.QueryParameter;
+import org.opentripplanner.api.param.YearMonthDay;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.TravelTimeMatrix;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.List;
+
+/**
+ * Computes the travel times between all the points of two PointSets with repeated RAPTOR, and streams them back as a
+ * binary matrix of little-endian 32-bit integers. See TravelTimeMatrix for the layout of the matrix.
+ * The PointSets are identified as in the PointSetResource, and the search parameters are those of ProfileResource.
+ */
+@Path("routers/{routerId}/matrix")
+public class TravelTimeMatrixResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrixResource.class);
+
+    private final OTPServer otpServer;
+
+    private final Router router;
+
+    public TravelTimeMatrixResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
+        this.otpServer = otpServer;
+        this.router = otpServer.getRouter(routerId);
+    }
+
+    @GET
+    @Produces({ MediaType.APPLICATION_OCTET_STREAM })
+    public Response travelTimeMatrix (
+            @QueryParam("origins")      String originsId,
+            @QueryParam("destinations") String destinationsId,
+            @QueryParam("date")         @DefaultValue("today") YearMonthDay date,
+            @QueryParam("startTime")    @DefaultValue("07:30") HourMinuteSecond fromTime,
+            @QueryParam("endTime")      @DefaultValue("08:30") HourMinuteSecond toTime,
+            @QueryParam("walkSpeed")    @DefaultValue("1.4")   float walkSpeed, // m/sec
+            @QueryParam("bikeSpeed")    @DefaultValue("4.1")   float bikeSpeed, // m/sec
+            @QueryParam("streetTime")   @DefaultValue("90")    int streetTime,  // max minutes to reach destination WITHOUT transit
+            @QueryParam("maxWalkTime")  @DefaultValue("15")    int maxWalkTime, // max minutes to reach transit on foot
+            @QueryParam("maxBikeTime")  @DefaultValue("20")    int maxBikeTime,
+            @QueryParam("accessModes")  @DefaultValue("WALK")     QualifiedModeSet accessModes,
+            @QueryParam("egressModes")  @DefaultValue("WALK")     QualifiedModeSet egressModes,
+            @QueryParam("transitModes") @DefaultValue("TRANSIT")  TraverseModeSet transitModes,
+            @QueryParam("statistics")   @DefaultValue("min,avg,max") String statistics) {
+
+        QueryParameter.checkRangeInclusive(walkSpeed, 0.5, 7);
+        QueryParameter.checkRangeInclusive(bikeSpeed, 1, 21);
+        QueryParameter.checkRangeInclusive(streetTime,  1, 480);
+        QueryParameter.checkRangeInclusive(maxWalkTime, 1, 480);
+        QueryParameter.checkRangeInclusive(maxBikeTime, 1, 480);
+
+        if (otpServer.pointSetCache == null) {
+            return Response.status(Status.BAD_REQUEST)
+                    .entity("You must run OTP with the --analyst option to compute travel time matrices.").build();
+        }
+        PointSet origins = originsId == null ? null : otpServer.pointSetCache.get(originsId);
+        PointSet destinations = destinationsId == null ? null : otpServer.pointSetCache.get(destinationsId);
+        if (origins == null || destinations == null) {
+            return Response.status(Status.BAD_REQUEST).entity("Unknown origin or destination pointset.").build();
+        }
+        List<Integer> statisticCodes;
+        try {
+            statisticCodes = TravelTimeMatrix.parseStatistics(statistics);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+
+        ProfileRequest req = new ProfileRequest();
+        req.fromTime     = fromTime.toSeconds();
+        req.toTime       = toTime.toSeconds();
+        req.walkSpeed    = walkSpeed;
+        req.bikeSpeed    = bikeSpeed;
+        req.date         = date.toJoda();
+        req.accessModes  = accessModes;
+        req.egressModes  = egressModes;
+        req.directModes  = accessModes;
+        req.transitModes = transitModes;
+        req.analyst      = true;
+        req.streetTime   = streetTime;
+        req.maxWalkTime  = maxWalkTime;
+        req.maxBikeTime  = maxBikeTime;
+
+        final TravelTimeMatrix matrix = new TravelTimeMatrix(router.graph, req, origins, destinations, statisticCodes);
+        matrix.raptorWorkerDataCache = router.raptorWorkerDataCache;
+        LOG.info("Computing travel time matrix from {} origins to {} destinations", origins.capacity,
+                destinations.capacity);
+        StreamingOutput output = matrix::write;
+        return Response.ok().entity(output).build();
+    }
+
+}
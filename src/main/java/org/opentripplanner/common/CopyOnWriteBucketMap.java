@@ -0,0 +1,154 @@
+package org.opentripplanner.common;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * A hash map that can be snapshotted in time proportional to its number of buckets rather than its number of entries.
+ * The entries are spread over a fixed number of small HashMaps (buckets). A snapshot shares all the buckets of the map
+ * it was taken from; after that the map copies a bucket the first time it modifies it. So each snapshot only costs
+ * one copy of the buckets that actually changed since the previous snapshot, and unchanged buckets are shared by any
+ * number of snapshots.
+ *
+ * This is meant for single-writer use like TimetableSnapshot: one thread modifies the map and takes snapshots, the
+ * snapshots are handed to other threads which only read them. The map itself is not threadsafe.
+ */
+public class CopyOnWriteBucketMap<K, V> {
+
+    private static final int DEFAULT_BUCKETS = 256;
+
+    /** The buckets, or null for buckets which have never held an entry. */
+    private final HashMap<K, V>[] buckets;
+
+    /** Whether each bucket belongs to this map alone, so it can be modified without copying it first. */
+    private final boolean[] owned;
+
+    /** The bucket of a key is chosen by the top bits of its scrambled hash code, this shift keeps only those. */
+    private final int shift;
+
+    private int size = 0;
+
+    /** The number of buckets copied because they were shared with a snapshot, since the last snapshot. */
+    private int copiedBuckets = 0;
+
+    public CopyOnWriteBucketMap() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    /** @param nBuckets the number of buckets, rounded up to a power of two. */
+    @SuppressWarnings("unchecked")
+    public CopyOnWriteBucketMap(int nBuckets) {
+        int n = Integer.highestOneBit(Math.max(nBuckets - 1, 1)) << 1;
+        buckets = (HashMap<K, V>[]) new HashMap[n];
+        owned = new boolean[n];
+        shift = Integer.numberOfLeadingZeros(n) + 1;
+    }
+
+    /** Copy constructor sharing all the buckets of the other map. */
+    private CopyOnWriteBucketMap(CopyOnWriteBucketMap<K, V> other) {
+        buckets = Arrays.copyOf(other.buckets, other.buckets.length);
+        owned = new boolean[buckets.length];
+        shift = other.shift;
+        size = other.size;
+    }
+
+    public V get(Object key) {
+        HashMap<K, V> bucket = buckets[bucketIndex(key)];
+        return bucket == null ? null : bucket.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        HashMap<K, V> bucket = buckets[bucketIndex(key)];
+        return bucket != null && bucket.containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        HashMap<K, V> bucket = writableBucket(bucketIndex(key));
+        int oldSize = bucket.size();
+        V old = bucket.put(key, value);
+        size += bucket.size() - oldSize;
+        return old;
+    }
+
+    public V remove(Object key) {
+        int b = bucketIndex(key);
+        if (buckets[b] == null || !buckets[b].containsKey(key)) {
+            return null;
+        }
+        size -= 1;
+        return writableBucket(b).remove(key);
+    }
+
+    /**
+     * Remove all entries whose key matches the predicate. Only the buckets containing such keys are copied.
+     * @return true if any entry was removed
+     */
+    public boolean removeIf(Predicate<? super K> keyPredicate) {
+        boolean removed = false;
+        for (int b = 0; b < buckets.length; b++) {
+            HashMap<K, V> bucket = buckets[b];
+            if (bucket == null || bucket.keySet().stream().noneMatch(keyPredicate)) continue;
+            bucket = writableBucket(b);
+            int oldSize = bucket.size();
+            bucket.keySet().removeIf(keyPredicate);
+            size -= oldSize - bucket.size();
+            removed = true;
+        }
+        return removed;
+    }
+
+    /** Apply the action to every entry. The map must not be modified by the action. */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (HashMap<K, V> bucket : buckets) {
+            if (bucket != null) {
+                bucket.forEach(action);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a map with the same entries as this one, sharing all of its buckets. Neither map copies anything until
+     *         it modifies a bucket.
+     */
+    public CopyOnWriteBucketMap<K, V> snapshot() {
+        Arrays.fill(owned, false);
+        copiedBuckets = 0;
+        return new CopyOnWriteBucketMap<>(this);
+    }
+
+    /** @return the number of buckets this map had to copy since the last snapshot was taken. */
+    public int getCopiedBucketCount() {
+        return copiedBuckets;
+    }
+
+    private HashMap<K, V> writableBucket(int b) {
+        if (!owned[b]) {
+            if (buckets[b] == null) {
+                buckets[b] = new HashMap<>();
+            } else {
+                buckets[b] = new HashMap<>(buckets[b]);
+                copiedBuckets += 1;
+            }
+            owned[b] = true;
+        }
+        return buckets[b];
+    }
+
+    private int bucketIndex(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        // Use the high bits of a multiplicative hash, leaving the low bits of the keys in a bucket to vary so they
+        // are still spread out within the HashMap of the bucket.
+        return (h * 0x9E3779B9) >>> shift;
+    }
+
+}
@@ -0,0 +1,277 @@
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap that hands out an integer handle for every inserted element. The handle tracks the position of the
+ * element in the heap, so its key can be decreased and the element removed in O(log n) without searching for it.
+ * This allows a search to throw dominated states out of the queue as soon as they are dominated, rather than leaving
+ * them in the queue to be discarded when they are extracted (which is what happens with BinHeap).
+ *
+ * Handles are recycled once their element leaves the heap. Operations that take a handle therefore also take the
+ * element, and do nothing if the handle has since been given to a different element. This means callers can hang on
+ * to stale handles without any risk of removing the wrong element.
+ *
+ * A 4-ary layout is used because it halves the height of the tree compared to a binary heap at the cost of a few
+ * more comparisons per level, which tends to be a win when sifting down is dominated by memory access.
+ */
+public class IndexedDaryHeap<T> {
+
+    /** Never a valid handle. Callers can use it to mark elements that have not been inserted. */
+    public static final int NO_HANDLE = -1;
+
+    private static final int ARITY = 4;
+
+    private static final double GROW_FACTOR = 2.0;
+
+    /** The handle stored at each heap position. */
+    private int[] heap;
+
+    /** The heap position of each handle, or NO_HANDLE if the handle is not in the heap. */
+    private int[] position;
+
+    /** The key of each handle. */
+    private double[] prio;
+
+    /** The element of each handle. */
+    private T[] elem;
+
+    /** Stack of handles that have left the heap and can be given out again. */
+    private int[] freeHandles;
+
+    private int nFree = 0;
+
+    /** Number of handles ever given out (and thus initialized in the per-handle arrays). */
+    private int nHandles = 0;
+
+    private int size = 0;
+
+    private int capacity;
+
+    /* Counters for reporting the work done by the queue. */
+    private long insertCount = 0;
+    private long extractCount = 0;
+    private long removeCount = 0;
+    private long decreaseKeyCount = 0;
+    private int maxSize = 0;
+
+    public IndexedDaryHeap() {
+        this(1000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public IndexedDaryHeap(int capacity) {
+        if (capacity < 10) capacity = 10;
+        this.capacity = capacity;
+        heap = new int[capacity];
+        position = new int[capacity];
+        prio = new double[capacity];
+        elem = (T[]) new Object[capacity]; // erasure voodoo
+        freeHandles = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[heap[0]];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    public T peek_min() {
+        if (size > 0)
+            return elem[heap[0]];
+        else
+            return null;
+    }
+
+    /**
+     * Add an element to the queue with the given key.
+     * @return a handle that can be used to change the key of the element or remove it while it is in the queue.
+     */
+    public int insert(T e, double p) {
+        int handle;
+        if (nFree > 0) {
+            handle = freeHandles[--nFree];
+        } else {
+            if (nHandles == capacity)
+                resize((int) (capacity * GROW_FACTOR));
+            handle = nHandles++;
+        }
+        elem[handle] = e;
+        prio[handle] = p;
+        heap[size] = handle;
+        position[handle] = size;
+        size += 1;
+        siftUp(size - 1);
+        insertCount += 1;
+        if (size > maxSize) maxSize = size;
+        return handle;
+    }
+
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[heap[0]];
+        removeAt(0);
+        extractCount += 1;
+        return minElem;
+    }
+
+    /** @return true if the given handle currently refers to the given element in this queue. */
+    public boolean contains(int handle, T e) {
+        return handle >= 0 && handle < nHandles && position[handle] != NO_HANDLE && elem[handle] == e;
+    }
+
+    /**
+     * Remove an element from the queue.
+     * @return true if the element was in the queue under the given handle and has been removed.
+     */
+    public boolean remove(int handle, T e) {
+        if (!contains(handle, e))
+            return false;
+        removeAt(position[handle]);
+        removeCount += 1;
+        return true;
+    }
+
+    /**
+     * Lower the key of an element in the queue. Does nothing if the handle no longer refers to the element.
+     * @throws IllegalArgumentException if the new key is greater than the current one.
+     */
+    public void decrease_key(int handle, T e, double p) {
+        if (!contains(handle, e))
+            return;
+        if (p > prio[handle])
+            throw new IllegalArgumentException("New key is greater than the current key.");
+        prio[handle] = p;
+        siftUp(position[handle]);
+        decreaseKeyCount += 1;
+    }
+
+    /** Change the key of an element in the queue in either direction. */
+    public void rekey(int handle, T e, double p) {
+        if (!contains(handle, e))
+            return;
+        double oldPrio = prio[handle];
+        prio[handle] = p;
+        if (p < oldPrio) {
+            siftUp(position[handle]);
+        } else {
+            siftDown(position[handle]);
+        }
+    }
+
+    public void reset() {
+        // empties the queue, dropping references to the elements so they can be garbage collected
+        Arrays.fill(elem, 0, nHandles, null);
+        size = 0;
+        nHandles = 0;
+        nFree = 0;
+    }
+
+    public void resize(int capacity) {
+        if (capacity < nHandles)
+            throw new IllegalStateException("IndexedDaryHeap contains too many elements to fit in new capacity.");
+        this.capacity = capacity;
+        heap = Arrays.copyOf(heap, capacity);
+        position = Arrays.copyOf(position, capacity);
+        prio = Arrays.copyOf(prio, capacity);
+        elem = Arrays.copyOf(elem, capacity);
+        freeHandles = Arrays.copyOf(freeHandles, capacity);
+    }
+
+    /** @return the number of elements ever inserted into the queue. */
+    public long getInsertCount() {
+        return insertCount;
+    }
+
+    /** @return the number of elements that came out of the queue through extract_min. */
+    public long getExtractCount() {
+        return extractCount;
+    }
+
+    /** @return the number of elements removed from the queue before reaching the top. */
+    public long getRemoveCount() {
+        return removeCount;
+    }
+
+    /** @return the number of times an element's key was decreased. */
+    public long getDecreaseKeyCount() {
+        return decreaseKeyCount;
+    }
+
+    /** @return the largest number of elements held by the queue at any one time. */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Remove the element at the given heap position, filling the hole with the last element of the heap. */
+    private void removeAt(int i) {
+        int handle = heap[i];
+        size -= 1;
+        position[handle] = NO_HANDLE;
+        elem[handle] = null;
+        freeHandles[nFree++] = handle;
+        if (i == size)
+            return;
+        int last = heap[size];
+        heap[i] = last;
+        position[last] = i;
+        siftDown(i);
+        if (position[last] == i)
+            siftUp(i);
+    }
+
+    private void siftUp(int i) {
+        int handle = heap[i];
+        double p = prio[handle];
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            int parentHandle = heap[parent];
+            if (prio[parentHandle] <= p)
+                break;
+            heap[i] = parentHandle;
+            position[parentHandle] = i;
+            i = parent;
+        }
+        heap[i] = handle;
+        position[handle] = i;
+    }
+
+    private void siftDown(int i) {
+        int handle = heap[i];
+        double p = prio[handle];
+        while (true) {
+            int firstChild = i * ARITY + 1;
+            if (firstChild >= size)
+                break;
+            int lastChild = Math.min(firstChild + ARITY, size);
+            int bestChild = firstChild;
+            double bestPrio = prio[heap[firstChild]];
+            for (int child = firstChild + 1; child < lastChild; child++) {
+                double childPrio = prio[heap[child]];
+                if (childPrio < bestPrio) {
+                    bestChild = child;
+                    bestPrio = childPrio;
+                }
+            }
+            if (bestPrio >= p)
+                break;
+            int childHandle = heap[bestChild];
+            heap[i] = childHandle;
+            position[childHandle] = i;
+            i = bestChild;
+        }
+        heap[i] = handle;
+        position[handle] = i;
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps the street-only base graph built by the OSM, island pruning and elevation modules on disk, under a hash of
+ * everything it is built from: the contents of the OSM and elevation files, the build parameters these modules read,
+ * where the elevation tiles are downloaded from and the version of OTP. When a base graph with the same hash was saved
+ * by an earlier build, the graph builder loads it instead of running these modules again, so a rebuild for a new GTFS
+ * feed only runs the transit modules.
+ *
+ * Only the latest base graph is kept. The builder annotations of the base graph are not saved with it, so they are
+ * only reported by the build which made it.
+ */
+public class BaseGraphCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BaseGraphCache.class);
+
+    private static final String PREFIX = "base-graph-";
+
+    private static final String BUILD_TIME = "buildTimeMillis";
+
+    /**
+     * The build parameters read by the base graph modules. Changing any other parameter does not change the base
+     * graph. The elevation bucket is left out, as only its name matters and it holds credentials.
+     */
+    static final List<String> BASE_GRAPH_PARAMETERS = Arrays.asList("areaVisibility", "platformEntriesLinking",
+            "staticBikeRental", "staticParkAndRide", "staticBikeParkAndRide", "banDiscouragedWalking",
+            "banDiscouragedBiking", "osmNaming", "osmWayPropertySet", "islandWithoutStopsMaxSize",
+            "islandWithStopsMaxSize", "fetchElevationUS", "elevationUnitMultiplier");
+
+    private final File directory;
+
+    private final String key;
+
+    /**
+     * @param directory where to keep the base graph
+     * @param inputs the OSM and elevation files the base graph is built from
+     * @param builderConfig the build configuration
+     * @param elevationSource where the elevation tiles are downloaded from, or null if they are not
+     */
+    public BaseGraphCache(File directory, List<File> inputs, JsonNode builderConfig, String elevationSource) {
+        this.directory = directory;
+        long startTime = System.currentTimeMillis();
+        this.key = computeKey(inputs, builderConfig, elevationSource);
+        LOG.info("Hashed the inputs of the base graph in {} ms: {}", System.currentTimeMillis() - startTime, key);
+    }
+
+    /**
+     * @return a hash of the contents of the input files, in the order given, the base graph parameters of the
+     *         configuration, the elevation source and the OTP version.
+     */
+    static String computeKey(List<File> inputs, JsonNode builderConfig, String elevationSource) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(MavenVersion.VERSION.toStringVerbose(), StandardCharsets.UTF_8);
+        for (String parameter : BASE_GRAPH_PARAMETERS) {
+            String value = builderConfig == null ? "" : builderConfig.path(parameter).toString();
+            hasher.putString(parameter + "=" + value + "\n", StandardCharsets.UTF_8);
+        }
+        hasher.putString(elevationSource == null ? "" : elevationSource, StandardCharsets.UTF_8);
+        for (File input : inputs) {
+            try {
+                hasher.putBytes(Files.asByteSource(input).hash(Hashing.sha256()).asBytes());
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read " + input, e);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private File getGraphFile() {
+        return new File(directory, PREFIX + key + ".obj");
+    }
+
+    private File getPropertiesFile() {
+        return new File(directory, PREFIX + key + ".properties");
+    }
+
+    /** @return the base graph saved for the current inputs, or null if there is none. */
+    public Graph load() {
+        File file = getGraphFile();
+        if (!file.exists()) {
+            LOG.info("No base graph saved for the current inputs in {}.", directory);
+            return null;
+        }
+        try {
+            return Graph.loadForBuilding(file);
+        } catch (Exception e) {
+            LOG.warn("Could not read the saved base graph {}, it will be built again: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /** @return how long it took to build the saved base graph for the current inputs, or -1 if unknown. */
+    public long getBuildTimeMillis() {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(getPropertiesFile())) {
+            properties.load(in);
+            return Long.parseLong(properties.getProperty(BUILD_TIME, "-1"));
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Save the base graph built from the current inputs, with the time it took to build it, and delete those saved for
+     * other inputs. Failing to save the graph only prevents later builds from reusing it.
+     */
+    public void save(Graph graph, long buildTimeMillis) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.warn("Could not create the directory {} to save the base graph.", directory);
+            return;
+        }
+        File file = getGraphFile();
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try {
+            // Write to another file first so that an interrupted build does not leave a partial graph behind.
+            graph.save(tempFile);
+            Properties properties = new Properties();
+            properties.setProperty(BUILD_TIME, Long.toString(buildTimeMillis));
+            try (OutputStream out = new FileOutputStream(getPropertiesFile())) {
+                properties.store(out, "Base graph " + key);
+            }
+            java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            LOG.warn("Could not save the base graph to {}: {}", file, e.toString());
+            tempFile.delete();
+            return;
+        }
+        List<File> stale = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && !name.contains(key));
+        if (files != null) {
+            for (File other : files) {
+                if (!other.delete()) {
+                    stale.add(other);
+                }
+            }
+        }
+        if (!stale.isEmpty()) {
+            LOG.warn("Could not delete the older base graphs {}", stale);
+        }
+    }
+
+}
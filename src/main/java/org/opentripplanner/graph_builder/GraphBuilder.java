@@ -3,10 +3,12 @@ package org.opentripplanner.graph_builder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.ContractionHierarchyModule;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GtfsModule;
 import org.opentripplanner.graph_builder.module.PruneFloatingIslands;
+import org.opentripplanner.graph_builder.module.StopTreeCacheModule;
 import org.opentripplanner.graph_builder.module.StreetLinkerModule;
 import org.opentripplanner.graph_builder.module.TransitToTaggedStopsModule;
 import org.opentripplanner.graph_builder.module.map.BusRouteStreetMatcher;
@@ -35,6 +37,7 @@ import org.slf4j.MDC;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.zip.ZipEntry;
@@ -52,6 +55,11 @@ public class GraphBuilder implements Runnable {
 
     private List<GraphBuilderModule> _graphBuilderModules = new ArrayList<GraphBuilderModule>();
 
+    /** The modules building the street-only base graph, which are not run when it is loaded from the cache. */
+    private List<GraphBuilderModule> _baseGraphModules = new ArrayList<GraphBuilderModule>();
+
+    private BaseGraphCache baseGraphCache = null;
+
     private final File graphFile;
     
     private boolean _alwaysRebuild = true;
@@ -79,6 +87,19 @@ public class GraphBuilder implements Runnable {
         _graphBuilderModules.add(loader);
     }
 
+    /**
+     * Add a module building the base graph, which is run before all the other modules. Unless a base graph cache is
+     * set, this is the same as adding the module first.
+     */
+    public void addBaseModule(GraphBuilderModule loader) {
+        _baseGraphModules.add(loader);
+    }
+
+    /** Load the base graph from this cache when it is saved there, otherwise save it there once it is built. */
+    public void setBaseGraphCache(BaseGraphCache baseGraphCache) {
+        this.baseGraphCache = baseGraphCache;
+    }
+
     public void setGraphBuilders(List<GraphBuilderModule> graphLoaders) {
         _graphBuilderModules = graphLoaders;
     }
@@ -136,13 +157,20 @@ public class GraphBuilder implements Runnable {
         }
 
         // Check all graph builder inputs, and fail fast to avoid waiting until the build process advances.
+        for (GraphBuilderModule builder : _baseGraphModules) {
+            builder.checkInputs();
+        }
         for (GraphBuilderModule builder : _graphBuilderModules) {
             builder.checkInputs();
         }
         
         HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilderModule load : _graphBuilderModules)
-            load.buildGraph(graph, extra);
+        if (baseGraphCache != null) {
+            loadOrBuildBaseGraph(extra);
+        } else {
+            runModules(_baseGraphModules, extra);
+        }
+        runModules(_graphBuilderModules, extra);
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
@@ -159,6 +187,50 @@ public class GraphBuilder implements Runnable {
         LOG.info(String.format("Graph building took %.1f minutes.", (endTime - startTime) / 1000 / 60.0));
     }
 
+    private void runModules(List<GraphBuilderModule> modules, HashMap<Class<?>, Object> extra) {
+        for (GraphBuilderModule load : modules) {
+            long moduleStartTime = System.currentTimeMillis();
+            load.buildGraph(graph, extra);
+            LOG.info(String.format("Ran %s in %.1f s.", load.getClass().getSimpleName(),
+                    (System.currentTimeMillis() - moduleStartTime) / 1000.0));
+        }
+    }
+
+    /** Load the base graph saved for the current inputs, or build it and save it for the next builds. */
+    private void loadOrBuildBaseGraph(HashMap<Class<?>, Object> extra) {
+        long startTime = System.currentTimeMillis();
+        Graph cachedGraph = baseGraphCache.load();
+        if (cachedGraph != null) {
+            cachedGraph.stopClusterMode = graph.stopClusterMode;
+            graph = cachedGraph;
+            long loadTime = System.currentTimeMillis() - startTime;
+            long buildTime = baseGraphCache.getBuildTimeMillis();
+            if (buildTime < 0) {
+                LOG.info(String.format("Reused the base graph instead of running %s: loaded in %.1f s.",
+                        moduleNames(_baseGraphModules), loadTime / 1000.0));
+            } else {
+                LOG.info(String.format("Reused the base graph instead of running %s: loaded in %.1f s, built in " +
+                        "%.1f s, saving %.1f s.", moduleNames(_baseGraphModules), loadTime / 1000.0,
+                        buildTime / 1000.0, (buildTime - loadTime) / 1000.0));
+            }
+        } else {
+            runModules(_baseGraphModules, extra);
+            long buildTime = System.currentTimeMillis() - startTime;
+            baseGraphCache.save(graph, buildTime);
+            LOG.info(String.format("Rebuilt the base graph with %s in %.1f s, saved it in %.1f s.",
+                    moduleNames(_baseGraphModules), buildTime / 1000.0,
+                    (System.currentTimeMillis() - startTime - buildTime) / 1000.0));
+        }
+    }
+
+    private static String moduleNames(List<GraphBuilderModule> modules) {
+        List<String> names = new ArrayList<>();
+        for (GraphBuilderModule module : modules) {
+            names.add(module.getClass().getSimpleName());
+        }
+        return String.join(", ", names);
+    }
+
 
     /**
      * Factory method to create and configure a GraphBuilder with all the appropriate modules to build a graph from
@@ -217,6 +289,25 @@ public class GraphBuilder implements Runnable {
             LOG.error("Found no input files from which to build a graph in {}", dir);
             return null;
         }
+        // The street-only base graph is built by separate modules so that it can be reused when only transit changes.
+        boolean cacheBaseGraph = hasOSM && builderParams.cacheBaseGraph;
+        if (cacheBaseGraph) {
+            List<File> baseInputs = Lists.newArrayList(osmFiles);
+            baseInputs.sort(Comparator.comparing(File::getName));
+            if (demFile != null) {
+                baseInputs.add(demFile);
+            }
+            // The DEM file is hashed with the other inputs, downloaded tiles are identified by where they come from.
+            String elevationSource = null;
+            if (builderParams.elevationBucket != null) {
+                elevationSource = "s3://" + builderParams.elevationBucket.bucketName;
+            } else if (builderParams.fetchElevationUS) {
+                elevationSource = "ned";
+            }
+            File cacheDirectory = new File(new File(params.cacheDirectory, "base-graph"), dir.getName());
+            graphBuilder.setBaseGraphCache(new BaseGraphCache(cacheDirectory, baseInputs, builderConfig,
+                    elevationSource));
+        }
         if ( hasOSM ) {
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
@@ -236,11 +327,11 @@ public class GraphBuilder implements Runnable {
             osmModule.staticParkAndRide = builderParams.staticParkAndRide;
             osmModule.banDiscouragedWalking = builderParams.banDiscouragedWalking;
             osmModule.banDiscouragedBiking = builderParams.banDiscouragedBiking;
-            graphBuilder.addModule(osmModule);
+            graphBuilder.addBaseModule(osmModule);
             PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
             pruneFloatingIslands.setPruningThresholdIslandWithoutStops(builderParams.pruningThresholdIslandWithoutStops);
             pruneFloatingIslands.setPruningThresholdIslandWithStops(builderParams.pruningThresholdIslandWithStops);
-            graphBuilder.addModule(pruneFloatingIslands);
+            graphBuilder.addBaseModule(pruneFloatingIslands);
         }
         if ( hasGTFS ) {
             List<GtfsBundle> gtfsBundles = Lists.newArrayList();
@@ -269,9 +360,12 @@ public class GraphBuilder implements Runnable {
         // which need to be handled even when there's no transit.
         StreetLinkerModule streetLinkerModule = new StreetLinkerModule();
         streetLinkerModule.setAddExtraEdgesToAreas(builderParams.areaVisibility);
+        streetLinkerModule.setBatchLinking(builderParams.batchStopLinking);
         graphBuilder.addModule(streetLinkerModule);
         // Load elevation data and apply it to the streets.
         // We want to do run this module after loading the OSM street network but before finding transfers.
+        // When the base graph is cached it is part of it, and the edges split by linking keep their part of the profile.
+        GraphBuilderModule elevationBuilder = null;
         if (builderParams.elevationBucket != null) {
             // Download the elevation tiles from an Amazon S3 bucket
             S3BucketConfig bucketConfig = builderParams.elevationBucket;
@@ -283,19 +377,27 @@ public class GraphBuilder implements Runnable {
             awsTileSource.awsBucketName = bucketConfig.bucketName;
             NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
             gcf.tileSource = awsTileSource;
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
-            graphBuilder.addModule(elevationBuilder);
+            elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
         } else if (builderParams.fetchElevationUS) {
             // Download the elevation tiles from the official web service
             File cacheDirectory = new File(params.cacheDirectory, "ned");
             ElevationGridCoverageFactory gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
-            graphBuilder.addModule(elevationBuilder);
+            elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
         } else if (demFile != null) {
             // Load the elevation from a file in the graph inputs directory
             ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
-            graphBuilder.addModule(elevationBuilder);
+            elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
+        }
+        if (elevationBuilder != null) {
+            if (cacheBaseGraph) {
+                graphBuilder.addBaseModule(elevationBuilder);
+            } else {
+                graphBuilder.addModule(elevationBuilder);
+            }
+        }
+        if ( hasOSM && builderParams.contractionHierarchies ) {
+            // After linking and elevation, which change the street edges and their weights.
+            graphBuilder.addModule(new ContractionHierarchyModule(routerConfig));
         }
         if ( hasGTFS ) {
             // The stops can be linked to each other once they are already linked to the street network.
@@ -304,6 +406,9 @@ public class GraphBuilder implements Runnable {
                 graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance));
             }
         }
+        if ( hasGTFS && builderParams.stopTreeCache ) {
+            graphBuilder.addModule(new StopTreeCacheModule());
+        }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
         if (builderParams.htmlAnnotations) {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
@@ -23,6 +23,7 @@ import org.opentripplanner.graph_builder.services.DefaultStreetEdgeFactory;
 import org.opentripplanner.graph_builder.services.StreetEdgeFactory;
 import org.opentripplanner.openstreetmap.model.OSMWithTags;
 import org.opentripplanner.graph_builder.annotation.StopLinkedTooFar;
+import org.opentripplanner.routing.core.MortonVertexComparator;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
@@ -142,22 +143,161 @@ public class SimpleStreetSplitter {
     /** Link all relevant vertices to the street network */
     public void link () {	
         for (Vertex v : graph.getVertices()) {
-            if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex) {
-                boolean alreadyLinked = v.getOutgoing().stream().anyMatch(e -> e instanceof StreetTransitLink);
-                if (alreadyLinked) continue;
-
+            if (isUnlinked(v)) {
                 if (!link(v)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+                    annotateUnlinked(v);
                 };
             }
         }
     }
 
+    /** @return whether the vertex is one of those linked by {@link #link()} and is not linked yet. */
+    private static boolean isUnlinked(Vertex v) {
+        if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex) {
+            return v.getOutgoing().stream().noneMatch(e -> e instanceof StreetTransitLink);
+        }
+        return false;
+    }
+
+    private void annotateUnlinked(Vertex v) {
+        if (v instanceof TransitStop)
+            LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+        else if (v instanceof BikeRentalStationVertex)
+            LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+        else if (v instanceof BikeParkVertex)
+            LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+    }
+
+    /**
+     * Link all relevant vertices to the street network like {@link #link()}, but all at once. The vertices are sorted
+     * along a space-filling curve, and the edges each of them links to are found in parallel in the unsplit street
+     * network. The edges are then split on a single thread: all the vertices linking to the same edge split it in one
+     * pass, in order along the edge, rather than each vertex splitting a piece left by the previous one. Vertices
+     * linking to the same point share a splitter vertex.
+     *
+     * As each vertex only sees the original edges, a vertex very close to the split point of another one gets its own
+     * splitter vertex where {@link #link()} would link it to the existing one, which is the only difference in the
+     * resulting graph apart from the order of the edges.
+     */
+    public void linkInBatch() {
+        if (!destructiveSplitting) {
+            throw new RuntimeException("Batch linking is used with non destructive splitting. Something is wrong!");
+        }
+        long startTime = System.currentTimeMillis();
+        List<Vertex> vertices = graph.getVertices().stream()
+                .filter(SimpleStreetSplitter::isUnlinked)
+                .collect(Collectors.toList());
+        if (vertices.isEmpty()) {
+            return;
+        }
+        vertices.sort(new MortonVertexComparator(vertices));
+
+        // Find the link points of all vertices in parallel, reading the graph and the index only.
+        TraverseModeSet traverseModeSet = traverseModeSet(TraverseMode.WALK);
+        List<Linkage> linkages = vertices.parallelStream()
+                .map(v -> findLinkPoints(v, traverseModeSet))
+                .collect(Collectors.toList());
+        long splitStart = System.currentTimeMillis();
+
+        // Link the vertices at the ends of edges, and group the split points by edge in the order of the vertices.
+        Map<StreetEdge, List<LinkPoint>> splitsByEdge = new LinkedHashMap<>();
+        int nUnlinked = 0;
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex vertex = vertices.get(i);
+            Linkage linkage = linkages.get(i);
+            if (linkage.points.isEmpty()) {
+                annotateUnlinked(vertex);
+                nUnlinked++;
+                continue;
+            }
+            for (LinkPoint point : linkage.points) {
+                if (point.endpoint != null) {
+                    makeLinkEdges(vertex, point.endpoint);
+                } else {
+                    splitsByEdge.computeIfAbsent(point.edge, e -> new ArrayList<>()).add(point);
+                }
+            }
+            // Warn if a linkage was made, but the linkage was suspiciously long.
+            if (vertex instanceof TransitStop) {
+                int distanceMeters = (int) SphericalDistanceLibrary.degreesLatitudeToMeters(linkage.distance);
+                if (distanceMeters > WARNING_DISTANCE_METERS) {
+                    graph.addBuilderAnnotation(new StopLinkedTooFar((TransitStop) vertex, distanceMeters));
+                }
+            }
+        }
+        for (Map.Entry<StreetEdge, List<LinkPoint>> entry : splitsByEdge.entrySet()) {
+            splitAndLink(entry.getKey(), entry.getValue());
+        }
+        LOG.info("Linked {} vertices in {} ms: found their link points in {} ms, split {} edges in {} ms. {} vertices " +
+                "could not be linked.", vertices.size(), System.currentTimeMillis() - startTime, splitStart - startTime,
+                splitsByEdge.size(), System.currentTimeMillis() - splitStart, nUnlinked);
+    }
+
+    /** Where a vertex is linked to the closest edges, found by {@link #findLinkPoints(Vertex, TraverseModeSet)}. */
+    private static class Linkage {
+        /** Empty if there are no edges close enough. */
+        final List<LinkPoint> points;
+        /** The distance to the closest edge in degrees latitude. */
+        final double distance;
+
+        Linkage(List<LinkPoint> points, double distance) {
+            this.points = points;
+            this.distance = distance;
+        }
+    }
+
+    /** Find where to link the vertex to the closest walkable edges, without changing the graph. */
+    private Linkage findLinkPoints(Vertex vertex, TraverseModeSet traverseModeSet) {
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        Envelope env = new Envelope(vertex.getCoordinate());
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        env.expandBy(radiusDeg / xscale, radiusDeg);
+
+        final TIntDoubleMap distances = new TIntDoubleHashMap();
+        List<StreetEdge> candidateEdges = findCandidateEdges(vertex, env, traverseModeSet, xscale, distances);
+        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+            return new Linkage(Collections.emptyList(), Double.NaN);
+        }
+        List<LinkPoint> points = new ArrayList<>();
+        for (StreetEdge edge : bestEdges(candidateEdges, distances)) {
+            points.add(locate(vertex, edge, xscale));
+        }
+        return new Linkage(points, distances.get(candidateEdges.get(0).getId()));
+    }
+
+    /**
+     * Split the edge at all the given points in one pass, in order along the edge, and link the vertex of each point
+     * to its splitter vertex. Only the final pieces of the edge are added to the index.
+     */
+    private void splitAndLink(StreetEdge edge, List<LinkPoint> points) {
+        points.sort(Comparator.comparing(point -> point.location));
+        LineString geometry = edge.getGeometry();
+        StreetEdge rest = edge;
+        SplitterVertex previous = null;
+        for (LinkPoint point : points) {
+            Coordinate splitPoint = point.location.getCoordinate(geometry);
+            if (previous != null && previous.getCoordinate().equals2D(splitPoint)) {
+                makeLinkEdges(point.vertex, previous);
+                continue;
+            }
+            // the rest of the edge is a new edge each time, so this is a valid label
+            SplitterVertex v = new SplitterVertex(graph, "split from " + rest.getId(), splitPoint.x, splitPoint.y, rest);
+            P2<StreetEdge> edges = rest.split(v, true);
+            rest.getToVertex().removeIncoming(rest);
+            rest.getFromVertex().removeOutgoing(rest);
+            idx.insert(edges.first.getGeometry(), edges.first);
+            rest = edges.second;
+            makeLinkEdges(point.vertex, v);
+            // If splitter vertex is part of area; link splittervertex to all other vertexes in area, this creates
+            // edges that were missed by WalkableAreaBuilder
+            if (edge instanceof AreaEdge && point.vertex instanceof TransitStop && this.addExtraEdgesToAreas) {
+                linkTransitToAreaVertices(v, ((AreaEdge) edge).getArea());
+            }
+            previous = v;
+        }
+        idx.insert(rest.getGeometry(), rest);
+    }
+
     /** Link this vertex into the graph to the closest walkable edge */
     public boolean link (Vertex vertex) {
         return link(vertex, TraverseMode.WALK, null);
@@ -181,55 +321,11 @@ public class SimpleStreetSplitter {
 
         final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
 
-        final TraverseModeSet traverseModeSet;
-        if (traverseMode == TraverseMode.BICYCLE) {
-            traverseModeSet = new TraverseModeSet(traverseMode, TraverseMode.WALK);
-        } else {
-            traverseModeSet = new TraverseModeSet(traverseMode);
-        }
-
-        List<StreetEdge> walkableEdges = idx.query(env).stream()
-                .filter(streetEdge -> streetEdge instanceof StreetEdge)
-                .map(edge -> (StreetEdge) edge)
-                // note: not filtering by radius here as distance calculation is expensive
-                // we do that below.
-                .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                        // only link to edges still in the graph.
-                        edge.getToVertex().getIncoming().contains(edge))
-                .collect(Collectors.toList());
-
-        Stream<StreetEdge> edgeStream = walkableEdges.stream();
-        if (vertex instanceof TransitStop) {
-            String code = ((TransitStop)vertex).getStopCode();
-            Optional<StreetEdge> hasMatchingEdges = walkableEdges.stream().filter(edge -> edgeStopCodeEquals(code, edge)).findAny();
-            if (hasMatchingEdges.isPresent()) {
-                edgeStream = edgeStream.filter(edge -> edgeStopCodeEquals(code, edge));
-            }
-        }
-
-        // We sort the list of candidate edges by distance to the stop
-        // This should remove any issues with things coming out of the spatial index in different orders
-        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
-        // so that we capture back edges and duplicate ways.
-        List<StreetEdge> candidateEdges = edgeStream
-            .collect(Collectors.toList());
+        final TraverseModeSet traverseModeSet = traverseModeSet(traverseMode);
 
         // Make a map of distances to all edges.
         final TIntDoubleMap distances = new TIntDoubleHashMap();
-        for (StreetEdge e : candidateEdges) {
-            distances.put(e.getId(), distance(vertex, e, xscale));
-        }
-
-        // Sort the list.
-        Collections.sort(candidateEdges, (o1, o2) -> {
-            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
-            // A Comparator must return an integer but our distances are doubles.
-            if (diff < 0)
-                return -1;
-            if (diff > 0)
-                return 1;
-            return 0;
-        });
+        List<StreetEdge> candidateEdges = findCandidateEdges(vertex, env, traverseModeSet, xscale, distances);
 
         // find the closest candidate edges
         if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
@@ -285,21 +381,7 @@ public class SimpleStreetSplitter {
             }
         } else {
 
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
-
-            for (StreetEdge edge : bestEdges) {
+            for (StreetEdge edge : bestEdges(candidateEdges, distances)) {
                 link(vertex, edge, xscale, options);
             }
 
@@ -317,6 +399,85 @@ public class SimpleStreetSplitter {
         }
     }
 
+    private static TraverseModeSet traverseModeSet(TraverseMode traverseMode) {
+        if (traverseMode == TraverseMode.BICYCLE) {
+            return new TraverseModeSet(traverseMode, TraverseMode.WALK);
+        } else {
+            return new TraverseModeSet(traverseMode);
+        }
+    }
+
+    /**
+     * Find the street edges near the vertex which can be traversed in the given modes, sorted by distance to the
+     * vertex. If the vertex is a transit stop and some of the edges have its stop code, only those are returned.
+     * Only reads the graph and the spatial index.
+     *
+     * @param distances filled with the distance to each edge in degrees latitude, by edge id
+     */
+    private List<StreetEdge> findCandidateEdges(Vertex vertex, Envelope env, TraverseModeSet traverseModeSet,
+            double xscale, TIntDoubleMap distances) {
+        List<StreetEdge> walkableEdges = idx.query(env).stream()
+                .filter(streetEdge -> streetEdge instanceof StreetEdge)
+                .map(edge -> (StreetEdge) edge)
+                // note: not filtering by radius here as distance calculation is expensive
+                // we do that below.
+                .filter(edge -> edge.canTraverse(traverseModeSet) &&
+                        // only link to edges still in the graph.
+                        edge.getToVertex().getIncoming().contains(edge))
+                .collect(Collectors.toList());
+
+        Stream<StreetEdge> edgeStream = walkableEdges.stream();
+        if (vertex instanceof TransitStop) {
+            String code = ((TransitStop)vertex).getStopCode();
+            Optional<StreetEdge> hasMatchingEdges = walkableEdges.stream().filter(edge -> edgeStopCodeEquals(code, edge)).findAny();
+            if (hasMatchingEdges.isPresent()) {
+                edgeStream = edgeStream.filter(edge -> edgeStopCodeEquals(code, edge));
+            }
+        }
+
+        // We sort the list of candidate edges by distance to the stop
+        // This should remove any issues with things coming out of the spatial index in different orders
+        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
+        // so that we capture back edges and duplicate ways.
+        List<StreetEdge> candidateEdges = edgeStream
+            .collect(Collectors.toList());
+
+        for (StreetEdge e : candidateEdges) {
+            distances.put(e.getId(), distance(vertex, e, xscale));
+        }
+
+        // Sort the list.
+        Collections.sort(candidateEdges, (o1, o2) -> {
+            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
+            // A Comparator must return an integer but our distances are doubles.
+            if (diff < 0)
+                return -1;
+            if (diff > 0)
+                return 1;
+            return 0;
+        });
+
+        return candidateEdges;
+    }
+
+    /**
+     * Return the closest candidate edge and those following it until there is a break of epsilon meters.
+     * We do this to enforce determinism. If there are a lot of edges that are all extremely close to each other,
+     * we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+     * fall just inside or beyond the cutoff depending on floating-point operations.
+     */
+    private static List<StreetEdge> bestEdges(List<StreetEdge> candidateEdges, TIntDoubleMap distances) {
+        final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+        List<StreetEdge> bestEdges = Lists.newArrayList();
+        int i = 0;
+        do {
+            bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
+        return bestEdges;
+    }
+
     private static boolean edgeStopCodeEquals(String code, StreetEdge edge) {
         return edge.getRef() != null && edge.getRef().equals(code);
     }
@@ -345,28 +506,9 @@ public class SimpleStreetSplitter {
 
     /** split the edge and link in the transit stop */
     private void link(Vertex tstop, StreetEdge edge, double xscale, RoutingRequest options) {
-        // TODO: we've already built this line string, we should save it
-        LineString orig = edge.getGeometry();
-        LineString transformed = equirectangularProject(orig, xscale);
-        LocationIndexedLine il = new LocationIndexedLine(transformed);
-        LinearLocation ll = il.project(new Coordinate(tstop.getLon() * xscale, tstop.getLat()));
-
-        // if we're very close to one end of the line or the other, or endwise, don't bother to split,
-        // cut to the chase and link directly
-        // We use a really tiny epsilon here because we only want points that actually snap to exactly the same location on the
-        // street to use the same vertices. Otherwise the order the stops are loaded in will affect where they are snapped.
-        if (ll.getSegmentIndex() == 0 && ll.getSegmentFraction() < 1e-8) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getFromVertex());
-        }
-        // -1 converts from count to index. Because of the fencepost problem, npoints - 1 is the "segment"
-        // past the last point
-        else if (ll.getSegmentIndex() == orig.getNumPoints() - 1) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getToVertex());
-        }
-
-        // nPoints - 2: -1 to correct for index vs count, -1 to account for fencepost problem
-        else if (ll.getSegmentIndex() == orig.getNumPoints() - 2 && ll.getSegmentFraction() > 1 - 1e-8) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getToVertex());
+        LinkPoint point = locate(tstop, edge, xscale);
+        if (point.endpoint != null) {
+            makeLinkEdges(tstop, point.endpoint);
         }
 
         else {
@@ -386,7 +528,7 @@ public class SimpleStreetSplitter {
                 options.canSplitEdge(edge);
             }
             // split the edge, get the split vertex
-            SplitterVertex v0 = split(edge, ll, temporaryVertex != null, endVertex);
+            SplitterVertex v0 = split(edge, point.location, temporaryVertex != null, endVertex);
             makeLinkEdges(tstop, v0);
 
             // If splitter vertex is part of area; link splittervertex to all other vertexes in area, this creates
@@ -397,6 +539,51 @@ public class SimpleStreetSplitter {
         }
     }
 
+    /** Where a vertex is linked to an edge: either one of the ends of the edge, or a point at which to split it. */
+    private static class LinkPoint {
+        final Vertex vertex;
+        final StreetEdge edge;
+        /** The vertex to link to if it is at one end of the edge, otherwise null. */
+        final StreetVertex endpoint;
+        /** The location of the split along the edge if the vertex is not linked to one of its ends. */
+        final LinearLocation location;
+
+        LinkPoint(Vertex vertex, StreetEdge edge, StreetVertex endpoint, LinearLocation location) {
+            this.vertex = vertex;
+            this.edge = edge;
+            this.endpoint = endpoint;
+            this.location = location;
+        }
+    }
+
+    /** Find where the vertex should be linked to the edge. Only reads the edge. */
+    private static LinkPoint locate(Vertex tstop, StreetEdge edge, double xscale) {
+        // TODO: we've already built this line string, we should save it
+        LineString orig = edge.getGeometry();
+        LineString transformed = equirectangularProject(orig, xscale);
+        LocationIndexedLine il = new LocationIndexedLine(transformed);
+        LinearLocation ll = il.project(new Coordinate(tstop.getLon() * xscale, tstop.getLat()));
+
+        // if we're very close to one end of the line or the other, or endwise, don't bother to split,
+        // cut to the chase and link directly
+        // We use a really tiny epsilon here because we only want points that actually snap to exactly the same location on the
+        // street to use the same vertices. Otherwise the order the stops are loaded in will affect where they are snapped.
+        if (ll.getSegmentIndex() == 0 && ll.getSegmentFraction() < 1e-8) {
+            return new LinkPoint(tstop, edge, (StreetVertex) edge.getFromVertex(), null);
+        }
+        // -1 converts from count to index. Because of the fencepost problem, npoints - 1 is the "segment"
+        // past the last point
+        else if (ll.getSegmentIndex() == orig.getNumPoints() - 1) {
+            return new LinkPoint(tstop, edge, (StreetVertex) edge.getToVertex(), null);
+        }
+
+        // nPoints - 2: -1 to correct for index vs count, -1 to account for fencepost problem
+        else if (ll.getSegmentIndex() == orig.getNumPoints() - 2 && ll.getSegmentFraction() > 1 - 1e-8) {
+            return new LinkPoint(tstop, edge, (StreetVertex) edge.getToVertex(), null);
+        }
+
+        return new LinkPoint(tstop, edge, null, ll);
+    }
 
     /**
      * Split the street edge at the given fraction
@@ -435,6 +622,9 @@ public class SimpleStreetSplitter {
             // remove original edge from the graph
             edge.getToVertex().removeIncoming(edge);
             edge.getFromVertex().removeOutgoing(edge);
+
+            // the cached street searches do not know the new vertex
+            graph.invalidateStreetSearchCache();
         }
 
         return v;
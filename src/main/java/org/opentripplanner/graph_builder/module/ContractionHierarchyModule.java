@@ -0,0 +1,70 @@
+package org.opentripplanner.graph_builder.module;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.reflect.ReflectiveInitializer;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchyBuilder;
+import org.opentripplanner.routing.contraction.ContractionHierarchyService;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+
+/**
+ * Builds contraction hierarchies of the street network for driving and cycling, which GraphPathFinder then uses to
+ * answer street searches without transit. A hierarchy is only valid for the weights it was built with, so they are
+ * built with the routing defaults of the router config, which requests not overriding any street parameter share.
+ * Hierarchies do not model turn costs, so they are only built if these defaults set turnReluctance to zero.
+ */
+public class ContractionHierarchyModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyModule.class);
+
+    private final JsonNode routerConfig;
+
+    public ContractionHierarchyModule(JsonNode routerConfig) {
+        this.routerConfig = routerConfig;
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        long startTime = System.currentTimeMillis();
+        if (routingDefaults().turnReluctance != 0) {
+            LOG.warn("Not building contraction hierarchies, they are only used without turn costs. "
+                    + "Set turnReluctance to 0 in the routing defaults of the router config to use them.");
+            return;
+        }
+        ContractionHierarchyService service = new ContractionHierarchyService();
+        for (TraverseMode mode : new TraverseMode[] { TraverseMode.CAR, TraverseMode.BICYCLE }) {
+            RoutingRequest options = routingDefaults();
+            options.setMode(mode);
+            ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(graph, options).build();
+            service.addHierarchy(hierarchy);
+            if (options.rctx != null) {
+                options.cleanup();
+            }
+        }
+        graph.putService(ContractionHierarchyService.class, service);
+        LOG.info("Built {} contraction hierarchies in {} s.", service.getHierarchies().size(),
+                (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    private RoutingRequest routingDefaults() {
+        JsonNode routingDefaults = routerConfig == null ? null : routerConfig.get("routingDefaults");
+        if (routingDefaults == null) {
+            return new RoutingRequest();
+        }
+        ReflectiveInitializer<RoutingRequest> scraper = new ReflectiveInitializer<>(RoutingRequest.class);
+        return scraper.scrape(routingDefaults);
+    }
+
+    @Override
+    public void checkInputs() {
+        // Nothing to check, the hierarchies are built from the streets already in the graph.
+    }
+
+}
@@ -12,11 +12,15 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -25,14 +29,24 @@ import java.util.Set;
  * It will use the street network if OSM data has already been loaded into the graph.
  * Otherwise it will use straight-line distance between stops.
  *
+ * The nearby stops of all the stops are searched in parallel, in a few chunks of stops per processor each with its own
+ * NearbyStopFinder. Then the transfers are created on a single thread, stop after stop and in order of destination
+ * stop, so that the graph is the same from one build to the next.
+ *
  * TODO make tests for this that are sensitive to the presence of trip patterns
  */
 public class DirectTransferGenerator implements GraphBuilderModule {
 
     private static Logger LOG = LoggerFactory.getLogger(DirectTransferGenerator.class);
 
+    /** The stops are searched in this many chunks per processor, to even out the work of the threads. */
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
     final double radiusMeters;
 
+    /** Search for the nearby stops of several stops at once. */
+    private boolean parallel = true;
+
     public List<String> provides() {
         return Arrays.asList("linking");
     }
@@ -45,6 +59,10 @@ public class DirectTransferGenerator implements GraphBuilderModule {
         this.radiusMeters = radiusMeters;
     }
 
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         /* Initialize graph index which is needed by the nearby stop finder. */
@@ -60,34 +78,41 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> stops = new ArrayList<>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            if (ts0.isStreetLinkable()) stops.add(ts0);
+        }
+        // Initialize the time zone before the searches set up their routing contexts from several threads.
+        graph.getTimeZone();
+
+        long searchStart = System.currentTimeMillis();
+        // The street search of a finder is as large as the graph and reused from one stop to the next, so each chunk
+        // of stops is searched in turn with its own copy of the finder, which is dropped once the chunk is done.
+        int nStops = stops.size();
+        int nChunks = Math.min(nStops,
+                parallel ? Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR : 1);
+        // The results are stored in the order of the stops, whichever thread found them.
+        List<List<NearbyStopFinder.StopAtDistance>> transfers = new ArrayList<>(Collections.nCopies(nStops, null));
+        IntStream chunks = IntStream.range(0, nChunks);
+        (parallel ? chunks.parallel() : chunks).forEach(chunk -> {
+            NearbyStopFinder chunkFinder = nChunks == 1 ? nearbyStopFinder : nearbyStopFinder.copy();
+            for (int i = chunk * nStops / nChunks; i < (chunk + 1) * nStops / nChunks; i++) {
+                transfers.set(i, findTransfers(chunkFinder, stops.get(i)));
+            }
+        });
+        long applyStart = System.currentTimeMillis();
 
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
+        int nTransfersTotal = 0;
+        int nLinkableStops = 0;
+        for (int i = 0; i < stops.size(); i++) {
+            TransitStop ts0 = stops.get(i);
             if (++nLinkableStops % 1000 == 0) {
                 LOG.info("Linked {} stops", nLinkableStops);
             }
             LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
-
-            /* Determine the set of stops that are already reachable via other pathways or transfers */
-            Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
-            for (Edge e : ts0.getOutgoing()) {
-                if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
-                    if (e.getToVertex() instanceof TransitStop) {
-                        TransitStop to = (TransitStop) e.getToVertex();
-                        pathwayDestinations.add(to);
-                    }
-                }
-            }
-
-            /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
             int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
-                /* Skip the origin stop, loop transfers are not needed. */
-                if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+            for (NearbyStopFinder.StopAtDistance sd : transfers.get(i)) {
                 new SimpleTransfer(ts0, sd);
                 n += 1;
             }
@@ -97,10 +122,46 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             }
             nTransfersTotal += n;
         }
+        LOG.info("Found the nearby stops of {} stops in {} ms ({}), created the transfers in {} ms.", stops.size(),
+                applyStart - searchStart, parallel ? "parallel" : "serial", System.currentTimeMillis() - applyStart);
         LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, nLinkableStops);
         graph.hasDirectTransfers = true;
     }
 
+    /**
+     * Find the stops to make transfers to from the given stop: each nearby stop that is the closest stop on some trip
+     * pattern, except the stop itself and the stops already reachable through pathways or transfers. Only reads the
+     * graph, so that it can run on several stops at once with a NearbyStopFinder each.
+     *
+     * @return the destinations of the transfers, sorted by stop vertex index so that the edges are always created in
+     * the same order.
+     */
+    private static List<NearbyStopFinder.StopAtDistance> findTransfers(NearbyStopFinder nearbyStopFinder,
+            TransitStop ts0) {
+        /* Determine the set of stops that are already reachable via other pathways or transfers */
+        Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
+        for (Edge e : ts0.getOutgoing()) {
+            if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
+                if (e.getToVertex() instanceof TransitStop) {
+                    TransitStop to = (TransitStop) e.getToVertex();
+                    pathwayDestinations.add(to);
+                }
+            }
+        }
+
+        /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
+        List<NearbyStopFinder.StopAtDistance> transfers = new ArrayList<>();
+        for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            /* Skip the origin stop, loop transfers are not needed. */
+            if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+            transfers.add(sd);
+        }
+        transfers.sort(Comparator.<NearbyStopFinder.StopAtDistance>comparingInt(sd -> sd.tstop.getIndex())
+                .thenComparing(sd -> sd.isWheelchairAccessible)
+                .thenComparingDouble(sd -> sd.dist));
+        return transfers;
+    }
+
     @Override
     public void checkInputs() {
         // No inputs
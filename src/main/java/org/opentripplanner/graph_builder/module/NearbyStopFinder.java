@@ -11,7 +11,7 @@ import org.opentripplanner.api.resource.SimpleIsochrone;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
-import org.opentripplanner.routing.algorithm.EarliestArrivalSearch;
+import org.opentripplanner.routing.algorithm.StreetDistanceSearch;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -23,7 +23,6 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.spt.GraphPath;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +34,9 @@ import java.util.*;
  * Ideally they could also be used in long distance mode and profile routing for the street segments.
  * For each stop, it finds the closest stops on all other patterns. This reduces the number of transfer edges
  * significantly compared to simple radius-constrained all-to-all stop linkage.
+ *
+ * A NearbyStopFinder reuses its street search from one origin to the next, so it must only be used by one thread at a
+ * time. To search from several threads, give each its own copy, see {@link #copy()}.
  */
 public class NearbyStopFinder {
 
@@ -45,8 +47,8 @@ public class NearbyStopFinder {
     private Graph graph;
     private double radiusMeters;
 
-    /* Fields used when finding stops via the street network. */
-    private EarliestArrivalSearch earliestArrivalSearch;
+    /* Fields used when finding stops via the street network. The search state is as large as the graph. */
+    private StreetDistanceSearch streetSearch;
 
     /* Fields used when finding stops without a street network. */
     private StreetVertexIndexService streetIndex;
@@ -68,17 +70,39 @@ public class NearbyStopFinder {
         this.useStreets = useStreets;
         this.radiusMeters = radiusMeters;
         if (useStreets) {
-            earliestArrivalSearch = new EarliestArrivalSearch();
-            // We need to accommodate straight line distance (in meters) but when streets are present we use an
-            // earliest arrival search, which optimizes on time. Ideally we'd specify in meters,
-            // but we don't have much of a choice here. Use the default walking speed to convert.
-            earliestArrivalSearch.maxDuration = (int) (radiusMeters / new RoutingRequest().walkSpeed);
+            streetSearch = newStreetSearch();
         } else {
             // FIXME use the vertex index already in the graph if it exists.
             streetIndex = new StreetVertexIndexServiceImpl(graph);
         }
     }
 
+    private NearbyStopFinder(NearbyStopFinder other) {
+        this.graph = other.graph;
+        this.useStreets = other.useStreets;
+        this.radiusMeters = other.radiusMeters;
+        this.streetIndex = other.streetIndex;
+        if (useStreets) {
+            streetSearch = newStreetSearch();
+        }
+    }
+
+    /**
+     * @return a NearbyStopFinder for the same graph and search radius with its own street search, to be used by
+     *         another thread. The straight-line index, which is only read, is shared.
+     */
+    public NearbyStopFinder copy() {
+        return new NearbyStopFinder(this);
+    }
+
+    private StreetDistanceSearch newStreetSearch() {
+        // The street search optimizes on distance and keeps its labels in primitive arrays, so it is reused across
+        // origins and the radius can be applied directly in meters.
+        StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK);
+        search.maxDistanceMeters = radiusMeters;
+        return search;
+    }
+
     /**
      * Find all unique nearby stops that are the closest stop on some trip pattern.
      * Note that the result will include the origin vertex if it is an instance of TransitStop.
@@ -136,40 +160,33 @@ public class NearbyStopFinder {
         wheelchairAccessibleRoutingRequest.clampInitialWait = (0L);
         wheelchairAccessibleRoutingRequest.setRoutingContext(graph, originVertex, null);
 
-        ShortestPathTree spt = earliestArrivalSearch.getShortestPathTree(routingRequest);
-
         List<StopAtDistance> stopsFound = Lists.newArrayList();
         Set<Vertex> nonWheelchairRoutable = new HashSet<Vertex>();
 
-        if (spt != null) {
-            // TODO use GenericAStar and a traverseVisitor? Add an earliestArrival switch to genericAStar?
-            for (State state : spt.getAllStates()) {
-                Vertex targetVertex = state.getVertex();
-                if (targetVertex == originVertex) continue;
-                if (targetVertex instanceof TransitStop) {
-                    StopAtDistance sd = stopAtDistanceForState(state, wheelchairAccessibleRoutingRequest);
-                    if (!sd.isWheelchairAccessible) {
-                        nonWheelchairRoutable.add(targetVertex);
-                    }
-                    stopsFound.add(sd);
+        // States are only rebuilt for the transit stops that were reached, not for every street vertex.
+        streetSearch.search(originVertex, routingRequest);
+        for (int i = 0; i < streetSearch.getReachedCount(); i++) {
+            Vertex targetVertex = streetSearch.getReachedVertex(i);
+            if (targetVertex == originVertex) continue;
+            if (targetVertex instanceof TransitStop) {
+                State state = streetSearch.getState(targetVertex);
+                if (state == null) continue;
+                StopAtDistance sd = stopAtDistanceForState(state, wheelchairAccessibleRoutingRequest);
+                if (!sd.isWheelchairAccessible) {
+                    nonWheelchairRoutable.add(targetVertex);
                 }
+                stopsFound.add(sd);
             }
         }
 
         if (nonWheelchairRoutable.size() > 0) {
             /** second iteration, find wheelchair accessible routes **/
-            spt = earliestArrivalSearch.getShortestPathTree(wheelchairAccessibleRoutingRequest);
-
-            if (spt != null) {
-                for (State state : spt.getAllStates()) {
-                    Vertex targetVertex = state.getVertex();
-                    if (targetVertex == originVertex) continue;
-                    if (!nonWheelchairRoutable.contains(targetVertex)) continue;
-                    if (targetVertex instanceof TransitStop) {
-                        StopAtDistance sd = stopAtDistanceForState(state, wheelchairAccessibleRoutingRequest);
-                        stopsFound.add(sd);
-                    }
-                }
+            streetSearch.search(originVertex, wheelchairAccessibleRoutingRequest);
+            for (Vertex targetVertex : nonWheelchairRoutable) {
+                State state = streetSearch.getState(targetVertex);
+                if (state == null) continue;
+                StopAtDistance sd = stopAtDistanceForState(state, wheelchairAccessibleRoutingRequest);
+                stopsFound.add(sd);
             }
         }
 
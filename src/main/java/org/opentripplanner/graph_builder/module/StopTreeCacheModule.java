@@ -0,0 +1,33 @@
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+
+/**
+ * Computes the walk distances from every transit stop to the nearby street vertices used by analyst requests and saves
+ * them with the graph, so that servers do not have to compute them on the first such request after each startup.
+ * This must run after the stops are linked to the streets.
+ */
+public class StopTreeCacheModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StopTreeCacheModule.class);
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        long startTime = System.currentTimeMillis();
+        graph.putService(StopTreeCache.class, new StopTreeCache(graph, GraphIndex.MAX_WALK_METERS));
+        LOG.info("Built stop tree cache in {} s.", (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    @Override
+    public void checkInputs() {
+        // Nothing to check, the distances are computed on the streets and stops already in the graph.
+    }
+
+}
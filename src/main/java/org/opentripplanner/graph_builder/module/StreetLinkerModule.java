@@ -30,6 +30,13 @@ public class StreetLinkerModule implements GraphBuilderModule {
 
     private Boolean addExtraEdgesToAreas = true;
 
+    /** Whether to link everything at once with {@link SimpleStreetSplitter#linkInBatch()}. */
+    private boolean batchLinking = false;
+
+    public void setBatchLinking(boolean batchLinking) {
+        this.batchLinking = batchLinking;
+    }
+
     public List<String> provides() {
         return Arrays.asList("street to transit", "linking");
     }
@@ -46,7 +53,11 @@ public class StreetLinkerModule implements GraphBuilderModule {
             LOG.info("Linking transit stops, bike rental stations, bike parking areas, and park-and-rides to graph . . .");
             SimpleStreetSplitter linker = new SimpleStreetSplitter(graph);
             linker.setAddExtraEdgesToAreas(this.addExtraEdgesToAreas);
-            linker.link();
+            if (batchLinking) {
+                linker.linkInBatch();
+            } else {
+                linker.link();
+            }
         }
         //Calculates convex hull of a graph which is shown in routerInfo API point
         graph.calculateConvexHull();
@@ -27,8 +27,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} plugin that applies elevation data to street data that has already
@@ -39,6 +40,10 @@ import java.util.List;
  * where each (x,y) pair represents one sample, with the x-coord representing the distance along
  * the edge measured from the start, and the y-coord representing the sampled elevation at that
  * point (both in meters).
+ *
+ * When the DEM can be read directly (see {@link TiledElevationSampler}), the edges are grouped by location and their
+ * profiles sampled in parallel, each group from the few DEM tiles it covers. Each profile is set on its edge by the
+ * task which sampled it; the builder annotations of the flattened profiles are added afterwards, in edge order.
  */
 public class ElevationModule implements GraphBuilderModule {
 
@@ -48,9 +53,24 @@ public class ElevationModule implements GraphBuilderModule {
 
     private Coverage coverage;
 
+    /** Reads the DEM directly when sampling in parallel, null when the coverage is evaluated by GeoTools. */
+    private TiledElevationSampler sampler;
+
+    /** Read the DEM directly and sample in parallel when the coverage allows it. */
+    private boolean tiledSampling = true;
+
+    /** The DEM tile cache takes at most this fraction of the maximum heap size, unless tiles are very large. */
+    private static final int TILE_CACHE_HEAP_FRACTION = 8;
+
+    /** The size in degrees of the cells by which edges are grouped before sampling. */
+    private static final double CELL_SIZE_DEGREES = 0.05;
+
+    /** The number of edges sampled by each parallel task, taken in cell order. */
+    private static final int EDGES_PER_TASK = 1000;
+
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings.
-    private int nPointsEvaluated = 0;
-    private int nPointsOutsideDEM = 0;
+    private final LongAdder nPointsEvaluated = new LongAdder();
+    private final LongAdder nPointsOutsideDEM = new LongAdder();
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -89,6 +109,14 @@ public class ElevationModule implements GraphBuilderModule {
         distanceBetweenSamplesM = distance;
     }
 
+    /**
+     * Set whether the DEM should be read directly and the edges sampled in parallel when possible, rather than one at a
+     * time through GeoTools. Both give the same profiles.
+     */
+    public void setTiledSampling(boolean tiledSampling) {
+        this.tiledSampling = tiledSampling;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
@@ -99,32 +127,44 @@ public class ElevationModule implements GraphBuilderModule {
         // interpolation internally)
         coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
                 (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
+        sampler = tiledSampling ? TiledElevationSampler.forCoverage(gridCov,
+                Runtime.getRuntime().maxMemory() / TILE_CACHE_HEAP_FRACTION) : null;
         log.info("Setting street elevation profiles from digital elevation model...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<StreetWithElevationEdge> edges = new ArrayList<>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0) {
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
-                        double failurePercentage = nPointsOutsideDEM / nPointsEvaluated * 100;
-                        if (failurePercentage > 50) {
-                            log.warn("Fetching elevation failed at {}/{} points ({}%)",
-                                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
-                            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
-                                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
-                        }
-                    }
+                    edges.add((StreetWithElevationEdge) ee);
+                }
+            }
+        }
+        if (sampler != null) {
+            processInParallel(graph, edges);
+        }
+
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        int nProcessed = 0;
+        int nTotal = graph.countEdges();
+        for (StreetWithElevationEdge edgeWithElevation : edges) {
+            if (sampler == null && processEdge(edgeWithElevation)) {
+                log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edgeWithElevation)));
+            }
+            if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
+                edgesWithElevation.add(edgeWithElevation);
+            }
+            nProcessed += 1;
+            if (nProcessed % 50000 == 0) {
+                log.info("set elevation on {}/{} edges", nProcessed, nTotal);
+                double failurePercentage = nPointsOutsideDEM.doubleValue() / nPointsEvaluated.doubleValue() * 100;
+                if (failurePercentage > 50) {
+                    log.warn("Fetching elevation failed at {}/{} points ({}%)",
+                            nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
+                    log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
+                            "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
                 }
             }
         }
+        sampler = null;
 
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
@@ -327,19 +367,65 @@ public class ElevationModule implements GraphBuilderModule {
     }
 
     /**
-     * Processes a single street edge, creating and assigning the elevation profile.
+     * Processes the edges in parallel. The edges are sorted by the cell of their first vertex and processed in that
+     * order, so that each task reads few tiles of the DEM. Each profile is compacted onto its edge as soon as it is
+     * sampled, so that the full profiles of all the edges are never held at once. The tasks only record which
+     * profiles were flattened, and their annotations are added to the graph once all are done, in the order of the
+     * edges, so that the annotations are the same from one build to the next.
+     */
+    private void processInParallel(Graph graph, List<StreetWithElevationEdge> edges) {
+        long startTime = System.currentTimeMillis();
+        // The cell of each edge in the high bits and the edge index in the low bits
+        long[] order = new long[edges.size()];
+        for (int i = 0; i < order.length; i++) {
+            Vertex from = edges.get(i).getFromVertex();
+            long row = (long) Math.floor((from.getLat() + 90) / CELL_SIZE_DEGREES);
+            long column = (long) Math.floor((from.getLon() + 180) / CELL_SIZE_DEGREES);
+            order[i] = ((row << 16 | column) << 32) | i;
+        }
+        Arrays.sort(order);
+        int nTasks = (order.length + EDGES_PER_TASK - 1) / EDGES_PER_TASK;
+        // Each task only sets the flags of its own edges
+        boolean[] flattened = new boolean[edges.size()];
+        IntStream.range(0, nTasks).parallel().forEach(task -> {
+            for (int j = task * EDGES_PER_TASK; j < Math.min(order.length, (task + 1) * EDGES_PER_TASK); j++) {
+                int i = (int) order[j];
+                flattened[i] = processEdge(edges.get(i));
+            }
+        });
+        for (int i = 0; i < flattened.length; i++) {
+            if (flattened[i]) {
+                log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edges.get(i))));
+            }
+        }
+        log.info("Set the elevation profiles of {} edges in {} ms, reading {} DEM tiles.", edges.size(),
+                System.currentTimeMillis() - startTime, sampler.getTilesRead());
+    }
+
+    /**
+     * Processes a single street edge, creating and assigning the elevation profile. May be called from several
+     * threads at once for different edges.
      * 
      * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @return true if the profile was flattened, in which case the caller should add an annotation to the graph
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
+    private boolean processEdge(StreetWithElevationEdge ee) {
         if (ee.getElevationProfile() != null) {
-            return; /* already set up */
+            return false; /* already set up */
         }
+        PackedCoordinateSequence elevPCS = sampleProfile(ee);
+        return ee.setElevationProfile(elevPCS, false);
+    }
+
+    /**
+     * Samples the elevation along an edge every distanceBetweenSamplesM. May be called from several threads at once
+     * when sampling from the TiledElevationSampler.
+     */
+    private PackedCoordinateSequence sampleProfile(StreetWithElevationEdge ee) {
         Geometry g = ee.getGeometry();
         Coordinate[] coords = g.getCoordinates();
 
-        List<Coordinate> coordList = new LinkedList<Coordinate>();
+        List<Coordinate> coordList = new ArrayList<Coordinate>();
 
         // calculate the total edge length in meters
         double edgeLenM = 0;
@@ -367,12 +453,7 @@ public class ElevationModule implements GraphBuilderModule {
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
-        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
-                coordList.toArray(coordArr));
-
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return new PackedCoordinateSequence.Double(coordList.toArray(coordArr));
     }
 
     /**
@@ -438,6 +519,15 @@ public class ElevationModule implements GraphBuilderModule {
      * @return elevation in meters
      */
     private double getElevation(double x, double y) {
+        nPointsEvaluated.increment();
+        if (sampler != null) {
+            double elevation = sampler.getElevation(x, y);
+            if (Double.isNaN(elevation)) {
+                nPointsOutsideDEM.increment();
+                return 0;
+            }
+            return elevation * elevationUnitMultiplier;
+        }
         double values[] = new double[1];
         try {
             // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
@@ -447,9 +537,8 @@ public class ElevationModule implements GraphBuilderModule {
             // rasters to also use (long, lat).
             coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
         } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            nPointsOutsideDEM += 1;
+            nPointsOutsideDEM.increment();
         }
-        nPointsEvaluated += 1;
         return values[0] * elevationUnitMultiplier;
     }
 
@@ -0,0 +1,265 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
+import org.geotools.geometry.Envelope2D;
+import org.geotools.referencing.CRS;
+import org.opengis.coverage.Coverage;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.media.jai.InterpolationBilinear;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples a digital elevation model with bilinear interpolation, as the GeoTools Interpolator2D does, but from copies
+ * of the tiles of its rasters as primitive float arrays, so that samples can be taken from many threads at once
+ * without allocating GeoTools objects. The Interpolator2D synchronizes its evaluations, which made the elevation
+ * module use a single thread however many it was given.
+ *
+ * The tiles are read when they are first needed and kept in a cache shared by all threads, least recently used tiles
+ * being dropped when the cache exceeds its size. Each thread also holds on to the last tile it used, which is most
+ * often the one the next sample falls in as the edges are sampled in spatial order.
+ *
+ * Only coverages in longitude-first WGS84 with an affine grid, either single grid coverages or the UnifiedGridCoverage
+ * of NED tiles, are supported. Use {@link #forCoverage(Coverage, long)} to find out whether a coverage can be sampled
+ * this way.
+ */
+public class TiledElevationSampler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TiledElevationSampler.class);
+
+    private final List<Region> regions;
+
+    /** The vertical datums to add to the sampled elevations, or null if the elevations are used as they are. */
+    private final List<VerticalDatum> datums;
+
+    private final long maxCachedBytes;
+
+    /** Tiles by region and tile index, in access order. Guarded by itself. */
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedBytes = 0;
+
+    private int nTilesRead = 0;
+
+    private final ThreadLocal<Tile[]> lastTile = ThreadLocal.withInitial(() -> new Tile[1]);
+
+    private TiledElevationSampler(List<Region> regions, List<VerticalDatum> datums, long maxCachedBytes) {
+        this.regions = regions;
+        this.datums = datums;
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    /**
+     * @param maxCachedBytes the size of the tile cache. It only holds more than this when the threads use more tiles
+     *                       at the same time.
+     * @return a sampler for the given coverage, or null if the coverage cannot be read directly.
+     */
+    public static TiledElevationSampler forCoverage(Coverage coverage, long maxCachedBytes) {
+        List<Region> regions = new ArrayList<>();
+        List<VerticalDatum> datums = null;
+        if (coverage instanceof UnifiedGridCoverage) {
+            UnifiedGridCoverage unified = (UnifiedGridCoverage) coverage;
+            for (Coverage region : unified.getRegions()) {
+                // The regions are expected to be bilinear interpolators.
+                if (!(region instanceof Interpolator2D)
+                        || !(((Interpolator2D) region).getInterpolation() instanceof InterpolationBilinear)) {
+                    return null;
+                }
+            }
+            datums = unified.getDatums();
+            for (Coverage region : unified.getRegions()) {
+                regions.add(Region.forCoverage((GridCoverage2D) region, regions.size()));
+            }
+        } else if (coverage instanceof GridCoverage2D && !(coverage instanceof Interpolator2D)) {
+            regions.add(Region.forCoverage((GridCoverage2D) coverage, 0));
+        } else {
+            return null;
+        }
+        if (regions.contains(null)) {
+            return null;
+        }
+        return new TiledElevationSampler(regions, datums, maxCachedBytes);
+    }
+
+    /**
+     * Returns the elevation at the given point, interpolated between the four nearest pixel centers of the first
+     * region which contains them, plus the height of the vertical datum if any.
+     *
+     * @param x the query longitude
+     * @param y the query latitude
+     * @return the elevation in the units of the DEM, or NaN if the point is outside the DEM.
+     */
+    public double getElevation(double x, double y) {
+        Tile[] last = lastTile.get();
+        for (Region region : regions) {
+            if (!region.contains(x, y)) {
+                continue;
+            }
+            double px = region.m00 * x + region.m01 * y + region.m02 - 0.5;
+            double py = region.m10 * x + region.m11 * y + region.m12 - 0.5;
+            double x0 = Math.floor(px);
+            double y0 = Math.floor(py);
+            int ix = (int) x0;
+            int iy = (int) y0;
+            if (!(ix >= region.minX && ix < region.maxX && iy >= region.minY && iy < region.maxY)) {
+                // Too close to the edge of the region to interpolate
+                continue;
+            }
+            double s00 = getSample(region, ix, iy, last);
+            double s01 = getSample(region, ix + 1, iy, last);
+            double s10 = getSample(region, ix, iy + 1, last);
+            double s11 = getSample(region, ix + 1, iy + 1, last);
+            // The same operations as InterpolationBilinear, which takes the fractions as floats
+            float xfrac = (float) (px - x0);
+            float yfrac = (float) (py - y0);
+            double s0 = (s01 - s00) * xfrac + s00;
+            double s1 = (s11 - s10) * xfrac + s10;
+            double elevation = (s1 - s0) * yfrac + s0;
+            if (datums != null) {
+                for (VerticalDatum datum : datums) {
+                    if (datum.covers(x, y)) {
+                        return elevation + datum.interpolatedHeight(x, y);
+                    }
+                }
+                LOG.error("Failed to convert elevation at " + y + ", " + x + " from NAVD88 to NAD83");
+            }
+            return elevation;
+        }
+        return Double.NaN;
+    }
+
+    private float getSample(Region region, int x, int y, Tile[] last) {
+        Tile tile = last[0];
+        if (tile == null || tile.region != region.index || !tile.contains(x, y)) {
+            tile = getTile(region, Math.floorDiv(x - region.tileGridXOffset, region.tileWidth),
+                    Math.floorDiv(y - region.tileGridYOffset, region.tileHeight));
+            last[0] = tile;
+        }
+        return tile.samples[(y - tile.minY) * tile.width + (x - tile.minX)];
+    }
+
+    private Tile getTile(Region region, int tileX, int tileY) {
+        long key = ((long) region.index << 40) | ((long) tileY << 20) | tileX;
+        synchronized (tiles) {
+            Tile tile = tiles.get(key);
+            if (tile == null) {
+                // Reading tiles is not always thread safe, so only read one at a time.
+                Raster raster = region.image.getTile(tileX, tileY);
+                tile = new Tile(region.index, raster);
+                tiles.put(key, tile);
+                cachedBytes += tile.samples.length * Float.BYTES;
+                nTilesRead++;
+                Iterator<Map.Entry<Long, Tile>> it = tiles.entrySet().iterator();
+                while (cachedBytes > maxCachedBytes && tiles.size() > 1) {
+                    cachedBytes -= it.next().getValue().samples.length * Float.BYTES;
+                    it.remove();
+                }
+            }
+            return tile;
+        }
+    }
+
+    /** @return the number of tiles read, including those read again after they were dropped from the cache. */
+    public int getTilesRead() {
+        synchronized (tiles) {
+            return nTilesRead;
+        }
+    }
+
+    /** A raster of the DEM, with the transform from longitude and latitude to its pixels. */
+    private static class Region {
+        final int index;
+        final RenderedImage image;
+
+        /** The affine transform from (longitude, latitude) to the pixel grid, pixels having integer corners. */
+        final double m00, m01, m02, m10, m11, m12;
+
+        /** The pixels from which samples can be interpolated, up to the last column and row but one. */
+        final int minX, maxX, minY, maxY;
+
+        final int tileWidth, tileHeight, tileGridXOffset, tileGridYOffset;
+
+        /** The envelope of the region, inclusive on all sides. */
+        final double minLon, maxLon, minLat, maxLat;
+
+        private Region(int index, RenderedImage image, AffineTransform crsToGrid, Envelope2D envelope) {
+            this.index = index;
+            this.image = image;
+            m00 = crsToGrid.getScaleX();
+            m01 = crsToGrid.getShearX();
+            m02 = crsToGrid.getTranslateX();
+            m10 = crsToGrid.getShearY();
+            m11 = crsToGrid.getScaleY();
+            m12 = crsToGrid.getTranslateY();
+            minX = image.getMinX();
+            maxX = image.getMinX() + image.getWidth() - 1;
+            minY = image.getMinY();
+            maxY = image.getMinY() + image.getHeight() - 1;
+            tileWidth = image.getTileWidth();
+            tileHeight = image.getTileHeight();
+            tileGridXOffset = image.getTileGridXOffset();
+            tileGridYOffset = image.getTileGridYOffset();
+            minLon = envelope.getMinX();
+            maxLon = envelope.getMaxX();
+            minLat = envelope.getMinY();
+            maxLat = envelope.getMaxY();
+        }
+
+        /** @return the region for the coverage, or null if it cannot be sampled directly. */
+        static Region forCoverage(GridCoverage2D coverage, int index) {
+            try {
+                MathTransform toCoverage = CRS.findMathTransform(GeometryUtils.WGS84_XY,
+                        coverage.getCoordinateReferenceSystem2D(), true);
+                MathTransform gridToCRS = coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+                if (!toCoverage.isIdentity() || !(gridToCRS instanceof AffineTransform)) {
+                    LOG.info("Elevation model in {} is not sampled directly.", coverage.getCoordinateReferenceSystem2D());
+                    return null;
+                }
+                AffineTransform crsToGrid = ((AffineTransform) gridToCRS).createInverse();
+                return new Region(index, coverage.getRenderedImage(), crsToGrid, coverage.getEnvelope2D());
+            } catch (NoninvertibleTransformException | FactoryException e) {
+                LOG.info("Elevation model is not sampled directly: {}", e.toString());
+                return null;
+            }
+        }
+
+        boolean contains(double x, double y) {
+            return x >= minLon && x <= maxLon && y >= minLat && y <= maxLat;
+        }
+    }
+
+    /** The samples of the first band of a tile of a region. */
+    private static class Tile {
+        final int region;
+        final int minX, minY, width, height;
+        final float[] samples;
+
+        Tile(int region, Raster raster) {
+            this.region = region;
+            minX = raster.getMinX();
+            minY = raster.getMinY();
+            width = raster.getWidth();
+            height = raster.getHeight();
+            samples = raster.getSamples(minX, minY, width, height, 0, (float[]) null);
+        }
+
+        boolean contains(int x, int y) {
+            return x >= minX && x < minX + width && y >= minY && y < minY + height;
+        }
+    }
+
+}
@@ -98,4 +98,13 @@ public class UnifiedGridCoverage extends AbstractCoverage {
         regions.add(regionCoverage);
     }
 
+    /** @return the sub-coverages, in the order they are searched for a point. */
+    List<Coverage> getRegions() {
+        return regions;
+    }
+
+    List<VerticalDatum> getDatums() {
+        return datums;
+    }
+
 }
@@ -11,6 +11,7 @@ import org.opentripplanner.common.geometry.HashGridSpatialIndex;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.graph_builder.annotation.*;
 import org.opentripplanner.graph_builder.module.osm.TurnRestrictionTag.Direction;
+import org.opentripplanner.openstreetmap.impl.PackedNodeStore;
 import org.opentripplanner.openstreetmap.model.*;
 import org.opentripplanner.openstreetmap.model.OSMLevel.Source;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
@@ -28,9 +29,15 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
+    /*
+     * Map of all nodes used in ways/areas keyed by their OSM ID. The nodes without tags which were added as a
+     * PackedNodeStore are only put here once looked up, see getNode.
+     */
     private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
 
+    /* The coordinates of the nodes without tags added as PackedNodeStores, one per PBF file. */
+    private List<PackedNodeStore> untaggedNodes = new ArrayList<PackedNodeStore>();
+
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
 
@@ -103,8 +110,27 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    /**
+     * @return the node with the given id, or null if none was kept. The nodes without tags which were added as a
+     *         PackedNodeStore are created on their first lookup, and the same node is returned from then on.
+     */
     public OSMNode getNode(Long nodeId) {
-        return nodesById.get(nodeId);
+        OSMNode node = nodesById.get(nodeId);
+        if (node != null || untaggedNodes.isEmpty() || !retainsUntaggedNode(nodeId)) {
+            return node;
+        }
+        for (PackedNodeStore store : untaggedNodes) {
+            int i = store.indexOf(nodeId);
+            if (i >= 0) {
+                node = new OSMNode();
+                node.setId(nodeId);
+                node.lat = store.getLat(i);
+                node.lon = store.getLon(i);
+                nodesById.put(nodeId, node);
+                return node;
+            }
+        }
+        return null;
     }
 
     public Collection<OSMWay> getWays() {
@@ -191,6 +217,19 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             LOG.debug("nodes=" + nodesById.size());
     }
 
+    @Override
+    public boolean retainsUntaggedNode(long nodeId) {
+        return waysNodeIds.contains(nodeId) || areaNodeIds.contains(nodeId);
+    }
+
+    /** Keeps the store to look the nodes up in getNode rather than creating all of them at once. */
+    @Override
+    public void addUntaggedNodes(PackedNodeStore nodes) {
+        if (nodes.size() > 0) {
+            untaggedNodes.add(nodes);
+        }
+    }
+
     @Override
     public void addWay(OSMWay way) {
         /* only add ways once */
@@ -362,8 +401,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
             // For each segment of the way
             for (int i = 0; i < way.getNodeRefs().size() - 1; i++) {                
-                OSMNode nA = nodesById.get(way.getNodeRefs().get(i));
-                OSMNode nB = nodesById.get(way.getNodeRefs().get(i + 1));
+                OSMNode nA = getNode(way.getNodeRefs().get(i));
+                OSMNode nB = getNode(way.getNodeRefs().get(i + 1));
                 if (nA == null || nB == null) {
                     continue;
                 }
@@ -589,8 +628,9 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             if (processedAreas.contains(way)) {
                 continue;
             }
+            // Looking the nodes up also puts them in nodesById for the area to find them.
             for (Long nodeRef : way.getNodeRefs()) {
-                if (!nodesById.containsKey(nodeRef)) {
+                if (getNode(nodeRef) == null) {
                     continue AREA;
                 }
             }
@@ -633,7 +673,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     continue RELATION;
                 }
                 for (Long nodeId : way.getNodeRefs()) {
-                    if (!nodesById.containsKey(nodeId)) {
+                    if (getNode(nodeId) == null) {
                         // this area is missing some nodes, perhaps because it is on
                         // the edge of the region, so we will simply not route on it.
                         continue RELATION;
@@ -920,8 +960,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     platformArea = relationsById.get(member.getRef());
                 else
                     LOG.warn("Too many areas in relation " + relation.getId());
-            } else if ("node".equals(member.getType()) && nodesById.containsKey(member.getRef())) {
-                platformsNodes.add(nodesById.get(member.getRef()));
+            } else if ("node".equals(member.getType()) && getNode(member.getRef()) != null) {
+                platformsNodes.add(getNode(member.getRef()));
             }
         }
         if (platformArea != null && !platformsNodes.isEmpty())
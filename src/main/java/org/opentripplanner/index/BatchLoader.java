@@ -0,0 +1,66 @@
+package org.opentripplanner.index;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Loads the value of a GraphQL field for each of its source objects, remembering the values for the duration of a
+ * single request. When the value for a source is missing, it is loaded in the same call as the values for all the
+ * siblings of that source, i.e. the other objects of the list in which the source was returned. A field requested on
+ * each of 200 stops is thus resolved with a single call rather than 200, and the other 199 resolvers find their
+ * values already loaded.
+ */
+public class BatchLoader<K, V> {
+
+    private final Class<K> keyClass;
+
+    private final Function<List<K>, Map<K, V>> batchFunction;
+
+    private final Map<K, V> values = new ConcurrentHashMap<>();
+
+    private final ResolverStatistics statistics;
+
+    /**
+     * @param keyClass the class of the source objects, to leave out siblings of other types in interface lists
+     * @param batchFunction loads the values for a list of distinct keys, returning a non-null value for each of them
+     */
+    public BatchLoader(Class<K> keyClass, Function<List<K>, Map<K, V>> batchFunction, ResolverStatistics statistics) {
+        this.keyClass = keyClass;
+        this.batchFunction = batchFunction;
+        this.statistics = statistics;
+    }
+
+    public V load(K key, List<?> siblings) {
+        V value = values.get(key);
+        if (value != null) {
+            return value;
+        }
+        // Resolvers of the siblings running in parallel wait for the batch rather than loading their own values.
+        synchronized (this) {
+            value = values.get(key);
+            if (value != null) {
+                return value;
+            }
+            Set<K> keys = new LinkedHashSet<>();
+            keys.add(key);
+            for (Object sibling : siblings) {
+                if (keyClass.isInstance(sibling) && !values.containsKey(sibling)) {
+                    keys.add(keyClass.cast(sibling));
+                }
+            }
+            List<K> batch = new ArrayList<>(keys);
+            Map<K, V> loaded = batchFunction.apply(batch);
+            statistics.recordBatch(batch.size());
+            loaded.forEach((k, v) -> {
+                if (v != null) values.put(k, v);
+            });
+            return loaded.get(key);
+        }
+    }
+
+}
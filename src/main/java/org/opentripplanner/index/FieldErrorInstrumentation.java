@@ -30,7 +30,7 @@ import com.google.common.collect.Maps;
 
 
 /**
- * Log field errors
+ * Log field errors, and time the resolvers of each field for the ResolverStatistics of the query.
  */
 public final class FieldErrorInstrumentation implements Instrumentation {
     
@@ -161,9 +161,16 @@ public final class FieldErrorInstrumentation implements Instrumentation {
 
     @Override
     public InstrumentationContext<Object> beginFieldFetch(FieldFetchParameters parameters) {
+        final long startTime = System.nanoTime();
         return new InstrumentationContextBase<Object>(){
+            @Override
+            public void onEnd(Object result) {
+                recordResolve(parameters, startTime);
+            }
+
             @Override
             public void onEnd(Exception e) {
+                recordResolve(parameters, startTime);
                 final StringWriter sw = new StringWriter();
                 final PrintWriter pw = new PrintWriter(sw);
                 e.printStackTrace(pw);
@@ -176,4 +183,12 @@ public final class FieldErrorInstrumentation implements Instrumentation {
             }
         };
     }
+
+    private static void recordResolve(FieldFetchParameters parameters, long startTime) {
+        Object context = parameters.getEnvironment().getContext();
+        if (context instanceof GraphQLRequestContext) {
+            String field = parameters.getEnvironment().getParentType().getName() + "." + parameters.getField().getName();
+            ((GraphQLRequestContext) context).statistics.recordResolve(field, System.nanoTime() - startTime);
+        }
+    }
 }
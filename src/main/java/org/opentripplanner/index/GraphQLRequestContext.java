@@ -0,0 +1,76 @@
+package org.opentripplanner.index;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.opentripplanner.standalone.Router;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The context of a single GraphQL query against the index schema, passed to every data fetcher. Besides the router,
+ * it holds the BatchLoaders of the query and the lists of objects each object was returned in, which the execution
+ * strategy registers so that a field can be loaded for a whole list at once.
+ */
+public class GraphQLRequestContext {
+
+    public final Router router;
+
+    public final ResolverStatistics statistics = new ResolverStatistics();
+
+    /** The list each object was last returned in, by object. */
+    private final Map<Object, List<?>> siblings = new ConcurrentHashMap<>();
+
+    /** The loaders of this query, by field name and arguments. */
+    private final Map<List<Object>, BatchLoader<?, ?>> loaders = new ConcurrentHashMap<>();
+
+    public GraphQLRequestContext(Router router) {
+        this.router = router;
+    }
+
+    /** Remember that the items were returned together, so that their fields can be loaded in batches. */
+    public void registerSiblings(List<?> items) {
+        if (items.size() < 2) return;
+        for (Object item : items) {
+            if (item != null) siblings.put(item, items);
+        }
+    }
+
+    public List<?> getSiblings(Object source) {
+        List<?> list = siblings.get(source);
+        return list == null ? Collections.singletonList(source) : list;
+    }
+
+    /**
+     * Load the value of the field being fetched for its source object, along with the values for the siblings of the
+     * source. The batch function is called with a list of distinct sources, and the values are memoized per field name
+     * and arguments for the rest of the query. Outside of a GraphQLRequestContext, e.g. when the schema is executed
+     * directly, the value is loaded on its own.
+     */
+    public static <K, V> V load(DataFetchingEnvironment environment, String name, Class<K> keyClass,
+                                Function<List<K>, Map<K, V>> batchFunction) {
+        K source = keyClass.cast(environment.getSource());
+        if (!(environment.getContext() instanceof GraphQLRequestContext)) {
+            return batchFunction.apply(Collections.singletonList(source)).get(source);
+        }
+        GraphQLRequestContext context = (GraphQLRequestContext) environment.getContext();
+        List<Object> key = Arrays.asList(name, environment.getArguments());
+        @SuppressWarnings("unchecked")
+        BatchLoader<K, V> loader = (BatchLoader<K, V>) context.loaders.computeIfAbsent(key,
+                k -> new BatchLoader<>(keyClass, batchFunction, context.statistics));
+        return loader.load(source, context.getSiblings(source));
+    }
+
+    /** @return the router the query is executed against, whether or not it was wrapped in a GraphQLRequestContext. */
+    public static Router getRouter(DataFetchingEnvironment environment) {
+        Object context = environment.getContext();
+        if (context instanceof GraphQLRequestContext) {
+            return ((GraphQLRequestContext) context).router;
+        }
+        return (Router) context;
+    }
+
+}
@@ -53,7 +53,7 @@ public class GraphQlPlanner {
 
     public Map<String, Object> plan(DataFetchingEnvironment environment) {
 
-        Router router = (Router) environment.getContext();
+        Router router = GraphQLRequestContext.getRouter(environment);
 
 
         RoutingRequest request = createRequest(environment);
@@ -161,7 +161,7 @@ public class GraphQlPlanner {
     }
 
     private RoutingRequest createRequest(DataFetchingEnvironment environment) {
-        Router router = (Router) environment.getContext();
+        Router router = GraphQLRequestContext.getRouter(environment);
         RoutingRequest request = router.defaultRoutingRequest.clone();
         request.routerId = router.id;
 
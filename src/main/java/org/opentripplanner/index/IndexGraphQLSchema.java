@@ -1403,12 +1403,13 @@ public class IndexGraphQLSchema {
                         .name("routes")
                         .description("Routes which pass through this stop")
                         .type(new GraphQLList(new GraphQLNonNull(routeType)))
-                        .dataFetcher(environment -> index.patternsForStop
-                                .get(environment.getSource())
-                                .stream()
-                                .map(pattern -> pattern.route)
-                                .distinct()
-                                .collect(Collectors.toList()))
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "stopRoutes",
+                                Stop.class, stops -> stops.stream().collect(Collectors.toMap(stop -> stop,
+                                        stop -> index.patternsForStop.get(stop)
+                                                .stream()
+                                                .map(pattern -> pattern.route)
+                                                .distinct()
+                                                .collect(Collectors.toList())))))
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("patterns")
@@ -1509,32 +1510,8 @@ public class IndexGraphQLSchema {
                                 .type(Scalars.GraphQLBoolean)
                                 .defaultValue(true)
                                 .build())
-                        .dataFetcher(environment -> {
-                            Stop stop = environment.getSource();
-                            if (stop.getLocationType() == 1) {
-                                // Merge all stops if this is a station
-                                return index.stopsForParentStation
-                                        .get(stop.getId())
-                                        .stream()
-                                        .flatMap(singleStop ->
-                                                index.stopTimesForStop(singleStop,
-                                                        environment.getArgument("startTime"),
-                                                        environment.getArgument("timeRange"),
-                                                        environment.getArgument("numberOfDepartures"),
-                                                        environment.getArgument("omitNonPickups"),
-                                                        environment.getArgument("omitCanceled"))
-                                                        .stream()
-                                        )
-                                        .collect(Collectors.toList());
-                            }
-                            return index.stopTimesForStop(stop,
-                                    environment.getArgument("startTime"),
-                                    environment.getArgument("timeRange"),
-                                    environment.getArgument("numberOfDepartures"),
-                                    environment.getArgument("omitNonPickups"),
-                                    environment.getArgument("omitCanceled"));
-
-                        })
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "stoptimes", Stop.class,
+                                stops -> stopTimesForStops(index, stops, environment)))
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("stoptimesWithoutPatterns")
@@ -1570,32 +1547,11 @@ public class IndexGraphQLSchema {
                                 .defaultValue(true)
                                 .build())
                         .dataFetcher(environment -> {
-                            Stop stop = environment.getSource();
-                            Stream<StopTimesInPattern> stream;
-                            if (stop.getLocationType() == 1) {
-                                stream = index.stopsForParentStation
-                                        .get(stop.getId())
-                                        .stream()
-                                        .flatMap(singleStop ->
-                                                index.stopTimesForStop(singleStop,
-                                                        environment.getArgument("startTime"),
-                                                        environment.getArgument("timeRange"),
-                                                        environment.getArgument("numberOfDepartures"),
-                                                        environment.getArgument("omitNonPickups"),
-                                                        environment.getArgument("omitCanceled"))
-                                                        .stream()
-                                        );
-                            } else {
-                                stream = index.stopTimesForStop(
-                                        environment.getSource(),
-                                        environment.getArgument("startTime"),
-                                        environment.getArgument("timeRange"),
-                                        environment.getArgument("numberOfDepartures"),
-                                        environment.getArgument("omitNonPickups"),
-                                        environment.getArgument("omitCanceled")
-                                ).stream();
-                            }
-                            return stream.flatMap(stoptimesWithPattern -> stoptimesWithPattern.times.stream())
+                            // Shares the loaded stoptimes with stoptimesForPatterns when the arguments are the same.
+                            List<StopTimesInPattern> stopTimes = GraphQLRequestContext.load(environment, "stoptimes",
+                                    Stop.class, stops -> stopTimesForStops(index, stops, environment));
+                            return stopTimes.stream()
+                                    .flatMap(stoptimesWithPattern -> stoptimesWithPattern.times.stream())
                                     .sorted(Comparator.comparing(t -> t.serviceDay + t.realtimeDeparture))
                                     .limit((long) (int) environment.getArgument("numberOfDepartures"))
                                     .collect(Collectors.toList());
@@ -1605,8 +1561,8 @@ public class IndexGraphQLSchema {
                         .name("alerts")
                         .description("List of alerts which have an effect on this stop")
                         .type(new GraphQLList(alertType))
-                        .dataFetcher(dataFetchingEnvironment -> index.getAlertsForStop(
-                                dataFetchingEnvironment.getSource()))
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "stopAlerts",
+                                Stop.class, index::getAlertsForStops))
                         .build())
                 .build();
 
@@ -1900,32 +1856,20 @@ public class IndexGraphQLSchema {
                                 .type(Scalars.GraphQLString)
                                 .build())
                         .dataFetcher(environment -> {
+                            final String argServiceDate =
+                                    environment.containsArgument("serviceDate")
+                                            && environment.getArgument("serviceDate") != null
+                                            ? environment.getArgument("serviceDate")
+                                            : environment.getArgument("serviceDay");
+                            final ServiceDate serviceDate;
                             try {
-                                final Trip trip = environment.getSource();
-                                final String argServiceDate =
-                                        environment.containsArgument("serviceDate")
-                                                && environment.getArgument("serviceDate") != null
-                                                ? environment.getArgument("serviceDate")
-                                                : environment.getArgument("serviceDay");
-                                final ServiceDate serviceDate = argServiceDate != null
+                                serviceDate = argServiceDate != null
                                         ? ServiceDate.parseString(argServiceDate) : new ServiceDate();
-                                final ServiceDay serviceDay = new ServiceDay(index.graph, serviceDate,
-                                        index.graph.getCalendarService(), trip.getRoute().getAgency().getId());
-                                TimetableSnapshotSource timetableSnapshotSource = index.graph.timetableSnapshotSource;
-                                Timetable timetable = null;
-                                if (timetableSnapshotSource != null) {
-                                    TimetableSnapshot timetableSnapshot = timetableSnapshotSource.getTimetableSnapshot();
-                                    if (timetableSnapshot != null) {
-                                        timetable = timetableSnapshot.resolve(index.patternForTrip.get(trip), serviceDate);
-                                    }
-                                }
-                                if (timetable == null) {
-                                    timetable = index.patternForTrip.get(trip).scheduledTimetable;
-                                }
-                                return TripTimeShort.fromTripTimes(timetable, trip, serviceDay);
                             } catch (ParseException e) {
                                 return null; // Invalid date format
                             }
+                            return GraphQLRequestContext.load(environment, "stoptimesForDate", Trip.class,
+                                    trips -> stopTimesForTrips(index, trips, serviceDate));
                         })
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
@@ -1964,8 +1908,8 @@ public class IndexGraphQLSchema {
                         .name("alerts")
                         .description("List of alerts which have an effect on this trip")
                         .type(new GraphQLList(alertType))
-                        .dataFetcher(dataFetchingEnvironment -> index.getAlertsForTrip(
-                                dataFetchingEnvironment.getSource()))
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "tripAlerts",
+                                Trip.class, index::getAlertsForTrips))
                         .build())
                 .build();
 
@@ -2195,32 +2139,34 @@ public class IndexGraphQLSchema {
                         .name("stops")
                         .description("List of stops on this route")
                         .type(new GraphQLList(stopType))
-                        .dataFetcher(environment -> index.patternsForRoute
-                                .get(environment.getSource())
-                                .stream()
-                                .map(TripPattern::getStops)
-                                .flatMap(Collection::stream)
-                                .distinct()
-                                .collect(Collectors.toList()))
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "routeStops",
+                                Route.class, routes -> routes.stream().collect(Collectors.toMap(route -> route,
+                                        route -> index.patternsForRoute.get(route)
+                                                .stream()
+                                                .map(TripPattern::getStops)
+                                                .flatMap(Collection::stream)
+                                                .distinct()
+                                                .collect(Collectors.toList())))))
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("trips")
                         .description("List of trips which operate on this route")
                         .type(new GraphQLList(tripType))
-                        .dataFetcher(environment -> index.patternsForRoute
-                                .get(environment.getSource())
-                                .stream()
-                                .map(TripPattern::getTrips)
-                                .flatMap(Collection::stream)
-                                .distinct()
-                                .collect(Collectors.toList()))
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "routeTrips",
+                                Route.class, routes -> routes.stream().collect(Collectors.toMap(route -> route,
+                                        route -> index.patternsForRoute.get(route)
+                                                .stream()
+                                                .map(TripPattern::getTrips)
+                                                .flatMap(Collection::stream)
+                                                .distinct()
+                                                .collect(Collectors.toList())))))
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("alerts")
                         .description("List of alerts which have an effect on the route")
                         .type(new GraphQLList(alertType))
-                        .dataFetcher(dataFetchingEnvironment -> index.getAlertsForRoute(
-                                dataFetchingEnvironment.getSource()))
+                        .dataFetcher(environment -> GraphQLRequestContext.load(environment, "routeAlerts",
+                                Route.class, index::getAlertsForRoutes))
                         .build())
                 .build();
 
@@ -3498,6 +3444,62 @@ public class IndexGraphQLSchema {
                 .build(dictionary);
     }
 
+    /**
+     * Load the departures of many stops at once, for a list of stops whose stoptimes are requested with the same
+     * arguments. Stations are replaced by their stops, which are loaded along with the others.
+     */
+    private Map<Stop, List<StopTimesInPattern>> stopTimesForStops(GraphIndex index, List<Stop> stops,
+                                                                  DataFetchingEnvironment environment) {
+        Set<Stop> singleStops = new LinkedHashSet<>();
+        for (Stop stop : stops) {
+            if (stop.getLocationType() == 1) {
+                singleStops.addAll(index.stopsForParentStation.get(stop.getId()));
+            } else {
+                singleStops.add(stop);
+            }
+        }
+        Map<Stop, List<StopTimesInPattern>> stopTimes = index.stopTimesForStops(singleStops,
+                environment.getArgument("startTime"),
+                environment.getArgument("timeRange"),
+                environment.getArgument("numberOfDepartures"),
+                environment.getArgument("omitNonPickups"),
+                environment.getArgument("omitCanceled"));
+        Map<Stop, List<StopTimesInPattern>> ret = new HashMap<>();
+        for (Stop stop : stops) {
+            if (stop.getLocationType() == 1) {
+                // Merge all stops if this is a station
+                ret.put(stop, index.stopsForParentStation.get(stop.getId())
+                        .stream()
+                        .flatMap(singleStop -> stopTimes.get(singleStop).stream())
+                        .collect(Collectors.toList()));
+            } else {
+                ret.put(stop, stopTimes.get(stop));
+            }
+        }
+        return ret;
+    }
+
+    /** Load the stoptimes of many trips on a date at once, against a single realtime snapshot. */
+    private Map<Trip, List<TripTimeShort>> stopTimesForTrips(GraphIndex index, List<Trip> trips,
+                                                             ServiceDate serviceDate) {
+        TimetableSnapshotSource timetableSnapshotSource = index.graph.timetableSnapshotSource;
+        TimetableSnapshot timetableSnapshot = timetableSnapshotSource != null
+                ? timetableSnapshotSource.getTimetableSnapshot() : null;
+        Map<Trip, List<TripTimeShort>> ret = new HashMap<>();
+        for (Trip trip : trips) {
+            ServiceDay serviceDay = index.getServiceDay(serviceDate, trip.getRoute().getAgency().getId());
+            Timetable timetable = null;
+            if (timetableSnapshot != null) {
+                timetable = timetableSnapshot.resolve(index.patternForTrip.get(trip), serviceDate);
+            }
+            if (timetable == null) {
+                timetable = index.patternForTrip.get(trip).scheduledTimetable;
+            }
+            ret.put(trip, TripTimeShort.fromTripTimes(timetable, trip, serviceDay));
+        }
+        return ret;
+    }
+
     private ServiceDate parseDateString(final String dateString) {
         ServiceDate date = null;
         if (dateString != null) {
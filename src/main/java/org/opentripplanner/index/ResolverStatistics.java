@@ -0,0 +1,87 @@
+package org.opentripplanner.index;
+
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Counts and times the resolvers of each field of a single GraphQL query, as well as the batches loaded by its
+ * BatchLoaders, so that expensive queries can be traced to the fields they spend their time in.
+ */
+public class ResolverStatistics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResolverStatistics.class);
+
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /** The number of fields listed in the log of a query, in decreasing order of total time. */
+    private static final int N_LOGGED_FIELDS = 10;
+
+    private static class FieldStatistics {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+    }
+
+    private final Map<String, FieldStatistics> fields = new ConcurrentHashMap<>();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong batchedKeys = new AtomicLong();
+
+    private final long startTime = System.nanoTime();
+
+    /** Record a call to the resolver of a field, named as ParentType.field. */
+    public void recordResolve(String field, long nanos) {
+        FieldStatistics stats = fields.computeIfAbsent(field, k -> new FieldStatistics());
+        stats.count.incrementAndGet();
+        stats.nanos.addAndGet(nanos);
+    }
+
+    public void recordBatch(int nKeys) {
+        batches.incrementAndGet();
+        batchedKeys.addAndGet(nKeys);
+    }
+
+    public long getResolveCount() {
+        return fields.values().stream().mapToLong(stats -> stats.count.get()).sum();
+    }
+
+    public long getResolveCount(String field) {
+        FieldStatistics stats = fields.get(field);
+        return stats == null ? 0 : stats.count.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /** Log the statistics of the finished query, and keep the largest numbers seen for monitoring. */
+    public void report() {
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        long resolves = getResolveCount();
+        if (store.isMonitoring("graphQLMaxResolves")) {
+            store.setLongMax("graphQLMaxResolves", resolves);
+        }
+        if (store.isMonitoring("graphQLMaxQueryTime")) {
+            store.setLongMax("graphQLMaxQueryTime", elapsedMillis);
+        }
+        if (LOG.isDebugEnabled()) {
+            String slowest = fields.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> -e.getValue().nanos.get()))
+                    .limit(N_LOGGED_FIELDS)
+                    .map(e -> String.format("%s %d x %.1f ms", e.getKey(), e.getValue().count.get(),
+                            e.getValue().nanos.get() / 1e6))
+                    .collect(Collectors.joining(", "));
+            LOG.debug("GraphQL query took {} ms, {} resolves, {} batches of {} keys. Slowest fields: {}",
+                    elapsedMillis, resolves, batches.get(), batchedKeys.get(), slowest);
+        }
+    }
+
+}
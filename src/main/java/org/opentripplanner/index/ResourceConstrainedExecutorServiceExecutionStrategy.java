@@ -8,7 +8,12 @@ import graphql.execution.ExecutionContext;
 import graphql.execution.ExecutionStrategy;
 import graphql.execution.SimpleExecutionStrategy;
 import graphql.language.Field;
+import graphql.schema.GraphQLInterfaceType;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNonNull;
 import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLUnionType;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -36,11 +41,20 @@ public class ResourceConstrainedExecutorServiceExecutionStrategy extends Executi
     private final long maxResolves;
     private AtomicLong resolveCount = new AtomicLong();
 
+    /** Receives the lists of objects resolved, so that their fields can be loaded in batches. May be null. */
+    private final GraphQLRequestContext requestContext;
+
     public ResourceConstrainedExecutorServiceExecutionStrategy(ExecutorService executorService, long timeout, TimeUnit timeUnit, long maxResolves) {
+        this(executorService, timeout, timeUnit, maxResolves, null);
+    }
+
+    public ResourceConstrainedExecutorServiceExecutionStrategy(ExecutorService executorService, long timeout, TimeUnit timeUnit, long maxResolves,
+                                                               GraphQLRequestContext requestContext) {
         this.executorService = executorService;
         this.timeout = timeout;
         this.timeUnit = timeUnit;
         this.maxResolves = maxResolves;
+        this.requestContext = requestContext;
     }
 
     // @Override
@@ -51,6 +65,24 @@ public class ResourceConstrainedExecutorServiceExecutionStrategy extends Executi
         }
     }
 
+    /**
+     * Register the objects of each list with the request context before resolving their fields, so that the first of
+     * them to resolve a batched field loads it for all the others.
+     */
+    @Override
+    protected ExecutionResult completeValueForList(ExecutionContext executionContext, GraphQLList fieldType,
+                                                   List<Field> fields, Iterable<Object> result) {
+        GraphQLType itemType = fieldType.getWrappedType();
+        if (itemType instanceof GraphQLNonNull) {
+            itemType = ((GraphQLNonNull) itemType).getWrappedType();
+        }
+        if (requestContext != null && result instanceof List && (itemType instanceof GraphQLObjectType
+                || itemType instanceof GraphQLInterfaceType || itemType instanceof GraphQLUnionType)) {
+            requestContext.registerSiblings((List<?>) result);
+        }
+        return super.completeValueForList(executionContext, fieldType, fields, result);
+    }
+
     @Override
     public ExecutionResult execute(
         final ExecutionContext executionContext,
@@ -1,16 +1,46 @@
 package org.opentripplanner.openstreetmap.impl;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
+import org.opentripplanner.util.HeapPhaseTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
-import crosby.binary.file.BlockInputStream;
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
 
 /**
- * Parser for the OpenStreetMap PBF format. Parses files in three passes:
- * First the relations, then the ways, then the nodes are also loaded.
+ * Parser for the OpenStreetMap PBF format. Reads files in two passes, decompressing and decoding the blocks of each
+ * pass in parallel and handing their contents to the handler in file order:
+ * first the relations and the nodes, then the ways. The nodes are only passed to the handler after the ways, as the
+ * handler needs to know the ways to tell which nodes to keep. In the meantime the nodes are kept block by block in
+ * PackedNodeStores, with the tags of the tagged ones in arrays of strings. The nodes without tags which the handler
+ * does not retain are then dropped, and the others passed to it as a single PackedNodeStore, in which it can look up
+ * their coordinates without creating OSMNodes. The ways are decoded in a second pass rather than kept, as the
+ * relations which tell which ways to keep come after them in the file and holding all the ways would take much more
+ * memory.
  *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
@@ -18,31 +48,252 @@ import crosby.binary.file.BlockInputStream;
  */
 public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvider {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryFileBasedOpenStreetMapProviderImpl.class);
+
     private File path;
 
     public void readOSM(OpenStreetMapContentHandler handler) {
-        try {
-            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
-
-            FileInputStream input = new FileInputStream(path);
-            parser.setParseNodes(false);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads,
+                new ThreadFactoryBuilder().setNameFormat("osm-pbf-%d").setDaemon(true).build());
+        try (HeapPhaseTracker tracker = new HeapPhaseTracker()) {
+            // The nodes of each block are kept as decoded, so that they are never copied into ever larger arrays.
+            List<DecodedBlock> nodeBlocks = new ArrayList<>();
+            readBlocks("relations and nodes", pool, nThreads, tracker, parser -> parser.setParseWays(false), block -> {
+                for (OSMRelation relation : block.relations) {
+                    handler.addRelation(relation);
+                }
+                block.relations.clear();
+                if (block.taggedNodes.size() > 0 || block.untaggedNodes.size() > 0) {
+                    nodeBlocks.add(block);
+                }
+            });
             handler.doneFirstPhaseRelations();
+            long nTaggedNodes = 0;
+            long nNodes = 0;
+            long nodesFootprint = 0;
+            for (DecodedBlock block : nodeBlocks) {
+                nTaggedNodes += block.taggedNodes.size();
+                nNodes += block.taggedNodes.size() + block.untaggedNodes.size();
+                nodesFootprint += block.getMemoryFootprint();
+            }
+            LOG.info("Kept {} nodes, {} of them with tags, in {} MB.", nNodes, nTaggedNodes, nodesFootprint / 1000000);
 
-            input = new FileInputStream(path);
-            parser.setParseRelations(false);
-            parser.setParseWays(true);
-            (new BlockInputStream(input, parser)).process();
+            readBlocks("ways", pool, nThreads, tracker, parser -> {
+                parser.setParseRelations(false);
+                parser.setParseNodes(false);
+            }, block -> {
+                for (OSMWay way : block.ways) {
+                    handler.addWay(way);
+                }
+            });
             handler.doneSecondPhaseWays();
 
-            input = new FileInputStream(path);
-            parser.setParseNodes(true);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            // Drop the nodes without tags which the handler does not retain, in parallel as there are many of them.
+            List<Future<?>> filters = new ArrayList<>(nodeBlocks.size());
+            for (DecodedBlock block : nodeBlocks) {
+                filters.add(pool.submit(() -> block.untaggedNodes.retainAll(handler::retainsUntaggedNode)));
+            }
+            int nUntaggedNodes = 0;
+            for (int i = 0; i < nodeBlocks.size(); i++) {
+                filters.get(i).get();
+                nUntaggedNodes += nodeBlocks.get(i).untaggedNodes.size();
+            }
+            PackedNodeStore untaggedNodes = new PackedNodeStore(nUntaggedNodes);
+            for (int i = 0; i < nodeBlocks.size(); i++) {
+                DecodedBlock block = nodeBlocks.get(i);
+                // Release each block once handed over, so that the tagged nodes dropped by the handler are collected.
+                nodeBlocks.set(i, null);
+                for (int j = 0; j < block.taggedNodes.size(); j++) {
+                    handler.addNode(block.getTaggedNode(j));
+                }
+                untaggedNodes.addAll(block.untaggedNodes);
+            }
+            handler.addUntaggedNodes(untaggedNodes);
+            logPhase(tracker, "nodes", nTaggedNodes + nUntaggedNodes, 0);
             handler.doneThirdPhaseNodes();
         } catch (Exception ex) {
-            throw new IllegalStateException("error loading OSM from path " + path, ex);        }
+            throw new IllegalStateException("error loading OSM from path " + path, ex);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read all the blocks of the file, decode them on the pool with a parser per thread, and pass the decoded blocks
+     * to the consumer on this thread in the order of the file. At most twice as many blocks as threads are decoded
+     * ahead of the consumer.
+     */
+    private void readBlocks(String name, ExecutorService pool, int nThreads, HeapPhaseTracker tracker,
+            Consumer<BinaryOpenStreetMapParser> configure, Consumer<DecodedBlock> consumer) throws Exception {
+        ThreadLocal<BinaryOpenStreetMapParser> parsers = ThreadLocal.withInitial(() -> {
+            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(null);
+            configure.accept(parser);
+            return parser;
+        });
+        Deque<Future<DecodedBlock>> pending = new ArrayDeque<>();
+        long nEntities = 0;
+        long nBytes = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] headerBytes = new byte[headerSize];
+                input.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                byte[] blob = new byte[header.getDatasize()];
+                input.readFully(blob);
+                nBytes += 4 + headerSize + blob.length;
+                String type = header.getType();
+                pending.add(pool.submit(() -> decode(parsers.get(), type, blob)));
+                while (pending.size() > 2 * nThreads) {
+                    DecodedBlock block = pending.removeFirst().get();
+                    nEntities += block.size();
+                    consumer.accept(block);
+                }
+            }
+            while (!pending.isEmpty()) {
+                DecodedBlock block = pending.removeFirst().get();
+                nEntities += block.size();
+                consumer.accept(block);
+            }
+        } finally {
+            for (Future<DecodedBlock> future : pending) {
+                future.cancel(true);
+            }
+        }
+        logPhase(tracker, name, nEntities, nBytes);
+    }
+
+    /** Report the throughput and the peak heap usage of the phase of the reading which just ended. */
+    private static void logPhase(HeapPhaseTracker tracker, String name, long nEntities, long nBytes) {
+        HeapPhaseTracker.Phase phase = tracker.endPhase();
+        double seconds = Math.max(phase.durationMillis, 1) / 1000.0;
+        LOG.info("Read OSM {} in {} s: {} entities ({} per second), {} MB ({} MB/s), peak heap {} MB ({} MB over "
+                + "the {} MB in use before reading).", name, seconds, nEntities, (long) (nEntities / seconds),
+                nBytes / 1000000, String.format("%.1f", nBytes / 1e6 / seconds), phase.peakHeap / HeapPhaseTracker.MB,
+                (phase.peakHeap - tracker.getBaselineHeap()) / HeapPhaseTracker.MB,
+                tracker.getBaselineHeap() / HeapPhaseTracker.MB);
+    }
+
+    /** Decompress and decode one block. Only runs on the pool, with the parser of the thread. */
+    private static DecodedBlock decode(BinaryOpenStreetMapParser parser, String type, byte[] blobBytes)
+            throws IOException, DataFormatException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+        byte[] data;
+        if (blob.hasRaw()) {
+            data = blob.getRaw().toByteArray();
+        } else if (blob.hasZlibData()) {
+            data = new byte[blob.getRawSize()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(blob.getZlibData().toByteArray());
+                int n = 0;
+                while (n < data.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(data, n, data.length - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("Truncated PBF block");
+                    }
+                    n += inflated;
+                }
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IllegalStateException("Unsupported PBF block compression");
+        }
+
+        DecodedBlock decoded = new DecodedBlock();
+        parser.setHandler(decoded);
+        parser.setUntaggedNodeStore(decoded.untaggedNodes);
+        if (type.equals("OSMHeader")) {
+            parser.parse(Osmformat.HeaderBlock.parseFrom(data));
+        } else if (type.equals("OSMData")) {
+            parser.parse(Osmformat.PrimitiveBlock.parseFrom(data));
+        } else {
+            LOG.debug("Skipped block of type {}", type);
+        }
+        return decoded;
+    }
+
+    /**
+     * The entities of one block, collected by the parser of a pool thread. The nodes with tags are kept as their
+     * coordinates and an array of their keys and values, which takes a fraction of the memory of an OSMNode.
+     */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+        final PackedNodeStore taggedNodes = new PackedNodeStore();
+        final List<String[]> taggedNodeTags = new ArrayList<>();
+        final List<OSMWay> ways = new ArrayList<>();
+        final List<OSMRelation> relations = new ArrayList<>();
+        final PackedNodeStore untaggedNodes = new PackedNodeStore();
+
+        int size() {
+            return taggedNodes.size() + ways.size() + relations.size() + untaggedNodes.size();
+        }
+
+        /** @return the i-th node with tags of the block. */
+        OSMNode getTaggedNode(int i) {
+            OSMNode node = new OSMNode();
+            node.setId(taggedNodes.getId(i));
+            node.lat = taggedNodes.getLat(i);
+            node.lon = taggedNodes.getLon(i);
+            String[] tags = taggedNodeTags.get(i);
+            for (int j = 0; j < tags.length; j += 2) {
+                node.addTag(tags[j], tags[j + 1]);
+            }
+            return node;
+        }
+
+        /** @return an estimate of the bytes held by the nodes of the block, not counting the shared strings. */
+        long getMemoryFootprint() {
+            long footprint = taggedNodes.getMemoryFootprint() + untaggedNodes.getMemoryFootprint();
+            for (String[] tags : taggedNodeTags) {
+                footprint += 16 + 4 * tags.length;
+            }
+            return footprint;
+        }
+
+        @Override
+        public void addNode(OSMNode node) {
+            taggedNodes.add(node.getId(), node.lat, node.lon);
+            // The parser interns the keys and values, so only the array is specific to this node.
+            Map<String, String> tags = node.getTags();
+            String[] keysAndValues = new String[tags == null ? 0 : 2 * tags.size()];
+            if (tags != null) {
+                int j = 0;
+                for (Map.Entry<String, String> tag : tags.entrySet()) {
+                    keysAndValues[j++] = tag.getKey();
+                    keysAndValues[j++] = tag.getValue();
+                }
+            }
+            taggedNodeTags.add(keysAndValues);
+        }
+
+    @Override
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            relations.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
     }
 
     public void setPath(File path) {
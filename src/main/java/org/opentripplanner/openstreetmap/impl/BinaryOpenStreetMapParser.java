@@ -22,10 +22,23 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     private boolean parseNodes = true;
     private Map<String, String> stringTable = new HashMap<String, String>();
 
+    /** If not null, the nodes without tags are stored here rather than passed to the handler as OSMNodes. */
+    private PackedNodeStore untaggedNodes;
+
     public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler) {
         this.handler = handler;
     }
 
+    /** Pass the entities parsed from now on to another handler, e.g. one collecting those of a single block. */
+    public void setHandler(OpenStreetMapContentHandler handler) {
+        this.handler = handler;
+    }
+
+    /** Store the nodes without tags parsed from now on in the given store, or pass them to the handler if null. */
+    public void setUntaggedNodeStore(PackedNodeStore untaggedNodes) {
+        this.untaggedNodes = untaggedNodes;
+    }
+
     // The strings are already being pulled from a string table in the PBF file,
     // but there appears to be a separate string table per 8k-entry PBF file block.
     // String.intern grinds to a halt on large PBF files (as it did on GTFS import), so 
@@ -50,6 +63,10 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         }
 
         for (Osmformat.Node i : nodes) {
+            if (untaggedNodes != null && i.getKeysCount() == 0) {
+                untaggedNodes.add(i.getId(), parseLat(i.getLat()), parseLon(i.getLon()));
+                continue;
+            }
             OSMNode tmp = new OSMNode();
             tmp.setId(i.getId());
             tmp.lat = parseLat(i.getLat());
@@ -79,8 +96,6 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         }
 
         for (int i = 0; i < nodes.getIdCount(); i++) {
-            OSMNode tmp = new OSMNode();
-
             long lat = nodes.getLat(i) + lastLat;
             lastLat = lat;
             long lon = nodes.getLon(i) + lastLon;
@@ -89,6 +104,16 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
             lastId = id;
             double latf = parseLat(lat), lonf = parseLon(lon);
 
+            if (untaggedNodes != null && (nodes.getKeysValsCount() == 0 || nodes.getKeysVals(j) == 0)) {
+                untaggedNodes.add(id, latf, lonf);
+                if (nodes.getKeysValsCount() > 0) {
+                    j++; // Skip over the '0' delimiter.
+                }
+                continue;
+            }
+
+            OSMNode tmp = new OSMNode();
+
             tmp.setId(id);
             tmp.lat = latf;
             tmp.lon = lonf;
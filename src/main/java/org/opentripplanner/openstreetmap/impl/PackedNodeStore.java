@@ -0,0 +1,150 @@
+package org.opentripplanner.openstreetmap.impl;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * The coordinates of OSM nodes by id, held in two parallel arrays of primitives: the node ids, and the latitudes and
+ * longitudes packed in a long as two ints in units of 1e-7 degrees, the precision of OSM. This takes 16 bytes per
+ * node, where an OSMNode in a HashMap takes over a hundred, so the PBF reader keeps the nodes without tags here and
+ * only creates OSMNodes for those that are actually used.
+ *
+ * Nodes are looked up by binary search on their ids. PBF files normally list the nodes by increasing id, in which case
+ * nothing has to be sorted; otherwise the arrays are sorted by id on the first lookup.
+ */
+public class PackedNodeStore {
+
+    private static final double PRECISION = 1e7;
+
+    private long[] ids;
+
+    private long[] coordinates;
+
+    private int size = 0;
+
+    private boolean sorted = true;
+
+    public PackedNodeStore() {
+        this(0);
+    }
+
+    public PackedNodeStore(int capacity) {
+        ids = new long[capacity];
+        coordinates = new long[capacity];
+    }
+
+    public void add(long id, double lat, double lon) {
+        ensureCapacity(size + 1);
+        if (size > 0 && ids[size - 1] >= id) {
+            sorted = false;
+        }
+        ids[size] = id;
+        coordinates[size] = pack(lat, lon);
+        size++;
+    }
+
+    /** Append all the nodes of the other store to this one. */
+    public void addAll(PackedNodeStore other) {
+        if (other.size == 0) {
+            return;
+        }
+        ensureCapacity(size + other.size);
+        if (!other.sorted || (size > 0 && ids[size - 1] >= other.ids[0])) {
+            sorted = false;
+        }
+        System.arraycopy(other.ids, 0, ids, size, other.size);
+        System.arraycopy(other.coordinates, 0, coordinates, size, other.size);
+        size += other.size;
+    }
+
+    /** Remove the nodes whose ids do not match the predicate, keeping the others in the same order. */
+    public void retainAll(LongPredicate retain) {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (retain.test(ids[i])) {
+                ids[n] = ids[i];
+                coordinates[n] = coordinates[i];
+                n++;
+            }
+        }
+        size = n;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, Math.max(16, ids.length + (ids.length >> 1)));
+            ids = Arrays.copyOf(ids, newCapacity);
+            coordinates = Arrays.copyOf(coordinates, newCapacity);
+        }
+    }
+
+    private static long pack(double lat, double lon) {
+        return ((long) (int) Math.round(lat * PRECISION) << 32) | ((int) Math.round(lon * PRECISION) & 0xFFFFFFFFL);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return the id of the i-th node, in increasing order of ids once a node has been looked up. */
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    public double getLat(int i) {
+        return (int) (coordinates[i] >> 32) / PRECISION;
+    }
+
+    public double getLon(int i) {
+        return (int) coordinates[i] / PRECISION;
+    }
+
+    /** @return the position of the node with the given id, to be passed to getLat and getLon, or -1 if none. */
+    public int indexOf(long id) {
+        if (!sorted) {
+            sort(0, size - 1);
+            sorted = true;
+        }
+        int i = Arrays.binarySearch(ids, 0, size, id);
+        return i < 0 ? -1 : i;
+    }
+
+    /** Quicksort both arrays by id. */
+    private void sort(int low, int high) {
+        while (low < high) {
+            long pivot = ids[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (ids[i] < pivot) i++;
+                while (ids[j] > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse on the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        long coordinate = coordinates[i];
+        coordinates[i] = coordinates[j];
+        coordinates[j] = coordinate;
+    }
+
+    /** @return the bytes held by the arrays of this store. */
+    public long getMemoryFootprint() {
+        return (long) ids.length * 2 * Long.BYTES;
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.opentripplanner.openstreetmap.services;
 
+import org.opentripplanner.openstreetmap.impl.PackedNodeStore;
 import org.opentripplanner.openstreetmap.model.OSMNode;
 import org.opentripplanner.openstreetmap.model.OSMRelation;
 import org.opentripplanner.openstreetmap.model.OSMWay;
@@ -27,6 +28,32 @@ public interface OpenStreetMapContentHandler {
    */
   void addRelation(OSMRelation relation);
 
+  /**
+   * Whether a node without tags would be stored if it were added after the second phase. Providers may skip creating
+   * the nodes which would not be, e.g. those which are not part of any stored way. May be called by several threads
+   * at once, after the second phase.
+   */
+  default boolean retainsUntaggedNode(long nodeId) {
+    return true;
+  }
+
+  /**
+   * Stores the nodes without tags kept by a provider as ids and coordinates, during the third phase. Providers may
+   * leave out the nodes for which retainsUntaggedNode is false. By default each retained node is added as an OSMNode.
+   */
+  default void addUntaggedNodes(PackedNodeStore nodes) {
+    for (int i = 0; i < nodes.size(); i++) {
+      long id = nodes.getId(i);
+      if (retainsUntaggedNode(id)) {
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.lat = nodes.getLat(i);
+        node.lon = nodes.getLon(i);
+        addNode(node);
+      }
+    }
+  }
+
   /**
    * Called after the first phase, when all relations are loaded.
    */
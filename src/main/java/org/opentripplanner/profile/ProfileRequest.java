@@ -151,6 +151,12 @@ public class ProfileRequest implements Serializable, Cloneable {
 
     /** A non-destructive scenario to apply when executing this request */
     public Scenario scenario;
+
+    /**
+     * Percentiles (0-100) of the travel time over the departure time window to compute for each target, in addition
+     * to the minimum, average and maximum. Null if no percentiles are needed, which saves sorting the travel times.
+     */
+    public int[] percentiles;
     
     public ProfileRequest clone () throws CloneNotSupportedException {
         return (ProfileRequest) super.clone();
@@ -64,6 +64,9 @@ public class PropagatedTimesStore {
     int[] mins, maxs, avgs;
     ProfileRequest req;
 
+    /** Travel times at each of the percentiles in the request, indexed like req.percentiles then by target. */
+    int[][] percentileTimes;
+
     // number of times to bootstrap the mean.
     public final int N_BOOTSTRAPS = 400;
 
@@ -116,6 +119,17 @@ public class PropagatedTimesStore {
             if (includeInAverages[i]) effectiveIterations++;
         }
 
+        // Percentiles are taken over the same iterations as averages, counting iterations where the target was not
+        // reached as infinitely long.
+        int[] sortedTimes = null;
+        if (req.percentiles != null) {
+            percentileTimes = new int[req.percentiles.length][size];
+            for (int[] p : percentileTimes) {
+                Arrays.fill(p, Integer.MAX_VALUE);
+            }
+            sortedTimes = new int[effectiveIterations];
+        }
+
         // loop over targets on the outside so we can bootstrap
         TARGETS: for (int target = 0; target < nTargets; target++) {
             // compute the average
@@ -138,6 +152,18 @@ public class PropagatedTimesStore {
                 timeList.add(times[i][target]);
             }
 
+            if (sortedTimes != null && effectiveIterations > 0) {
+                for (int i = 0, j = 0; i < times.length; i++) {
+                    if (includeInAverages[i]) sortedTimes[j++] = times[i][target];
+                }
+                Arrays.sort(sortedTimes);
+                for (int p = 0; p < req.percentiles.length; p++) {
+                    // nearest rank
+                    int rank = (int) Math.ceil(req.percentiles[p] / 100.0 * effectiveIterations);
+                    percentileTimes[p][target] = sortedTimes[Math.max(0, Math.min(rank, effectiveIterations) - 1)];
+                }
+            }
+
             // never reachable
             if (count == 0)
                 continue TARGETS;
@@ -12,9 +12,12 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.IntStream;
 
 /**
@@ -62,6 +65,9 @@ public class RaptorWorker {
     /** If there are no schedules, the number of Monte Carlo draws to take */
     public static final int TOTAL_MONTE_CARLO_COUNT = 99;
 
+    /** The frequency draws are run in this many chunks per processor, to even out the work of the threads. */
+    private static final int DRAW_CHUNKS_PER_PROCESSOR = 4;
+
     int max_time = 0;
     int round = 0;
     List<int[]> timesPerStopPerRound;
@@ -113,6 +119,18 @@ public class RaptorWorker {
 
     private FrequencyRandomOffsets offsets;
 
+    /** The boarding assumption of the frequency searches, which is the requested one except for the extrema. */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /**
+     * The random offsets of Monte Carlo draw i are drawn from a generator seeded with drawSeed + i, so the results of
+     * a search depend on this seed alone, not on which thread ran which draw or in which order.
+     */
+    public long drawSeed = new Random().nextLong();
+
+    /** Whether to run the frequency searches in parallel. Running them one after the other gives the same results. */
+    public boolean parallelDraws = true;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -127,6 +145,7 @@ public class RaptorWorker {
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
+        boardingAssumption = req.boardingAssumption;
     }
 
     public void advance () {
@@ -192,6 +211,10 @@ public class RaptorWorker {
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
+        // The state of the scheduled search at each minute, from which the frequency searches of that minute start.
+        int drawsPerMinute = monteCarloDraws + 2; // two "fake" draws where we do min or max
+        List<ScheduledState> scheduledStates = new ArrayList<>();
+
         // current iteration
         int iteration = 0;
 
@@ -201,7 +224,8 @@ public class RaptorWorker {
                 LOG.info("minute {}", n);
             }
 
-            // run the scheduled search
+            // run the scheduled search. It reuses the times found for the next minute, so the minutes must be
+            // searched one after the other.
             this.runRaptorScheduled(initialStops, departureTime);
             this.doPropagation(bestNonTransferTimes, scheduledTimesAtTargets, departureTime);
 
@@ -212,55 +236,13 @@ public class RaptorWorker {
                     scheduledTimesAtTargets[i] = nonTransitTimes[i] + departureTime;
             }
 
-            // run the frequency searches
             if (data.hasFrequencies) {
-                for (int i = 0; i < monteCarloDraws + 2; i++) {
-                    // make copies for just this search. We need copies because we can't use dynamic
-                    // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
-
-                    // special cases: calculate the best and the worst cases as well
-                    // Note that this (intentionally) does not affect searches where the user has requested
-                    // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
-                    if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        // use a new Monte Carlo draw each time
-                        // included in averages by default
-                        offsets.randomize();
-
-                    this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
-                            previousPatternsCopy);
-
-                    req.boardingAssumption = requestedBoardingAssumption;
-
-                    // do propagation
-                    int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
-                    System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
+                // The frequency searches start from the scheduled results of this minute, and are run below.
+                scheduledStates.add(new ScheduledState(departureTime, bestTimes, bestNonTransferTimes,
+                        previousPatterns));
+                for (int i = 0; i < drawsPerMinute; i++) {
+                    System.arraycopy(scheduledTimesAtTargets, 0, timesAtTargetsEachIteration[iteration++], 0,
                             scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
-
-                    // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
-                    }
                 }
             } else {
                 final int dt = departureTime;
@@ -270,6 +252,12 @@ public class RaptorWorker {
             }
         }
 
+        // run the frequency searches
+        if (data.hasFrequencies) {
+            runFrequencyDraws(scheduledStates, drawsPerMinute, timesAtTargetsEachIteration,
+                    includeIterationInAverages);
+        }
+
         // make sure we filled the array, otherwise results are garbage.
         // This implies a bug in OTP, but it has happened in the past when we did
         // not set the number of iterations correctly.
@@ -291,6 +279,92 @@ public class RaptorWorker {
         return propagatedTimesStore;
     }
 
+    /**
+     * Run the frequency searches of all minutes, in parallel. Unlike the scheduled search, a search with randomized
+     * schedules cannot reuse the results of the next minute, so each one starts from a copy of the scheduled results
+     * of its minute and is independent of the others. The draws are split into a few chunks per processor, each run
+     * in turn by its own worker, with its own random offsets and touched stops and patterns, which is dropped once the
+     * chunk is done. Each draw seeds the random offsets with its own iteration number and writes only its own row of
+     * the results, so the results are the same whether or not the draws run in parallel.
+     *
+     * @param timesAtTargets for each iteration, the scheduled times at targets of its minute, which are replaced by
+     *                       the elapsed times found by the frequency search.
+     */
+    private void runFrequencyDraws (List<ScheduledState> scheduledStates, int drawsPerMinute, int[][] timesAtTargets,
+                                    boolean[] includeIterationInAverages) {
+        long beginFrequencyTime = System.currentTimeMillis();
+        LongAdder drawTime = new LongAdder();
+        LongAdder drawPropagationTime = new LongAdder();
+        int nDraws = scheduledStates.size() * drawsPerMinute;
+        int nChunks = parallelDraws
+                ? Math.min(nDraws, Runtime.getRuntime().availableProcessors() * DRAW_CHUNKS_PER_PROCESSOR)
+                : Math.min(nDraws, 1);
+        IntStream chunks = IntStream.range(0, nChunks);
+        if (parallelDraws) {
+            chunks = chunks.parallel();
+        }
+        chunks.forEach(chunk -> {
+            RaptorWorker worker = new RaptorWorker(data, req);
+            for (int iteration = chunk * nDraws / nChunks; iteration < (chunk + 1) * nDraws / nChunks; iteration++) {
+                long beginDrawTime = System.currentTimeMillis();
+                long propagationTime = worker.totalPropagationTime;
+                ScheduledState scheduled = scheduledStates.get(iteration / drawsPerMinute);
+                runFrequencyDraw(worker, scheduled, iteration, iteration % drawsPerMinute, timesAtTargets,
+                        includeIterationInAverages);
+                drawPropagationTime.add(worker.totalPropagationTime - propagationTime);
+                drawTime.add(System.currentTimeMillis() - beginDrawTime);
+            }
+        });
+        // The draws overlap, so count the share of the elapsed time they spent propagating.
+        long frequencyTime = System.currentTimeMillis() - beginFrequencyTime;
+        if (drawTime.sum() > 0) {
+            totalPropagationTime += frequencyTime * drawPropagationTime.sum() / drawTime.sum();
+        }
+        LOG.info("{} frequency searches in {}sec", timesAtTargets.length, frequencyTime / 1000.0);
+    }
+
+    /** Run the frequency search of the given iteration, the i-th draw of its minute, with the given worker. */
+    private void runFrequencyDraw (RaptorWorker worker, ScheduledState scheduled, int iteration, int i,
+                                   int[][] timesAtTargets, boolean[] includeIterationInAverages) {
+        // special cases: calculate the best and the worst cases as well
+        // Note that this (intentionally) does not affect searches where the user has requested
+        // an assumption other than RANDOM, or stops with transfer rules.
+        worker.boardingAssumption = req.boardingAssumption;
+        if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+            if (i == 0) {
+                worker.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                // don't include extrema in averages
+                includeIterationInAverages[iteration] = false;
+            } else if (i == 1) {
+                worker.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                includeIterationInAverages[iteration] = false;
+            } else {
+                // use a new Monte Carlo draw each time
+                // included in averages by default
+                worker.offsets.randomize(drawSeed + iteration);
+            }
+        }
+
+        // make copies for just this search. We need copies because we can't use dynamic
+        // programming/range-raptor with randomized schedules
+        int[] bestTimesCopy = Arrays.copyOf(scheduled.bestTimes, scheduled.bestTimes.length);
+        int[] bestNonTransferTimesCopy = Arrays.copyOf(scheduled.bestNonTransferTimes,
+                scheduled.bestNonTransferTimes.length);
+        int[] previousPatternsCopy = Arrays.copyOf(scheduled.previousPatterns, scheduled.previousPatterns.length);
+        worker.runRaptorFrequency(scheduled.departureTime, bestTimesCopy, bestNonTransferTimesCopy,
+                previousPatternsCopy);
+
+        // do propagation, updating the times of this iteration in place
+        int[] frequencyTimesAtTargets = timesAtTargets[iteration];
+        worker.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets, scheduled.departureTime);
+
+        // convert to elapsed time
+        for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
+            if (frequencyTimesAtTargets[t] != UNREACHED)
+                frequencyTimesAtTargets[t] -= scheduled.departureTime;
+        }
+    }
+
     public void dumpVariableByte(int[][] array) {
         try {
             FileOutputStream fos = new FileOutputStream("/Users/abyrd/results.dat");
@@ -391,7 +465,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
@@ -560,4 +634,19 @@ public class RaptorWorker {
         }
     }
 
+    /** A copy of the results of the scheduled search at one departure minute. */
+    private static class ScheduledState {
+        final int departureTime;
+        final int[] bestTimes;
+        final int[] bestNonTransferTimes;
+        final int[] previousPatterns;
+
+        ScheduledState (int departureTime, int[] bestTimes, int[] bestNonTransferTimes, int[] previousPatterns) {
+            this.departureTime = departureTime;
+            this.bestTimes = bestTimes.clone();
+            this.bestNonTransferTimes = bestNonTransferTimes.clone();
+            this.previousPatterns = previousPatterns.clone();
+        }
+    }
+
 }
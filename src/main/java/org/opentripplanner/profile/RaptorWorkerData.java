@@ -458,7 +458,7 @@ public class RaptorWorkerData implements Serializable {
                 Vertex tstop = graph.getVertexById(stop);
                 boolean isPermanentStop = tstop != null && TransitStop.class.isInstance(tstop);
                 // convert distance to time
-                int[] distancesForStop = isPermanentStop ? stc.distancesForStop.get(tstop) : temporaryStopTreeCache.get(stop);
+                int[] distancesForStop = isPermanentStop ? stc.getDistancesForStop(tstop.getIndex()) : temporaryStopTreeCache.get(stop);
                 TIntList timesForStop = new TIntArrayList();
 
                 for (int i = 0; i < distancesForStop.length; i += 2) {
@@ -542,7 +542,7 @@ public class RaptorWorkerData implements Serializable {
                 Vertex tstop = graph.getVertexById(stop);
                 if (tstop != null && TransitStop.class.isInstance(tstop))
                     // permanent stop
-                    distancesForStop = stc.distancesForStop.get(tstop);
+                    distancesForStop = stc.getDistancesForStop(tstop.getIndex());
                 else
                     // temporary stop
                     distancesForStop = temporaryStopTreeCache.get(stop);
@@ -0,0 +1,194 @@
+package org.opentripplanner.profile;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.TimetableSnapshot;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps the RaptorWorkerData built for a graph so that it can be reused by later profile requests. Building the data
+ * means making RAPTOR timetables for every pattern and linking every stop to the streets and to the targets, which
+ * takes much longer than the RAPTOR searches themselves when a client makes many requests for the same day and time
+ * window, as analysis clients do.
+ *
+ * The data is never modified by the routers once built, so one instance is shared by all the requests that would
+ * build identical data: same date, time window, transit modes, boarding assumption, walking parameters, SampleSet
+ * (compared by identity) and scenario (compared by ID). Entries are evicted when the total estimated size of the
+ * cached data exceeds a limit. The whole cache is dropped whenever a new realtime timetable snapshot is published,
+ * since realtime updates can add patterns to the graph.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    public static final int DEFAULT_MAX_MEGABYTES = 512;
+
+    private final Graph graph;
+
+    /** Weighted in kilobytes. */
+    private final Cache<Key, RaptorWorkerData> cache;
+
+    /** The realtime snapshot which was current when the cached data was built. */
+    private TimetableSnapshot snapshot;
+
+    public RaptorWorkerDataCache(Graph graph) {
+        this(graph, DEFAULT_MAX_MEGABYTES);
+    }
+
+    public RaptorWorkerDataCache(Graph graph, int maxMegabytes) {
+        this.graph = graph;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxMegabytes * 1024L)
+                .weigher((Key key, RaptorWorkerData data) -> weigh(data))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get the RAPTOR data for the request and sample set, building it if it is not in the cache. Concurrent requests
+     * for the same data wait for a single build.
+     * @param ts receives the time spent building the data, which is zero when it was found in the cache
+     */
+    public RaptorWorkerData get(ProfileRequest request, SampleSet sampleSet, TaskStatistics ts) {
+        invalidateIfRealtimeChanged();
+        Key key = new Key(request, sampleSet);
+        boolean[] built = new boolean[1];
+        RaptorWorkerData data;
+        try {
+            data = cache.get(key, () -> {
+                built[0] = true;
+                long startTime = System.currentTimeMillis();
+                RaptorWorkerData newData = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+                long buildTime = System.currentTimeMillis() - startTime;
+                if (store.isMonitoring("raptorWorkerDataBuildTime")) {
+                    store.setLongMax("raptorWorkerDataBuildTime", buildTime);
+                }
+                LOG.info("Built RAPTOR data for {} in {} ms, {} entries cached", key, buildTime, cache.size() + 1);
+                return newData;
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Could not build RAPTOR data.", e.getCause());
+        }
+        if (!built[0]) {
+            ts.raptorData = 0;
+        }
+        String counter = built[0] ? "raptorWorkerDataCacheMisses" : "raptorWorkerDataCacheHits";
+        if (store.isMonitoring(counter)) {
+            store.setLong(counter, built[0] ? cache.stats().missCount() : cache.stats().hitCount());
+        }
+        return data;
+    }
+
+    /** Drop all the cached data, for instance because the graph has changed. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private synchronized void invalidateIfRealtimeChanged() {
+        if (graph.timetableSnapshotSource == null) return;
+        TimetableSnapshot current = graph.timetableSnapshotSource.getTimetableSnapshot();
+        if (current != snapshot) {
+            if (snapshot != null && cache.size() > 0) {
+                LOG.info("Realtime timetables have changed, dropping {} cached RAPTOR data.", cache.size());
+            }
+            cache.invalidateAll();
+            snapshot = current;
+        }
+    }
+
+    /** @return a rough estimate of the memory used by the data, in kilobytes. */
+    static int weigh(RaptorWorkerData data) {
+        long ints = 0;
+        for (RaptorWorkerTimetable timetable : data.timetablesForPattern) {
+            ints += timetable.stopIndices == null ? 0 : timetable.stopIndices.length;
+            ints += countInts(timetable.timesPerTrip);
+            ints += countInts(timetable.frequencyTrips);
+            ints += timetable.headwaySecs == null ? 0 : timetable.headwaySecs.length * 3;
+        }
+        for (int[] a : data.transfersForStop) ints += a.length;
+        for (int[] a : data.patternsForStop) ints += a.length;
+        for (int[] a : data.targetsForStop) ints += a.length;
+        ints += data.indexForStop.size() * 2;
+        return (int) Math.min(Integer.MAX_VALUE, ints * Integer.BYTES / 1024 + 1);
+    }
+
+    private static long countInts(int[][] arrays) {
+        if (arrays == null) return 0;
+        long n = 0;
+        for (int[] a : arrays) {
+            // Count the overhead of each array as a few ints
+            n += a.length + 4;
+        }
+        return n;
+    }
+
+    /** The request parameters which the RAPTOR data depends on. */
+    private static class Key {
+
+        final LocalDate date;
+        final int fromTime;
+        final int toTime;
+        final TraverseModeSet transitModes;
+        final RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+        final float walkSpeed;
+        final int maxWalkTime;
+        final SampleSet sampleSet;
+        final Integer scenarioId;
+
+        Key(ProfileRequest request, SampleSet sampleSet) {
+            date = request.date;
+            fromTime = request.fromTime;
+            toTime = request.toTime;
+            transitModes = request.transitModes;
+            boardingAssumption = request.boardingAssumption;
+            walkSpeed = request.walkSpeed;
+            maxWalkTime = request.maxWalkTime;
+            this.sampleSet = sampleSet;
+            scenarioId = request.scenario == null ? null : request.scenario.id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return fromTime == key.fromTime && toTime == key.toTime && walkSpeed == key.walkSpeed
+                    && maxWalkTime == key.maxWalkTime && sampleSet == key.sampleSet
+                    && boardingAssumption == key.boardingAssumption && Objects.equals(date, key.date)
+                    && Objects.equals(transitModes, key.transitModes) && Objects.equals(scenarioId, key.scenarioId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(date, fromTime, toTime, transitModes, boardingAssumption, walkSpeed, maxWalkTime,
+                    System.identityHashCode(sampleSet), scenarioId);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d-%d %s scenario %s", date, fromTime, toTime, transitModes, scenarioId);
+        }
+    }
+
+}
@@ -70,6 +70,9 @@ public class RepeatedRaptorProfileRouter {
      */
     public RaptorWorkerData raptorWorkerData;
 
+    /** If this is set and no raptor data table was provided, the table is taken from or added to this cache. */
+    public RaptorWorkerDataCache raptorWorkerDataCache;
+
     private ShortestPathTree preTransitSpt;
 
     /** The sum of all earliest-arrival travel times to a given transit stop. Will be divided to create an average. */
@@ -130,6 +133,32 @@ public class RepeatedRaptorProfileRouter {
     public ResultEnvelope route () {
 
         boolean isochrone = (sampleSet == null); // When no sample set is provided, we're making isochrones.
+        propagatedTimesStore = findTimes();
+
+        // Turn the results of the search into isochrone geometries or accessibility data as requested.
+        long resultSetStart = System.currentTimeMillis();
+        ResultEnvelope envelope = new ResultEnvelope();
+        if (isochrone) {
+            // No destination point set was provided and we're just making isochrones based on travel time to vertices,
+            // rather than finding access times to a set of user-specified points.
+            envelope = propagatedTimesStore.makeIsochronesForVertices();
+        } else {
+            // A destination point set was provided. We've found access times to a set of specified points.
+            // TODO actually use those boolean params to calculate isochrones on a regular grid pointset
+            // TODO maybe there's a better way to pass includeTimes in here from the clusterRequest,
+            // maybe we should just provide the whole clusterRequest not just the wrapped profileRequest.
+            envelope = propagatedTimesStore.makeResults(sampleSet, includeTimes, true, false);
+        }
+        ts.resultSets = (int) (System.currentTimeMillis() - resultSetStart);
+        return envelope;
+    }
+
+    /**
+     * Run the searches, and return the summary statistics of the travel times to the targets (the samples of the
+     * sample set if there is one, otherwise the vertices of the graph) without turning them into results.
+     */
+    public PropagatedTimesStore findTimes () {
+
         boolean transit = (request.transitModes != null && request.transitModes.isTransit()); // Does the search involve transit at all?
 
         long computationStartTime = System.currentTimeMillis();
@@ -139,7 +168,11 @@ public class RepeatedRaptorProfileRouter {
         // We only create data tables if transit is in use, otherwise they wouldn't serve any purpose.
         if (raptorWorkerData == null && transit) {
             long dataStart = System.currentTimeMillis();
-            raptorWorkerData = getRaptorWorkerData(request, graph, sampleSet, ts);
+            if (raptorWorkerDataCache != null) {
+                raptorWorkerData = raptorWorkerDataCache.get(request, sampleSet, ts);
+            } else {
+                raptorWorkerData = getRaptorWorkerData(request, graph, sampleSet, ts);
+            }
             ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
         }
 
@@ -192,23 +225,7 @@ public class RepeatedRaptorProfileRouter {
         }
         ts.compute = (int) (System.currentTimeMillis() - computationStartTime);
         LOG.info("Profile request finished in {} seconds", (ts.compute) / 1000.0);
-
-        // Turn the results of the search into isochrone geometries or accessibility data as requested.
-        long resultSetStart = System.currentTimeMillis();
-        ResultEnvelope envelope = new ResultEnvelope();
-        if (isochrone) {
-            // No destination point set was provided and we're just making isochrones based on travel time to vertices,
-            // rather than finding access times to a set of user-specified points.
-            envelope = propagatedTimesStore.makeIsochronesForVertices();
-        } else {
-            // A destination point set was provided. We've found access times to a set of specified points.
-            // TODO actually use those boolean params to calculate isochrones on a regular grid pointset
-            // TODO maybe there's a better way to pass includeTimes in here from the clusterRequest,
-            // maybe we should just provide the whole clusterRequest not just the wrapped profileRequest.
-            envelope = propagatedTimesStore.makeResults(sampleSet, includeTimes, true, false);
-        }
-        ts.resultSets = (int) (System.currentTimeMillis() - resultSetStart);
-        return envelope;
+        return propagatedTimesStore;
     }
 
     /**
@@ -272,13 +289,15 @@ public class RepeatedRaptorProfileRouter {
 
         // Return nearest stops if we're using transit,
         // otherwise return null and leave preTransitSpt around for later use.
+        TIntIntMap accessTimes = null;
         if (data != null) {
-            TIntIntMap accessTimes = data.findStopsNear(preTransitSpt, graph, rr.modes.contains(TraverseMode.BICYCLE), request.walkSpeed);
+            accessTimes = data.findStopsNear(preTransitSpt, graph, rr.modes.contains(TraverseMode.BICYCLE), request.walkSpeed);
             LOG.info("Found {} transit stops", accessTimes.size());
-            return accessTimes;
-        } else {
-            return null;
         }
+        // Unlink the temporary origin vertex from the graph. The states of the tree remain usable, but the graph
+        // would otherwise accumulate temporary edges from every origin when one router is used for many searches.
+        rr.cleanup();
+        return accessTimes;
     }
 
     /** Create RAPTOR worker data from a graph, profile request and sample set (the last of which may be null */
@@ -1,74 +1,187 @@
 package org.opentripplanner.profile;
 
-import com.beust.jcommander.internal.Maps;
-
-import org.opentripplanner.routing.algorithm.AStar;
+import gnu.trove.list.TByteList;
+import gnu.trove.list.array.TByteArrayList;
+import org.opentripplanner.routing.algorithm.StreetDistanceSearch;
 import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.spt.DominanceFunction;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
 
 /**
  * Keeps travel distances from all transit stops in a particular Graph to their nearby street nodes.
  * This allows us to propagate travel times out from transit to streets much faster in one-to-many analyst queries.
  * The StopTreeCache has a fixed distance cutoff, so will be unable to provide distance information for vertices beyond
  * that cutoff distance.
+ *
+ * The cache can be built with the graph and saved in it (see StopTreeCacheModule), so that it is available as soon as
+ * the graph is loaded. It refers to vertices by index, which is saved with them. The distances of all stops are held
+ * in a few flat arrays, by the position of the stop among the stop vertex indexes in increasing order: the vertices
+ * near each stop are sorted by index and stored as variable-length differences between successive indexes, and the
+ * distances as unsigned 16 bit meters, so each pair takes three or four bytes.
  */
-public class StopTreeCache {
+public class StopTreeCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final Logger LOG = LoggerFactory.getLogger(StopTreeCache.class);
-    final int maxWalkMeters;
-    // Flattened 2D array of (streetVertexIndex, distanceFromStop) for each TransitStop
-    public final Map<TransitStop, int[]> distancesForStop = Maps.newHashMap();
+
+    /** The stops are searched in this many chunks per processor, to even out the work of the threads. */
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
+    public final int maxWalkMeters;
+
+    /** The vertex index of each transit stop, in increasing order. */
+    private final int[] stopVertices;
+
+    /** The pairs of stop s are numbered from pairStart[s] to pairStart[s + 1] - 1. */
+    private final int[] pairStart;
+
+    /** The vertex index differences of stop s start at byte deltaStart[s] of vertexDeltas. */
+    private final int[] deltaStart;
+
+    /** Unsigned LEB128 differences between the index of each vertex and the previous one near the same stop. */
+    private final byte[] vertexDeltas;
+
+    /** The distance in meters to each vertex, as an unsigned 16 bit integer. */
+    private final char[] distances;
 
     public StopTreeCache (Graph graph, int maxWalkMeters) {
+        if (maxWalkMeters > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Stop tree distances are limited to " + (int) Character.MAX_VALUE + " m.");
+        }
         this.maxWalkMeters = maxWalkMeters;
         LOG.info("Caching distances to nearby street intersections from each transit stop...");
-        graph.index.stopVertexForStop.values().parallelStream().forEach(tstop -> {
-            RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
-            rr.batch = (true);
-            rr.setRoutingContext(graph, tstop, tstop);
-            AStar astar = new AStar();
-            rr.longDistance = true;
-            rr.setNumItineraries(1);
-
-            // since we're storing distances and later using them to optimize
-            // (in the profile propagation code we optimize on distance / walkSpeed
-            //  not the actual time including turn costs etc.),
-            // we need to optimize on distance here as well.
-            rr.maxWalkDistance = maxWalkMeters;
-            rr.softWalkLimiting = false;
-            rr.dominanceFunction = new DominanceFunction.LeastWalk();
-
-            ShortestPathTree spt = astar.getShortestPathTree(rr, 5); // timeout in seconds
-            // Copy vertex indices and distances into a flattened 2D array
-            int[] distances = new int[spt.getVertexCount() * 2];
-            int i = 0;
-            for (Vertex vertex : spt.getVertices()) {
-                State state = spt.getState(vertex);
-                
-                if (state == null)
-                    continue;
-                
-                distances[i++] = vertex.getIndex();
-                distances[i++] = (int) state.getWalkDistance();
+        TransitStop[] stops = graph.getVertices().stream().filter(v -> v instanceof TransitStop)
+                .sorted(Comparator.comparingInt(Vertex::getIndex)).toArray(TransitStop[]::new);
+        int nStops = stops.length;
+        stopVertices = new int[nStops];
+        for (int s = 0; s < nStops; s++) {
+            stopVertices[s] = stops[s].getIndex();
+        }
+        // Since we're storing distances and later using them to optimize
+        // (in the profile propagation code we optimize on distance / walkSpeed
+        //  not the actual time including turn costs etc.),
+        // we need to optimize on distance here as well. The distance search does exactly that without creating
+        // any States. Its arrays are as large as the graph, so the stops are split into a few chunks per processor,
+        // each searched in turn with its own search, which is dropped once the chunk is done.
+        RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
+        // The (vertex index << 16 | distance) of the vertices near each stop, sorted by vertex index.
+        long[][] pairsForStop = new long[nStops][];
+        int nChunks = Math.min(nStops, Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR);
+        IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+            StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK, graph.compactStreetGraph);
+            search.maxDistanceMeters = maxWalkMeters;
+            for (int s = chunk * nStops / nChunks; s < (chunk + 1) * nStops / nChunks; s++) {
+                search.search(stops[s], rr);
+                long[] pairs = new long[search.getReachedCount()];
+                for (int v = 0; v < pairs.length; v++) {
+                    int distance = (int) search.getDistance(search.getReachedVertex(v));
+                    pairs[v] = ((long) search.getReachedVertex(v).getIndex() << 16) | distance;
+                }
+                Arrays.sort(pairs);
+                pairsForStop[s] = pairs;
             }
+        });
 
-            rr.cleanup();
+        pairStart = new int[nStops + 1];
+        deltaStart = new int[nStops + 1];
+        for (int s = 0; s < nStops; s++) {
+            pairStart[s + 1] = pairStart[s] + pairsForStop[s].length;
+        }
+        distances = new char[pairStart[nStops]];
+        TByteList deltas = new TByteArrayList(pairStart[nStops] * 2);
+        for (int s = 0; s < nStops; s++) {
+            int previousVertex = 0;
+            int p = pairStart[s];
+            for (long pair : pairsForStop[s]) {
+                int vertex = (int) (pair >>> 16);
+                int delta = vertex - previousVertex;
+                while ((delta & ~0x7F) != 0) {
+                    deltas.add((byte) ((delta & 0x7F) | 0x80));
+                    delta >>>= 7;
+                }
+                deltas.add((byte) delta);
+                previousVertex = vertex;
+                distances[p++] = (char) (pair & 0xFFFF);
+            }
+            deltaStart[s + 1] = deltas.size();
+        }
+        vertexDeltas = deltas.toArray();
+        LOG.info("Done caching distances to nearby street intersections from each transit stop: {} stops, {} vertex "
+                + "distances in {} bytes.", nStops, distances.length, vertexDeltas.length + distances.length * 2);
+    }
+
+    /** @return the position of the stop with the given vertex index in the arrays, or a negative number if none. */
+    private int stopPosition(int stopVertex) {
+        return Arrays.binarySearch(stopVertices, stopVertex);
+    }
 
-            synchronized (distancesForStop) {
-                distancesForStop.put(tstop, distances);
+    /** @return whether the vertex indexes of this cache are those of the transit stops of the graph. */
+    public boolean isValidFor(Graph graph) {
+        for (int stopVertex : stopVertices) {
+            if (!(graph.getVertexById(stopVertex) instanceof TransitStop)) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    /** @return the vertex indexes of the transit stops in this cache, in increasing order. */
+    public int[] getStopVertexIndexes() {
+        return stopVertices.clone();
+    }
+
+    /**
+     * @return a flattened 2D array of (streetVertexIndex, distanceFromStop) for the transit stop with the given vertex
+     * index, or null if it is not in the cache.
+     */
+    public int[] getDistancesForStop(int stopVertex) {
+        int s = stopPosition(stopVertex);
+        if (s < 0) {
+            return null;
+        }
+        int[] result = new int[(pairStart[s + 1] - pairStart[s]) * 2];
+        int[] i = new int[1];
+        forEachPair(s, (vertex, distance) -> {
+            result[i[0]++] = vertex;
+            result[i[0]++] = distance;
         });
-        LOG.info("Done caching distances to nearby street intersections from each transit stop.");
+        return result;
+    }
+
+    public int[] getDistancesForStop(TransitStop transitStop) {
+        return getDistancesForStop(transitStop.getIndex());
+    }
+
+    private interface PairVisitor {
+        void visit(int vertexIndex, int distance);
+    }
+
+    /** Decode the (vertex index, distance) pairs of the stop at the given position. */
+    private void forEachPair(int s, PairVisitor visitor) {
+        int vertexIndex = 0;
+        int b = deltaStart[s];
+        for (int p = pairStart[s]; p < pairStart[s + 1]; p++) {
+            int delta = 0;
+            byte encoded;
+            int shift = 0;
+            do {
+                encoded = vertexDeltas[b++];
+                delta |= (encoded & 0x7F) << shift;
+                shift += 7;
+            } while (encoded < 0);
+            vertexIndex += delta;
+            visitor.visit(vertexIndex, distances[p]);
+        }
     }
 
     /**
@@ -77,14 +190,13 @@ public class StopTreeCache {
      * into the same targetArray.
      */
     public void propagateStop(TransitStop transitStop, int baseTimeSeconds, double walkSpeed, int[] targetArray) {
+        int s = stopPosition(transitStop.getIndex());
+        if (s < 0) {
+            return;
+        }
         // Iterate over street intersections in the vicinity of this particular transit stop.
         // Shift the time range at this transit stop, merging it into that for all reachable street intersections.
-        int[] distances = distancesForStop.get(transitStop);
-        int v = 0;
-        while (v < distances.length) {
-            // Unravel flattened 2D array
-            int vertexIndex = distances[v++];
-            int distance = distances[v++];
+        forEachPair(s, (vertexIndex, distance) -> {
             // distance in meters over walkspeed in meters per second --> seconds
             int egressWalkTimeSeconds = (int) (distance / walkSpeed);
             int propagated_time = baseTimeSeconds + egressWalkTimeSeconds;
@@ -92,8 +204,7 @@ public class StopTreeCache {
             if (existing_min == 0 || existing_min > propagated_time) {
                 targetArray[vertexIndex] = propagated_time;
             }
-        }
-
+        });
     }
 
 }
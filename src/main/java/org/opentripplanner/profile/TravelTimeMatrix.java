@@ -0,0 +1,221 @@
+package org.opentripplanner.profile;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Travel times from every point of an origin PointSet to every point of a destination PointSet, computed with one
+ * repeated RAPTOR search per origin and written out as a binary matrix while the searches are running.
+ *
+ * The RAPTOR data tables (including the trees linking transit stops to the destinations) do not depend on the origin,
+ * so they are built once and shared by all the searches. Origins are searched in parallel, on a thread pool shared by
+ * all matrices so that concurrent requests cannot start more threads than there are processors. Each row is written
+ * as soon as it is complete, in the order in which they complete, and only a few rows per thread are computed ahead of
+ * the writer, so memory use does not grow with the number of origins.
+ *
+ * The matrix is made of little-endian 32-bit integers. The header holds MAGIC, VERSION, the number of origins, the
+ * number of destinations, the number of statistics and then one code per statistic: MIN, AVG, MAX, or a percentile
+ * between 0 and 100. Each row holds the index of its origin in the origin PointSet followed, for each statistic in the
+ * order of the header, by the travel times in seconds to each destination. Destinations that cannot be reached are
+ * given the travel time UNREACHED. Origins that cannot be linked to the street network have all their destinations
+ * unreached.
+ */
+public class TravelTimeMatrix {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrix.class);
+
+    /** "OTPM" in ASCII. */
+    public static final int MAGIC = 0x4F54504D;
+
+    public static final int VERSION = 1;
+
+    public static final int UNREACHED = -1;
+
+    /* Codes of the statistics which are not percentiles. */
+    public static final int MIN = -1;
+    public static final int AVG = -2;
+    public static final int MAX = -3;
+
+    /** The number of rows each thread may compute ahead of the one being written. */
+    private static final int ROWS_AHEAD_PER_THREAD = 2;
+
+    /** Runs the searches of all matrices, the number of rows in flight per matrix is bounded by nThreads. */
+    private static final ExecutorService ROW_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("travel-time-matrix-%d").setDaemon(true).build());
+
+    private final Graph graph;
+
+    /** The search parameters, with the origin coordinates being set for each origin. */
+    private final ProfileRequest request;
+
+    private final PointSet origins;
+
+    private final PointSet destinations;
+
+    private final int[] statistics;
+
+    /** The number of origins searched in parallel, at most the number of threads of the shared pool. */
+    public int nThreads = Runtime.getRuntime().availableProcessors();
+
+    /** If set, the RAPTOR data is taken from or added to this cache rather than built for this matrix alone. */
+    public RaptorWorkerDataCache raptorWorkerDataCache;
+
+    /**
+     * @param statistics the codes of the statistics to write for each origin. The percentiles are added to the request.
+     */
+    public TravelTimeMatrix(Graph graph, ProfileRequest request, PointSet origins, PointSet destinations,
+            List<Integer> statistics) {
+        this.graph = graph;
+        this.request = request;
+        this.origins = origins;
+        this.destinations = destinations;
+        this.statistics = statistics.stream().mapToInt(Integer::intValue).toArray();
+        for (int statistic : this.statistics) {
+            if (statistic < MAX || statistic > 100) {
+                throw new IllegalArgumentException("Invalid statistic code " + statistic);
+            }
+        }
+        request.percentiles = statistics.stream().filter(s -> s >= 0).mapToInt(Integer::intValue).toArray();
+    }
+
+    public void write(OutputStream out) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int nOrigins = origins.capacity;
+        int nDestinations = destinations.capacity;
+        ByteBuffer header = littleEndianBuffer(5 + statistics.length);
+        header.putInt(MAGIC).putInt(VERSION).putInt(nOrigins).putInt(nDestinations).putInt(statistics.length);
+        for (int statistic : statistics) {
+            header.putInt(statistic);
+        }
+        out.write(header.array());
+
+        SampleSet sampleSet = destinations.getOrCreateSampleSet(graph);
+        RaptorWorkerData data = null;
+        if (request.transitModes != null && request.transitModes.isTransit()) {
+            data = raptorWorkerDataCache != null
+                    ? raptorWorkerDataCache.get(request, sampleSet, new TaskStatistics())
+                    : RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, new TaskStatistics());
+        }
+        final RaptorWorkerData sharedData = data;
+
+        CompletionService<ByteBuffer> rows = new ExecutorCompletionService<>(ROW_EXECUTOR);
+        // The rows submitted and not yet written, to be cancelled if the matrix cannot be completed.
+        Set<Future<ByteBuffer>> pending = new HashSet<>();
+        try {
+            int submitted = 0;
+            for (; submitted < nOrigins && submitted < nThreads * ROWS_AHEAD_PER_THREAD; submitted++) {
+                final int origin = submitted;
+                pending.add(rows.submit(() -> computeRow(origin, sampleSet, sharedData)));
+            }
+            for (int written = 0; written < nOrigins; written++) {
+                Future<ByteBuffer> row = rows.take();
+                pending.remove(row);
+                out.write(row.get().array());
+                if (submitted < nOrigins) {
+                    final int origin = submitted++;
+                    pending.add(rows.submit(() -> computeRow(origin, sampleSet, sharedData)));
+                }
+                if (written % 1000 == 999) {
+                    LOG.info("Wrote {} of {} travel time matrix rows", written + 1, nOrigins);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing travel time matrix.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compute travel time matrix row.", e.getCause());
+        } finally {
+            pending.forEach(row -> row.cancel(true));
+        }
+        out.flush();
+        LOG.info("Travel time matrix of {} origins by {} destinations computed in {} sec", nOrigins, nDestinations,
+                (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    private ByteBuffer computeRow(int origin, SampleSet sampleSet, RaptorWorkerData data)
+            throws CloneNotSupportedException {
+        int nDestinations = destinations.capacity;
+        ByteBuffer row = littleEndianBuffer(1 + statistics.length * nDestinations);
+        row.putInt(origin);
+
+        // The worker changes the boarding assumption of the request while it runs, so each search gets its own copy.
+        ProfileRequest req = request.clone();
+        req.fromLat = req.toLat = origins.getLat(origin);
+        req.fromLon = req.toLon = origins.getLon(origin);
+        RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(graph, req, sampleSet);
+        router.raptorWorkerData = data;
+        PropagatedTimesStore times;
+        try {
+            times = router.findTimes();
+        } catch (VertexNotFoundException e) {
+            LOG.warn("Origin {} of travel time matrix could not be linked to the street network.", origin);
+            for (int i = 0; i < statistics.length * nDestinations; i++) {
+                row.putInt(UNREACHED);
+            }
+            return row;
+        }
+
+        int nextPercentile = 0;
+        for (int statistic : statistics) {
+            int[] values;
+            if (statistic == MIN) values = times.mins;
+            else if (statistic == AVG) values = times.avgs;
+            else if (statistic == MAX) values = times.maxs;
+            else values = times.percentileTimes[nextPercentile++];
+            for (int destination = 0; destination < nDestinations; destination++) {
+                int time = values[destination];
+                row.putInt(time == RaptorWorker.UNREACHED ? UNREACHED : time);
+            }
+        }
+        return row;
+    }
+
+    private static ByteBuffer littleEndianBuffer(int nInts) {
+        return ByteBuffer.allocate(nInts * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Parse a comma-separated list of statistics, each of which is "min", "avg", "max" or a percentile like "p50", in
+     * any case.
+     * @return the codes of the statistics.
+     */
+    public static List<Integer> parseStatistics(String statistics) {
+        return Arrays.stream(statistics.split(",")).map(s -> s.trim().toLowerCase()).map(s -> {
+            switch (s) {
+                case "min": return MIN;
+                case "avg": return AVG;
+                case "max": return MAX;
+                default:
+                    if (s.startsWith("p")) {
+                        int percentile = Integer.parseInt(s.substring(1));
+                        if (percentile >= 0 && percentile <= 100) return percentile;
+                    }
+                    throw new IllegalArgumentException("Unknown travel time statistic: " + s);
+            }
+        }).collect(Collectors.toList());
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -52,9 +53,15 @@ public class AStar {
         public State u;
         public ShortestPathTree spt;
         BinHeap<State> pq;
+        /* Used instead of pq when the shortest path tree removes dominated states from the queue. */
+        IndexedDaryHeap<State> evictingPq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
+        /* Counts of queue operations, for comparing the two queue implementations. */
+        long nEnqueued;
+        long nDequeued;
+        int maxQueueSize;
         public List<State> targetAcceptedStates;
         public RunStatus status;
         private RoutingRequest options;
@@ -122,21 +129,26 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        if (options.evictDominatedStates) {
+            runState.evictingPq = new IndexedDaryHeap<>(initialSize);
+            runState.spt.setQueue(runState.evictingPq);
+        } else {
+            runState.pq = new BinHeap<>(initialSize);
+        }
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
         if (addToQueue) {
             State initialState = new State(options);
             runState.spt.add(initialState);
-            runState.pq.insert(initialState, 0);
+            enqueue(initialState, 0);
         }
     }
 
     boolean iterate(){
         // print debug info
         if (verbose) {
-            double w = runState.pq.peek_min_key();
+            double w = runState.pq != null ? runState.pq.peek_min_key() : runState.evictingPq.peek_min_key();
             System.out.println("pq min key = " + w);
         }
 
@@ -144,7 +156,7 @@ public class AStar {
         runState.heuristic.doSomeWork();
 
         // get the lowest-weight state in the queue
-        runState.u = runState.pq.extract_min();
+        runState.u = dequeue();
         
         // check that this state has not been dominated
         // and mark vertex as visited
@@ -216,7 +228,7 @@ public class AStar {
                     if (traverseVisitor != null)
                         traverseVisitor.visitEnqueue(v);
                     //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
-                    runState.pq.insert(v, estimate);
+                    enqueue(v, estimate);
                 } 
             }
         }
@@ -226,7 +238,7 @@ public class AStar {
     
     void runSearch(long abortTime){
         /* the core of the A* algorithm */
-        while (!runState.pq.empty()) { // Until the priority queue is empty:
+        while (!queueEmpty()) { // Until the priority queue is empty:
             /*
              * Terminate based on timeout?
              */
@@ -301,6 +313,7 @@ public class AStar {
         if (runState != null) {
             runSearch(abortTime);
             spt = runState.spt;
+            logQueueStatistics();
         }
         
         storeMemory();
@@ -321,16 +334,61 @@ public class AStar {
                 runState.spt.add(state);
                 // TODO: hardwired for earliest arrival
                 // TODO: weights are seconds, no?
-                runState.pq.insert(state, state.getElapsedTimeSeconds());
+                enqueue(state, state.getElapsedTimeSeconds());
             }
             
             runSearch(abortTime);
             spt = runState.spt;
+            logQueueStatistics();
         }
         
         return spt;
     }
 
+    private void enqueue(State state, double priority) {
+        runState.nEnqueued += 1;
+        int size;
+        if (runState.evictingPq != null) {
+            state.setQueueHandle(runState.evictingPq.insert(state, priority));
+            size = runState.evictingPq.size();
+        } else {
+            runState.pq.insert(state, priority);
+            size = runState.pq.size();
+        }
+        if (size > runState.maxQueueSize) {
+            runState.maxQueueSize = size;
+        }
+    }
+
+    private State dequeue() {
+        runState.nDequeued += 1;
+        return runState.evictingPq != null ? runState.evictingPq.extract_min() : runState.pq.extract_min();
+    }
+
+    private boolean queueEmpty() {
+        return runState.evictingPq != null ? runState.evictingPq.empty() : runState.pq.empty();
+    }
+
+    /**
+     * Report how much work the priority queue did. Extracted states that were not visited had been dominated while
+     * waiting in the queue; with evictDominatedStates these are removed from the queue instead.
+     */
+    private void logQueueStatistics() {
+        long nEvicted = runState.evictingPq != null ? runState.evictingPq.getRemoveCount() : 0;
+        long nDominated = runState.nDequeued - runState.nVisited;
+        LOG.debug("Queue: {} enqueued, {} extracted, {} dominated on extraction, {} evicted, max size {}",
+                runState.nEnqueued, runState.nDequeued, nDominated, nEvicted, runState.maxQueueSize);
+        if (store.isMonitoring("queueExtracted")) {
+            store.setLongMax("queueExtracted", runState.nDequeued);
+        }
+        if (store.isMonitoring("queueDominated")) {
+            store.setLongMax("queueDominated", nDominated);
+        }
+        if (store.isMonitoring("queueMaxSize")) {
+            store.setLongMax("queueMaxSize", runState.maxQueueSize);
+        }
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
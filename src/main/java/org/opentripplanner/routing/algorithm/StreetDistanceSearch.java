@@ -0,0 +1,290 @@
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.ElevatorAlightEdge;
+import org.opentripplanner.routing.edgetype.ElevatorBoardEdge;
+import org.opentripplanner.routing.edgetype.ElevatorHopEdge;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.PathwayEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A one-to-many Dijkstra search over the street network that minimizes distance, for the many places where we only
+ * need to know how far away things are on foot (nearby stops for transfers, stop tree caches, stops near a point).
+ *
+ * Unlike AStar, this search does not create any State objects. The label of each vertex is just a distance and a back
+ * edge, held in arrays indexed by vertex index, so edge traversal allocates nothing. The arrays are sized to the graph
+ * and cleared lazily, so one instance should be reused for many searches. An instance is not threadsafe; use one per
+ * thread. States are only created on request, by replaying the edges of the path to one vertex (see getState).
+ *
+ * Only the edge types found on foot paths are traversed: street edges (checking permissions, barriers and wheelchair
+ * accessibility), links to transit stops, free edges, pathways and elevators. All other edges are ignored. The search
+ * never continues through a transit stop other than the origin. As in StateEditor, temporary vertices are only
+ * reached if they belong to the routing context of the options, so the search never wanders onto the temporary edges
+ * another request has linked into the street graph. Turn costs are not applied since they do not change
+ * walk distance, so distances match those of a LeastWalk search up to the small turn cost tie-breaker.
+ *
+ * Given the CompactStreetGraph of the graph, the street edges of the vertices whose edges have not changed since it
+ * was built are read from its arrays rather than from the edge objects. Other edges, and all edges of vertices
+ * created or changed after it (by temporary edges or updaters splitting streets), are still read from the vertices.
+ */
+public class StreetDistanceSearch {
+
+    private static final double GROW_FACTOR = 1.5;
+
+    /** Vertices further than this from the origin are not reached. */
+    public double maxDistanceMeters = Double.POSITIVE_INFINITY;
+
+    private final TraverseMode mode;
+
+    /** The street edges of the graph in compact form, or null to read all edges from the vertices. */
+    private final CompactStreetGraph streets;
+
+    /** Supplies the search direction and wheelchair requirements, and is used to replay paths into States. */
+    private RoutingRequest options;
+
+    private Vertex origin;
+
+    /** Distance in meters from the origin to each vertex by vertex index, or positive infinity if not reached. */
+    private double[] distance;
+
+    /** The last edge on the best path to each vertex by vertex index. */
+    private Edge[] backEdge;
+
+    /** The handle of each vertex in the queue, valid while the vertex is in the queue. */
+    private int[] queueHandle;
+
+    /** The vertices reached by the current search, in the order they were first reached. */
+    private Vertex[] reached;
+
+    private int nReached = 0;
+
+    private final IndexedDaryHeap<Vertex> queue = new IndexedDaryHeap<>();
+
+    public StreetDistanceSearch(TraverseMode mode) {
+        this(mode, null);
+    }
+
+    public StreetDistanceSearch(TraverseMode mode, CompactStreetGraph streets) {
+        this.mode = mode;
+        this.streets = streets;
+        int nVertices = Math.max(Math.max(Vertex.getMaxIndex(), streets == null ? 0 : streets.getVertexCount()), 16);
+        distance = new double[nVertices];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        backEdge = new Edge[nVertices];
+        queueHandle = new int[nVertices];
+        reached = new Vertex[64];
+    }
+
+    /**
+     * Find the distance to every vertex within maxDistanceMeters of the origin, replacing the results of any previous
+     * search. The search follows incoming edges toward the origin if the options are arriveBy.
+     */
+    public void search(Vertex origin, RoutingRequest options) {
+        clear();
+        this.origin = origin;
+        this.options = options;
+        boolean arriveBy = options.arriveBy;
+
+        ensureCapacity(origin.getIndex());
+        improve(origin, 0, null);
+
+        while (!queue.empty()) {
+            Vertex u = queue.extract_min();
+            // Do not detour through transit stops, as StreetTransitLink does not allow it.
+            if (u != origin && u instanceof TransitStop) continue;
+            int ui = u.getIndex();
+            double du = distance[ui];
+            boolean compact = streets != null && streets.contains(ui) && streets.isUnchanged(ui, arriveBy);
+            if (compact) {
+                int end = streets.getArcsEnd(ui, arriveBy);
+                for (int i = streets.getArcsStart(ui, arriveBy); i < end; i++) {
+                    int arc = streets.getArc(i, arriveBy);
+                    if (!canTraverse(arc)) continue;
+                    double dv = du + streets.getDistance(arc);
+                    if (dv > maxDistanceMeters) continue;
+                    int vi = arriveBy ? streets.getFromVertex(arc) : streets.getToVertex(arc);
+                    if (dv < distance[vi]) {
+                        improve(streets.getVertex(vi), dv, streets.getEdge(arc));
+                    }
+                }
+                if (!streets.hasOtherEdges(ui)) continue;
+            }
+            for (Edge edge : arriveBy ? u.getIncoming() : u.getOutgoing()) {
+                // The street edges were already read from the compact graph.
+                if (compact && edge instanceof StreetEdge) continue;
+                double d = traversalDistance(edge);
+                if (d < 0) continue;
+                double dv = du + d;
+                if (dv > maxDistanceMeters) continue;
+                Vertex v = arriveBy ? edge.getFromVertex() : edge.getToVertex();
+                if (isOtherRequestsVertex(v)) continue;
+                ensureCapacity(v.getIndex());
+                if (dv < distance[v.getIndex()]) {
+                    improve(v, dv, edge);
+                }
+            }
+        }
+    }
+
+    /** @return the number of vertices reached by the last search, including the origin. */
+    public int getReachedCount() {
+        return nReached;
+    }
+
+    /** @return the i-th vertex reached by the last search. Together with getReachedCount this allows iterating over
+     * the results without allocating a collection. */
+    public Vertex getReachedVertex(int i) {
+        return reached[i];
+    }
+
+    /** @return the distance in meters from the origin to the given vertex, or positive infinity if it was not reached */
+    public double getDistance(Vertex vertex) {
+        int index = vertex.getIndex();
+        return index < distance.length ? distance[index] : Double.POSITIVE_INFINITY;
+    }
+
+    /** @return the edges on the shortest path from the origin to the given vertex in search order, or null if the
+     * vertex was not reached. For arriveBy searches the path leads from the vertex to the origin. */
+    public List<Edge> getPath(Vertex vertex) {
+        if (Double.isInfinite(getDistance(vertex))) {
+            return null;
+        }
+        LinkedList<Edge> path = new LinkedList<>();
+        boolean arriveBy = options.arriveBy;
+        Vertex v = vertex;
+        while (v != origin) {
+            Edge edge = backEdge[v.getIndex()];
+            path.addFirst(edge);
+            v = arriveBy ? edge.getToVertex() : edge.getFromVertex();
+        }
+        return path;
+    }
+
+    /**
+     * Rebuild the full State at the given vertex by traversing the edges of its shortest path starting from a new
+     * State at the origin, with the options given to the last search. This is the only place the search creates
+     * States, so it should only be called for the few vertices whose paths are actually needed.
+     * @return the State at the vertex, or null if the vertex was not reached or the full edge traversal rules reject
+     *         the path.
+     */
+    public State getState(Vertex vertex) {
+        List<Edge> path = getPath(vertex);
+        if (path == null) {
+            return null;
+        }
+        State state = new State(origin, options);
+        for (Edge edge : path) {
+            state = edge.traverse(state);
+            if (state == null) {
+                return null;
+            }
+        }
+        return state;
+    }
+
+    /** The same rules as for StreetEdges in traversalDistance, for an arc of the compact graph. */
+    private boolean canTraverse(int arc) {
+        return streets.canTraverse(arc, options, mode)
+                || (mode == TraverseMode.BICYCLE && streets.canTraverse(arc, options, TraverseMode.WALK));
+    }
+
+    /**
+     * @return the distance added by traversing the given edge on foot (or in the mode of this search), or a negative
+     *         number if the edge cannot be traversed.
+     */
+    private double traversalDistance(Edge edge) {
+        if (edge instanceof StreetEdge) {
+            StreetEdge streetEdge = (StreetEdge) edge;
+            if (streetEdge.canTraverse(options, mode)) {
+                return streetEdge.getDistance();
+            }
+            // Cyclists can walk their bikes where they cannot ride
+            if (mode == TraverseMode.BICYCLE && streetEdge.canTraverse(options, TraverseMode.WALK)) {
+                return streetEdge.getDistance();
+            }
+            return -1;
+        }
+        if (edge instanceof StreetTransitLink) {
+            if (mode == TraverseMode.CAR) return -1;
+            if (options.wheelchairAccessible && !((StreetTransitLink) edge).isWheelchairAccessible()) return -1;
+            return 0;
+        }
+        if (edge instanceof FreeEdge || edge instanceof ElevatorBoardEdge || edge instanceof ElevatorAlightEdge) {
+            return 0;
+        }
+        if (edge instanceof ElevatorHopEdge) {
+            ElevatorHopEdge hop = (ElevatorHopEdge) edge;
+            if (options.wheelchairAccessible && !hop.wheelchairAccessible) return -1;
+            return hop.canTraverse(mode) ? 0 : -1;
+        }
+        if (edge instanceof PathwayEdge) {
+            if (options.wheelchairAccessible && !((PathwayEdge) edge).isWheelchairAccessible()) return -1;
+            return edge.getDistance();
+        }
+        return -1;
+    }
+
+    /** @return whether the vertex is a temporary vertex that was not created for the routing context of the options. */
+    private boolean isOtherRequestsVertex(Vertex v) {
+        return v instanceof TemporaryVertex
+                && (options.rctx == null || !options.rctx.temporaryVertices.contains(v));
+    }
+
+    /** Record a shorter path to the given vertex and make sure it is queued with its new distance. */
+    private void improve(Vertex v, double d, Edge edge) {
+        int index = v.getIndex();
+        if (Double.isInfinite(distance[index])) {
+            if (nReached == reached.length) {
+                reached = Arrays.copyOf(reached, (int) (reached.length * GROW_FACTOR));
+            }
+            reached[nReached++] = v;
+        }
+        distance[index] = d;
+        backEdge[index] = edge;
+        if (queue.contains(queueHandle[index], v)) {
+            queue.decrease_key(queueHandle[index], v, d);
+        } else {
+            queueHandle[index] = queue.insert(v, d);
+        }
+    }
+
+    /** Reset only the labels touched by the last search, so that repeated small searches stay cheap. */
+    private void clear() {
+        for (int i = 0; i < nReached; i++) {
+            int index = reached[i].getIndex();
+            distance[index] = Double.POSITIVE_INFINITY;
+            backEdge[index] = null;
+            reached[i] = null;
+        }
+        nReached = 0;
+        queue.reset();
+    }
+
+    /** Temporary vertices may be created after this search, with indexes beyond the end of the arrays. */
+    private void ensureCapacity(int index) {
+        if (index < distance.length) {
+            return;
+        }
+        int oldLength = distance.length;
+        int capacity = Math.max(index + 1, (int) (oldLength * GROW_FACTOR));
+        distance = Arrays.copyOf(distance, capacity);
+        Arrays.fill(distance, oldLength, capacity, Double.POSITIVE_INFINITY);
+        backEdge = Arrays.copyOf(backEdge, capacity);
+        queueHandle = Arrays.copyOf(queueHandle, capacity);
+    }
+
+}
@@ -22,7 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This the goal direction heuristic used for transit searches.
@@ -171,6 +173,10 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     // True when the entire transit network has been explored by the reverse search.
     boolean finished = false;
 
+    // True when the reverse search must not proceed any further, so that several main searches can share the
+    // heuristic. Its lower bounds remain valid, they just stop improving.
+    private volatile boolean frozen = false;
+
     public InterleavedBidirectionalHeuristic() {
         this(8);
     }
@@ -238,7 +244,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         remainingDistanceSpeed = request.getStreetSpeedUpperBound();
 
         // Initialize the pre-transit remaining weight cache
-        preTransitRemainingWeightEstimates = new HashMap<>();
+        preTransitRemainingWeightEstimates = new ConcurrentHashMap<>();
 
         // In certain cases, it will make sense to use a euclidean heuristic for estimating the
         // remaining weight of pre-transit vertices. In transit+walk searches, this is generally not
@@ -360,6 +366,14 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     @Override
     public void reset() { }
 
+    /**
+     * Stop improving the lower bounds. After this the heuristic is not modified by the main search any more (only its
+     * threadsafe cache of euclidean estimates is), so it can be shared by main searches running on several threads.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
     /**
      * Move backward N steps through the transit network.
      * This improves the heuristic's knowledge of the transit network as seen from the target,
@@ -367,7 +381,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      */
     @Override
     public void doSomeWork() {
-        if (finished) return;
+        if (finished || frozen) return;
         for (int i = 0; i < HEURISTIC_STEPS_PER_MAIN_STEP; ++i) {
             if (transitQueue.empty()) {
                 finished = true;
@@ -458,6 +472,23 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         if (fromTarget) {
             rr.setArriveBy(!rr.arriveBy);
         }
+        StreetSearchCache cache = StreetSearchCache.isCacheable(rr) ? graph.getStreetSearchCache() : null;
+        List<Object> cacheKey = null;
+        if (cache != null) {
+            cacheKey = StreetSearchCache.key(rr, fromTarget);
+            StreetSearchCache.Result cached = cache.get(cacheKey);
+            if (cached != null) {
+                LOG.debug("Reusing the cached street search, {} vertices.", cached.vertices.size());
+                cached.stopWeights.forEachEntry((stop, weight) -> {
+                    transitQueue.insert(stop, weight);
+                    maxWeightSeen = Math.max(maxWeightSeen, weight);
+                    return true;
+                });
+                return cached.vertices;
+            }
+        }
+        // The lowest weight at which each transit stop was reached, when searching from the target.
+        TObjectDoubleMap<Vertex> stopWeights = new TObjectDoubleHashMap<>(16, 0.5f, Double.POSITIVE_INFINITY);
         boolean stopReached = false;
         // Create a map that returns Infinity when it does not contain a vertex.
         Map<Vertex, VertexModeWeight> vertices = new HashMap<>();
@@ -487,6 +518,9 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                     if (weight > maxWeightSeen) {
                         maxWeightSeen = weight;
                     }
+                    if (weight < stopWeights.get(v)) {
+                        stopWeights.put(v, weight);
+                    }
                 }
                 if (!stopReached) {
                     stopReached = true;
@@ -548,6 +582,9 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
         LOG.debug("Heuristic street search hit {} vertices.", vertices.size());
         LOG.debug("Heuristic street search hit {} transit stops.", transitQueue.size());
+        if (cache != null) {
+            cache.put(cacheKey, vertices, stopWeights);
+        }
         return vertices;
     }
 
@@ -0,0 +1,116 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import gnu.trove.map.TObjectDoubleMap;
+import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic.VertexModeWeight;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the results of the street searches made around the origin and target by InterleavedBidirectionalHeuristic,
+ * so that requests from or to the same place with the same street routing parameters skip those searches. Popular
+ * places like stations and city centres are the origin or destination of many requests.
+ *
+ * The searches are keyed by the vertex they start from (or the exact coordinates of a temporary vertex, which snaps to
+ * the same street vertices every time) and by all the request parameters which affect the traversal of streets.
+ * Temporary vertices are left out of the cached results, as they belong to a single request and the heuristic gives
+ * them a weight of zero anyway.
+ *
+ * Entries are evicted in least recently used order when the total number of vertices they hold exceeds a limit. The
+ * cache belongs to a Graph, so it is dropped along with the graph when it is reloaded. Requests using vehicle rental
+ * or parking, whose availability changes with realtime updates, are never cached, nor are flex requests which add
+ * temporary hops to the graph.
+ */
+public class StreetSearchCache {
+
+    public static final int DEFAULT_MAX_VERTICES = 2000000;
+
+    private final Cache<List<Object>, Result> cache;
+
+    public StreetSearchCache() {
+        this(DEFAULT_MAX_VERTICES);
+    }
+
+    public StreetSearchCache(int maxVertices) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxVertices)
+                .weigher((List<Object> key, Result result) -> result.vertices.size() + result.stopWeights.size())
+                .recordStats()
+                .build();
+    }
+
+    /** The vertices reached by a street search, and the weights of the transit stops it reached. */
+    static class Result {
+
+        final Map<Vertex, VertexModeWeight> vertices;
+
+        /** Empty unless searching around the target, in which case these are the start of the transit search. */
+        final TObjectDoubleMap<Vertex> stopWeights;
+
+        Result(Map<Vertex, VertexModeWeight> vertices, TObjectDoubleMap<Vertex> stopWeights) {
+            this.vertices = vertices;
+            this.stopWeights = stopWeights;
+        }
+    }
+
+    /** @return whether the street search for the request can be cached at all. */
+    static boolean isCacheable(RoutingRequest rr) {
+        return !(rr.allowBikeRental || rr.useBikeRentalAvailabilityInformation || rr.parkAndRide || rr.kissAndRide
+                || rr.rideAndKiss || rr.bikeParkAndRide || rr.rctx.graph.useFlexService);
+    }
+
+    /**
+     * The key of the street search from the origin of the request, or from its target. The request is the one used in
+     * the search, which has been reversed when searching from the target.
+     */
+    static List<Object> key(RoutingRequest rr, boolean fromTarget) {
+        Vertex start = fromTarget ? rr.rctx.target : rr.rctx.origin;
+        // When driving from the target the search stops at the origin, so the results depend on both places.
+        Object end = fromTarget && rr.modes.getCar() ? location(rr.rctx.origin) : null;
+        RoutingRequest bikeWalking = rr.bikeWalkingOptions;
+        return Arrays.asList(location(start), end, fromTarget, rr.arriveBy, rr.modes.getMask(), rr.optimize,
+                rr.walkSpeed, rr.bikeSpeed, rr.carSpeed, rr.maxWalkDistance, rr.maxPreTransitTime,
+                rr.walkReluctance, rr.walkOnStreetReluctance, rr.turnReluctance, rr.stairsReluctance,
+                rr.wheelchairAccessible, rr.maxSlope, rr.triangleSafetyFactor, rr.triangleSlopeFactor,
+                rr.triangleTimeFactor, rr.elevatorBoardTime, rr.elevatorBoardCost, rr.elevatorHopTime,
+                rr.elevatorHopCost, rr.bikeSwitchTime, rr.bikeSwitchCost, rr.enterStationsWithCar,
+                bikeWalking.walkSpeed, bikeWalking.walkReluctance);
+    }
+
+    private static Object location(Vertex v) {
+        if (v instanceof TemporaryVertex) {
+            return Arrays.asList(v.getLat(), v.getLon());
+        }
+        return v;
+    }
+
+    Result get(List<Object> key) {
+        return cache.getIfPresent(key);
+    }
+
+    /** Cache the result of a street search, leaving out the temporary vertices. */
+    void put(List<Object> key, Map<Vertex, VertexModeWeight> vertices, TObjectDoubleMap<Vertex> stopWeights) {
+        Map<Vertex, VertexModeWeight> permanent = new HashMap<>(vertices.size());
+        vertices.forEach((v, w) -> {
+            if (!(v instanceof TemporaryVertex)) permanent.put(v, w);
+        });
+        cache.put(key, new Result(permanent, stopWeights));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+}
@@ -0,0 +1,383 @@
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A contraction hierarchy of the street network for one set of static street routing parameters, answering shortest
+ * path queries by driving or cycling with a bidirectional search that only ever goes up the hierarchy. Such a search
+ * settles a few hundred vertices where A* settles hundreds of thousands on a regional graph.
+ *
+ * The nodes of the hierarchy are the street vertices, numbered in the order they were contracted, so an arc goes up
+ * the hierarchy when it leads to a higher node number. Each arc is either a StreetEdge or a shortcut replacing two
+ * arcs around a node contracted before both of their other ends. Paths are unpacked to StreetEdges and then traversed
+ * with the request like in any other search, which yields ordinary States and GraphPaths.
+ *
+ * The weight of an arc is the weight of traversing its edges one at a time, without turn costs, turn restrictions or
+ * anything else depending on the previous edge. The hierarchy is therefore only used for requests whose turn costs do
+ * not weigh anything (a turnReluctance of zero), for which the best path for the static weights is the best path
+ * overall unless it breaks a turn restriction. Turn restrictions are checked when the path is traversed: if the
+ * traversal fails, no path is returned and the caller falls back on an ordinary search.
+ *
+ * See ContractionHierarchyBuilder for the construction of the hierarchy.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchy.class);
+
+    /** The most states explored around temporary origin and target vertices before reaching the hierarchy. */
+    private static final int MAX_LINK_STATES = 100;
+
+    /** The request parameters the weights depend on, see profile(). */
+    final List<Object> profile;
+
+    /** The vertex of each node, in contraction order. */
+    final Vertex[] vertices;
+
+    /** The number of arcs which are StreetEdges. Arcs numbered from nEdgeArcs on are shortcuts. */
+    final int nEdgeArcs;
+
+    /** The StreetEdge of each arc below nEdgeArcs. */
+    final StreetEdge[] edges;
+
+    /** For each shortcut arc (numbered from 0), the two arcs it replaces, in the order they are traversed. */
+    final int[] shortcutFirst;
+    final int[] shortcutSecond;
+
+    final int[] arcFrom;
+    final int[] arcTo;
+    final double[] arcWeight;
+
+    /**
+     * The arcs leading out of each node to higher nodes: those of node n are upArcs[upStart[n]] to
+     * upArcs[upStart[n + 1] - 1].
+     */
+    final int[] upStart;
+    final int[] upArcs;
+
+    /** The arcs leading into each node from higher nodes, in the same layout as the up arcs. */
+    final int[] downStart;
+    final int[] downArcs;
+
+    /** The node of each vertex, built on first use after loading the graph. */
+    private transient TObjectIntMap<Vertex> nodeForVertex;
+
+    ContractionHierarchy(List<Object> profile, Vertex[] vertices, int nEdgeArcs, StreetEdge[] edges,
+                         int[] shortcutFirst, int[] shortcutSecond, int[] arcFrom, int[] arcTo, double[] arcWeight,
+                         int[] upStart, int[] upArcs, int[] downStart, int[] downArcs) {
+        this.profile = profile;
+        this.vertices = vertices;
+        this.nEdgeArcs = nEdgeArcs;
+        this.edges = edges;
+        this.shortcutFirst = shortcutFirst;
+        this.shortcutSecond = shortcutSecond;
+        this.arcFrom = arcFrom;
+        this.arcTo = arcTo;
+        this.arcWeight = arcWeight;
+        this.upStart = upStart;
+        this.upArcs = upArcs;
+        this.downStart = downStart;
+        this.downArcs = downArcs;
+    }
+
+    /**
+     * @return the request parameters which street weights depend on. A hierarchy can only be used for requests with
+     * the same parameters as the request it was built with.
+     */
+    public static List<Object> profile(RoutingRequest rr) {
+        RoutingRequest bikeWalking = rr.bikeWalkingOptions;
+        return new ArrayList<>(Arrays.asList(rr.modes.getMask(), rr.optimize, rr.walkSpeed, rr.bikeSpeed,
+                rr.carSpeed, rr.walkReluctance, rr.walkOnStreetReluctance, rr.stairsReluctance, rr.turnReluctance,
+                rr.walkingBike, rr.wheelchairAccessible, rr.maxSlope, rr.triangleSafetyFactor, rr.triangleSlopeFactor,
+                rr.triangleTimeFactor, bikeWalking.walkSpeed, bikeWalking.walkReluctance,
+                bikeWalking.walkOnStreetReluctance, bikeWalking.stairsReluctance, bikeWalking.turnReluctance));
+    }
+
+    /**
+     * @return whether the request is a plain street search without turn costs, which a hierarchy with the same profile
+     * can answer. The intersection traversal cost model only changes the times of such a search, not its weights.
+     */
+    public static boolean isApplicable(RoutingRequest rr) {
+        return rr.useContractionHierarchy && !rr.modes.isTransit() && rr.turnReluctance == 0
+                && (!rr.modes.getBicycle() || rr.bikeWalkingOptions.turnReluctance == 0)
+                && rr.rctx != null && rr.rctx.origin != null
+                && rr.rctx.target != null && rr.rctx.originBackEdge == null && !rr.allowBikeRental
+                && !rr.parkAndRide && !rr.kissAndRide && !rr.rideAndKiss && !rr.bikeParkAndRide;
+    }
+
+    public int getNodeCount() {
+        return vertices.length;
+    }
+
+    public int getShortcutCount() {
+        return shortcutFirst.length;
+    }
+
+    private int node(Vertex vertex) {
+        if (nodeForVertex == null) {
+            synchronized (this) {
+                if (nodeForVertex == null) {
+                    TObjectIntMap<Vertex> nodes = new TObjectIntHashMap<>(vertices.length, 0.5f, -1);
+                    for (int n = 0; n < vertices.length; n++) {
+                        nodes.put(vertices[n], n);
+                    }
+                    nodeForVertex = nodes;
+                }
+            }
+        }
+        return nodeForVertex.get(vertex);
+    }
+
+    /**
+     * Find the best path for the request, which must be applicable and have the profile of this hierarchy.
+     * @return the path, or null if there is none in the hierarchy or it cannot be traversed with the request.
+     */
+    public GraphPath findPath(RoutingRequest options) {
+        boolean arriveBy = options.arriveBy;
+        Map<Integer, State> originStates = originStates(options);
+        Map<Integer, List<Edge>> targetLinks = targetLinks(options);
+        if (originStates == null || targetLinks == null || originStates.isEmpty() || targetLinks.isEmpty()) {
+            return null;
+        }
+        TIntDoubleMap originWeights = new TIntDoubleHashMap();
+        originStates.forEach((node, state) -> originWeights.put(node, state.getWeight()));
+        TIntDoubleMap targetWeights = new TIntDoubleHashMap();
+        for (Map.Entry<Integer, List<Edge>> entry : targetLinks.entrySet()) {
+            State state = traverse(new State(vertices[entry.getKey()], options), entry.getValue());
+            if (state != null) {
+                targetWeights.put(entry.getKey(), state.getWeight());
+            }
+        }
+        // The hierarchy is searched in the direction of the edges, which is the reverse of the request's for arriveBy.
+        List<Integer> arcs = arriveBy ? search(targetWeights, originWeights) : search(originWeights, targetWeights);
+        if (arcs == null) {
+            return null;
+        }
+        List<Edge> path = new ArrayList<>();
+        for (int arc : arcs) {
+            unpack(arc, path);
+        }
+        int firstNode = arcs.isEmpty() ? -1 : arcFrom[arcs.get(0)];
+        int lastNode = arcs.isEmpty() ? -1 : arcTo[arcs.get(arcs.size() - 1)];
+        if (arcs.isEmpty()) {
+            // The origin and target link to the same node.
+            double bestWeight = Double.POSITIVE_INFINITY;
+            for (int node : originWeights.keys()) {
+                if (targetWeights.containsKey(node)
+                        && originWeights.get(node) + targetWeights.get(node) < bestWeight) {
+                    bestWeight = originWeights.get(node) + targetWeights.get(node);
+                    firstNode = lastNode = node;
+                }
+            }
+        }
+        if (arriveBy) {
+            Collections.reverse(path);
+            int tmp = firstNode;
+            firstNode = lastNode;
+            lastNode = tmp;
+        }
+        for (Edge edge : path) {
+            // Edges may have been split by realtime updates since the hierarchy was built.
+            if (!edge.getFromVertex().getOutgoing().contains(edge)) {
+                LOG.debug("Edge {} of the contraction hierarchy is no longer in the graph.", edge);
+                return null;
+            }
+        }
+        State state = traverse(originStates.get(firstNode), path);
+        state = traverse(state, targetLinks.get(lastNode));
+        if (state == null || state.getVertex() != options.rctx.target || !state.isFinal()) {
+            return null;
+        }
+        return new GraphPath(state, true);
+    }
+
+    private static State traverse(State state, List<Edge> path) {
+        for (Edge edge : path) {
+            if (state == null) {
+                return null;
+            }
+            state = edge.traverse(state);
+        }
+        return state;
+    }
+
+    /**
+     * Explore the temporary vertices around the origin of the search until reaching vertices of the hierarchy.
+     * @return the best state reaching each node, or null if the origin is directly linked to the target.
+     */
+    private Map<Integer, State> originStates(RoutingRequest options) {
+        Map<Integer, State> best = new HashMap<>();
+        Deque<State> queue = new ArrayDeque<>();
+        queue.add(new State(options));
+        int nStates = 0;
+        while (!queue.isEmpty() && nStates++ < MAX_LINK_STATES) {
+            State state = queue.poll();
+            Vertex vertex = state.getVertex();
+            if (vertex == options.rctx.target) {
+                return null;
+            }
+            int node = node(vertex);
+            if (node >= 0) {
+                State previous = best.get(node);
+                if (previous == null || state.getWeight() < previous.getWeight()) {
+                    best.put(node, state);
+                }
+            } else if (vertex instanceof TemporaryVertex) {
+                for (Edge edge : options.arriveBy ? vertex.getIncoming() : vertex.getOutgoing()) {
+                    for (State next = edge.traverse(state); next != null; next = next.getNextResult()) {
+                        queue.add(next);
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Explore the temporary vertices around the target of the search backwards until reaching vertices of the
+     * hierarchy.
+     * @return for each node reached, the edges leading from it to the target in the order the search traverses them.
+     */
+    private Map<Integer, List<Edge>> targetLinks(RoutingRequest options) {
+        Map<Integer, List<Edge>> links = new HashMap<>();
+        Deque<Vertex> vertexQueue = new ArrayDeque<>();
+        Deque<List<Edge>> linkQueue = new ArrayDeque<>();
+        vertexQueue.add(options.rctx.target);
+        linkQueue.add(Collections.emptyList());
+        int nVertices = 0;
+        while (!vertexQueue.isEmpty() && nVertices++ < MAX_LINK_STATES) {
+            Vertex vertex = vertexQueue.poll();
+            List<Edge> link = linkQueue.poll();
+            int node = node(vertex);
+            if (node >= 0) {
+                // Keep the shortest link, the weights of several links to the same node are not compared.
+                if (!links.containsKey(node) || links.get(node).size() > link.size()) {
+                    links.put(node, link);
+                }
+            } else if (vertex instanceof TemporaryVertex) {
+                for (Edge edge : options.arriveBy ? vertex.getOutgoing() : vertex.getIncoming()) {
+                    Vertex previous = options.arriveBy ? edge.getToVertex() : edge.getFromVertex();
+                    List<Edge> longer = new ArrayList<>(link.size() + 1);
+                    longer.add(edge);
+                    longer.addAll(link);
+                    vertexQueue.add(previous);
+                    linkQueue.add(longer);
+                }
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Bidirectional Dijkstra search going up the hierarchy from both ends, stopping once neither queue can improve on
+     * the best path found.
+     * @return the arcs of the best path from a source to a target in the direction of the edges, or null if none.
+     */
+    private List<Integer> search(TIntDoubleMap sources, TIntDoubleMap targets) {
+        TIntDoubleMap forwardWeights = new TIntDoubleHashMap();
+        TIntDoubleMap backwardWeights = new TIntDoubleHashMap();
+        TIntIntMap forwardArcs = new TIntIntHashMap(16, 0.5f, -1, -1);
+        TIntIntMap backwardArcs = new TIntIntHashMap(16, 0.5f, -1, -1);
+        BinHeap<Integer> forwardQueue = new BinHeap<>();
+        BinHeap<Integer> backwardQueue = new BinHeap<>();
+        sources.forEachEntry((node, weight) -> {
+            forwardWeights.put(node, weight);
+            forwardQueue.insert(node, weight);
+            return true;
+        });
+        targets.forEachEntry((node, weight) -> {
+            backwardWeights.put(node, weight);
+            backwardQueue.insert(node, weight);
+            return true;
+        });
+        double bestWeight = Double.POSITIVE_INFINITY;
+        int meetingNode = -1;
+        while (true) {
+            double forwardMin = forwardQueue.empty() ? Double.POSITIVE_INFINITY : forwardQueue.peek_min_key();
+            double backwardMin = backwardQueue.empty() ? Double.POSITIVE_INFINITY : backwardQueue.peek_min_key();
+            if (Math.min(forwardMin, backwardMin) >= bestWeight) {
+                break;
+            }
+            boolean forward = forwardMin <= backwardMin;
+            BinHeap<Integer> queue = forward ? forwardQueue : backwardQueue;
+            TIntDoubleMap weights = forward ? forwardWeights : backwardWeights;
+            TIntDoubleMap otherWeights = forward ? backwardWeights : forwardWeights;
+            TIntIntMap parentArcs = forward ? forwardArcs : backwardArcs;
+            double weight = queue.peek_min_key();
+            int node = queue.extract_min();
+            if (weight > weights.get(node)) {
+                continue; // Already settled with a lower weight.
+            }
+            if (otherWeights.containsKey(node) && weight + otherWeights.get(node) < bestWeight) {
+                bestWeight = weight + otherWeights.get(node);
+                meetingNode = node;
+            }
+            int[] start = forward ? upStart : downStart;
+            int[] arcs = forward ? upArcs : downArcs;
+            for (int i = start[node]; i < start[node + 1]; i++) {
+                int arc = arcs[i];
+                int next = forward ? arcTo[arc] : arcFrom[arc];
+                double nextWeight = weight + arcWeight[arc];
+                if (!weights.containsKey(next) || nextWeight < weights.get(next)) {
+                    weights.put(next, nextWeight);
+                    parentArcs.put(next, arc);
+                    queue.insert(next, nextWeight);
+                }
+            }
+        }
+        if (meetingNode < 0) {
+            return null;
+        }
+        List<Integer> path = new ArrayList<>();
+        for (int node = meetingNode, arc; (arc = forwardArcs.get(node)) >= 0; node = arcFrom[arc]) {
+            path.add(arc);
+        }
+        Collections.reverse(path);
+        for (int node = meetingNode, arc; (arc = backwardArcs.get(node)) >= 0; node = arcTo[arc]) {
+            path.add(arc);
+        }
+        return path;
+    }
+
+    /** Append the StreetEdges of an arc to the path, expanding shortcuts. */
+    private void unpack(int arc, List<Edge> path) {
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.pop();
+            if (a < nEdgeArcs) {
+                path.add(edges[a]);
+            } else {
+                stack.push(shortcutSecond[a - nEdgeArcs]);
+                stack.push(shortcutFirst[a - nEdgeArcs]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a ContractionHierarchy of the street edges of a graph for the weights of one request.
+ *
+ * Vertices are contracted one at a time, least important first. Contracting a vertex removes it from the remaining
+ * graph, adding a shortcut between each pair of its neighbors whose shortest path went through it, unless a witness
+ * search finds another path at most as long. The importance of a vertex is the number of shortcuts its contraction
+ * would add minus the number of arcs it would remove, plus the number of its neighbors already contracted to spread
+ * the contraction evenly over the graph. Importances are updated lazily, when a vertex comes out of the queue.
+ */
+public class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    /**
+     * The most vertices settled by a witness search. A witness search giving up only adds a superfluous shortcut, so
+     * a small limit trades a slightly larger hierarchy for a much faster construction.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 200;
+
+    private final Graph graph;
+
+    private final RoutingRequest options;
+
+    private final List<Vertex> vertices = new ArrayList<>();
+
+    private final List<StreetEdge> edges = new ArrayList<>();
+
+    private final TIntList arcFrom = new TIntArrayList();
+
+    private final TIntList arcTo = new TIntArrayList();
+
+    private final TDoubleList arcWeight = new TDoubleArrayList();
+
+    private final TIntList shortcutFirst = new TIntArrayList();
+
+    private final TIntList shortcutSecond = new TIntArrayList();
+
+    /** For each vertex not contracted yet, the arc to and from each of its remaining neighbors, by neighbor. */
+    private TIntIntMap[] outArcs;
+    private TIntIntMap[] inArcs;
+
+    /** For each contracted vertex, the arcs to and from the vertices contracted after it. */
+    private TIntList[] upArcs;
+    private TIntList[] downArcs;
+
+    /**
+     * @param options the request the weights of the edges are computed with, its routing context and direction are
+     *                replaced.
+     */
+    public ContractionHierarchyBuilder(Graph graph, RoutingRequest options) {
+        this.graph = graph;
+        this.options = options;
+    }
+
+    public ContractionHierarchy build() {
+        long startTime = System.currentTimeMillis();
+        List<Object> profile = ContractionHierarchy.profile(options);
+        addEdgeArcs();
+        int nVertices = vertices.size();
+        int nEdgeArcs = edges.size();
+        LOG.info("Contracting {} vertices with {} arcs for modes {}...", nVertices, nEdgeArcs, options.modes);
+
+        int[] rank = new int[nVertices];
+        int[] contractedNeighbors = new int[nVertices];
+        boolean[] contracted = new boolean[nVertices];
+        upArcs = new TIntList[nVertices];
+        downArcs = new TIntList[nVertices];
+        BinHeap<Integer> queue = new BinHeap<>(nVertices);
+        for (int v = 0; v < nVertices; v++) {
+            queue.insert(v, contract(v, false));
+        }
+        int nContracted = 0;
+        while (!queue.empty()) {
+            int v = queue.extract_min();
+            if (contracted[v]) {
+                continue;
+            }
+            double priority = contract(v, false) + contractedNeighbors[v];
+            if (!queue.empty() && priority > queue.peek_min_key()) {
+                queue.insert(v, priority);
+                continue;
+            }
+            upArcs[v] = new TIntArrayList(outArcs[v].values());
+            downArcs[v] = new TIntArrayList(inArcs[v].values());
+            contract(v, true);
+            for (int neighbor : outArcs[v].keys()) {
+                inArcs[neighbor].remove(v);
+                contractedNeighbors[neighbor]++;
+            }
+            for (int neighbor : inArcs[v].keys()) {
+                outArcs[neighbor].remove(v);
+                contractedNeighbors[neighbor]++;
+            }
+            outArcs[v] = null;
+            inArcs[v] = null;
+            contracted[v] = true;
+            rank[v] = nContracted++;
+            if (nContracted % 100000 == 0) {
+                LOG.info("Contracted {} vertices, {} shortcuts so far.", nContracted, shortcutFirst.size());
+            }
+        }
+
+        // Renumber the vertices in contraction order.
+        Vertex[] rankedVertices = new Vertex[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            rankedVertices[rank[v]] = vertices.get(v);
+        }
+        int nArcs = arcFrom.size();
+        int[] from = new int[nArcs];
+        int[] to = new int[nArcs];
+        for (int a = 0; a < nArcs; a++) {
+            from[a] = rank[arcFrom.get(a)];
+            to[a] = rank[arcTo.get(a)];
+        }
+        int[] upStart = new int[nVertices + 1];
+        int[] downStart = new int[nVertices + 1];
+        for (int v = 0; v < nVertices; v++) {
+            upStart[rank[v] + 1] = upArcs[v].size();
+            downStart[rank[v] + 1] = downArcs[v].size();
+        }
+        for (int n = 0; n < nVertices; n++) {
+            upStart[n + 1] += upStart[n];
+            downStart[n + 1] += downStart[n];
+        }
+        int[] up = new int[upStart[nVertices]];
+        int[] down = new int[downStart[nVertices]];
+        for (int v = 0; v < nVertices; v++) {
+            upArcs[v].toArray(up, 0, upStart[rank[v]], upArcs[v].size());
+            downArcs[v].toArray(down, 0, downStart[rank[v]], downArcs[v].size());
+        }
+        ContractionHierarchy hierarchy = new ContractionHierarchy(profile, rankedVertices, nEdgeArcs,
+                edges.toArray(new StreetEdge[nEdgeArcs]), shortcutFirst.toArray(), shortcutSecond.toArray(), from, to,
+                arcWeight.toArray(), upStart, up, downStart, down);
+        LOG.info("Built contraction hierarchy for modes {} in {} s: {} vertices, {} edges, {} shortcuts.",
+                options.modes, (System.currentTimeMillis() - startTime) / 1000.0, nVertices, nEdgeArcs,
+                shortcutFirst.size());
+        return hierarchy;
+    }
+
+    /** Add an arc for each permanent StreetEdge the request can traverse, keeping the lightest of parallel edges. */
+    private void addEdgeArcs() {
+        TObjectIntMap<Vertex> index = new TObjectIntHashMap<>(graph.countVertices(), 0.5f, -1);
+        List<TIntIntMap> out = new ArrayList<>();
+        List<TIntIntMap> in = new ArrayList<>();
+        options.setArriveBy(false);
+        for (Edge e : graph.getEdges()) {
+            if (!(e instanceof StreetEdge) || e instanceof TemporaryEdge || e.getFromVertex() == e.getToVertex()) {
+                continue;
+            }
+            if (options.rctx == null) {
+                options.setRoutingContext(graph, e.getFromVertex(), e.getToVertex());
+            }
+            double weight = Double.POSITIVE_INFINITY;
+            for (State s = e.traverse(new State(e.getFromVertex(), options)); s != null; s = s.getNextResult()) {
+                weight = Math.min(weight, s.getWeight());
+            }
+            if (weight == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            int[] ends = new int[2];
+            for (int i = 0; i < 2; i++) {
+                Vertex vertex = i == 0 ? e.getFromVertex() : e.getToVertex();
+                ends[i] = index.get(vertex);
+                if (ends[i] < 0) {
+                    ends[i] = vertices.size();
+                    index.put(vertex, ends[i]);
+                    vertices.add(vertex);
+                    out.add(new TIntIntHashMap(4, 0.5f, -1, -1));
+                    in.add(new TIntIntHashMap(4, 0.5f, -1, -1));
+                }
+            }
+            int arc = out.get(ends[0]).get(ends[1]);
+            if (arc < 0) {
+                arc = addArc(ends[0], ends[1], weight);
+                edges.add((StreetEdge) e);
+                out.get(ends[0]).put(ends[1], arc);
+                in.get(ends[1]).put(ends[0], arc);
+            } else if (weight < arcWeight.get(arc)) {
+                arcWeight.set(arc, weight);
+                edges.set(arc, (StreetEdge) e);
+            }
+        }
+        outArcs = out.toArray(new TIntIntMap[out.size()]);
+        inArcs = in.toArray(new TIntIntMap[in.size()]);
+    }
+
+    private int addArc(int from, int to, double weight) {
+        arcFrom.add(from);
+        arcTo.add(to);
+        arcWeight.add(weight);
+        return arcWeight.size() - 1;
+    }
+
+    /**
+     * Find the shortcuts needed to contract the vertex, adding them if contract is true.
+     * @return the number of shortcuts minus the number of arcs the contraction removes.
+     */
+    private int contract(int v, boolean contract) {
+        int nShortcuts = 0;
+        for (int u : inArcs[v].keys()) {
+            int inArc = inArcs[v].get(u);
+            double maxWeight = 0;
+            for (int w : outArcs[v].keys()) {
+                if (w != u) maxWeight = Math.max(maxWeight, arcWeight.get(inArc) + arcWeight.get(outArcs[v].get(w)));
+            }
+            TIntDoubleMap witnesses = witnessSearch(u, v, maxWeight);
+            for (int w : outArcs[v].keys()) {
+                if (w == u) continue;
+                int outArc = outArcs[v].get(w);
+                double weight = arcWeight.get(inArc) + arcWeight.get(outArc);
+                if (witnesses.containsKey(w) && witnesses.get(w) <= weight) continue;
+                nShortcuts++;
+                if (contract) {
+                    int shortcut = addArc(u, w, weight);
+                    shortcutFirst.add(inArc);
+                    shortcutSecond.add(outArc);
+                    outArcs[u].put(w, shortcut);
+                    inArcs[w].put(u, shortcut);
+                }
+            }
+        }
+        return nShortcuts - inArcs[v].size() - outArcs[v].size();
+    }
+
+    /**
+     * Dijkstra search from the vertex, avoiding the vertex being contracted and giving up beyond the weight or the
+     * settle limit.
+     * @return the weight of the vertices reached, which are upper bounds of their distance without the avoided vertex.
+     */
+    private TIntDoubleMap witnessSearch(int source, int avoided, double maxWeight) {
+        TIntDoubleMap weights = new TIntDoubleHashMap();
+        BinHeap<Integer> queue = new BinHeap<>();
+        weights.put(source, 0);
+        queue.insert(source, 0);
+        int nSettled = 0;
+        while (!queue.empty() && nSettled < WITNESS_SETTLE_LIMIT) {
+            double weight = queue.peek_min_key();
+            int vertex = queue.extract_min();
+            if (weight > maxWeight) {
+                break;
+            }
+            if (weight > weights.get(vertex)) {
+                continue;
+            }
+            nSettled++;
+            TIntIntMap arcs = outArcs[vertex];
+            for (int next : arcs.keys()) {
+                if (next == avoided) continue;
+                double nextWeight = weight + arcWeight.get(arcs.get(next));
+                if (!weights.containsKey(next) || nextWeight < weights.get(next)) {
+                    weights.put(next, nextWeight);
+                    queue.insert(next, nextWeight);
+                }
+            }
+        }
+        return weights;
+    }
+
+}
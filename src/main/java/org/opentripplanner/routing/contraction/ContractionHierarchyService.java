@@ -0,0 +1,38 @@
+package org.opentripplanner.routing.contraction;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The contraction hierarchies built for a graph, one per set of street routing parameters. Saved with the graph.
+ */
+public class ContractionHierarchyService implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<ContractionHierarchy> hierarchies = new ArrayList<>();
+
+    public void addHierarchy(ContractionHierarchy hierarchy) {
+        hierarchies.add(hierarchy);
+    }
+
+    public List<ContractionHierarchy> getHierarchies() {
+        return hierarchies;
+    }
+
+    /** @return the hierarchy built with the weights of the request, or null if the request cannot use any. */
+    public ContractionHierarchy getHierarchy(RoutingRequest request) {
+        if (!ContractionHierarchy.isApplicable(request)) {
+            return null;
+        }
+        List<Object> profile = ContractionHierarchy.profile(request);
+        for (ContractionHierarchy hierarchy : hierarchies) {
+            if (hierarchy.profile.equals(profile)) {
+                return hierarchy;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,133 @@
+package org.opentripplanner.routing.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.model.FeedScopedId;
+
+/**
+ * Precomputed zone and route tables for checking whether a journey can still be paid for with one of the fares
+ * allowed in a request (RoutingRequest.allowedFares), without rebuilding the path at every boarding.
+ *
+ * Each allowed regular fare id that has rules is given one bit of a long. For every zone and route named in the rules,
+ * the tables hold the set of fare ids having a rule set that admits that zone (it is in the "contains" zones of the
+ * rule set, or the rule set has no zone restriction) or route (likewise). A State carries the bits of the fares that
+ * can still cover the ride it is on: the set is reset from the zone and route of each boarding and narrowed by the
+ * zone of each alighting. Each ride of a journey must be covered by at least one allowed fare, so when the set becomes
+ * empty the search does not continue.
+ *
+ * Some fare services read their rules differently. With listedZonesOnly, as for HSL fares, a rule set only admits the
+ * zones it lists, so one without zones admits none, and routes are not checked since those services do not check them.
+ *
+ * Intermediate zones, origin-destination pairs, combinations of rides, transfer counts and durations are not taken
+ * into account, so this is a necessary rather than a sufficient condition for a fare to apply. Journeys passing it are
+ * still checked exactly with DefaultFareServiceImpl.journeyAllowed at each alighting (see TransitBoardAlight).
+ * At most 64 fare ids can be represented; build returns null when more are allowed.
+ */
+public class FareEligibility {
+
+    public static final int MAX_FARES = Long.SIZE;
+
+    /** The fare ids represented by each bit. */
+    private final List<String> fareIds;
+
+    /** Fares that admit any zone, used for zones not listed in any rule. */
+    private long anyZoneMask = 0;
+
+    /** Fares that admit any route, used for routes not listed in any rule. */
+    private long anyRouteMask = 0;
+
+    private final Map<String, Long> zoneMasks = new HashMap<>();
+
+    private final Map<FeedScopedId, Long> routeMasks = new HashMap<>();
+
+    private FareEligibility(List<String> fareIds) {
+        this.fareIds = fareIds;
+    }
+
+    /**
+     * Build the tables for the given fare rules, keeping only those whose fare id is allowed.
+     * @param listedZonesOnly whether rule sets only admit the zones they list, whatever their routes
+     * @return the tables, or null if more than MAX_FARES allowed fare ids have rules.
+     */
+    public static FareEligibility build(Collection<FareRuleSet> fareRules, Set<String> allowedFareIds,
+            boolean listedZonesOnly) {
+        List<String> fareIds = new ArrayList<>();
+        List<FareRuleSet> allowedRules = new ArrayList<>();
+        for (FareRuleSet ruleSet : fareRules) {
+            String fareId = ruleSet.getFareAttribute().getId().toString();
+            if (!allowedFareIds.contains(fareId)) continue;
+            if (!fareIds.contains(fareId)) {
+                if (fareIds.size() == MAX_FARES) {
+                    return null;
+                }
+                fareIds.add(fareId);
+            }
+            allowedRules.add(ruleSet);
+        }
+
+        FareEligibility eligibility = new FareEligibility(fareIds);
+        // Zones and routes named by one rule set are admitted by every rule set without a restriction of that kind.
+        for (FareRuleSet ruleSet : allowedRules) {
+            for (String zone : ruleSet.getContains()) {
+                eligibility.zoneMasks.put(zone, 0L);
+            }
+            for (FeedScopedId route : ruleSet.getRoutes()) {
+                eligibility.routeMasks.put(route, 0L);
+            }
+        }
+        for (FareRuleSet ruleSet : allowedRules) {
+            long bit = 1L << fareIds.indexOf(ruleSet.getFareAttribute().getId().toString());
+            if (ruleSet.getContains().isEmpty()) {
+                if (listedZonesOnly) continue;
+                eligibility.anyZoneMask |= bit;
+                eligibility.zoneMasks.replaceAll((zone, mask) -> mask | bit);
+            } else {
+                for (String zone : ruleSet.getContains()) {
+                    eligibility.zoneMasks.merge(zone, bit, (a, b) -> a | b);
+                }
+            }
+            if (ruleSet.getRoutes().isEmpty() || listedZonesOnly) {
+                eligibility.anyRouteMask |= bit;
+                eligibility.routeMasks.replaceAll((route, mask) -> mask | bit);
+            } else {
+                for (FeedScopedId route : ruleSet.getRoutes()) {
+                    eligibility.routeMasks.merge(route, bit, (a, b) -> a | b);
+                }
+            }
+        }
+        return eligibility;
+    }
+
+    /** @return the fares admitting a ride boarded in the given zone on the given route. */
+    public long boardingMask(String zone, FeedScopedId route) {
+        return zoneMask(zone) & routeMask(route);
+    }
+
+    /** @return the fares admitting the given zone. A null zone is only admitted by fares without zone restrictions. */
+    public long zoneMask(String zone) {
+        if (zone == null) return anyZoneMask;
+        return zoneMasks.getOrDefault(zone, anyZoneMask);
+    }
+
+    public long routeMask(FeedScopedId route) {
+        if (route == null) return anyRouteMask;
+        return routeMasks.getOrDefault(route, anyRouteMask);
+    }
+
+    /** @return the fare ids whose bits are set in the given mask, for debugging. */
+    public List<String> getFareIds(long mask) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < fareIds.size(); i++) {
+            if ((mask & (1L << i)) != 0) {
+                ret.add(fareIds.get(i));
+            }
+        }
+        return ret;
+    }
+
+}
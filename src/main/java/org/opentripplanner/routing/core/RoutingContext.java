@@ -18,11 +18,13 @@ import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.error.TransitTimesException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.impl.DefaultFareServiceImpl;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.services.OnBoardDepartService;
 import org.opentripplanner.routing.vertextype.TemporaryVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -94,6 +96,13 @@ public class RoutingContext implements Cloneable {
      */
     public ArrayList<ServiceDay> serviceDays;
 
+    /**
+     * Zone and route tables for the fares allowed in the request, built once per search so that boardings can be
+     * checked against them incrementally. Null if the request does not restrict fares, or if they cannot be checked
+     * incrementally, in which case TransitBoardAlight falls back on checking the whole path.
+     */
+    public FareEligibility fareEligibility;
+
     /**
      * The search will be aborted if it is still running after this time (in milliseconds since the epoch). A negative or zero value implies no limit.
      * This provides an absolute timeout, whereas the maxComputationTime is relative to the beginning of an individual search. While the two might
@@ -235,6 +244,12 @@ public class RoutingContext implements Cloneable {
             }
             calendarService = graph.getCalendarService();
             setServiceDays();
+            if (opt.allowedFares != null) {
+                FareService fareService = graph.getService(FareService.class);
+                if (fareService instanceof DefaultFareServiceImpl) {
+                    fareEligibility = ((DefaultFareServiceImpl) fareService).getFareEligibility(opt.allowedFares);
+                }
+            }
         } else {
             timetableSnapshot = null;
             calendarService = null;
@@ -430,6 +445,24 @@ public class RoutingContext implements Cloneable {
         return true;
     }
 
+    /**
+     * Make a copy of this context for a search running at the same time as other searches of the same request. The
+     * copy shares everything with this context but the abort flag and the debug output, so that a search timing out
+     * does not abort the others. It must not be destroyed, as the temporary vertices still belong to this context.
+     */
+    public RoutingContext concurrentCopy(RoutingRequest routingRequest) {
+        try {
+            RoutingContext copy = (RoutingContext) super.clone();
+            copy.opt = routingRequest;
+            copy.aborted = false;
+            copy.debugOutput = new DebugOutput();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since our super is the cloneable object */
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Tear down this routing context, removing any temporary edges from
      * the "permanent" graph objects. This enables all temporary objects
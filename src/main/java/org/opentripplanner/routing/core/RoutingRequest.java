@@ -375,6 +375,14 @@ public class RoutingRequest implements Cloneable, Serializable {
 
     public int heuristicStepsPerMainStep = 8;
 
+    /**
+     * The maximum number of itinerary searches to run at the same time. With the default of 1 the itineraries are
+     * found one after the other, each search banning the trips used by all the previous ones. With more, once the
+     * first itinerary is found the following ones are searched for in parallel, in successively later (or earlier
+     * for arriveBy) time windows, and the results are merged.
+     */
+    public int maxParallelSearches = 1;
+
     /**
      * When true, do a full reversed search to compact the legs of the GraphPath.
      */
@@ -409,6 +417,12 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public boolean disableRemainingWeightHeuristic = false;
 
+    /**
+     * If true, street searches without transit use a contraction hierarchy of the graph when one was built for the
+     * same street routing parameters.
+     */
+    public boolean useContractionHierarchy = true;
+
     public boolean omitCanceled = true;
 
     /**
@@ -584,6 +598,18 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** The function that compares paths converging on the same vertex to decide which ones continue to be explored. */
     public DominanceFunction dominanceFunction = new DominanceFunction.Pareto();
 
+    /**
+     * Store the shortest path tree in flat arrays indexed by vertex index instead of a map keyed on vertices.
+     * This does not change the results, but reduces allocation and lookup cost in searches that reach many vertices.
+     */
+    public boolean indexedShortestPathTree = false;
+
+    /**
+     * Use a priority queue that supports removal (IndexedDaryHeap), and let the shortest path tree remove states from
+     * it as soon as they are dominated, instead of leaving them in the queue until they are extracted.
+     */
+    public boolean evictDominatedStates = false;
+
     /** Accept only paths that use transit (no street-only paths). */
     public boolean onlyTransitTrips = false;
 
@@ -750,6 +776,7 @@ public class RoutingRequest implements Cloneable, Serializable {
             bikeWalkingOptions.bikeSwitchTime = bikeSwitchTime;
             bikeWalkingOptions.bikeSwitchCost = bikeSwitchCost;
             bikeWalkingOptions.stairsReluctance = stairsReluctance * 5; // carrying bikes on stairs is awful
+            bikeWalkingOptions.turnReluctance = turnReluctance;
         } else if (modes.getCar()) {
             bikeWalkingOptions = new RoutingRequest();
             bikeWalkingOptions.setArriveBy(this.arriveBy);
@@ -51,6 +51,10 @@ public class State implements Cloneable {
     protected int[] pathParserStates;
 
     int callAndRideTime = 0;
+
+    // handle of this state in a search queue that supports removal, see IndexedDaryHeap. May be inherited from
+    // the parent state when cloning, the queue checks that a handle really refers to this state before using it.
+    private int queueHandle = -1;
     
     private static final Logger LOG = LoggerFactory.getLogger(State.class);
 
@@ -147,6 +151,15 @@ public class State implements Cloneable {
         return ret;
     }
 
+    public int getQueueHandle() {
+        return queueHandle;
+    }
+
+    /** Record where this state is held in the search queue. This is search bookkeeping, not part of the state. */
+    public void setQueueHandle(int queueHandle) {
+        this.queueHandle = queueHandle;
+    }
+
     /*
      * FIELD ACCESSOR METHODS States are immutable, so they have only get methods. The corresponding
      * set methods are in StateEditor.
@@ -247,6 +260,11 @@ public class State implements Cloneable {
         return stateData.route;
     }
 
+    /** @return the bits of the allowed fares that can still cover the current ride, see FareEligibility. */
+    public long getFareEligibility() {
+        return stateData.fareEligibility;
+    }
+
     public int getNumBoardings() {
         return stateData.numBoardings;
     }
@@ -33,6 +33,9 @@ public class StateData implements Cloneable {
 
     protected FeedScopedId route;
 
+    /** The allowed fares that can still cover the current ride, one bit per fare (see FareEligibility). */
+    protected long fareEligibility = -1L;
+
     protected int numBoardings;
 
     protected boolean everBoarded;
@@ -339,6 +339,13 @@ public class StateEditor {
         }
     }
 
+    public void setFareEligibility(long fareEligibility) {
+        if (fareEligibility != child.stateData.fareEligibility) {
+            cloneStateDataAsNeeded();
+            child.stateData.fareEligibility = fareEligibility;
+        }
+    }
+
     public void setNumBoardings(int numBoardings) {
         cloneStateDataAsNeeded();
         child.stateData.numBoardings = numBoardings;
@@ -36,28 +36,34 @@ public class ElevatorHopEdge extends Edge implements ElevatorEdge {
             return null;
         }
         
-        TraverseMode mode = s0.getNonTransitMode();
+        if (!canTraverse(s0.getNonTransitMode())) {
+            return null;
+        }
+
+        StateEditor s1 = s0.edit(this);
+        s1.setBackMode(TraverseMode.WALK);
+        s1.incrementWeight(options.elevatorHopCost);
+        s1.incrementTimeInSeconds(options.elevatorHopTime);
+        return s1.makeState();
+    }
 
+    /** @return whether this elevator can be used in the given non-transit mode. */
+    public boolean canTraverse(TraverseMode mode) {
         if (mode == TraverseMode.WALK && 
             !permission.allows(StreetTraversalPermission.PEDESTRIAN)) {
-            return null;
+            return false;
         }
 
         if (mode == TraverseMode.BICYCLE && 
             !permission.allows(StreetTraversalPermission.BICYCLE)) {
-            return null;
+            return false;
         }
         // there are elevators which allow cars
         if (mode == TraverseMode.CAR
             && !permission.allows(StreetTraversalPermission.CAR)) {
-            return null;
+            return false;
         }
-
-        StateEditor s1 = s0.edit(this);
-        s1.setBackMode(TraverseMode.WALK);
-        s1.incrementWeight(options.elevatorHopCost);
-        s1.incrementTimeInSeconds(options.elevatorHopTime);
-        return s1.makeState();
+        return true;
     }
 
     @Override
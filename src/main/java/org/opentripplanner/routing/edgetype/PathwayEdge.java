@@ -61,6 +61,11 @@ public class PathwayEdge extends Edge {
         return this.getName();
     }
 
+    /** @return true if this pathway has a traversal time for wheelchair users, i.e. it is wheelchair accessible. */
+    public boolean isWheelchairAccessible() {
+        return wheelchairTraversalTime >= 0;
+    }
+
     public State traverse(State s0) {
         int time = traversalTime;
         if (s0.getOptions().wheelchairAccessible) {
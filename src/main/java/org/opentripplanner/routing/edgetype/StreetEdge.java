@@ -810,8 +810,8 @@ public class StreetEdge extends Edge implements Cloneable {
         StreetEdge e2 = null;
 
         if (destructive) {
-            e1 = new StreetEdge((StreetVertex) fromv, v, geoms.first, name, 0, permission, this.isBack());
-            e2 = new StreetEdge(v, (StreetVertex) tov, geoms.second, name, 0, permission, this.isBack());
+            e1 = newSplitEdge((StreetVertex) fromv, v, geoms.first);
+            e2 = newSplitEdge(v, (StreetVertex) tov, geoms.second);
 
             // copy the wayId to the split edges, so we can trace them back to their parent if need be
             e1.wayId = this.wayId;
@@ -877,6 +877,11 @@ public class StreetEdge extends Edge implements Cloneable {
         return new P2<>(e1, e2);
     }
 
+    /** Create one of the two edges this edge is destructively split into, before its length is set. */
+    protected StreetEdge newSplitEdge(StreetVertex from, StreetVertex to, LineString geometry) {
+        return new StreetEdge(from, to, geometry, name, 0, permission, this.isBack());
+    }
+
     /**
      * Get the starting OSM node ID of this edge. Note that this information is preserved when an
      * edge is split, so both edges will have the same starting and ending nodes.
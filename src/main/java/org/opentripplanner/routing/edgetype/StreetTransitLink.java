@@ -42,6 +42,10 @@ public class StreetTransitLink extends Edge {
         this.wheelchairAccessible = wheelchairAccessible;
     }
 
+    public boolean isWheelchairAccessible() {
+        return wheelchairAccessible;
+    }
+
     public String getDirection() {
         return null;
     }
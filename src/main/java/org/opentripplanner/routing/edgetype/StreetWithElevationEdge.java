@@ -3,8 +3,10 @@ package org.opentripplanner.routing.edgetype;
 import org.opentripplanner.common.geometry.CompactElevationProfile;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.util.SlopeCosts;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 
 import org.locationtech.jts.geom.LineString;
@@ -106,6 +108,41 @@ public class StreetWithElevationEdge extends StreetEdge {
         return effectiveWalkFactor * getDistance();
     }
 
+    /** The edges this edge is split into keep the elevation profile along them, if this edge has one. */
+    @Override
+    protected StreetEdge newSplitEdge(StreetVertex from, StreetVertex to, LineString geometry) {
+        if (packedElevationProfile == null) {
+            return super.newSplitEdge(from, to, geometry);
+        }
+        return new StreetWithElevationEdge(from, to, geometry, getRawName(), 0, getPermission(), isBack());
+    }
+
+    @Override
+    public P2<StreetEdge> split(SplitterVertex v, boolean destructive) {
+        P2<StreetEdge> edges = super.split(v, destructive);
+        if (destructive && packedElevationProfile != null) {
+            PackedCoordinateSequence profile = getElevationProfile();
+            // The split edges copied the bicycle safety factor of this edge, which includes its slope costs.
+            SlopeCosts costs = ElevationUtils.getSlopeCosts(profile, getPermission().allows(StreetTraversalPermission.CAR));
+            float flatSafetyFactor = (float) ((bicycleSafetyFactor - costs.slopeSafetyCost / getDistance()) / costs.lengthMultiplier);
+            double splitDistance = edges.first.getDistance();
+            setPartialElevationProfile((StreetWithElevationEdge) edges.first, profile, 0, splitDistance, flatSafetyFactor);
+            setPartialElevationProfile((StreetWithElevationEdge) edges.second, profile, splitDistance, getDistance(), flatSafetyFactor);
+        }
+        return edges;
+    }
+
+    private void setPartialElevationProfile(StreetWithElevationEdge edge, PackedCoordinateSequence profile,
+            double start, double end, float flatSafetyFactor) {
+        PackedCoordinateSequence partialProfile = ElevationUtils.getPartialElevationProfile(profile, start, end);
+        if (partialProfile.size() < 2) {
+            // Too short to have a profile of its own, keep the slope costs of this edge in the safety factor
+            return;
+        }
+        edge.setBicycleSafetyFactor(flatSafetyFactor);
+        edge.setElevationProfile(partialProfile, false);
+    }
+
     @Override
     public String toString() {
         return "StreetWithElevationEdge(" + getId() + ", " + getName() + ", " + fromv + " -> "
@@ -1,7 +1,9 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -76,6 +78,27 @@ public class Timetable implements Serializable {
      */
     private transient int minTime, maxTime;
 
+    /**
+     * The distinct service codes of the TripTimes, in the order of the groups of the departure and arrival indexes.
+     * Null if this Timetable has not been indexed (see finish()), or has been modified since.
+     */
+    private transient int[] indexServiceCodes;
+
+    /** Group g of the departure and arrival indexes runs from indexGroupStart[g] to indexGroupStart[g + 1]. */
+    private transient int[] indexGroupStart;
+
+    /**
+     * For each stop, the indexes in tripTimes of all trips grouped by service code, and within each group sorted by
+     * departure time at that stop and then by trip index. This allows finding the next departure with a binary search.
+     */
+    private transient int[][] departureIndex;
+
+    /** Like departureIndex, but sorted by arrival time at each stop. */
+    private transient int[][] arrivalIndex;
+
+    /** The number of TripTimes when the indexes were built, to detect trips added to the list directly. */
+    private transient int indexedTripCount;
+
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
         this.pattern = pattern;
@@ -175,72 +198,78 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
 
         boolean omitCanceled =  s0.getOptions().omitCanceled;
 
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled() && omitCanceled) continue;
-            if ((tt.getNumStops() <= stopIndex)) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                if (tt.isCanceledDeparture(stopIndex) && omitCanceled) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                // For GTFS-Flex, if this is a flag-stop or deviated-route board/alight, we need to
-                // add to the scheduled timepoint the amount of time the vehicle travels along the
-                // hop before the board/alight, and subtract the amount of time the vehicle travels
-                // off-route before rejoining the route. Both these values are 0 for regular fixed-
-                // route board/alights.
-                int flexTimeAdjustment = 0;
-                if (flexOffsetScale != 0 || flexPreBoardDirectTime != 0) {
-                    int timeIntoHop = 0;
-                    if (stopIndex + 1 < tt.getNumStops() && flexOffsetScale != 0.0) {
-                        timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex));
+        // Use the sorted indexes when they are up to date. Flex boardings and alightings shift the time of each trip
+        // by a different amount, which does not preserve the order of the index.
+        boolean useIndex = departureIndex != null && indexedTripCount == tripTimes.size()
+                && flexOffsetScale == 0 && flexPreBoardDirectTime == 0 && flexPostAlightDirectTime == 0;
+        if (useIndex) {
+            bestTrip = boarding ? findNextDeparture(s0, serviceDay, stopIndex, currentStop, time, omitCanceled)
+                                : findPreviousArrival(s0, serviceDay, stopIndex, currentStop, time, omitCanceled);
+            if (bestTrip != null) {
+                bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
+            }
+        } else {
+            // Linear search through the timetable looking for the best departure.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled() && omitCanceled) continue;
+                if ((tt.getNumStops() <= stopIndex)) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    if (tt.isCanceledDeparture(stopIndex) && omitCanceled) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                    // For GTFS-Flex, if this is a flag-stop or deviated-route board/alight, we need to
+                    // add to the scheduled timepoint the amount of time the vehicle travels along the
+                    // hop before the board/alight, and subtract the amount of time the vehicle travels
+                    // off-route before rejoining the route. Both these values are 0 for regular fixed-
+                    // route board/alights.
+                    int flexTimeAdjustment = 0;
+                    if (flexOffsetScale != 0 || flexPreBoardDirectTime != 0) {
+                        int timeIntoHop = 0;
+                        if (stopIndex + 1 < tt.getNumStops() && flexOffsetScale != 0.0) {
+                            timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex));
+                        }
+                        int vehicleTime = (flexPreBoardDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPreBoardDirectTime);
+                        flexTimeAdjustment = timeIntoHop - vehicleTime;
                     }
-                    int vehicleTime = (flexPreBoardDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPreBoardDirectTime);
-                    flexTimeAdjustment = timeIntoHop - vehicleTime;
-                }
 
-                int depTime = tt.getDepartureTime(stopIndex) + flexTimeAdjustment;
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                if (tt.isCanceledArrival(stopIndex) && omitCanceled) continue;
-                // For GTFS-Flex, subtract from the scheduled timepoint the amount of time left in
-                // the hop after the vehicle drops off the passenger (note flexOffsetScale < 0
-                // in this case), and add the amount of time the vehicle travels off-route before
-                // the passenger alights.
-                int flexTimeAdjustment = 0;
-                if (flexOffsetScale != 0 || flexPostAlightDirectTime != 0) {
-                    int timeIntoHop = 0;
-                    if (stopIndex - 1 >= 0 && flexOffsetScale != 0.0) {
-                        timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex - 1));
+                    int depTime = tt.getDepartureTime(stopIndex) + flexTimeAdjustment;
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    if (tt.isCanceledArrival(stopIndex) && omitCanceled) continue;
+                    // For GTFS-Flex, subtract from the scheduled timepoint the amount of time left in
+                    // the hop after the vehicle drops off the passenger (note flexOffsetScale < 0
+                    // in this case), and add the amount of time the vehicle travels off-route before
+                    // the passenger alights.
+                    int flexTimeAdjustment = 0;
+                    if (flexOffsetScale != 0 || flexPostAlightDirectTime != 0) {
+                        int timeIntoHop = 0;
+                        if (stopIndex - 1 >= 0 && flexOffsetScale != 0.0) {
+                            timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex - 1));
+                        }
+                        int vehicleTime = (flexPostAlightDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPostAlightDirectTime);
+                        flexTimeAdjustment = timeIntoHop + vehicleTime;
                     }
-                    int vehicleTime = (flexPostAlightDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPostAlightDirectTime);
-                    flexTimeAdjustment = timeIntoHop + vehicleTime;
-                }
 
-                int arvTime = tt.getArrivalTime(stopIndex) + flexTimeAdjustment;
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+                    int arvTime = tt.getArrivalTime(stopIndex) + flexTimeAdjustment;
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -296,6 +325,169 @@ public class Timetable implements Serializable {
         return getNextTrip(s0, serviceDay, stopIndex, boarding, 0, 0, 0);
     }
 
+    /**
+     * Find the trip departing soonest at or after the given time, using the departure index. The trips of each running
+     * service code are scanned from the first one departing at or after the time, until one is found that can be
+     * boarded. Ties are broken by trip index, so the result is the same as that of the linear search.
+     */
+    private TripTimes findNextDeparture(State s0, ServiceDay serviceDay, int stopIndex, Stop currentStop, int time,
+                                        boolean omitCanceled) {
+        int[] index = departureIndex[stopIndex];
+        TripTimes bestTrip = null;
+        int bestTime = Integer.MAX_VALUE;
+        int bestTripIndex = -1;
+        for (int g = 0; g < indexServiceCodes.length; g++) {
+            if ( ! serviceDay.serviceRunning(indexServiceCodes[g])) continue;
+            int end = indexGroupStart[g + 1];
+            // Binary search for the first trip in the group departing at or after the time.
+            int lo = indexGroupStart[g];
+            int hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tripTimes.get(index[mid]).getDepartureTime(stopIndex) < time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < end; i++) {
+                int tripIndex = index[i];
+                TripTimes tt = tripTimes.get(tripIndex);
+                int depTime = tt.getDepartureTime(stopIndex);
+                // The rest of the group departs later and cannot improve on the best trip found in earlier groups.
+                if (bestTrip != null && (depTime > bestTime || (depTime == bestTime && tripIndex > bestTripIndex))) break;
+                if (depTime < 0) continue;
+                if (tt.isCanceled() && omitCanceled) continue;
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                if (tt.isCanceledDeparture(stopIndex) && omitCanceled) continue;
+                // Transfer rules can only make the earliest possible departure later.
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, true, serviceDay, time);
+                if (adjustedTime == -1 || depTime < adjustedTime) continue;
+                bestTrip = tt;
+                bestTime = depTime;
+                bestTripIndex = tripIndex;
+                break;
+            }
+        }
+        return bestTrip;
+    }
+
+    /**
+     * Find the trip arriving latest at or before the given time, using the arrival index. This is the mirror image
+     * of findNextDeparture, except that among trips arriving at the same time the first one in the timetable is
+     * kept, so the scan continues over trips arriving at the same time as the best one.
+     */
+    private TripTimes findPreviousArrival(State s0, ServiceDay serviceDay, int stopIndex, Stop currentStop, int time,
+                                          boolean omitCanceled) {
+        int[] index = arrivalIndex[stopIndex];
+        TripTimes bestTrip = null;
+        int bestTime = Integer.MIN_VALUE;
+        int bestTripIndex = -1;
+        for (int g = 0; g < indexServiceCodes.length; g++) {
+            if ( ! serviceDay.serviceRunning(indexServiceCodes[g])) continue;
+            int start = indexGroupStart[g];
+            // Binary search for the first trip in the group arriving after the time.
+            int lo = start;
+            int hi = indexGroupStart[g + 1];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tripTimes.get(index[mid]).getArrivalTime(stopIndex) <= time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo - 1; i >= start; i--) {
+                int tripIndex = index[i];
+                TripTimes tt = tripTimes.get(tripIndex);
+                int arvTime = tt.getArrivalTime(stopIndex);
+                if (arvTime < bestTime || arvTime < 0) break;
+                if (bestTrip != null && arvTime == bestTime && tripIndex > bestTripIndex) continue;
+                if (tt.isCanceled() && omitCanceled) continue;
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                if (tt.isCanceledArrival(stopIndex) && omitCanceled) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, false, serviceDay, time);
+                if (adjustedTime == -1 || arvTime > adjustedTime) continue;
+                bestTrip = tt;
+                bestTime = arvTime;
+                bestTripIndex = tripIndex;
+            }
+        }
+        return bestTrip;
+    }
+
+    /**
+     * Find the trips departing from a stop within a time window on a service day, in order of departure and then of
+     * trip index, for departure boards. This uses the departure index when it is up to date: the trips of each running
+     * service code are found with a binary search and merged until enough have been found. Otherwise all the trips
+     * are scanned and sorted.
+     *
+     * @param startTime the earliest departure time in seconds since midnight on the service day, inclusive
+     * @param endTime the latest departure time in seconds since midnight on the service day, exclusive
+     * @param maxTrips the maximum number of trips to return
+     */
+    public List<TripTimes> getDepartures(ServiceDay serviceDay, int stopIndex, int startTime, int endTime,
+                                         int maxTrips, boolean omitCanceled) {
+        List<TripTimes> departures = new ArrayList<>();
+        if (maxTrips <= 0 || startTime >= endTime) return departures;
+        if (departureIndex != null && indexedTripCount == tripTimes.size()) {
+            int[] index = departureIndex[stopIndex];
+            int nGroups = indexServiceCodes.length;
+            // The position of the next candidate in each group, or -1 for groups not running on the service day.
+            int[] next = new int[nGroups];
+            for (int g = 0; g < nGroups; g++) {
+                if ( ! serviceDay.serviceRunning(indexServiceCodes[g])) {
+                    next[g] = -1;
+                    continue;
+                }
+                int lo = indexGroupStart[g];
+                int hi = indexGroupStart[g + 1];
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (tripTimes.get(index[mid]).getDepartureTime(stopIndex) < startTime) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                next[g] = lo;
+            }
+            while (departures.size() < maxTrips) {
+                // There are only a few service codes per pattern, so a linear scan finds the group to take from.
+                int bestGroup = -1;
+                long bestKey = Long.MAX_VALUE;
+                for (int g = 0; g < nGroups; g++) {
+                    if (next[g] < 0 || next[g] >= indexGroupStart[g + 1]) continue;
+                    int tripIndex = index[next[g]];
+                    long key = ((long) tripTimes.get(tripIndex).getDepartureTime(stopIndex) << 32) | tripIndex;
+                    if (key < bestKey) {
+                        bestKey = key;
+                        bestGroup = g;
+                    }
+                }
+                if (bestGroup < 0 || (int) (bestKey >> 32) >= endTime) break;
+                TripTimes tt = tripTimes.get(index[next[bestGroup]++]);
+                if (omitCanceled && tt.isCanceledDeparture(stopIndex)) continue;
+                departures.add(tt);
+            }
+        } else {
+            for (TripTimes tt : tripTimes) {
+                if (tt.getNumStops() <= stopIndex) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime < startTime || depTime >= endTime) continue;
+                if (omitCanceled && tt.isCanceledDeparture(stopIndex)) continue;
+                departures.add(tt);
+            }
+            // The sort is stable, so trips departing at the same time stay in timetable order.
+            departures.sort(Comparator.comparingInt(tt -> tt.getDepartureTime(stopIndex)));
+            if (departures.size() > maxTrips) {
+                departures = new ArrayList<>(departures.subList(0, maxTrips));
+            }
+        }
+        return departures;
+    }
+
     // could integrate with getNextTrip
     public TripTimes getNextCallNRideTrip(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, int directTime) {
         /* Search at the state's time, but relative to midnight on the given service day. */
@@ -429,6 +621,81 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        buildIndexes();
+    }
+
+    /**
+     * Build the per-stop departure and arrival indexes used by getNextTrip. Trips are grouped by service code so
+     * that the groups not running on a given day can be skipped, and each group is sorted separately at each stop
+     * since trips may overtake one another. If any trip does not serve every stop of the pattern, the Timetable is
+     * left unindexed and getNextTrip falls back on a linear search.
+     */
+    private void buildIndexes() {
+        clearIndexes();
+        int nStops = pattern.stopPattern.size;
+        int nTrips = tripTimes.size();
+        for (TripTimes tt : tripTimes) {
+            if (tt.getNumStops() != nStops) return;
+        }
+        // Group the trips by service code, keeping them in timetable order within each group.
+        int[] serviceCodes = new int[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            serviceCodes[t] = tripTimes.get(t).serviceCode;
+        }
+        int[] distinctCodes = Arrays.stream(serviceCodes).distinct().sorted().toArray();
+        int[] groupStart = new int[distinctCodes.length + 1];
+        int[] groupOfTrip = new int[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            groupOfTrip[t] = Arrays.binarySearch(distinctCodes, serviceCodes[t]);
+            groupStart[groupOfTrip[t] + 1] += 1;
+        }
+        for (int g = 0; g < distinctCodes.length; g++) {
+            groupStart[g + 1] += groupStart[g];
+        }
+        int[] slot = Arrays.copyOf(groupStart, distinctCodes.length);
+        int[] grouped = new int[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            grouped[slot[groupOfTrip[t]]++] = t;
+        }
+        int[][] departures = new int[nStops][];
+        int[][] arrivals = new int[nStops][];
+        long[] keys = new long[nTrips];
+        for (int s = 0; s < nStops; s++) {
+            departures[s] = sortGroups(grouped, groupStart, keys, s, true);
+            arrivals[s] = sortGroups(grouped, groupStart, keys, s, false);
+        }
+        indexServiceCodes = distinctCodes;
+        indexGroupStart = groupStart;
+        departureIndex = departures;
+        arrivalIndex = arrivals;
+        indexedTripCount = nTrips;
+    }
+
+    /**
+     * Sort the trips within each group by their time at the given stop, then by trip index. The time and the trip
+     * index are packed into a single long so that the primitive sort can be used.
+     */
+    private int[] sortGroups(int[] grouped, int[] groupStart, long[] keys, int stopIndex, boolean departure) {
+        for (int i = 0; i < grouped.length; i++) {
+            TripTimes tt = tripTimes.get(grouped[i]);
+            int time = departure ? tt.getDepartureTime(stopIndex) : tt.getArrivalTime(stopIndex);
+            keys[i] = ((long) time << 32) | grouped[i];
+        }
+        int[] sorted = new int[grouped.length];
+        for (int g = 0; g < groupStart.length - 1; g++) {
+            Arrays.sort(keys, groupStart[g], groupStart[g + 1]);
+        }
+        for (int i = 0; i < grouped.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    private void clearIndexes() {
+        indexServiceCodes = null;
+        indexGroupStart = null;
+        departureIndex = null;
+        arrivalIndex = null;
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -482,6 +749,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        clearIndexes();
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -707,6 +975,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        clearIndexes();
         tripTimes.add(tt);
     }
 
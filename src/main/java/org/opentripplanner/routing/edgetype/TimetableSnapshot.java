@@ -1,8 +1,9 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.stream.Collectors;
 
+import org.opentripplanner.common.CopyOnWriteBucketMap;
 import org.opentripplanner.model.calendar.ServiceDate;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.model.Trip;
@@ -87,12 +88,10 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
+    // The committed snapshots share all the buckets of this map that have not changed since, so a commit only
+    // copies the buckets holding patterns that were updated rather than the whole map.
     // The SortedSet members are copy-on-write
-    // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private CopyOnWriteBucketMap<TripPattern, SortedSet<Timetable>> timetables = new CopyOnWriteBucketMap<>();
 
     /**
      * <p>
@@ -101,11 +100,30 @@ public class TimetableSnapshot {
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
      * <p>
-     * This is a HashMap and not a Map so the clone function is available.
+     * Like the timetables, this map is shared with committed snapshots bucket by bucket.
      * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+    private CopyOnWriteBucketMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new CopyOnWriteBucketMap<>();
     
+    /**
+     * In committed snapshots, the timetables resolve returns for the patterns and service dates with added trips,
+     * merged and indexed once by commit. Null in the buffer, where they are merged on demand.
+     */
+    private Map<TripPattern, Map<ServiceDate, Timetable>> lastAddedTimetables;
+
+    /**
+     * In the buffer, the merged timetables of the last commit, which the next commit shares except for the patterns
+     * and service dates touched since. Neither this map nor its values are modified once committed, they are copied.
+     */
+    private Map<TripPattern, Map<ServiceDate, Timetable>> committedLastAddedTimetables = new HashMap<>();
+
+    /**
+     * In the buffer, the service dates of each pattern updated since the last commit, whose merged timetables have to
+     * be rebuilt. A trip replacing a scheduled one is only looked up for the patterns of the trips it replaces, which
+     * are touched too as the scheduled trip is cancelled in them (see TimetableSnapshotSource.handleModifiedTrip).
+     */
+    private Map<TripPattern, Set<ServiceDate>> touchedSinceCommit = new HashMap<>();
+
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
      * be possible to change it to false anymore.
@@ -132,20 +150,15 @@ public class TimetableSnapshot {
         SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
 
         if (sortedTimetables != null && serviceDate != null) {
-            Timetable lastAdded = resolveLastAdded(pattern, serviceDate);
+            Timetable lastAdded;
+            if (lastAddedTimetables != null) {
+                Map<ServiceDate, Timetable> timetablesByDate = lastAddedTimetables.get(pattern);
+                lastAdded = timetablesByDate == null ? null : timetablesByDate.get(serviceDate);
+            } else {
+                // Only the updaters resolve timetables in the buffer, to find trips, so these are not indexed.
+                lastAdded = mergeLastAdded(pattern, serviceDate, sortedTimetables);
+            }
             if (lastAdded != null) {
-                for (Timetable timetable : sortedTimetables) {
-
-                    if (timetable != null && timetable.tripTimes != null && timetable.isValidFor(serviceDate)) {
-
-                        for (TripTimes tripTime : timetable.tripTimes) {
-                            if (!lastAdded.tripTimes.contains(tripTime)) {
-                                lastAdded.tripTimes.add(tripTime);
-                            }
-                        }
-                    }
-                }
-                lastAdded.finish();
                 return lastAdded;
             } else {
                 for (Timetable timetable : sortedTimetables) {
@@ -160,6 +173,64 @@ public class TimetableSnapshot {
         return pattern.scheduledTimetable;
     }
 
+    /**
+     * @return the timetable of the trips added to other patterns for trips of the given pattern on the given date,
+     * merged with the updated timetables of the pattern for that date, or null if no such trip was added.
+     */
+    private Timetable mergeLastAdded(TripPattern pattern, ServiceDate serviceDate,
+            SortedSet<Timetable> sortedTimetables) {
+        Timetable lastAdded = resolveLastAdded(pattern, serviceDate);
+        if (lastAdded != null) {
+            for (Timetable timetable : sortedTimetables) {
+
+                if (timetable != null && timetable.tripTimes != null && timetable.isValidFor(serviceDate)) {
+
+                    for (TripTimes tripTime : timetable.tripTimes) {
+                        if (!lastAdded.tripTimes.contains(tripTime)) {
+                            lastAdded.tripTimes.add(tripTime);
+                        }
+                    }
+                }
+            }
+        }
+        return lastAdded;
+    }
+
+    /**
+     * Merge and index the timetables of the patterns and service dates with added trips, so that the searches reading
+     * a committed snapshot do not rebuild them and their indexes at every resolve. Only those of the patterns and
+     * service dates touched since the last commit are rebuilt, the others are taken over from the last commit.
+     */
+    private Map<TripPattern, Map<ServiceDate, Timetable>> mergeLastAddedTimetables() {
+        if (touchedSinceCommit.isEmpty()) {
+            return committedLastAddedTimetables;
+        }
+        Map<TripPattern, Map<ServiceDate, Timetable>> merged = new HashMap<>(committedLastAddedTimetables);
+        touchedSinceCommit.forEach((pattern, serviceDates) -> {
+            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+            Map<ServiceDate, Timetable> timetablesByDate =
+                    new HashMap<>(merged.getOrDefault(pattern, Collections.emptyMap()));
+            for (ServiceDate serviceDate : serviceDates) {
+                Timetable lastAdded = sortedTimetables == null ? null
+                        : mergeLastAdded(pattern, serviceDate, sortedTimetables);
+                if (lastAdded != null) {
+                    lastAdded.finish();
+                    timetablesByDate.put(serviceDate, lastAdded);
+                } else {
+                    timetablesByDate.remove(serviceDate);
+                }
+            }
+            if (timetablesByDate.isEmpty()) {
+                merged.remove(pattern);
+            } else {
+                merged.put(pattern, timetablesByDate);
+            }
+        });
+        touchedSinceCommit.clear();
+        committedLastAddedTimetables = merged;
+        return merged;
+    }
+
     public Collection<Timetable> getTimetables(TripPattern pattern) {
         SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
         return sortedTimetables;
@@ -273,15 +344,17 @@ public class TimetableSnapshot {
             // Set updated trip times of trip
             tt.setTripTimes(tripIndex, updatedTripTimes);
         }
+        touchedSinceCommit.computeIfAbsent(pattern, p -> new HashSet<>()).add(serviceDate);
         
-        // The time tables are finished during the commit
+        // The time tables are finished and their departure indexes rebuilt during the commit
         
         return true;
     }
 
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * the indexing step. Sharing the maps with the committed snapshot only takes time proportional
+     * to their number of buckets, the changed buckets are copied when they are next modified.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -293,7 +366,6 @@ public class TimetableSnapshot {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -304,9 +376,9 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables.snapshot();
+        ret.lastAddedTripPattern = this.lastAddedTripPattern.snapshot();
+        ret.lastAddedTimetables = this.mergeLastAddedTimetables();
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -326,6 +398,9 @@ public class TimetableSnapshot {
         // Clear all data from snapshot.
         boolean timetableWasModified = clearTimetable(feedId);
         boolean lastAddedWasModified = clearLastAddedTripPattern(feedId);
+        committedLastAddedTimetables = committedLastAddedTimetables.entrySet().stream()
+                .filter(entry -> !feedId.equals(entry.getKey().getFeedId()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 
         // If this snapshot was modified, it will be dirty after the clear actions.
         if (timetableWasModified || lastAddedWasModified) {
@@ -340,7 +415,7 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        return timetables.removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
     }
 
     /**
@@ -350,7 +425,7 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        return lastAddedTripPattern.removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
     }
 
     /**
@@ -362,35 +437,44 @@ public class TimetableSnapshot {
         }
 
         boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
+        // Only patterns which actually lose timetables are written back, so that the other buckets stay shared.
+        List<TripPattern> patterns = new ArrayList<>(timetables.size());
+        timetables.forEach((pattern, sortedTimetables) -> patterns.add(pattern));
+        for (TripPattern pattern : patterns) {
             SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
             SortedSet<Timetable> toKeepTimetables =
                     new TreeSet<Timetable>(new SortedTimetableComparator());
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
 
+            if (toKeepTimetables.size() == sortedTimetables.size()) {
+                continue;
+            }
+            modified = true;
             if(toKeepTimetables.isEmpty()) {
-                it.remove();
+                timetables.remove(pattern);
             } else {
                 timetables.put(pattern, toKeepTimetables);
             }
         }
         
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
-            }
+        if (lastAddedTripPattern.removeIf(tripIdAndServiceDate ->
+                serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0)) {
+            modified = true;
         }
+        Map<TripPattern, Map<ServiceDate, Timetable>> keptLastAddedTimetables = new HashMap<>();
+        committedLastAddedTimetables.forEach((pattern, timetablesByDate) -> {
+            Map<ServiceDate, Timetable> kept = new HashMap<>(timetablesByDate);
+            kept.keySet().removeIf(date -> serviceDate.compareTo(date) >= 0);
+            if (!kept.isEmpty()) {
+                keptLastAddedTimetables.put(pattern, kept);
+            }
+        });
+        committedLastAddedTimetables = keptLastAddedTimetables;
 
         return modified;
     }
@@ -266,8 +266,20 @@ public class TransitBoardAlight extends TablePatternEdge implements OnboardEdge
             }            
 
             s1.setBackMode(getMode());
+
+            if (options.allowedFares != null && !options.reverseOptimizing && rctx.fareEligibility != null) {
+                // Narrow the fares covering this ride down to those admitting the zone we leave transit in.
+                long fareEligibility = s0.getFareEligibility() & rctx.fareEligibility.zoneMask(getPattern().getZone(stopIndex));
+                if (fareEligibility == 0) {
+                    return null;
+                }
+                s1.setFareEligibility(fareEligibility);
+            }
+
             final State nextState = s1.makeState();
 
+            // The fare eligibility bits only rule out rides that no allowed fare covers, so the whole journey is
+            // still checked exactly here, once it has passed them.
             if(options.allowedFares != null && !options.reverseOptimizing) {
                 final FareService fareService = options.getRoutingContext().graph.getService(FareService.class);
 
@@ -387,9 +399,18 @@ public class TransitBoardAlight extends TablePatternEdge implements OnboardEdge
 
             s1.incrementWeight(getExtraWeight(options));
 
+            if (options.allowedFares != null && !options.reverseOptimizing && rctx.fareEligibility != null) {
+                // A new ride starts here: keep only the fares admitting both the boarding zone and this route.
+                long fareEligibility = rctx.fareEligibility.boardingMask(getPattern().getZone(stopIndex), trip.getRoute().getId());
+                if (fareEligibility == 0) {
+                    return null;
+                }
+                s1.setFareEligibility(fareEligibility);
+            }
+
             State nextState = s1.makeState();
 
-            if(options.allowedFares != null && !options.reverseOptimizing) {
+            if(options.allowedFares != null && !options.reverseOptimizing && rctx.fareEligibility == null) {
                 final FareService fareService = options.getRoutingContext().graph.getService(FareService.class);
                 if (fareService instanceof DefaultFareServiceImpl) {
                     final GraphPath path = new GraphPath(nextState, false);
@@ -0,0 +1,457 @@
+package org.opentripplanner.routing.graph;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.google.common.collect.ImmutableSet;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.vertextype.BarrierVertex;
+import org.opentripplanner.routing.vertextype.ElevatorOffboardVertex;
+import org.opentripplanner.routing.vertextype.ElevatorOnboardVertex;
+import org.opentripplanner.routing.vertextype.ExitVertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
+import org.opentripplanner.routing.vertextype.TransitStopStreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * Reads and writes graphs in a chunked file format, which can be decoded by several threads at once.
+ *
+ * The old format was a single Kryo stream holding the Graph and then one list of all edges. Because Kryo resolves
+ * shared references in the order objects appear in a stream, it could only be decoded by one thread. Here the plain
+ * street vertices and edges, which make up the bulk of most graphs and hold no references to anything but their own
+ * primitives, strings and end vertices, are written in chunks of CHUNK_SIZE objects. Each chunk is a separate Kryo
+ * stream, and an edge chunk refers to its end vertices by their position among the chunked vertices. All the other
+ * objects (the Graph itself, transit vertices and edges, services...) are written in a final main section, which also
+ * refers to chunked vertices and edges by position so there is only ever one instance of each of them.
+ *
+ * The file layout is: the MAGIC number and the format VERSION, a small section with the OTP version the graph was built
+ * with (so mismatches are detected before decoding anything else), the number of vertex and edge chunks and of the
+ * objects in them, the chunks, and the main section. Each section is preceded by its number of objects and its length
+ * in bytes, except the main section which runs to the end of the file so that it can be streamed.
+ *
+ * Neither writing nor reading holds the whole encoded graph in memory. Chunks are encoded in parallel but written in
+ * order as soon as they are ready, with at most MAX_CHUNKS_IN_FLIGHT encoded chunks waiting, and the main section is
+ * encoded straight into the output. When reading from a file, chunks are memory-mapped and decoded directly from the
+ * mapping. When reading from a stream, each chunk is copied into a byte array which is released once it is decoded,
+ * again with at most MAX_CHUNKS_IN_FLIGHT of them waiting. The main section is decoded straight from the file or
+ * stream.
+ *
+ * Vertex chunks are decoded in parallel, then edge chunks, then the main section. The edges of each vertex are then
+ * linked up in the same order as in the saved graph, so that routing on a reloaded graph is deterministic.
+ */
+class ChunkedGraphSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedGraphSerializer.class);
+
+    /** "OTPGRAPH" in ASCII. Files in the old format start with a Kryo class id, which is never this long. */
+    static final long MAGIC = 0x4F54504752415048L;
+
+    static final int VERSION = 2;
+
+    static final int CHUNK_SIZE = 100_000;
+
+    /** The number of chunks being encoded or decoded, or waiting to be written or decoded, at any one time. */
+    private static final int MAX_CHUNKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** The length written for the main section, which runs to the end of the file. */
+    private static final int TO_END_OF_FILE = -1;
+
+    /**
+     * Vertex classes which only contain primitives, strings and names, so they can be decoded without knowing any other
+     * object of the graph. Subclasses are not included automatically, since they could add fields referencing other
+     * objects.
+     */
+    private static final Set<Class<?>> CHUNKED_VERTEX_CLASSES = ImmutableSet.of(IntersectionVertex.class,
+            OsmVertex.class, SplitterVertex.class, BarrierVertex.class, ExitVertex.class, ElevatorOnboardVertex.class,
+            ElevatorOffboardVertex.class, TransitStopStreetVertex.class);
+
+    /** Edge classes which only refer to their end vertices. AreaEdges for instance share an AreaEdgeList. */
+    private static final Set<Class<?>> CHUNKED_EDGE_CLASSES = ImmutableSet.of(StreetEdge.class,
+            StreetWithElevationEdge.class);
+
+    /* Writing */
+
+    /**
+     * @param edges all the edges of the graph, in the order in which they will be added to the edge lists of their
+     *              vertices when the graph is loaded.
+     */
+    static void write(Graph graph, MavenVersion mavenVersion, List<Edge> edges, OutputStream outputStream)
+            throws IOException {
+        write(graph, mavenVersion, edges, outputStream, CHUNK_SIZE);
+    }
+
+    /** @param chunkSize the number of vertices or edges per chunk, exposed so tests can write several chunks. */
+    static void write(Graph graph, MavenVersion mavenVersion, List<Edge> edges, OutputStream outputStream,
+            int chunkSize) throws IOException {
+        long t0 = System.currentTimeMillis();
+        // Vertices in the order in which they are first met in the edge list, so nearby vertices end up in the same chunk.
+        Set<Vertex> vertexSet = new LinkedHashSet<>();
+        for (Edge e : edges) {
+            for (Vertex v : new Vertex[] { e.getFromVertex(), e.getToVertex() }) {
+                if (CHUNKED_VERTEX_CLASSES.contains(v.getClass())) vertexSet.add(v);
+            }
+        }
+        List<Vertex> chunkedVertices = new ArrayList<>(vertexSet);
+        Map<Vertex, Integer> vertexPositions = positions(chunkedVertices);
+        List<Edge> chunkedEdges = new ArrayList<>();
+        List<Edge> mainEdges = new ArrayList<>();
+        BitSet chunkedEdgeSlots = new BitSet(edges.size());
+        for (int i = 0; i < edges.size(); i++) {
+            Edge e = edges.get(i);
+            if (CHUNKED_EDGE_CLASSES.contains(e.getClass()) && vertexPositions.containsKey(e.getFromVertex())
+                    && vertexPositions.containsKey(e.getToVertex())) {
+                chunkedEdges.add(e);
+                chunkedEdgeSlots.set(i);
+            } else {
+                mainEdges.add(e);
+            }
+        }
+        Map<Edge, Integer> edgePositions = positions(chunkedEdges);
+
+        // Encode the chunks in parallel, each with its own Kryo instance.
+        int nVertexChunks = nChunks(chunkedVertices.size(), chunkSize);
+        int nEdgeChunks = nChunks(chunkedEdges.size(), chunkSize);
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        writeSection(out, 1, encode(Graph.makeKryo(), mavenVersion));
+        out.writeInt(nVertexChunks);
+        out.writeInt(nEdgeChunks);
+        out.writeInt(chunkedVertices.size());
+        out.writeInt(chunkedEdges.size());
+        writeChunks(out, nVertexChunks, c -> chunk(chunkedVertices, c, chunkSize),
+                c -> encodeEach(Graph.makeKryo(), chunk(chunkedVertices, c, chunkSize)));
+        writeChunks(out, nEdgeChunks, c -> chunk(chunkedEdges, c, chunkSize), c -> {
+            Kryo kryo = Graph.makeKryo();
+            kryo.addDefaultSerializer(Vertex.class, new PositionSerializer<>(vertexPositions, null, false));
+            return encodeEach(kryo, chunk(chunkedEdges, c, chunkSize));
+        });
+        long t1 = System.currentTimeMillis();
+
+        Kryo mainKryo = Graph.makeKryo();
+        mainKryo.addDefaultSerializer(Vertex.class, new PositionSerializer<>(vertexPositions, null, true));
+        mainKryo.addDefaultSerializer(Edge.class, new PositionSerializer<>(edgePositions, null, true));
+        out.writeInt(mainEdges.size());
+        out.writeInt(TO_END_OF_FILE);
+        Output mainOutput = new Output(out, 64 * 1024);
+        for (Object o : new Object[] { graph, mainEdges, chunkedEdgeSlots }) {
+            mainKryo.writeClassAndObject(mainOutput, o);
+        }
+        mainOutput.close();
+        LOG.info("Graph written in {} chunks of {} street vertices and {} chunks of {} street edges, plus {} other edges. "
+                        + "Chunks took {} ms, main section {} ms.", nVertexChunks, chunkedVertices.size(), nEdgeChunks,
+                chunkedEdges.size(), mainEdges.size(), t1 - t0, System.currentTimeMillis() - t1);
+    }
+
+    /**
+     * Encode the chunks in parallel and write each one in order as soon as it is ready, starting the encoding of the
+     * next ones only while fewer than MAX_CHUNKS_IN_FLIGHT are waiting to be written.
+     */
+    private static void writeChunks(DataOutputStream out, int nChunks, IntFunction<List<?>> chunks,
+            IntFunction<byte[]> encoder) throws IOException {
+        Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        int nextToEncode = 0;
+        for (int c = 0; c < nChunks; c++) {
+            while (nextToEncode < nChunks && inFlight.size() < MAX_CHUNKS_IN_FLIGHT) {
+                int next = nextToEncode++;
+                inFlight.add(CompletableFuture.supplyAsync(() -> encoder.apply(next)));
+            }
+            writeSection(out, chunks.apply(c).size(), inFlight.remove().join());
+        }
+    }
+
+    private static int nChunks(int size, int chunkSize) {
+        return (size + chunkSize - 1) / chunkSize;
+    }
+
+    private static <T> List<T> chunk(List<T> list, int c, int chunkSize) {
+        return list.subList(c * chunkSize, Math.min(list.size(), (c + 1) * chunkSize));
+    }
+
+    private static <T> Map<T, Integer> positions(List<T> list) {
+        Map<T, Integer> positions = new IdentityHashMap<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            positions.put(list.get(i), i);
+        }
+        return positions;
+    }
+
+    private static byte[] encode(Kryo kryo, Object... objects) {
+        Output output = new Output(64 * 1024, -1);
+        for (Object o : objects) {
+            kryo.writeClassAndObject(output, o);
+        }
+        return output.toBytes();
+    }
+
+    private static byte[] encodeEach(Kryo kryo, List<?> objects) {
+        return encode(kryo, objects.toArray());
+    }
+
+    private static void writeSection(DataOutputStream out, int count, byte[] bytes) throws IOException {
+        out.writeInt(count);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /* Reading */
+
+    /** @return true if the stream is at the start of a graph in this format. The stream must support mark. */
+    static boolean isChunked(InputStream in) throws IOException {
+        in.mark(Long.BYTES);
+        try {
+            return new DataInputStream(in).readLong() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    static boolean isChunked(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.length() >= Long.BYTES && raf.readLong() == MAGIC;
+        }
+    }
+
+    /** Read a graph from a file, mapping its chunks into memory. */
+    static Graph read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            return read(raf, new SectionReader() {
+                @Override
+                public ByteBuffer read(int length) throws IOException {
+                    long position = raf.getFilePointer();
+                    raf.seek(position + length);
+                    return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                }
+                @Override
+                public InputStream rest() {
+                    // The channel shares its position with the file.
+                    return Channels.newInputStream(channel);
+                }
+            });
+        }
+    }
+
+    /** Read a graph from a stream, copying each chunk into a byte array until it is decoded. */
+    static Graph read(InputStream in) throws IOException {
+        DataInputStream dataInput = new DataInputStream(in);
+        return read(dataInput, new SectionReader() {
+            @Override
+            public ByteBuffer read(int length) throws IOException {
+                byte[] bytes = new byte[length];
+                dataInput.readFully(bytes);
+                return ByteBuffer.wrap(bytes);
+            }
+            @Override
+            public InputStream rest() {
+                return dataInput;
+            }
+        });
+    }
+
+    /** Gets the contents of the sections of the file, in order. */
+    private interface SectionReader {
+        /** @return the next section, of the given length. */
+        ByteBuffer read(int length) throws IOException;
+        /** @return the rest of the file, from the end of the last section read. */
+        InputStream rest() throws IOException;
+    }
+
+    private static class Section {
+        final int count;
+        final ByteBuffer bytes;
+        Section(DataInput in, SectionReader reader) throws IOException {
+            count = in.readInt();
+            bytes = reader.read(in.readInt());
+        }
+    }
+
+    private static Graph read(DataInput in, SectionReader reader) throws IOException {
+        long t0 = System.currentTimeMillis();
+        if (in.readLong() != MAGIC) {
+            throw new IOException("Not a chunked graph file.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new RuntimeException("Graph file format version mismatch, expected " + VERSION + " found " + version);
+        }
+        MavenVersion mavenVersion = (MavenVersion) Graph.makeKryo().readClassAndObject(input(new Section(in, reader)));
+        if (Graph.graphVersionMismatch(mavenVersion)) {
+            throw new RuntimeException("Graph version mismatch detected.");
+        }
+        int nVertexChunks = in.readInt();
+        int nEdgeChunks = in.readInt();
+        Vertex[] vertices = new Vertex[in.readInt()];
+        Edge[] edges = new Edge[in.readInt()];
+
+        readChunks(in, reader, nVertexChunks, (section, offset) ->
+                decode(Graph.makeKryo(), section, vertices, offset));
+        long t1 = System.currentTimeMillis();
+
+        // All vertices are decoded before the first edge chunk, as edges refer to them.
+        readChunks(in, reader, nEdgeChunks, (section, offset) -> {
+            Kryo kryo = Graph.makeKryo();
+            kryo.addDefaultSerializer(Vertex.class, new PositionSerializer<>(null, vertices, false));
+            decode(kryo, section, edges, offset);
+        });
+        long t2 = System.currentTimeMillis();
+
+        in.readInt(); // The number of other edges, which the main section holds in a list.
+        if (in.readInt() != TO_END_OF_FILE) {
+            throw new IOException("The main section of the graph file should run to its end.");
+        }
+        Kryo mainKryo = Graph.makeKryo();
+        mainKryo.addDefaultSerializer(Vertex.class, new PositionSerializer<>(null, vertices, true));
+        mainKryo.addDefaultSerializer(Edge.class, new PositionSerializer<>(null, edges, true));
+        Input mainInput = new Input(reader.rest(), 64 * 1024);
+        Graph graph = (Graph) mainKryo.readClassAndObject(mainInput);
+        @SuppressWarnings("unchecked")
+        List<Edge> mainEdges = (List<Edge>) mainKryo.readClassAndObject(mainInput);
+        BitSet chunkedEdgeSlots = (BitSet) mainKryo.readClassAndObject(mainInput);
+        long t3 = System.currentTimeMillis();
+
+        // Link up the edges in the order of the saved graph, merging back the chunked and the other edges.
+        int nEdges = edges.length + mainEdges.size();
+        List<Edge> allEdges = new ArrayList<>(nEdges);
+        int nextChunked = 0;
+        int nextMain = 0;
+        for (int i = 0; i < nEdges; i++) {
+            allEdges.add(chunkedEdgeSlots.get(i) ? edges[nextChunked++] : mainEdges.get(nextMain++));
+        }
+        graph.linkLoadedEdges(allEdges);
+        long t4 = System.currentTimeMillis();
+        LOG.info("Graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        LOG.info("Graph loading phases: {} street vertices {} ms, {} street edges {} ms, "
+                        + "main section with {} other edges {} ms, edge lists {} ms.", vertices.length, t1 - t0,
+                edges.length, t2 - t1, mainEdges.size(), t3 - t2, t4 - t3);
+        return graph;
+    }
+
+    /** Decodes a chunk into the array of decoded objects, from the given offset. */
+    private interface ChunkDecoder {
+        void decode(Section section, int offset);
+    }
+
+    /**
+     * Read the next chunks and decode them in parallel, reading the next ones only while fewer than
+     * MAX_CHUNKS_IN_FLIGHT are waiting to be decoded. Returns once all of them are decoded.
+     */
+    private static void readChunks(DataInput in, SectionReader reader, int nChunks, ChunkDecoder decoder)
+            throws IOException {
+        Deque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+        int offset = 0;
+        for (int c = 0; c < nChunks; c++) {
+            if (inFlight.size() == MAX_CHUNKS_IN_FLIGHT) {
+                inFlight.remove().join();
+            }
+            Section section = new Section(in, reader);
+            int chunkOffset = offset;
+            inFlight.add(CompletableFuture.runAsync(() -> decoder.decode(section, chunkOffset)));
+            offset += section.count;
+        }
+        for (CompletableFuture<Void> chunk : inFlight) {
+            chunk.join();
+        }
+    }
+
+    private static Input input(Section section) {
+        ByteBuffer bytes = section.bytes;
+        if (bytes.hasArray()) {
+            return new Input(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        return new ByteBufferInput(bytes);
+    }
+
+    private static void decode(Kryo kryo, Section section, Object[] target, int offset) {
+        Input input = input(section);
+        for (int i = 0; i < section.count; i++) {
+            target[offset + i] = kryo.readClassAndObject(input);
+        }
+    }
+
+    /**
+     * Writes the objects that are stored in chunks as their position in the chunks, so that sections decoded separately
+     * share the same instances. Objects which are not in the chunks are either written inline with the same
+     * FieldSerializer Kryo uses by default, or rejected.
+     */
+    private static class PositionSerializer<T> extends Serializer<T> {
+
+        /** The positions of the chunked objects, when writing. */
+        private final Map<T, Integer> positions;
+
+        /** The chunked objects, when reading. */
+        private final Object[] objects;
+
+        private final boolean inlineOthers;
+
+        private final Map<Class<?>, FieldSerializer<T>> fieldSerializers = new HashMap<>();
+
+        PositionSerializer(Map<T, Integer> positions, Object[] objects, boolean inlineOthers) {
+            this.positions = positions;
+            this.objects = objects;
+            this.inlineOthers = inlineOthers;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, T object) {
+            Integer position = positions.get(object);
+            if (position != null) {
+                output.writeVarInt(position + 1, true);
+            } else if (inlineOthers) {
+                output.writeVarInt(0, true);
+                fieldSerializer(kryo, object.getClass()).write(kryo, output, object);
+            } else {
+                throw new IllegalStateException("Object is not part of the chunked graph sections: " + object);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T read(Kryo kryo, Input input, Class<T> type) {
+            int position = input.readVarInt(true);
+            if (position > 0) {
+                return (T) objects[position - 1];
+            }
+            return fieldSerializer(kryo, type).read(kryo, input, type);
+        }
+
+        private FieldSerializer<T> fieldSerializer(Kryo kryo, Class<?> type) {
+            return fieldSerializers.computeIfAbsent(type, t -> new FieldSerializer<>(kryo, t));
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.vertextype.BarrierVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+
+/**
+ * An immutable copy of the street edges of a graph in compressed sparse row form, built when the graph is loaded.
+ * Each StreetEdge becomes an arc, numbered so that the arcs leaving a vertex are contiguous, and its attributes are
+ * held in parallel primitive arrays indexed by arc. Searches which only need these attributes, like the street
+ * distance search, then scan a few arrays instead of following references from vertices to edge lists to edges.
+ *
+ * Vertices are identified by their index (see Vertex.getIndex). Only the vertices and permanent StreetEdges present
+ * at load time are included. The graph keeps changing after that: requests link temporary edges to permanent
+ * vertices, and updaters split and remove streets. So the edge arrays each vertex had at build time are kept too (the
+ * arrays themselves, not copies), and isUnchanged tells whether the edges of a vertex are still those arrays. Searches
+ * may only read the arcs of unchanged vertices and must read all edges of the others from the object graph.
+ *
+ * This is a copy held in addition to the object graph, not a replacement: the StreetEdges are kept, as A* and
+ * itinerary generation still use them, so it adds to the heap what getMemoryFootprint reports.
+ */
+public class CompactStreetGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetGraph.class);
+
+    public static final int BACK_FLAG = 1;
+    public static final int ROUNDABOUT_FLAG = 1 << 1;
+    public static final int STAIRS_FLAG = 1 << 2;
+    public static final int NOTHRUTRAFFIC_FLAG = 1 << 3;
+    public static final int WHEELCHAIR_ACCESSIBLE_FLAG = 1 << 4;
+    public static final int SLOPEOVERRIDE_FLAG = 1 << 5;
+
+    /**
+     * Estimated sizes in bytes of the objects of the street layer with compressed references, for the memory report:
+     * a StreetEdge without its geometry, and an edge list array without its elements.
+     */
+    private static final int STREET_EDGE_BYTES = 72;
+    private static final int EDGE_ARRAY_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    private final Vertex[] vertices;
+
+    /** The edge arrays of each vertex when this was built, compared by identity in isUnchanged. */
+    private final Edge[][] outgoingAtBuild;
+    private final Edge[][] incomingAtBuild;
+
+    /** The arcs leaving vertex v are numbered from outStart[v] to outStart[v + 1] - 1. */
+    private final int[] outStart;
+
+    /** The arcs entering vertex v are inArcs[inStart[v]] to inArcs[inStart[v + 1] - 1]. */
+    private final int[] inStart;
+    private final int[] inArcs;
+
+    private final int[] fromVertex;
+    private final int[] toVertex;
+    private final int[] lengthMm;
+    private final byte[] flags;
+    /** The StreetTraversalPermission code of each arc, restricted by barriers at its ends. */
+    private final byte[] permission;
+    private final float[] carSpeed;
+    private final float[] bicycleSafetyFactor;
+    private final float[] maxSlope;
+    private final short[] inAngle;
+    private final short[] outAngle;
+    private final StreetEdge[] edges;
+
+    /** The vertices which also have edges other than permanent StreetEdges, which are not represented here. */
+    private final BitSet otherEdges = new BitSet();
+
+    public CompactStreetGraph(Graph graph) {
+        long startTime = System.currentTimeMillis();
+        int nVertices = 0;
+        int nArcs = 0;
+        for (Vertex v : graph.getVertices()) {
+            nVertices = Math.max(nVertices, v.getIndex() + 1);
+            for (Edge e : v.getOutgoing()) {
+                if (isArc(e)) nArcs++;
+            }
+        }
+        vertices = new Vertex[nVertices];
+        outgoingAtBuild = new Edge[nVertices][];
+        incomingAtBuild = new Edge[nVertices][];
+        outStart = new int[nVertices + 1];
+        inStart = new int[nVertices + 1];
+        for (Vertex v : graph.getVertices()) {
+            vertices[v.getIndex()] = v;
+            outgoingAtBuild[v.getIndex()] = v.getOutgoingArray();
+            incomingAtBuild[v.getIndex()] = v.getIncomingArray();
+            for (Edge e : v.getOutgoing()) {
+                if (isArc(e)) {
+                    outStart[v.getIndex() + 1]++;
+                    inStart[e.getToVertex().getIndex() + 1]++;
+                } else {
+                    otherEdges.set(v.getIndex());
+                    otherEdges.set(e.getToVertex().getIndex());
+                }
+            }
+        }
+        for (int v = 0; v < nVertices; v++) {
+            outStart[v + 1] += outStart[v];
+            inStart[v + 1] += inStart[v];
+        }
+        inArcs = new int[nArcs];
+        fromVertex = new int[nArcs];
+        toVertex = new int[nArcs];
+        lengthMm = new int[nArcs];
+        flags = new byte[nArcs];
+        permission = new byte[nArcs];
+        carSpeed = new float[nArcs];
+        bicycleSafetyFactor = new float[nArcs];
+        maxSlope = new float[nArcs];
+        inAngle = new short[nArcs];
+        outAngle = new short[nArcs];
+        edges = new StreetEdge[nArcs];
+        int[] nextIn = new int[nVertices];
+        for (int v = 0; v < nVertices; v++) {
+            if (vertices[v] == null) continue;
+            int arc = outStart[v];
+            for (Edge e : vertices[v].getOutgoing()) {
+                if (!isArc(e)) continue;
+                StreetEdge edge = (StreetEdge) e;
+                int to = edge.getToVertex().getIndex();
+                inArcs[inStart[to] + nextIn[to]++] = arc;
+                fromVertex[arc] = v;
+                toVertex[arc] = to;
+                lengthMm[arc] = (int) Math.round(edge.getDistance() * 1000);
+                flags[arc] = flags(edge);
+                permission[arc] = (byte) permission(edge).code;
+                carSpeed[arc] = edge.getCarSpeed();
+                bicycleSafetyFactor[arc] = edge.getBicycleSafetyFactor();
+                maxSlope[arc] = edge.getMaxSlope();
+                inAngle[arc] = (short) edge.getInAngle();
+                outAngle[arc] = (short) edge.getOutAngle();
+                edges[arc] = edge;
+                arc++;
+            }
+        }
+        LOG.info("Built compact street graph in {} ms. {}", System.currentTimeMillis() - startTime,
+                describeMemoryFootprint());
+    }
+
+    private static boolean isArc(Edge e) {
+        return e instanceof StreetEdge && !(e instanceof TemporaryEdge);
+    }
+
+    private static byte flags(StreetEdge edge) {
+        int flags = 0;
+        if (edge.isBack()) flags |= BACK_FLAG;
+        if (edge.isRoundabout()) flags |= ROUNDABOUT_FLAG;
+        if (edge.isStairs()) flags |= STAIRS_FLAG;
+        if (edge.isNoThruTraffic()) flags |= NOTHRUTRAFFIC_FLAG;
+        if (edge.isWheelchairAccessible()) flags |= WHEELCHAIR_ACCESSIBLE_FLAG;
+        if (edge.isSlopeOverride()) flags |= SLOPEOVERRIDE_FLAG;
+        return (byte) flags;
+    }
+
+    /** The permission of the edge restricted by barriers at its ends, as in StreetEdge.canTraverseIncludingBarrier. */
+    private static StreetTraversalPermission permission(StreetEdge edge) {
+        StreetTraversalPermission permission = edge.getPermission();
+        if (edge.getFromVertex() instanceof BarrierVertex) {
+            permission = permission.intersection(((BarrierVertex) edge.getFromVertex()).getBarrierPermissions());
+        }
+        if (edge.getToVertex() instanceof BarrierVertex) {
+            permission = permission.intersection(((BarrierVertex) edge.getToVertex()).getBarrierPermissions());
+        }
+        return permission;
+    }
+
+    /** @return whether the vertex with the given index was in the graph when this was built. */
+    public boolean contains(int vertex) {
+        return vertex < vertices.length && vertices[vertex] != null;
+    }
+
+    /**
+     * @return whether the vertex still has the outgoing (or incoming if incoming is true) edges it had when this was
+     * built. Only then do its arcs, together with its other edges if hasOtherEdges, describe all of its edges. Every
+     * edge added or removed since, including temporary edges and the parts of split streets, changes the edge arrays of
+     * both of its vertices, whichever direction a search follows it in.
+     */
+    public boolean isUnchanged(int vertex, boolean incoming) {
+        Vertex v = vertices[vertex];
+        return incoming ? v.getIncomingArray() == incomingAtBuild[vertex]
+                : v.getOutgoingArray() == outgoingAtBuild[vertex];
+    }
+
+    public Vertex getVertex(int vertex) {
+        return vertices[vertex];
+    }
+
+    public int getVertexCount() {
+        return vertices.length;
+    }
+
+    public int getArcCount() {
+        return edges.length;
+    }
+
+    /**
+     * @return the position of the first arc leaving (or entering if incoming is true) the vertex. The arcs are those
+     * returned by getArc for the positions from this one to getArcsEnd excluded.
+     */
+    public int getArcsStart(int vertex, boolean incoming) {
+        return incoming ? inStart[vertex] : outStart[vertex];
+    }
+
+    public int getArcsEnd(int vertex, boolean incoming) {
+        return incoming ? inStart[vertex + 1] : outStart[vertex + 1];
+    }
+
+    public int getArc(int position, boolean incoming) {
+        return incoming ? inArcs[position] : position;
+    }
+
+    /** @return whether the vertex had edges other than permanent StreetEdges, and thus not arcs, when this was built. */
+    public boolean hasOtherEdges(int vertex) {
+        return otherEdges.get(vertex);
+    }
+
+    public int getFromVertex(int arc) {
+        return fromVertex[arc];
+    }
+
+    public int getToVertex(int arc) {
+        return toVertex[arc];
+    }
+
+    public double getDistance(int arc) {
+        return lengthMm[arc] / 1000.0;
+    }
+
+    public boolean hasFlag(int arc, int flag) {
+        return (flags[arc] & flag) != 0;
+    }
+
+    public float getCarSpeed(int arc) {
+        return carSpeed[arc];
+    }
+
+    public float getBicycleSafetyFactor(int arc) {
+        return bicycleSafetyFactor[arc];
+    }
+
+    /** @return the azimuth of the first segment of the arc in degrees clockwise from South, see StreetEdge. */
+    public int getInAngle(int arc) {
+        return inAngle[arc];
+    }
+
+    public int getOutAngle(int arc) {
+        return outAngle[arc];
+    }
+
+    public StreetEdge getEdge(int arc) {
+        return edges[arc];
+    }
+
+    /** The same rules as StreetEdge.canTraverse(RoutingRequest, TraverseMode). */
+    public boolean canTraverse(int arc, RoutingRequest options, TraverseMode mode) {
+        if (options.wheelchairAccessible) {
+            if (!hasFlag(arc, WHEELCHAIR_ACCESSIBLE_FLAG) || maxSlope[arc] > options.maxSlope) {
+                return false;
+            }
+        }
+        switch (mode) {
+            case WALK: return (permission[arc] & StreetTraversalPermission.PEDESTRIAN.code) != 0;
+            case BICYCLE: return (permission[arc] & StreetTraversalPermission.BICYCLE.code) != 0;
+            case CAR: return (permission[arc] & StreetTraversalPermission.CAR.code) != 0;
+            default: return false;
+        }
+    }
+
+    /**
+     * @return the bytes held by the arrays of this compact graph, including the references to the StreetEdges and to
+     * the edge arrays of the vertices, all of which are shared with the object graph.
+     */
+    public long getMemoryFootprint() {
+        long nArcs = edges.length;
+        long nVertices = vertices.length;
+        return nVertices * (3 * REFERENCE_BYTES + 2 * Integer.BYTES) + otherEdges.size() / 8
+                + nArcs * (4 * Integer.BYTES + 2 * Byte.BYTES + 3 * Float.BYTES + 2 * Short.BYTES + REFERENCE_BYTES);
+    }
+
+    /**
+     * @return an estimate of the bytes held by the same street layer in the object graph: the StreetEdges without
+     * their geometries and names, and the incoming and outgoing edge lists of the vertices.
+     */
+    public long getObjectGraphFootprint() {
+        long nArcs = edges.length;
+        long nVertices = 0;
+        for (Vertex vertex : vertices) {
+            if (vertex != null) nVertices++;
+        }
+        return nArcs * (STREET_EDGE_BYTES + 2 * REFERENCE_BYTES) + nVertices * 2 * EDGE_ARRAY_BYTES;
+    }
+
+    /** @return a one line report of the size of this compact graph compared to the object graph. */
+    public String describeMemoryFootprint() {
+        return String.format("Compact street graph of %d vertices and %d arcs: %.1f MB, in addition to the street "
+                        + "edge objects and edge lists of about %.1f MB without geometries.", vertices.length, edges.length,
+                getMemoryFootprint() / 1e6, getObjectGraphFootprint() / 1e6);
+    }
+
+}
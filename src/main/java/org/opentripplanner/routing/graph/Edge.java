@@ -6,7 +6,6 @@ import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.util.IncrementingIdGenerator;
-import org.opentripplanner.routing.util.UniqueIdGenerator;
 
 import javax.xml.bind.annotation.XmlTransient;
 import java.io.IOException;
@@ -26,7 +25,7 @@ public abstract class Edge implements Serializable {
     /**
      * Generates globally unique edge IDs.
      */
-    private static final UniqueIdGenerator<Edge> idGenerator = new IncrementingIdGenerator<Edge>();
+    private static final IncrementingIdGenerator<Edge> idGenerator = new IncrementingIdGenerator<Edge>();
 
     /**
      * Identifier of the edge. Negative means not set.
@@ -57,6 +56,11 @@ public abstract class Edge implements Serializable {
         tov.addIncoming(this);
     }
 
+    /** Make the ids of the edges created from now on greater than the given id of a loaded edge. */
+    static void reserveId(int id) {
+        idGenerator.skipPast(id);
+    }
+
     public Vertex getFromVertex() {
         return fromv;
     }
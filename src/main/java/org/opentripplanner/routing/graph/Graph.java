@@ -4,7 +4,6 @@ import com.conveyal.kryo.TIntArrayListSerializer;
 import com.conveyal.kryo.TIntIntHashMapSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ExternalizableSerializer;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import com.google.common.annotations.VisibleForTesting;
@@ -41,6 +40,8 @@ import org.opentripplanner.kryo.HashBiMapSerializer;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.profile.StopClusterMode;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.algorithm.strategies.StreetSearchCache;
+import org.opentripplanner.routing.contraction.ContractionHierarchyService;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -64,6 +65,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.Preferences;
 /**
@@ -113,12 +115,23 @@ public class Graph implements Serializable {
 
     public transient GraphIndex index;
 
+    /**
+     * The street edges in compressed sparse row form for street-only searches, or null to search the edge objects.
+     * Built on startup by routers whose config enables it (see buildCompactStreetGraph), as it takes extra memory.
+     */
+    public transient CompactStreetGraph compactStreetGraph;
+
     public transient FlexIndex flexIndex;
 
     private transient GeometryIndex geomIndex;
 
     private transient SampleFactory sampleFactory;
 
+    private transient StreetSearchCache streetSearchCache;
+
+    /** Set once releaseSpeedups has been called, so that the street search cache is not filled again. */
+    private transient boolean speedupsReleased = false;
+
     public final transient Deduplicator deduplicator = new Deduplicator();
 
     /**
@@ -523,6 +536,7 @@ public class Graph implements Serializable {
         }
 
         this.remove(vertex);
+        invalidateStreetSearchCache();
     }
 
     public Envelope getExtent() {
@@ -676,9 +690,38 @@ public class Graph implements Serializable {
 
     public static Graph load(File file) throws IOException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
+        if (ChunkedGraphSerializer.isChunked(file)) {
+            long t0 = System.currentTimeMillis();
+            Graph graph = ChunkedGraphSerializer.read(file);
+            graph.indexAfterLoad(t0);
+            return graph;
+        }
         return load(new FileInputStream(file));
     }
 
+    /**
+     * Load a graph written by save() in order to build more on top of it. Unlike load(), the graph is not indexed for
+     * routing, and the vertices and edges created from then on are numbered after those of the loaded graph.
+     */
+    public static Graph loadForBuilding(File file) throws IOException {
+        LOG.info("Reading graph " + file.getAbsolutePath() + " to build on it ...");
+        Graph graph;
+        if (ChunkedGraphSerializer.isChunked(file)) {
+            graph = ChunkedGraphSerializer.read(file);
+        } else {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                graph = loadSingleStream(in);
+            }
+        }
+        for (Vertex v : graph.getVertices()) {
+            Vertex.reserveIndex(v.getIndex());
+            for (Edge e : v.getOutgoing()) {
+                Edge.reserveId(e.getId());
+            }
+        }
+        return graph;
+    }
+
     /**
      * Perform indexing on vertices, edges, and timetables, and create transient data structures.
      * This used to be done in readObject methods upon deserialization, but stand-alone mode now
@@ -687,27 +730,59 @@ public class Graph implements Serializable {
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index (StreetVertexIndexFactory indexFactory) {
-        streetIndex = indexFactory.newIndex(this);
-        LOG.debug("street index built.");
+        // The street index only reads the vertices and edges, so it is built while the transit indexes are.
+        CompletableFuture<StreetVertexIndexService> streetIndexFuture =
+                CompletableFuture.supplyAsync(() -> indexFactory.newIndex(this));
         LOG.debug("Rebuilding edge and vertex indices.");
         rebuildVertexAndEdgeIndices();
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
         for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
             tableTripPatterns.add(pav.getTripPattern());
         }
-        for (TripPattern ttp : tableTripPatterns) {
-            if (ttp != null) ttp.scheduledTimetable.finish(); // skip frequency-based patterns with no table (null)
-        }
+        // skip frequency-based patterns with no table (null)
+        tableTripPatterns.parallelStream().filter(Objects::nonNull).forEach(ttp -> ttp.scheduledTimetable.finish());
         // TODO: Move this ^ stuff into the graph index
         this.index = new GraphIndex(this);
+        streetIndex = streetIndexFuture.join();
+        LOG.debug("street index built.");
+        // The flex index uses the street index.
         if (useFlexService ) {
             this.flexIndex = new FlexIndex();
             flexIndex.init(this);
         }
     }
     
+    /**
+     * Load a graph in either the chunked format written by save() or the older single stream format.
+     * Loading from a File rather than a stream allows the chunked format to be memory-mapped.
+     */
     public static Graph load(InputStream in) {
-        // TODO store version information, halt load if versions mismatch
+        long t0 = System.currentTimeMillis();
+        Graph graph;
+        try {
+            BufferedInputStream bufferedIn = new BufferedInputStream(in);
+            if (ChunkedGraphSerializer.isChunked(bufferedIn)) {
+                graph = ChunkedGraphSerializer.read(bufferedIn);
+            } else {
+                graph = loadSingleStream(bufferedIn);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read graph.", e);
+        }
+        graph.indexAfterLoad(t0);
+        return graph;
+    }
+
+    private void indexAfterLoad(long loadStartTime) {
+        long t0 = System.currentTimeMillis();
+        index(new DefaultStreetVertexIndexFactory());
+        long t1 = System.currentTimeMillis();
+        LOG.info("Graph loaded in {} ms: deserialization {} ms, indexing {} ms.", t1 - loadStartTime,
+                t0 - loadStartTime, t1 - t0);
+    }
+
+    /** Read a graph in the format used before the chunked format: the Graph then a list of all edges. */
+    private static Graph loadSingleStream(InputStream in) {
         Input input = new Input(in);
         Kryo kryo = makeKryo();
         Graph graph = (Graph) kryo.readClassAndObject(input);
@@ -715,27 +790,31 @@ public class Graph implements Serializable {
         if (graph.graphVersionMismatch()) {
             throw new RuntimeException("Graph version mismatch detected.");
         }
-        // Vertex edge lists are transient to avoid excessive recursion depth during serialization.
-        // vertex list is transient because it can be reconstructed from edges.
         LOG.debug("Loading edges...");
         List<Edge> edges = (ArrayList<Edge>) kryo.readClassAndObject(input);
-        graph.vertices = new ConcurrentHashMap<>(); // why is this concurrent?
+        graph.linkLoadedEdges(edges);
+        LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+        return graph;
+    }
 
+    /**
+     * Vertex edge lists are transient to avoid excessive recursion depth during serialization.
+     * The vertex list is transient because it can be reconstructed from edges.
+     * This rebuilds both from the deserialized edges, in the order they were saved in.
+     */
+    void linkLoadedEdges(List<Edge> edges) {
+        vertices = new ConcurrentHashMap<>(); // why is this concurrent?
         for (Edge e : edges) {
             Vertex fromVertex = e.getFromVertex();
             Vertex toVertex = e.getToVertex();
-            graph.vertices.put(fromVertex.getLabel(), fromVertex);
-            graph.vertices.put(toVertex.getLabel(), toVertex);
+            vertices.put(fromVertex.getLabel(), fromVertex);
+            vertices.put(toVertex.getLabel(), toVertex);
             // Compensating for the fact that we're not using the standard Java de/serialization methods.
             fromVertex.initEdgeListsIfNeeded();
             toVertex.initEdgeListsIfNeeded();
             fromVertex.addOutgoing(e);
             toVertex.addIncoming(e);
         }
-
-        LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
-        graph.index(new DefaultStreetVertexIndexFactory());
-        return graph;
     }
 
     /**
@@ -746,8 +825,11 @@ public class Graph implements Serializable {
      *         graphs are otherwise obviously incompatible.
      */
     private boolean graphVersionMismatch() {
+        return graphVersionMismatch(this.mavenVersion);
+    }
+
+    static boolean graphVersionMismatch(MavenVersion gv) {
         MavenVersion v = MavenVersion.VERSION;
-        MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
         LOG.info("OTP version:   {}", v);
         if (!v.equals(gv)) {
@@ -826,10 +908,12 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Write the graph in the chunked format, whose sections can be decoded in parallel when the graph is loaded.
+     * See ChunkedGraphSerializer.
+     */
     public void save(OutputStream outputStream) {
-        Kryo kryo = makeKryo();
         LOG.debug("Consolidating edges...");
-        Output output = new Output(outputStream);
         // this is not space efficient
         List<Edge> edges = new ArrayList<Edge>(this.countEdges());
         for (Vertex v : getVertices()) {
@@ -842,12 +926,12 @@ public class Graph implements Serializable {
         LOG.debug("Assigning vertex/edge ID numbers...");
         this.rebuildVertexAndEdgeIndices();
         LOG.debug("Writing edges...");
-        kryo.writeClassAndObject(output, this);
-        kryo.writeClassAndObject(output, edges);
-        output.close();
+        try {
+            ChunkedGraphSerializer.write(this, mavenVersion, edges, outputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write graph.", e);
+        }
         LOG.info("Graph written.");
-        // Summarize serialized classes and associated serializers:
-        // ((InstanceCountingClassResolver) kryo.getClassResolver()).summarize();
     }
 
     public Integer getIdForEdge(Edge edge) {
@@ -1036,6 +1120,54 @@ public class Graph implements Serializable {
     	return this.geomIndex;
     }
 
+    /** @return the cache of the street searches made around origins and destinations by the transit heuristic. */
+    public synchronized StreetSearchCache getStreetSearchCache() {
+        if (streetSearchCache == null && !speedupsReleased) {
+            streetSearchCache = new StreetSearchCache();
+        }
+        return streetSearchCache;
+    }
+
+    /**
+     * Build the compact street graph, which makes street-only searches faster at the cost of a copy of the street
+     * edges in compressed sparse row form. Does nothing once the speed-up structures have been released.
+     */
+    public synchronized void buildCompactStreetGraph() {
+        if (!speedupsReleased) {
+            compactStreetGraph = new CompactStreetGraph(this);
+        }
+    }
+
+    /**
+     * Drop the structures which only make searches on this graph faster: the compact street graph, the contraction
+     * hierarchies, the street search cache and the walk searches kept by the index. Searches still give the same
+     * results without them, falling back on the edge objects, A* and uncached heuristic searches. This frees memory on a graph which is about to be replaced but
+     * still serves the requests running on it.
+     */
+    public synchronized void releaseSpeedups() {
+        speedupsReleased = true;
+        compactStreetGraph = null;
+        streetSearchCache = null;
+        if (index != null) {
+            index.releaseWalkSearches();
+        }
+        // Replace the map rather than removing from it, as requests may be reading it concurrently.
+        Map<Class<?>, Object> services = new HashMap<>(_services);
+        services.remove(ContractionHierarchyService.class);
+        _services = services;
+    }
+
+    /**
+     * Forget the cached street searches, which no longer hold for a street graph whose edges have been split or
+     * removed. Called by anything that changes the streets of a graph in service, such as the updaters linking new
+     * bike rental stations.
+     */
+    public synchronized void invalidateStreetSearchCache() {
+        if (streetSearchCache != null) {
+            streetSearchCache.invalidateAll();
+        }
+    }
+
     // lazy-init sample factor on an as needed basis
     public SampleFactory getSampleFactory() {
         if(this.sampleFactory == null)
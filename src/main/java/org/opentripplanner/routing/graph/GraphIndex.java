@@ -11,16 +11,21 @@ import java.nio.file.Files;
 import java.nio.file.attribute.FileAttribute;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 
 import java.util.ArrayList;
@@ -67,6 +72,7 @@ import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.index.FieldErrorInstrumentation;
+import org.opentripplanner.index.GraphQLRequestContext;
 import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.index.ResourceConstrainedExecutorServiceExecutionStrategy;
 import org.opentripplanner.index.model.StopTimesInPattern;
@@ -78,8 +84,8 @@ import org.opentripplanner.profile.StopNameNormalizer;
 import org.opentripplanner.profile.StopTreeCache;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.StreetDistanceSearch;
 import org.opentripplanner.routing.algorithm.ExtendedTraverseVisitor;
-import org.opentripplanner.routing.algorithm.TraverseVisitor;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.bike_park.BikePark;
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
@@ -174,10 +180,20 @@ public class GraphIndex {
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
+    /**
+     * The street searches reused by findClosestStopsByWalking. Each one holds arrays as large as the graph, so only as
+     * many are kept as there are processors; requests beyond that make their own.
+     */
+    private final BlockingQueue<StreetDistanceSearch> walkSearches =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
     final transient GraphQLSchema indexSchema;
 
     public final ExecutorService threadPool;
 
+    /** ServiceDays by agency and service date, for departure boards. See getServiceDay(). */
+    private final Cache<String, ServiceDay> serviceDayCache = CacheBuilder.newBuilder().maximumSize(1000).build();
+
     public GraphIndex (Graph graph) {
         LOG.info("Indexing graph...");
 
@@ -400,19 +416,35 @@ public class GraphIndex {
         rr.to = new GenericLocation(lat, lon);
         rr.batch = true;
         rr.setRoutingContext(graph);
-        rr.walkSpeed = 1;
-        rr.dominanceFunction = new DominanceFunction.LeastWalk();
-        // RR dateTime defaults to currentTime.
-        // If elapsed time is not capped, searches are very slow.
-        rr.worstTime = (rr.dateTime + radius);
-        AStar astar = new AStar();
-        rr.setNumItineraries(1);
-        StopFinderTraverseVisitor visitor = new StopFinderTraverseVisitor();
-        astar.setTraverseVisitor(visitor);
-        astar.getShortestPathTree(rr, 1); // timeout in seconds
+        // Only distances are needed, so use the street search that does not create States.
+        StreetDistanceSearch search = walkSearches.poll();
+        if (search == null) {
+            search = new StreetDistanceSearch(TraverseMode.WALK, graph.compactStreetGraph);
+        }
+        List<StopAndDistance> stopsFound = new ArrayList<>();
+        try {
+            search.maxDistanceMeters = radius;
+            search.search(rr.rctx.origin, rr);
+            for (int i = 0; i < search.getReachedCount(); i++) {
+                Vertex vertex = search.getReachedVertex(i);
+                if (vertex instanceof TransitStop) {
+                    stopsFound.add(new StopAndDistance(((TransitStop) vertex).getStop(),
+                        (int) search.getDistance(vertex)));
+                }
+            }
+        } finally {
+            walkSearches.offer(search);
+        }
+        // Report the closest stops first, as the search does not finalize vertices in the order it reaches them
+        stopsFound.sort(Comparator.comparingInt(sd -> sd.distance));
         // Destroy the routing context, to clean up the temporary edges & vertices
         rr.rctx.destroy();
-        return visitor.stopsFound;
+        return stopsFound;
+    }
+
+    /** Drop the street searches kept for findClosestStopsByWalking, with the graph-sized arrays they hold. */
+    public void releaseWalkSearches() {
+        walkSearches.clear();
     }
 
     public List<PlaceAndDistance> findClosestPlacesByWalking(double lat, double lon, int maxDistance, int maxResults,
@@ -511,20 +543,6 @@ public class GraphIndex {
         }
     }
 
-    static private class StopFinderTraverseVisitor implements TraverseVisitor {
-        List<StopAndDistance> stopsFound = new ArrayList<>();
-        @Override public void visitEdge(Edge edge, State state) { }
-        @Override public void visitEnqueue(State state) { }
-        // Accumulate stops into ret as the search runs.
-        @Override public void visitVertex(State state) {
-            Vertex vertex = state.getVertex();
-            if (vertex instanceof TransitStop) {
-                stopsFound.add(new StopAndDistance(((TransitStop) vertex).getStop(),
-                    (int) state.getElapsedTimeSeconds()));
-            }
-        }
-    }
-
     public static class DepartureRow {
         public String id;
         public Stop stop;
@@ -752,12 +770,36 @@ public class GraphIndex {
      * @return
      */
     public List<StopTimesInPattern> stopTimesForStop(final Stop stop, final long startTime, final int timeRange, final int numberOfDepartures, boolean omitNonPickups, boolean omitCanceled) {
+        return stopTimesForStop(getTimetableSnapshot(), stop, startTime, timeRange, numberOfDepartures, omitNonPickups, omitCanceled);
+    }
+
+    /**
+     * Fetch upcoming vehicle departures from many stops at once, all against the same realtime snapshot and start
+     * time. This resolves a departure board field on a whole list of stops in one call.
+     *
+     * @see #stopTimesForStop(Stop, long, int, int, boolean, boolean)
+     */
+    public Map<Stop, List<StopTimesInPattern>> stopTimesForStops(Collection<Stop> stops, long startTime, int timeRange,
+            int numberOfDepartures, boolean omitNonPickups, boolean omitCanceled) {
+        final TimetableSnapshot snapshot = getTimetableSnapshot();
+        if (startTime == 0) {
+            startTime = System.currentTimeMillis() / 1000;
+        }
+        Map<Stop, List<StopTimesInPattern>> ret = new HashMap<>();
+        for (Stop stop : stops) {
+            ret.put(stop, stopTimesForStop(snapshot, stop, startTime, timeRange, numberOfDepartures, omitNonPickups, omitCanceled));
+        }
+        return ret;
+    }
+
+    private List<StopTimesInPattern> stopTimesForStop(TimetableSnapshot snapshot, Stop stop, long startTime, int timeRange,
+            int numberOfDepartures, boolean omitNonPickups, boolean omitCanceled) {
 
         final List<StopTimesInPattern> ret = new ArrayList<>();
 
         for (final TripPattern pattern : patternsForStop.get(stop)) {
 
-            final List<TripTimeShort> stopTimesForStop = stopTimesForPattern(stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups, omitCanceled);
+            final List<TripTimeShort> stopTimesForStop = stopTimesForPattern(snapshot, stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups, omitCanceled);
 
 
             if (stopTimesForStop.size() >0) {
@@ -792,6 +834,11 @@ public class GraphIndex {
      */
     public List<TripTimeShort> stopTimesForPattern(final Stop stop, final TripPattern pattern, long startTime, final int timeRange,
                                                    int numberOfDepartures, boolean omitNonPickups, boolean omitCanceled) {
+        return stopTimesForPattern(getTimetableSnapshot(), stop, pattern, startTime, timeRange, numberOfDepartures, omitNonPickups, omitCanceled);
+    }
+
+    private List<TripTimeShort> stopTimesForPattern(final TimetableSnapshot snapshot, final Stop stop, final TripPattern pattern,
+            long startTime, final int timeRange, int numberOfDepartures, boolean omitNonPickups, boolean omitCanceled) {
 
         if (pattern == null) {
             return Collections.emptyList();
@@ -809,67 +856,75 @@ public class GraphIndex {
                 }
             };
 
-        final TimetableSnapshot snapshot = (graph.timetableSnapshotSource != null)
-            ? graph.timetableSnapshotSource.getTimetableSnapshot() : null;
-
         Date date = new Date(startTime * 1000);
         final ServiceDate[] serviceDates = {new ServiceDate(date).previous(), new ServiceDate(date), new ServiceDate(date).next()};
-            // Loop through all possible days
+        // Loop through all possible days
         for (final ServiceDate serviceDate : serviceDates) {
-            final ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService,
-                    pattern.route.getAgency().getId());
-                Timetable tt;
-                if (snapshot != null){
-                    tt = snapshot.resolve(pattern, serviceDate);
-                } else {
-                    tt = pattern.scheduledTimetable;
-                }
+            final ServiceDay sd = getServiceDay(serviceDate, pattern.route.getAgency().getId());
+            Timetable tt;
+            if (snapshot != null){
+                tt = snapshot.resolve(pattern, serviceDate);
+            } else {
+                tt = pattern.scheduledTimetable;
+            }
 
-                if (!tt.temporallyViable(sd, startTime, timeRange, true)) continue;
+            if (!tt.temporallyViable(sd, startTime, timeRange, true)) continue;
 
             final int starttimeSecondsSinceMidnight = sd.secondsSinceMidnight(startTime);
-            int stopIndex = 0;
 
             // loop through all stops of pattern
-            for (final Stop currStop : pattern.stopPattern.stops) {
-                if (currStop.equals(stop)) {
-                    if(omitNonPickups && pattern.stopPattern.pickups[stopIndex] == pattern.stopPattern.PICKDROP_NONE) continue;
-                    for (final TripTimes triptimes : tt.tripTimes) {
-                        if (!sd.serviceRunning(triptimes.serviceCode))
-                            continue;
-                        int stopDepartureTime = triptimes.getDepartureTime(stopIndex);
-                        if (!(omitCanceled && triptimes.isCanceledDeparture(stopIndex)) && stopDepartureTime >= starttimeSecondsSinceMidnight && stopDepartureTime < starttimeSecondsSinceMidnight + timeRange) {
-                            ret.insertWithOverflow(new TripTimeShort(triptimes, stopIndex, currStop, sd));
-                            }
-                        }
+            for (int stopIndex = 0; stopIndex < pattern.stopPattern.size; stopIndex++) {
+                final Stop currStop = pattern.stopPattern.stops[stopIndex];
+                if (!currStop.equals(stop)) continue;
+                if(omitNonPickups && pattern.stopPattern.pickups[stopIndex] == pattern.stopPattern.PICKDROP_NONE) continue;
+                // Only the first departures of each day can be among the first departures overall.
+                for (final TripTimes triptimes : tt.getDepartures(sd, stopIndex, starttimeSecondsSinceMidnight,
+                        starttimeSecondsSinceMidnight + timeRange, numberOfDepartures, omitCanceled)) {
+                    ret.insertWithOverflow(new TripTimeShort(triptimes, stopIndex, currStop, sd));
+                }
 
-                        // TODO: This needs to be adapted after #1647 is merged
-                    for (final FrequencyEntry freq : tt.frequencyEntries) {
-                            if (!sd.serviceRunning(freq.tripTimes.serviceCode)) continue;
-                        int departureTime = freq.nextDepartureTime(stopIndex, starttimeSecondsSinceMidnight);
-                            if (omitCanceled && departureTime == -1) continue;
-                        final int lastDeparture = freq.endTime + freq.tripTimes.getArrivalTime(stopIndex)
-                                - freq.tripTimes.getDepartureTime(0);
-                        while (departureTime <= lastDeparture && ret.size() < numberOfDepartures) {
-                            ret.insertWithOverflow(new TripTimeShort(freq.materialize(stopIndex, departureTime, true),
-                                    stopIndex, currStop, sd));
-                                departureTime += freq.headway;
-                            }
-                        }
+                // TODO: This needs to be adapted after #1647 is merged
+                for (final FrequencyEntry freq : tt.frequencyEntries) {
+                    if (!sd.serviceRunning(freq.tripTimes.serviceCode)) continue;
+                    int departureTime = freq.nextDepartureTime(stopIndex, starttimeSecondsSinceMidnight);
+                    if (omitCanceled && departureTime == -1) continue;
+                    final int lastDeparture = freq.endTime + freq.tripTimes.getArrivalTime(stopIndex)
+                            - freq.tripTimes.getDepartureTime(0);
+                    while (departureTime <= lastDeparture && ret.size() < numberOfDepartures) {
+                        ret.insertWithOverflow(new TripTimeShort(freq.materialize(stopIndex, departureTime, true),
+                                stopIndex, currStop, sd));
+                        departureTime += freq.headway;
                     }
-                stopIndex++;
                 }
             }
+        }
 
-        final List<TripTimeShort> result = new ArrayList<>();
-        while(ret.size()>0) {
-            TripTimeShort tripTimeShort = ret.pop();
-            if (!result.contains(tripTimeShort)) {
-                result.add(0, tripTimeShort);
-                }
-            }
-        return result;
+        // The queue pops the latest departure first.
+        final TripTimeShort[] sorted = new TripTimeShort[ret.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = ret.pop();
+        }
+        return new ArrayList<>(new LinkedHashSet<>(Arrays.asList(sorted)));
+    }
+
+    /** @return the current realtime snapshot, or null if no realtime updates are applied to this graph. */
+    private TimetableSnapshot getTimetableSnapshot() {
+        return (graph.timetableSnapshotSource != null) ? graph.timetableSnapshotSource.getTimetableSnapshot() : null;
+    }
+
+    /**
+     * ServiceDays are looked up for each pattern of each departure board request, and finding the services running
+     * on a date is slow, so they are kept for the few dates around the present which are asked for over and over.
+     */
+    public ServiceDay getServiceDay(ServiceDate serviceDate, String agencyId) {
+        String key = agencyId + "_" + serviceDate.getAsString();
+        ServiceDay serviceDay = serviceDayCache.getIfPresent(key);
+        if (serviceDay == null) {
+            serviceDay = new ServiceDay(graph, serviceDate, calendarService, agencyId);
+            serviceDayCache.put(key, serviceDay);
         }
+        return serviceDay;
+    }
 
     /**
      * Get a list of all trips that pass through a stop during a single ServiceDate. Useful when creating complete stop
@@ -895,30 +950,35 @@ public class GraphIndex {
             } else {
                 tt = pattern.scheduledTimetable;
             }
-            ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService, pattern.route.getAgency().getId());
-            int sidx = 0;
-            for (Stop currStop : pattern.stopPattern.stops) {
-                if (currStop.equals(stop)) {
-                    if(omitNonPickups && pattern.stopPattern.pickups[sidx] == pattern.stopPattern.PICKDROP_NONE) continue;
-                    for (TripTimes t : tt.tripTimes) {
-                        if (!sd.serviceRunning(t.serviceCode)) continue;
-                        if (omitCanceled && t.isTimeCanceled(sidx)) continue;
-                        stopTimes.times.add(new TripTimeShort(t, sidx, stop, sd));
-                    }
+            ServiceDay sd = getServiceDay(serviceDate, pattern.route.getAgency().getId());
+            for (int sidx = 0; sidx < pattern.stopPattern.size; sidx++) {
+                if (!pattern.stopPattern.stops[sidx].equals(stop)) continue;
+                if(omitNonPickups && pattern.stopPattern.pickups[sidx] == pattern.stopPattern.PICKDROP_NONE) continue;
+                for (TripTimes t : tt.tripTimes) {
+                    if (!sd.serviceRunning(t.serviceCode)) continue;
+                    if (omitCanceled && t.isTimeCanceled(sidx)) continue;
+                    stopTimes.times.add(new TripTimeShort(t, sidx, stop, sd));
                 }
-                sidx++;
             }
             ret.add(stopTimes);
         }
         return ret;
     }
 
-    /** Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed. */
+    /**
+     * Fetch a cache of nearby intersection distances for every transit stop in this graph, using the one saved with the
+     * graph if it was built then, or lazy-building it as needed.
+     */
     public StopTreeCache getStopTreeCache() {
         if (stopTreeCache == null) {
             synchronized (this) {
                 if (stopTreeCache == null) {
-                    stopTreeCache = new StopTreeCache(graph, MAX_WALK_METERS); // TODO make this max-distance variable
+                    StopTreeCache saved = graph.getService(StopTreeCache.class);
+                    if (saved != null && saved.maxWalkMeters == MAX_WALK_METERS && saved.isValidFor(graph)) {
+                        stopTreeCache = saved;
+                    } else {
+                        stopTreeCache = new StopTreeCache(graph, MAX_WALK_METERS); // TODO make this max-distance variable
+                    }
                 }
             }
         }
@@ -1044,15 +1104,17 @@ public class GraphIndex {
     public HashMap<String, Object> getGraphQLExecutionResult(String query, Router router,
         Map<String, Object> variables, String operationName, int timeout, long maxResolves, MultivaluedMap<String, String> headers) {
 
+        GraphQLRequestContext context = new GraphQLRequestContext(router);
         GraphQL graphQL = GraphQL.newGraphQL(indexSchema).queryExecutionStrategy(
-            new ResourceConstrainedExecutorServiceExecutionStrategy(threadPool, timeout, TimeUnit.MILLISECONDS, maxResolves)
+            new ResourceConstrainedExecutorServiceExecutionStrategy(threadPool, timeout, TimeUnit.MILLISECONDS, maxResolves, context)
         ).instrumentation(FieldErrorInstrumentation.get(query, router, variables, headers)).build();
 
         if (variables == null) {
             variables = new HashMap<>();
         }
 
-        ExecutionResult executionResult = graphQL.execute(query, operationName, router, variables);
+        ExecutionResult executionResult = graphQL.execute(query, operationName, context, variables);
+        context.statistics.report();
         HashMap<String, Object> content = new HashMap<>();
 
         if (!executionResult.getErrors().isEmpty()) {
@@ -1154,6 +1216,40 @@ public class GraphIndex {
                 .collect(Collectors.toList());
     }
 
+    /** Find the alerts of many stops with a single pass over all the alerts. */
+    public Map<Stop, List<AlertPatch>> getAlertsForStops(Collection<Stop> stops) {
+        return groupAlerts(stops, Stop::getId, AlertPatch::getStop);
+    }
+
+    /** Find the alerts of many routes with a single pass over all the alerts. */
+    public Map<Route, List<AlertPatch>> getAlertsForRoutes(Collection<Route> routes) {
+        return groupAlerts(routes, Route::getId, AlertPatch::getRoute);
+    }
+
+    /** Find the alerts of many trips with a single pass over all the alerts. */
+    public Map<Trip, List<AlertPatch>> getAlertsForTrips(Collection<Trip> trips) {
+        return groupAlerts(trips, Trip::getId, AlertPatch::getTrip);
+    }
+
+    private <T> Map<T, List<AlertPatch>> groupAlerts(Collection<T> entities, Function<T, FeedScopedId> entityId,
+            Function<AlertPatch, FeedScopedId> alertEntityId) {
+        Map<FeedScopedId, List<AlertPatch>> alertsForId = new HashMap<>();
+        for (T entity : entities) {
+            alertsForId.put(entityId.apply(entity), new ArrayList<>());
+        }
+        getAlertPatchStream().forEach(alertPatch -> {
+            FeedScopedId id = alertEntityId.apply(alertPatch);
+            if (id != null && alertsForId.containsKey(id)) {
+                alertsForId.get(id).add(alertPatch);
+            }
+        });
+        Map<T, List<AlertPatch>> ret = new HashMap<>();
+        for (T entity : entities) {
+            ret.put(entity, alertsForId.get(entityId.apply(entity)));
+        }
+        return ret;
+    }
+
     public AlertPatch getAlertForId(String id) {
         return getAlertPatchStream().filter(alertPatch -> id.equals(alertPatch.getId())).findFirst().get();
     }
@@ -186,6 +186,18 @@ public abstract class Vertex implements Serializable, Cloneable {
         return Arrays.asList(incoming);
     }
 
+    /**
+     * The edge arrays themselves, not copies, for CompactStreetGraph. As they are replaced rather than modified when
+     * edges are added or removed, comparing them by identity tells whether the edges of this vertex have changed.
+     */
+    Edge[] getOutgoingArray() {
+        return outgoing;
+    }
+
+    Edge[] getIncomingArray() {
+        return incoming;
+    }
+
     @XmlTransient
     public int getDegreeOut() {
         return outgoing.length;
@@ -266,6 +278,13 @@ public abstract class Vertex implements Serializable, Cloneable {
         return maxIndex;
     }
 
+    /** Make the indexes of the vertices created from now on greater than the given index of a loaded vertex. */
+    static void reserveIndex(int index) {
+        if (maxIndex <= index) {
+            maxIndex = index + 1;
+        }
+    }
+
 
     /* SERIALIZATION METHODS */
 
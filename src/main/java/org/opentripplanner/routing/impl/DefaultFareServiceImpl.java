@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,6 +20,7 @@ import org.opentripplanner.model.Stop;
 import org.opentripplanner.routing.core.Fare;
 import org.opentripplanner.routing.core.Fare.FareType;
 import org.opentripplanner.routing.core.FareComponent;
+import org.opentripplanner.routing.core.FareEligibility;
 import org.opentripplanner.routing.core.FareRuleSet;
 import org.opentripplanner.routing.core.Money;
 import org.opentripplanner.routing.core.State;
@@ -234,17 +236,35 @@ public class DefaultFareServiceImpl implements FareService, Serializable {
         return _getCost(path, allowedFareIds);
     }
 
+    /**
+     * Build the tables used to check incrementally during the search whether a journey can be paid for with one of the
+     * allowed regular fares. This replaces boardingAllowed in the search and saves journeyAllowed, which rebuilds the
+     * whole path, for the alightings that the tables do not already rule out.
+     * @return the tables, or null if too many fares are allowed to be represented.
+     */
+    public FareEligibility getFareEligibility(Set<String> allowedFareIds) {
+        return FareEligibility.build(getRegularFareRules(), allowedFareIds, false);
+    }
+
+    protected Collection<FareRuleSet> getRegularFareRules() {
+        Collection<FareRuleSet> fareRules = fareRulesPerType.get(FareType.regular);
+        return fareRules == null ? Collections.emptyList() : fareRules;
+    }
+
     public boolean boardingAllowed(GraphPath path, String zone, Set<String> allowedfareIds) {
         return true;
     }
 
     public boolean journeyAllowed(GraphPath path, Set<String> allowedFareIds) {
-        List<Ride> rides = createRides(path);
+        return ridesAllowed(createRides(path), allowedFareIds);
+    }
 
+    /** @return whether the rides can be paid for with the allowed regular fares. */
+    boolean ridesAllowed(List<Ride> rides, Set<String> allowedFareIds) {
         if (rides.size() == 0) {
             return true;
         }
-        Collection<FareRuleSet> fareRules = fareRulesPerType.get(FareType.regular).stream().
+        Collection<FareRuleSet> fareRules = getRegularFareRules().stream().
             filter(f -> allowedFareIds.contains(f.getFareAttribute().getId().toString())).collect(Collectors.toList());
 
         return fareIsKnown(FareType.regular, rides, fareRules);
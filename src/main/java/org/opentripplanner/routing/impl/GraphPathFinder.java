@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.impl;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.api.resource.DebugOutput;
 import org.opentripplanner.common.model.GenericLocation;
@@ -9,6 +10,8 @@ import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeight
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchyService;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
@@ -27,6 +30,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -56,6 +65,20 @@ public class GraphPathFinder {
     private static final double DEFAULT_MAX_WALK = 2000;
     private static final double CLAMP_MAX_WALK = 15000;
 
+    /** The time between the departures (or arrivals) of successive parallel searches. */
+    private static final int PARALLEL_SEARCH_WINDOW_SECONDS = 5 * 60;
+
+    /**
+     * Runs the parallel searches of all requests, the number of searches per request is bounded by the request.
+     * Nothing is queued: when all the threads are busy, the requesting thread runs the search itself, so that the
+     * work waiting for the pool cannot grow with the number of concurrent requests.
+     */
+    private static final ExecutorService SEARCH_EXECUTOR = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+            0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("itinerary-search-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
     Router router;
 
     public GraphPathFinder(Router router) {
@@ -148,8 +171,29 @@ public class GraphPathFinder {
                 deviatedRouteGraphModifier.createBackwardHops(options);
             }
         }
+        // Street searches with the weights a contraction hierarchy was built for are answered by the hierarchy.
+        // Without a visualizer only, since there is no search tree to follow.
+        ContractionHierarchyService hierarchies = router.graph.getService(ContractionHierarchyService.class);
+        if (hierarchies != null && router.graphVisualizer == null) {
+            ContractionHierarchy hierarchy = hierarchies.getHierarchy(options);
+            if (hierarchy != null) {
+                long hierarchyBeginTime = System.currentTimeMillis();
+                GraphPath path = hierarchy.findPath(options);
+                LOG.debug("Contraction hierarchy search ({} msec) found path: {}",
+                        System.currentTimeMillis() - hierarchyBeginTime, path != null);
+                if (path != null) {
+                    List<GraphPath> paths = Lists.newArrayList();
+                    if (isWithinMaxHours(options, path)) paths.add(path);
+                    return paths;
+                }
+                // The path could not be traversed, e.g. because of a turn restriction. Fall back on A*.
+            }
+        }
         long searchBeginTime = System.currentTimeMillis();
         LOG.debug("BEGIN SEARCH");
+        // The searches following the first one are only run in parallel for transit, without a visualizer to follow
+        // them. The first search is always run alone, as it initializes the heuristic which the others share.
+        boolean parallel = options.maxParallelSearches > 1 && options.modes.isTransit() && router.graphVisualizer == null;
         List<GraphPath> paths = Lists.newArrayList();
         while (paths.size() < options.numItineraries) {
             // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
@@ -166,72 +210,173 @@ public class GraphPathFinder {
                 options.rctx.aborted = true;
                 break;
             }
-            // Don't dig through the SPT object, just ask the A star algorithm for the states that reached the target.
-            aStar.getShortestPathTree(options, timeout);
-
-            if (options.rctx.aborted) {
-                break; // Search timed out or was gracefully aborted for some other reason.
+            List<GraphPath> newPaths;
+            if (parallel && !paths.isEmpty()) {
+                newPaths = searchInParallel(originalReq, options, paths, timeout);
+            } else {
+                newPaths = search(aStar, originalReq, options, timeout, reversedSearchHeuristic);
+                if (options.rctx.aborted) {
+                    break; // Search timed out or was gracefully aborted for some other reason.
+                }
             }
-            List<GraphPath> newPaths = aStar.getPathsToTarget();
             if (newPaths.isEmpty()) {
                 break;
             }
 
-            // Do a full reversed search to compact the legs
-            if(options.compactLegsByReversedSearch){
-                try {
-                    newPaths = compactLegsByReversedSearch(aStar, originalReq, options, newPaths, timeout, reversedSearchHeuristic);
-                } catch (Exception e) {
-                    LOG.debug("CompactLegsByReversedSearch failed on request: " + originalReq.toString());
-                }
-            }
-
             // Find all trips used in this path and ban them for the remaining searches
             for (GraphPath path : newPaths) {
-                // path.dump();
-                List<FeedScopedId> tripIds = path.getTrips();
-                List<FeedScopedId> callAndRideTripIds = path.getCallAndRideTrips();
-                for (FeedScopedId tripId : tripIds) {
-                    if (!callAndRideTripIds.contains(tripId)) {
-                        options.banTrip(tripId);
-                    }
-                }
-                if (tripIds.isEmpty()) {
-                    // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
-                    options.onlyTransitTrips = true;
-                }
-                // Call-and-Ride trips should not use regular trip-banning, since call-and-ride trips can beused in
-                // multiple ways (e.g. from origin to destination, or from origin to a transfer stop.) Instead,
-                // after an itinerary which uses call-and-ride is found, reduce the allowable call-and-ride duration
-                // so that the same leg cannot be found in a subsequent search.
-                if (tripIds.size() < 2) {
-                    int duration = path.getCallAndRideDuration();
-                    if (duration > 0) { // only true if there are call-and-ride legs
-                        int constantLimit = Math.min(0, duration - options.flexReduceCallAndRideSeconds);
-                        int ratioLimit = (int) Math.round(options.flexReduceCallAndRideRatio * duration);
-                        options.flexMaxCallAndRideSeconds = Math.min(constantLimit, ratioLimit);
-                    }
-                }
+                banTrips(options, path);
             }
 
             paths.addAll(newPaths.stream()
-                    .filter(path -> {
-                        double duration = options.useRequestedDateTimeInMaxHours
-                            ? options.arriveBy
-                                ? options.dateTime - path.getStartTime()
-                                : path.getEndTime() - options.dateTime
-                            : path.getDuration();
-                        return duration < options.maxHours * 60 * 60;
-                    })
+                    .filter(path -> isWithinMaxHours(options, path))
                     .collect(Collectors.toList()));
 
             LOG.debug("we have {} paths", paths.size());
+            if (options.rctx.aborted) {
+                break; // One of the parallel searches timed out, the paths found by the others are kept.
+            }
         }
         LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
         Collections.sort(paths, options.getPathComparator(options.arriveBy));
         return paths;
     }
 
+    private static boolean isWithinMaxHours(RoutingRequest options, GraphPath path) {
+        double duration = options.useRequestedDateTimeInMaxHours
+            ? options.arriveBy
+                ? options.dateTime - path.getStartTime()
+                : path.getEndTime() - options.dateTime
+            : path.getDuration();
+        return duration < options.maxHours * 60 * 60;
+    }
+
+    /**
+     * Run one search with the given request and return the paths it found, after compacting their legs if requested.
+     * The paths may be incomplete if the search was aborted, which the caller must check.
+     */
+    private List<GraphPath> search(AStar aStar, RoutingRequest originalReq, RoutingRequest options, double timeout,
+                                   RemainingWeightHeuristic reversedSearchHeuristic) {
+        // Don't dig through the SPT object, just ask the A star algorithm for the states that reached the target.
+        aStar.getShortestPathTree(options, timeout);
+        if (options.rctx.aborted) {
+            return Collections.emptyList();
+        }
+        List<GraphPath> newPaths = aStar.getPathsToTarget();
+
+        // Do a full reversed search to compact the legs
+        if (!newPaths.isEmpty() && options.compactLegsByReversedSearch) {
+            try {
+                newPaths = compactLegsByReversedSearch(aStar, originalReq, options, newPaths, timeout, reversedSearchHeuristic);
+            } catch (Exception e) {
+                LOG.debug("CompactLegsByReversedSearch failed on request: " + originalReq.toString());
+            }
+        }
+        return newPaths;
+    }
+
+    /**
+     * Run several searches at the same time, each banning the trips of all the paths found so far like the next
+     * serial search would, but departing successively later (or arriving successively earlier) so that they find
+     * different itineraries. The searches share the goal direction heuristic of the request, which stops improving so
+     * that it is only read, and copies of its routing context, so that each one is aborted on its own when it runs out
+     * of the time left to the request. The request is marked as aborted if any of them was. The paths they find are
+     * merged, dropping those using the same trips as another one.
+     */
+    private List<GraphPath> searchInParallel(RoutingRequest originalReq, RoutingRequest options,
+                                             List<GraphPath> foundPaths, double timeout) {
+        int nSearches = Math.min(options.maxParallelSearches, options.numItineraries - foundPaths.size());
+        if (options.rctx.remainingWeightHeuristic instanceof InterleavedBidirectionalHeuristic) {
+            ((InterleavedBidirectionalHeuristic) options.rctx.remainingWeightHeuristic).freeze();
+        }
+        long abortTime = System.currentTimeMillis() + (long) (timeout * 1000);
+        List<Future<List<GraphPath>>> futures = new ArrayList<>();
+        for (int i = 1; i < nSearches; i++) {
+            final int window = i;
+            futures.add(SEARCH_EXECUTOR.submit(() -> speculativeSearch(originalReq, options, window, abortTime)));
+        }
+        // The calling thread runs the search in the earliest time window itself.
+        List<List<GraphPath>> results = new ArrayList<>();
+        results.add(speculativeSearch(originalReq, options, 0, abortTime));
+        for (Future<List<GraphPath>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                LOG.warn("Parallel itinerary search failed.", e.getCause());
+            }
+        }
+        if (results.remove(null)) {
+            options.rctx.aborted = true;
+            options.rctx.debugOutput.timedOut = true;
+            results.removeIf(Objects::isNull);
+        }
+
+        Set<List<FeedScopedId>> tripsUsed = foundPaths.stream().map(GraphPath::getTrips).collect(Collectors.toSet());
+        List<GraphPath> newPaths = new ArrayList<>();
+        for (List<GraphPath> result : results) {
+            for (GraphPath path : result) {
+                if (tripsUsed.add(path.getTrips())) {
+                    newPaths.add(path);
+                }
+            }
+        }
+        LOG.debug("{} parallel searches found {} distinct paths", nSearches, newPaths.size());
+        return newPaths;
+    }
+
+    /**
+     * One of the searches of searchInParallel, in the given time window counting from zero, with its own copy of the
+     * routing context.
+     * @return the paths found, or null if the search was aborted, possibly before it started.
+     */
+    private List<GraphPath> speculativeSearch(RoutingRequest originalReq, RoutingRequest options, int window,
+                                              long abortTime) {
+        double timeout = (abortTime - System.currentTimeMillis()) / 1000.0;
+        if (timeout <= 0) {
+            return null;
+        }
+        RoutingRequest request = options.clone();
+        request.rctx = options.rctx.concurrentCopy(request);
+        request.dateTime += (options.arriveBy ? -1 : 1) * window * PARALLEL_SEARCH_WINDOW_SECONDS;
+        RemainingWeightHeuristic reversedSearchHeuristic = options.disableRemainingWeightHeuristic
+                ? new TrivialRemainingWeightHeuristic()
+                : new InterleavedBidirectionalHeuristic(options.heuristicStepsPerMainStep);
+        List<GraphPath> paths = search(new AStar(), originalReq, request, timeout, reversedSearchHeuristic);
+        return request.rctx.aborted ? null : paths;
+    }
+
+    /** Ban the trips used in the path for the remaining searches, or prevent finding the same path otherwise. */
+    private void banTrips(RoutingRequest options, GraphPath path) {
+        // path.dump();
+        List<FeedScopedId> tripIds = path.getTrips();
+        List<FeedScopedId> callAndRideTripIds = path.getCallAndRideTrips();
+        for (FeedScopedId tripId : tripIds) {
+            if (!callAndRideTripIds.contains(tripId)) {
+                options.banTrip(tripId);
+            }
+        }
+        if (tripIds.isEmpty()) {
+            // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
+            options.onlyTransitTrips = true;
+        }
+        // Call-and-Ride trips should not use regular trip-banning, since call-and-ride trips can beused in
+        // multiple ways (e.g. from origin to destination, or from origin to a transfer stop.) Instead,
+        // after an itinerary which uses call-and-ride is found, reduce the allowable call-and-ride duration
+        // so that the same leg cannot be found in a subsequent search.
+        if (tripIds.size() < 2) {
+            int duration = path.getCallAndRideDuration();
+            if (duration > 0) { // only true if there are call-and-ride legs
+                int constantLimit = Math.min(0, duration - options.flexReduceCallAndRideSeconds);
+                int ratioLimit = (int) Math.round(options.flexReduceCallAndRideRatio * duration);
+                options.flexMaxCallAndRideSeconds = Math.min(constantLimit, ratioLimit);
+            }
+        }
+    }
+
     /**
      * Do a full reversed search to compact the legs of the path.
      *
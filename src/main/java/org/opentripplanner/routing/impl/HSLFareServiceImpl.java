@@ -24,6 +24,7 @@ import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.model.FareAttribute;
 import org.opentripplanner.routing.core.Fare;
 import org.opentripplanner.routing.core.Fare.FareType;
+import org.opentripplanner.routing.core.FareEligibility;
 import org.opentripplanner.routing.core.FareRuleSet;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.HopEdge;
@@ -94,6 +95,12 @@ public class HSLFareServiceImpl extends DefaultFareServiceImpl {
         return false;
     }
 
+    /** HSL rule sets only admit the zones they list, as in boardingAllowed, and routes are only used for exceptions. */
+    @Override
+    public FareEligibility getFareEligibility(Set<String> allowedFareIds) {
+        return FareEligibility.build(getRegularFareRules(), allowedFareIds, true);
+    }
+
     @Override
     protected FareAndId getBestFareAndId(FareType fareType, List<Ride> rides, Collection<FareRuleSet> fareRules) {
         Set<String> zones = new HashSet<String>();
@@ -9,6 +9,9 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.GraphSource;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.HeapPhaseTracker;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +28,8 @@ public class InputStreamGraphSource implements GraphSource {
 
     private static final Logger LOG = LoggerFactory.getLogger(InputStreamGraphSource.class);
 
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
     /**
      * Delay before starting to load a graph after the last modification time. In case of writing,
      * we expect graph last modification time to be updated at at least that frequency. If not, you
@@ -32,7 +37,11 @@ public class InputStreamGraphSource implements GraphSource {
      * */
     private static final long LOAD_DELAY_SEC = 10;
 
-    private Router router;
+    /**
+     * Requests get the router once and keep using it until they are done, so replacing it here never disturbs
+     * requests in flight. They finish on the old router, which is garbage collected once the last one is done.
+     */
+    private volatile Router router;
 
     private String routerId;
 
@@ -89,54 +98,77 @@ public class InputStreamGraphSource implements GraphSource {
             boolean doReload = force ? true : checkAutoReload(lastModified);
             if (!doReload)
                 return true;
-            if (preEvict) {
-                synchronized (preEvictMutex) {
-                    if (router != null) {
-                        LOG.info("Reloading '{}': pre-evicting router", routerId);
-                        router.shutdown();
-                    }
-                    /*
-                     * Forcing router to null here should remove any references to the graph once
-                     * all current requests are done. So the next reload is supposed to have more
-                     * memory.
-                     */
-                    router = null;
-                    router = loadGraph();
-                }
-            } else {
-                Router newRouter = loadGraph();
-                if (newRouter != null) {
-                    // Load OK
-                    if (router != null) {
-                        LOG.info("Reloading '{}': post-evicting router", routerId);
-                        router.shutdown();
-                    }
-                    router = newRouter; // Assignment in java is atomic
-                } else {
-                    // Load failed
-                    if (force || router == null) {
-                        LOG.warn("Unable to load data for router '{}'.", routerId);
+            ReloadPhases phases = new ReloadPhases(routerId);
+            try {
+                if (preEvict) {
+                    synchronized (preEvictMutex) {
                         if (router != null) {
+                            LOG.info("Reloading '{}': pre-evicting router", routerId);
                             router.shutdown();
                         }
+                        /*
+                         * Forcing router to null here should remove any references to the graph once
+                         * all current requests are done. So the next reload is supposed to have more
+                         * memory.
+                         */
                         router = null;
+                        phases.end("Evict");
+                        router = loadGraph(phases);
+                    }
+                } else {
+                    if (router != null && router.releaseSpeedupsOnReload) {
+                        // Trade availability for memory: the old router keeps serving requests while the new graph is
+                        // loaded, but without its speed-up structures, so that they are not on the heap alongside the
+                        // new graph.
+                        LOG.info("Reloading '{}': releasing the speed-up structures of the old graph", routerId);
+                        router.releaseSpeedups();
+                        phases.end("Release");
+                    }
+                    Router newRouter = loadGraph(phases);
+                    if (newRouter != null) {
+                        // Load OK. The new router is fully indexed and started before it replaces the old one.
+                        Router oldRouter = router;
+                        router = newRouter; // Assignment in java is atomic
+                        phases.end("Swap");
+                        if (oldRouter != null) {
+                            LOG.info("Reloading '{}': post-evicting router", routerId);
+                            // Stop the updaters of the old graph right away, so they do not keep it alive (and busy)
+                            // any longer than the requests still running on it.
+                            oldRouter.shutdown();
+                            phases.end("Shutdown");
+                        }
                     } else {
-                        // No shutdown, since we keep current one.
-                        LOG.warn("Unable to load data for router '{}', keeping old data.", routerId);
+                        // Load failed
+                        if (force || router == null) {
+                            LOG.warn("Unable to load data for router '{}'.", routerId);
+                            if (router != null) {
+                                router.shutdown();
+                            }
+                            router = null;
+                        } else {
+                            // No shutdown, since we keep current one.
+                            LOG.warn("Unable to load data for router '{}', keeping old data.", routerId);
+                            if (router.releaseSpeedupsOnReload) {
+                                LOG.warn("Router '{}' runs without its speed-up structures until the next reload.",
+                                        routerId);
+                            }
+                        }
                     }
                 }
+                if (router == null) {
+                    graphLastModified = 0L;
+                } else {
+                    /*
+                     * Note: we flag even if loading failed, because we want to wait for fresh new data
+                     * before loading again.
+                     */
+                    graphLastModified = lastModified;
+                }
+                // If a router is null, it will be evicted.
+                return (router != null);
+            } finally {
+                phases.finish();
             }
-            if (router == null) {
-                graphLastModified = 0L;
-            } else {
-                /*
-                 * Note: we flag even if loading failed, because we want to wait for fresh new data
-                 * before loading again.
-                 */
-                graphLastModified = lastModified;
-            }
-            // If a router is null, it will be evicted.
-            return (router != null);
         }
     }
 
@@ -175,22 +207,20 @@ public class InputStreamGraphSource implements GraphSource {
      * Do the actual operation of graph loading. Load configuration if present, and startup the
      * router with the help of the router lifecycle manager.
      */
-    private Router loadGraph() {
+    private Router loadGraph(ReloadPhases phases) {
         final Graph newGraph;
-        try (InputStream is = streams.getGraphInputStream()) {
+        try {
             LOG.info("Loading graph...");
-            try {
-                newGraph = Graph.load(is);
-            } catch (Exception ex) {
-                LOG.error("Exception while loading graph '{}'.", routerId, ex);
-                return null;
-            }
-
-            newGraph.routerId = (routerId);
+            newGraph = streams.loadGraph();
         } catch (IOException e) {
             LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
             return null;
+        } catch (Exception ex) {
+            LOG.error("Exception while loading graph '{}'.", routerId, ex);
+            return null;
         }
+        newGraph.routerId = (routerId);
+        phases.end("Load");
 
         // Decorate the graph TODO how are we "decorating" it? This appears to refer to loading its configuration.
         // Even if a config file is not present on disk one could be bundled inside.
@@ -207,6 +237,7 @@ public class InputStreamGraphSource implements GraphSource {
             }
             Router newRouter = new Router(routerId, newGraph);
             newRouter.startup(config);
+            phases.end("Startup");
             return newRouter;
         } catch (IOException e) {
             LOG.error("Can't read config file.");
@@ -215,6 +246,50 @@ public class InputStreamGraphSource implements GraphSource {
         }
     }
 
+    /**
+     * Logs the duration of each phase of a reload and the heap in use at its end, and records them in the monitoring
+     * store under graphReload[Phase]Time and graphReload[Phase]Heap (milliseconds and megabytes). The peak heap usage
+     * over the whole reload, which is what limits the size of graphs that can be swapped without pre-evicting, is
+     * recorded as graphReloadPeakHeap, and its growth over the heap in use when the reload started as
+     * graphReloadPeakHeapGrowth.
+     */
+    private static class ReloadPhases {
+
+        private final String routerId;
+
+        private final HeapPhaseTracker tracker = new HeapPhaseTracker();
+
+        ReloadPhases(String routerId) {
+            this.routerId = routerId;
+        }
+
+        void end(String phase) {
+            HeapPhaseTracker.Phase ended = tracker.endPhase();
+            long usedHeap = ended.usedHeap / HeapPhaseTracker.MB;
+            LOG.info("Reloading '{}': {} took {} ms, heap in use {} MB", routerId, phase.toLowerCase(),
+                    ended.durationMillis, usedHeap);
+            setLong("graphReload" + phase + "Time", ended.durationMillis);
+            setLong("graphReload" + phase + "Heap", usedHeap);
+        }
+
+        void finish() {
+            long peakHeap = tracker.getPeakHeap();
+            tracker.close();
+            long peakGrowth = (peakHeap - tracker.getBaselineHeap()) / HeapPhaseTracker.MB;
+            peakHeap /= HeapPhaseTracker.MB;
+            LOG.info("Reloading '{}' took {} ms, peak heap usage {} MB ({} MB over the heap in use before)",
+                    routerId, tracker.getElapsedMillis(), peakHeap, peakGrowth);
+            setLong("graphReloadPeakHeap", peakHeap);
+            setLong("graphReloadPeakHeapGrowth", peakGrowth);
+        }
+
+        private static void setLong(String key, long value) {
+            if (store.isMonitoring(key)) {
+                store.setLong(key, value);
+            }
+        }
+    }
+
     /**
      * InputStreamGraphSource delegates to some actual implementation the fact of getting the input
      * stream and checking the last modification timestamp for a given routerId.
@@ -224,6 +299,9 @@ public class InputStreamGraphSource implements GraphSource {
     private interface Streams {
         public abstract InputStream getGraphInputStream() throws IOException;
 
+        /** Load the graph itself. Implementations which can should read the file directly so it can be mapped. */
+        public abstract Graph loadGraph() throws IOException;
+
         public abstract InputStream getConfigInputStream() throws IOException;
 
         public abstract long getLastModified();
@@ -244,6 +322,17 @@ public class InputStreamGraphSource implements GraphSource {
             return new FileInputStream(graphFile);
         }
 
+        /**
+         * Loading from the file rather than a stream lets the sections of a chunked graph be memory-mapped, so the
+         * serialized graph is never copied onto the heap next to both the old and the new graph.
+         */
+        @Override
+        public Graph loadGraph() throws IOException {
+            File graphFile = new File(path, GRAPH_FILENAME);
+            LOG.debug("Loading graph from file '{}'", graphFile.getPath());
+            return Graph.load(graphFile);
+        }
+
         @Override
         public InputStream getConfigInputStream() throws IOException {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -278,6 +367,13 @@ public class InputStreamGraphSource implements GraphSource {
                     .getResourceAsStream(graphFile.getPath());
         }
 
+        @Override
+        public Graph loadGraph() throws IOException {
+            try (InputStream is = getGraphInputStream()) {
+                return Graph.load(is);
+            }
+        }
+
         @Override
         public InputStream getConfigInputStream() {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
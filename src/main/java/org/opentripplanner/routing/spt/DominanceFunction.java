@@ -104,8 +104,13 @@ public abstract class DominanceFunction implements Serializable {
     /**
      * Create a new shortest path tree using this function, considering whether it allows co-dominant States.
      * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
+     * If the request asks for it, the tree is addressed by vertex index rather than by a map (see
+     * IndexedShortestPathTree). Subclasses may override this to pick a storage strategy regardless of the request.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        if (routingRequest.indexedShortestPathTree) {
+            return new IndexedShortestPathTree(routingRequest, this);
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
@@ -0,0 +1,257 @@
+package org.opentripplanner.routing.spt;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A ShortestPathTree that addresses vertices by their dense integer index (see Vertex.getIndex()) instead of hashing
+ * them into a map. The states at each vertex are kept in a pool of slots backed by flat arrays and chained together
+ * by slot number, so adding a state to the tree does not allocate a map entry or a list per reached vertex.
+ * Slots freed when a state is dominated are recycled through a free list.
+ *
+ * The add/visit/getStates contract and the resulting set of states are identical to those of the map-based
+ * ShortestPathTree; only the storage differs. Lists returned by getStates are built on demand and are not backed by
+ * the tree, so modifying them has no effect on the search.
+ *
+ * This implementation is selected with RoutingRequest.indexedShortestPathTree.
+ */
+public class IndexedShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedShortestPathTree.class);
+
+    private static final int NONE = -1;
+
+    private static final double GROW_FACTOR = 1.5;
+
+    /** For each vertex index, the first slot holding a state at that vertex, or NONE if the vertex was not reached. */
+    private int[] head;
+
+    /** For each vertex index, the vertex itself once it has been reached. Needed to implement getVertices(). */
+    private Vertex[] vertices;
+
+    /** The state held in each slot. */
+    private State[] slotStates;
+
+    /** For each slot, the next slot at the same vertex (or the next free slot), or NONE at the end of the chain. */
+    private int[] slotNext;
+
+    /** Number of slots that have ever been handed out. Slots below this number are either in use or free-listed. */
+    private int slotsUsed = 0;
+
+    /** First slot in the free list, or NONE if there are no recycled slots. */
+    private int freeSlot = NONE;
+
+    private int vertexCount = 0;
+
+    private int stateCount = 0;
+
+    public IndexedShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
+        super(options, dominanceFunction, false);
+        // Temporary vertices created after this point will have higher indexes, the arrays grow to fit them.
+        int nVertices = Math.max(Vertex.getMaxIndex(), 16);
+        head = new int[nVertices];
+        Arrays.fill(head, NONE);
+        vertices = new Vertex[nVertices];
+        // Like the priority queue, start with a pool that is much smaller than the graph and let it grow.
+        int nSlots = (int) Math.ceil(2 * Math.sqrt(nVertices + 1));
+        slotStates = new State[nSlots];
+        slotNext = new int[nSlots];
+    }
+
+    @Override
+    public boolean add(State newState) {
+        Vertex vertex = newState.getVertex();
+        int index = vertex.getIndex();
+        ensureVertexCapacity(index);
+
+        // if the vertex has no states, add one and return
+        if (head[index] == NONE) {
+            vertices[index] = vertex;
+            head[index] = allocateSlot(newState, NONE);
+            vertexCount++;
+            return true;
+        }
+
+        // if the vertex has any states that dominate the new state, don't add the state
+        // if the new state dominates any old states, remove them
+        int prev = NONE;
+        int slot = head[index];
+        while (slot != NONE) {
+            State oldState = slotStates[slot];
+            int next = slotNext[slot];
+            // order is important, because in the case of a tie
+            // we want to reject the new state
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                if (prev == NONE) {
+                    head[index] = next;
+                } else {
+                    slotNext[prev] = next;
+                }
+                freeSlot(slot);
+                evict(oldState);
+            } else {
+                prev = slot;
+            }
+            slot = next;
+        }
+
+        // any states remaining are co-dominant with the new state
+        head[index] = allocateSlot(newState, head[index]);
+        return true;
+    }
+
+    @Override
+    public boolean visit(State state) {
+        int index = state.getVertex().getIndex();
+        if (index >= head.length) {
+            return false;
+        }
+        for (int slot = head[index]; slot != NONE; slot = slotNext[slot]) {
+            if (slotStates[slot] == state) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        int index = dest.getIndex();
+        if (index >= head.length) {
+            return null;
+        }
+        State ret = null;
+        for (int slot = head[index]; slot != NONE; slot = slotNext[slot]) {
+            State s = slotStates[slot];
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        int index = dest.getIndex();
+        if (index >= head.length || head[index] == NONE) {
+            return null;
+        }
+        List<State> states = new ArrayList<>();
+        for (int slot = head[index]; slot != NONE; slot = slotNext[slot]) {
+            states.add(slotStates[slot]);
+        }
+        return states;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> ret = Collections.newSetFromMap(new IdentityHashMap<>(vertexCount));
+        for (int index = 0; index < head.length; index++) {
+            if (head[index] != NONE) {
+                ret.add(vertices[index]);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<>(stateCount);
+        for (int index = 0; index < head.length; index++) {
+            for (int slot = head[index]; slot != NONE; slot = slotNext[slot]) {
+                allStates.add(slotStates[slot]);
+            }
+        }
+        return allStates;
+    }
+
+    @Override
+    public void dump() {
+        Multiset<Integer> histogram = HashMultiset.create();
+        int maxSize = 0;
+        for (int index = 0; index < head.length; index++) {
+            if (head[index] == NONE) continue;
+            int size = 0;
+            for (int slot = head[index]; slot != NONE; slot = slotNext[slot]) {
+                size++;
+            }
+            histogram.add(size);
+            if (size > maxSize) {
+                maxSize = size;
+            }
+        }
+        LOG.info("Indexed SPT: vertices: " + vertexCount + " states: total: " + stateCount
+                + " per vertex max: " + maxSize + " avg: " + (stateCount * 1.0 / vertexCount)
+                + " slots: " + slotsUsed);
+        List<Integer> nStates = new ArrayList<>(histogram.elementSet());
+        Collections.sort(nStates);
+        for (Integer nState : nStates) {
+            LOG.info(nState + " states: " + histogram.count(nState) + " vertices.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedShortestPathTree(" + vertexCount + " vertices)";
+    }
+
+    /** Take a slot from the free list or the end of the pool, store the state in it and link it to the given slot. */
+    private int allocateSlot(State state, int next) {
+        int slot;
+        if (freeSlot != NONE) {
+            slot = freeSlot;
+            freeSlot = slotNext[slot];
+        } else {
+            if (slotsUsed == slotStates.length) {
+                int capacity = (int) (slotStates.length * GROW_FACTOR) + 1;
+                slotStates = Arrays.copyOf(slotStates, capacity);
+                slotNext = Arrays.copyOf(slotNext, capacity);
+            }
+            slot = slotsUsed++;
+        }
+        slotStates[slot] = state;
+        slotNext[slot] = next;
+        stateCount++;
+        return slot;
+    }
+
+    /** Return a slot to the free list, dropping the reference to its state so it can be garbage collected. */
+    private void freeSlot(int slot) {
+        slotStates[slot] = null;
+        slotNext[slot] = freeSlot;
+        freeSlot = slot;
+        stateCount--;
+    }
+
+    private void ensureVertexCapacity(int index) {
+        if (index < head.length) {
+            return;
+        }
+        int oldLength = head.length;
+        int capacity = Math.max(index + 1, (int) (oldLength * GROW_FACTOR));
+        head = Arrays.copyOf(head, capacity);
+        Arrays.fill(head, oldLength, capacity, NONE);
+        vertices = Arrays.copyOf(vertices, capacity);
+    }
+
+}
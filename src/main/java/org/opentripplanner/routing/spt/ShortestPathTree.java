@@ -2,6 +2,7 @@ package org.opentripplanner.routing.spt;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import org.opentripplanner.common.pqueue.IndexedDaryHeap;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Vertex;
@@ -22,6 +23,9 @@ import java.util.*;
  * Note that turn restrictions make all searches multi-state; however turn restrictions do not apply when walking.
  * The turn restriction handling is done in the base dominance function implementation, and applies to all subclasses.
  * It essentially splits each vertex into N vertices depending on the incoming edge being taken.
+ *
+ * The states are stored in a map keyed on vertex identity. IndexedShortestPathTree keeps the same states in flat
+ * arrays addressed by vertex index, which is cheaper for very large searches.
  */
 public class ShortestPathTree {
 
@@ -33,10 +37,23 @@ public class ShortestPathTree {
 
     private Map<Vertex, List<State>> stateSets;
 
+    /** If set, states that are dominated by a newly added state are removed from this search queue right away. */
+    private IndexedDaryHeap<State> queue;
+
     public ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
+        this(options, dominanceFunction, true);
+    }
+
+    /**
+     * Subclasses that store their states differently (see IndexedShortestPathTree) pass false to avoid allocating
+     * the vertex map. They must then override every method that reads the states.
+     */
+    protected ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction, boolean createStateSets) {
         this.options = options;
         this.dominanceFunction = dominanceFunction;
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        if (createStateSets) {
+            stateSets = new IdentityHashMap<Vertex, List<State>>();
+        }
     }
 
     /** @return a list of GraphPaths, sometimes empty but never null. */
@@ -130,8 +147,10 @@ public class ShortestPathTree {
             // we want to reject the new state
             if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
                 return false;
-            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState))
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
                 it.remove();
+                evict(oldState);
+            }
         }
 
         // any states remaining are co-dominant with the new state
@@ -139,6 +158,21 @@ public class ShortestPathTree {
         return true;
     }
 
+    /**
+     * Let this tree remove the states it prunes from the given queue, so that they are not extracted and checked with
+     * visit() later. The queue handle of each state must be recorded with State.setQueueHandle when it is enqueued.
+     */
+    public void setQueue(IndexedDaryHeap<State> queue) {
+        this.queue = queue;
+    }
+
+    /** Called when a state is pruned from the tree because a newly added state dominates it. */
+    protected void evict(State state) {
+        if (queue != null) {
+            queue.remove(state.getQueueHandle(), state);
+        }
+    }
+
     /**
      * Returns the 'best' state for the given Vertex, where 'best' depends on the implementation.
      *
@@ -188,7 +222,8 @@ public class ShortestPathTree {
      * which indicates that it has not been ruled out as a state on an optimal path. Many shortest 
      * path algorithms will decrease the key of a vertex in the priority queue when it is updated, but we store states
      * in the queue rather than vertices, and states do not get updated or change their weight.
-     * TODO consider just removing states from the priority queue.
+     * When a queue has been supplied with setQueue, dominated states are removed from it as they are pruned, and
+     * this check only serves as a safeguard.
      *
      * When the Fibonacci heap was replaced with a binary heap, the decrease-key operation was 
      * removed for the same reason: both improve theoretical run time complexity, at the cost of 
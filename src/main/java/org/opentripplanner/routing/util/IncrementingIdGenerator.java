@@ -33,4 +33,11 @@ public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
     public int getId(T elem) {
         return next++;
     }
+
+    /** Make the identifiers generated from now on greater than the given one. */
+    public void skipPast(int id) {
+        if (next <= id) {
+            next = id + 1;
+        }
+    }
 }
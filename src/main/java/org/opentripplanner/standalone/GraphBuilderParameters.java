@@ -188,6 +188,34 @@ public class GraphBuilderParameters {
      * This will determine what logic we should use when connecting stops to OSM nodes
      */
     public final String vertexConnectorName;
+
+    /**
+     * Build contraction hierarchies of the streets for driving and cycling with the routing defaults of the router,
+     * which speed up street searches without transit using these defaults. The defaults must set turnReluctance to 0,
+     * as the hierarchies do not model turn costs.
+     */
+    public final boolean contractionHierarchies;
+
+    /**
+     * Compute the walk distances from transit stops to nearby street vertices used by analyst requests, and save them
+     * with the graph so that they are not computed on the first analyst request after each server start.
+     */
+    public final boolean stopTreeCache;
+
+    /**
+     * Link the transit stops, bike rental stations and bike parks to the streets all at once: the streets they link to
+     * are found in parallel, and each street is split once for all the stops along it. This is faster on large graphs
+     * but may link a stop very close to another one to a separate point of the street.
+     */
+    public final boolean batchStopLinking;
+
+    /**
+     * Save the street graph built from OSM and elevation data, before any transit is added, in the cache directory,
+     * and reuse it in the next builds as long as the OSM and elevation files and this configuration are unchanged.
+     * The elevation is then sampled before the stops are linked to the streets.
+     */
+    public final boolean cacheBaseGraph;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -225,6 +253,10 @@ public class GraphBuilderParameters {
         maxTransferDistance = config.path("maxTransferDistance").asDouble(2000);
         extraEdgesStopPlatformLink = config.path("extraEdgesStopPlatformLink").asBoolean(false);
         vertexConnectorName = config.path("vertexConnector").asText("");
+        contractionHierarchies = config.path("contractionHierarchies").asBoolean(false);
+        stopTreeCache = config.path("stopTreeCache").asBoolean(false);
+        batchStopLinking = config.path("batchStopLinking").asBoolean(false);
+        cacheBaseGraph = config.path("cacheBaseGraph").asBoolean(false);
     }
 
 
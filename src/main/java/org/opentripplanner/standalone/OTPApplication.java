@@ -84,6 +84,7 @@ public class OTPApplication extends Application {
             Routers.class,
             LegendResource.class,
             ProfileResource.class,
+            TravelTimeMatrixResource.class,
             SimpleIsochrone.class,
             ServerInfo.class,
             SurfaceResource.class,
@@ -10,6 +10,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
 import org.opentripplanner.inspector.TileRendererManager;
+import org.opentripplanner.profile.RaptorWorkerDataCache;
 import org.opentripplanner.reflect.ReflectiveInitializer;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -63,9 +64,20 @@ public class Router {
     /** Storage for non-destructive alternatives analysis scenarios. */
     public ScenarioStore scenarioStore = new ScenarioStore();
 
+    /** RAPTOR data tables kept for reuse by profile requests on the same day and time window. */
+    public RaptorWorkerDataCache raptorWorkerDataCache;
+
+    /**
+     * Whether to release the speed-up structures of this router's graph before loading the graph which replaces it,
+     * see releaseSpeedups. This lowers the peak memory use of a post-evict reload, but the requests this router still
+     * serves during the reload are slower, and stay slower if the new graph cannot be loaded.
+     */
+    public boolean releaseSpeedupsOnReload = false;
+
     public Router(String id, Graph graph) {
         this.id = id;
         this.graph = graph;
+        this.raptorWorkerDataCache = new RaptorWorkerDataCache(graph);
     }
 
     /**
@@ -173,12 +185,33 @@ public class Router {
                         this.defaultRoutingRequest, this.graph);
             }
         }
+        /* Set the maximum size of the RAPTOR data cache. */
+        JsonNode raptorDataCacheSize = config.get("raptorDataCacheMegabytes");
+        if (raptorDataCacheSize != null) {
+            if (raptorDataCacheSize.isNumber()) {
+                this.raptorWorkerDataCache = new RaptorWorkerDataCache(graph, raptorDataCacheSize.intValue());
+            } else {
+                LOG.error("The 'raptorDataCacheMegabytes' configuration option should be a number of megabytes.");
+            }
+        }
+
         /* Set whether to use flex service */
         JsonNode useFlexService = config.get("useFlexService");
         if (useFlexService != null) {
             graph.setUseFlexService(useFlexService.asBoolean(false));
         }
 
+        /* Set whether to trade the speed of this router for memory while its graph is being reloaded. */
+        JsonNode releaseSpeedupsOnReload = config.get("releaseSpeedupsOnReload");
+        if (releaseSpeedupsOnReload != null) {
+            this.releaseSpeedupsOnReload = releaseSpeedupsOnReload.asBoolean(false);
+        }
+
+        /* Set whether to keep a compact copy of the streets, which speeds up street-only searches. */
+        if (config.path("compactStreetGraph").asBoolean(false)) {
+            graph.buildCompactStreetGraph();
+        }
+
         /* Create Graph updater modules from JSON config. */
         GraphUpdaterConfigurator.setupGraph(this.graph, config);
 
@@ -199,6 +232,15 @@ public class Router {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
     }
 
+    /**
+     * Free the memory held by the structures which only make requests on this router faster, for when its graph is
+     * about to be replaced. The requests still running on it get the same results, more slowly.
+     */
+    public void releaseSpeedups() {
+        graph.releaseSpeedups();
+        raptorWorkerDataCache.invalidateAll();
+    }
+
     /**
      * Programmatically (i.e. not in XML) create a Logback logger for requests happening on this router.
      * http://stackoverflow.com/a/17215011/778449
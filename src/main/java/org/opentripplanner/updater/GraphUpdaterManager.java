@@ -4,17 +4,24 @@ import com.beust.jcommander.internal.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +46,14 @@ public class GraphUpdaterManager {
      */
     private static String DEFAULT_ROUTER_ID = "(default)";
 
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
+    /**
+     * The maximum number of graph writer runnables run in one batch, so that a burst of writes does not hold back
+     * the publication of the earliest ones for too long.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
     /**
      * Thread factory used to create new threads, giving them more human-readable names including the routerId.
      */
@@ -53,6 +68,22 @@ public class GraphUpdaterManager {
      */
     private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
+    /**
+     * The graph writer runnables submitted to execute and not run yet, in the order they were submitted. They are
+     * run in batches by the scheduler thread.
+     */
+    private final BlockingQueue<QueuedWrite> writeQueue = new LinkedBlockingQueue<>();
+
+    /** Whether a batch of writes has been submitted to the scheduler and has not started yet. */
+    private final AtomicBoolean writesScheduled = new AtomicBoolean(false);
+
+    /** Whether a commit of the realtime updates kept back by the snapshot throttle has been scheduled. */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private volatile int lastBatchSize = 0;
+
+    private volatile long lastWriteLatency = -1;
+
     /**
      * A pool of threads on which the updaters will run.
      * This creates a pool that will auto-scale up to any size (maximum pool size is MAX_INT).
@@ -134,16 +165,132 @@ public class GraphUpdaterManager {
      * scheduled after each other, guaranteeing that only one of these runnables will be active at
      * any time.
      *
+     * The runnables waiting to be executed are run in batches, in the order they were submitted,
+     * leaving out those superseded by a later runnable of the same batch (see
+     * GraphWriterRunnable.supersedes). The realtime updates applied by a batch are published in a
+     * single timetable snapshot.
+     *
      * @param runnable is a graph writer runnable
      */
     public void execute(GraphWriterRunnable runnable) {
-        scheduler.submit(() -> {
+        writeQueue.add(new QueuedWrite(runnable));
+        if (store.isMonitoring("graphWriterQueueDepth")) {
+            store.setLongMax("graphWriterQueueDepth", writeQueue.size());
+        }
+        scheduleWrites();
+    }
+
+    /** Make sure a batch of writes will be run, unless one is already scheduled and has not started yet. */
+    private void scheduleWrites() {
+        if (writesScheduled.compareAndSet(false, true)) {
+            scheduler.submit(this::runWrites);
+        }
+    }
+
+    /** Run the writes waiting in the queue, up to MAX_BATCH_SIZE of them. Only runs on the scheduler thread. */
+    private void runWrites() {
+        // Writes submitted from now on are run by the next batch
+        writesScheduled.set(false);
+        List<QueuedWrite> batch = new ArrayList<>();
+        writeQueue.drainTo(batch, MAX_BATCH_SIZE);
+        if (!writeQueue.isEmpty()) {
+            scheduleWrites();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<QueuedWrite> writes = coalesce(batch);
+        TimetableSnapshotSource snapshotSource = graph.timetableSnapshotSource;
+        if (snapshotSource != null) {
+            snapshotSource.beginBatch();
+        }
+        try {
+            for (QueuedWrite write : writes) {
+                try {
+                    write.runnable.run(graph);
+                } catch (Exception e) {
+                    LOG.error("Error while running graph writer {}:", write.runnable.getClass().getName(), e);
+                }
+            }
+        } finally {
+            // The snapshot source may have been created by this batch, in which case committing is harmless.
+            snapshotSource = graph.timetableSnapshotSource;
+            if (snapshotSource != null) {
+                try {
+                    scheduleFlush(snapshotSource.commitBatch());
+                } catch (Exception e) {
+                    LOG.error("Error while committing the timetable snapshot:", e);
+                }
+            }
+        }
+        long latency = System.currentTimeMillis() - batch.get(0).submitTime;
+        lastBatchSize = writes.size();
+        lastWriteLatency = latency;
+        LOG.debug("Ran {} graph writers ({} superseded) in a batch, {} ms after the first was submitted.",
+                writes.size(), batch.size() - writes.size(), latency);
+        if (store.isMonitoring("graphWriterBatchSize")) {
+            store.setLongMax("graphWriterBatchSize", writes.size());
+        }
+        if (store.isMonitoring("graphWriterLatency")) {
+            store.setLongMax("graphWriterLatency", latency);
+        }
+    }
+
+    /**
+     * Make sure the realtime updates kept back by the snapshot throttle are committed after the given delay, even if
+     * no other write arrives to commit them, unless such a commit is already scheduled.
+     * @param delayMillis the delay in milliseconds, or -1 if there are no updates to commit
+     */
+    private void scheduleFlush(long delayMillis) {
+        if (delayMillis >= 0 && flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flushSnapshot, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Commit the realtime updates kept back by the snapshot throttle. Only runs on the scheduler thread. */
+    private void flushSnapshot() {
+        flushScheduled.set(false);
+        TimetableSnapshotSource snapshotSource = graph.timetableSnapshotSource;
+        if (snapshotSource != null) {
             try {
-                runnable.run(graph);
+                scheduleFlush(snapshotSource.flushPending());
             } catch (Exception e) {
-                LOG.error("Error while running graph writer {}:", runnable.getClass().getName(), e);
+                LOG.error("Error while committing the timetable snapshot:", e);
             }
-        });
+        }
+    }
+
+    /** @return the writes of the batch which are not superseded by a later one, in the order they were submitted. */
+    private static List<QueuedWrite> coalesce(List<QueuedWrite> batch) {
+        LinkedList<QueuedWrite> writes = new LinkedList<>();
+        WRITES: for (int i = batch.size() - 1; i >= 0; i--) {
+            QueuedWrite write = batch.get(i);
+            for (QueuedWrite later : writes) {
+                if (later.runnable.supersedes(write.runnable)) {
+                    continue WRITES;
+                }
+            }
+            writes.addFirst(write);
+        }
+        return writes;
+    }
+
+    /** @return the number of graph writer runnables waiting to be executed. */
+    public int getQueueDepth() {
+        return writeQueue.size();
+    }
+
+    /** @return the number of graph writer runnables run by the last batch, after leaving out superseded ones. */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return the time in milliseconds between the submission of the first graph writer runnable of the last batch
+     *         and the end of that batch, or -1 if no batch has been run yet.
+     */
+    public long getLastWriteLatency() {
+        return lastWriteLatency;
     }
 
     public int size() {
@@ -192,4 +339,14 @@ public class GraphUpdaterManager {
     public List<GraphUpdater> getUpdaterList() {
         return updaterList;
     }
+
+    /** A graph writer runnable waiting to be executed, with the time it was submitted. */
+    private static class QueuedWrite {
+        final GraphWriterRunnable runnable;
+        final long submitTime = System.currentTimeMillis();
+
+        QueuedWrite(GraphWriterRunnable runnable) {
+            this.runnable = runnable;
+        }
+    }
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ import org.opentripplanner.routing.graph.Graph;
  * - Be aware that while only one graph writer runnable is running to write to the graph, several
  *   request-threads might be reading the graph.
  * - Be sure that the request-threads always see a consistent view of the graph while planning.
+ * - Runnables waiting to be executed are run in batches, and may be dropped if a later one supersedes them.
  * 
  * @see GraphUpdaterManager.execute
  */
@@ -19,4 +20,16 @@ public interface GraphWriterRunnable {
      * This function is executed to modify the graph.
      */
     public void run(Graph graph);
+
+    /**
+     * When several graph writer runnables are waiting to be executed, those superseded by a later one are dropped.
+     * This is the case when the later one carries the whole new state of what the earlier one would have written,
+     * e.g. all the stations of a bike rental system.
+     *
+     * @param earlier a runnable that was submitted before this one
+     * @return true if running this runnable alone has the same effect as running the earlier one, then this one
+     */
+    default boolean supersedes(GraphWriterRunnable earlier) {
+        return false;
+    }
 }
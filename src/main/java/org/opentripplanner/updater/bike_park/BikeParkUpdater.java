@@ -118,6 +118,17 @@ public class BikeParkUpdater extends PollingGraphUpdater {
             this.bikeParks = bikeParks;
         }
 
+        /** Each runnable holds all the bike parks of the source, and removes the parks missing from it. */
+        @Override
+        public boolean supersedes(GraphWriterRunnable earlier) {
+            return earlier instanceof BikeParkGraphWriterRunnable
+                    && ((BikeParkGraphWriterRunnable) earlier).getUpdater() == BikeParkUpdater.this;
+        }
+
+        private BikeParkUpdater getUpdater() {
+            return BikeParkUpdater.this;
+        }
+
         @Override
         public void run(Graph graph) {
             // Apply stations to graph
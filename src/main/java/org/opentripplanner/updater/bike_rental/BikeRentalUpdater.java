@@ -162,6 +162,17 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
             this.stations = stations;
         }
 
+        /** Each runnable holds all the stations of the source, and removes the stations missing from it. */
+        @Override
+        public boolean supersedes(GraphWriterRunnable earlier) {
+            return earlier instanceof BikeRentalGraphWriterRunnable
+                    && ((BikeRentalGraphWriterRunnable) earlier).getUpdater() == BikeRentalUpdater.this;
+        }
+
+        private BikeRentalUpdater getUpdater() {
+            return BikeRentalUpdater.this;
+        }
+
         @Override
         public void run(Graph graph) {
             // Apply stations to graph
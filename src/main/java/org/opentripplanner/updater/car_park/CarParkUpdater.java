@@ -145,6 +145,17 @@ public class CarParkUpdater extends PollingGraphUpdater {
             this.carParks = carParks;
         }
 
+        /** Each runnable holds all the car parks of the source, and removes the parks missing from it. */
+        @Override
+        public boolean supersedes(GraphWriterRunnable earlier) {
+            return earlier instanceof CarParkGraphWriterRunnable
+                    && ((CarParkGraphWriterRunnable) earlier).getUpdater() == CarParkUpdater.this;
+        }
+
+        private CarParkUpdater getUpdater() {
+            return CarParkUpdater.this;
+        }
+
         @Override
         public void run(Graph graph) {
             // Apply stations to graph
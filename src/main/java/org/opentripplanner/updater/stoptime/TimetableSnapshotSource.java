@@ -4,7 +4,10 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.locks.ReentrantLock;
@@ -26,10 +29,13 @@ import org.opentripplanner.routing.trippattern.RealTimeState;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.updater.GtfsRealtimeFuzzyTripMatcher;
 import org.opentripplanner.util.SentryUtilities;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
@@ -42,6 +48,8 @@ import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
 public class TimetableSnapshotSource {
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshotSource.class);
 
+    private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+
     /**
      * Number of milliseconds per second
      */
@@ -55,18 +63,33 @@ public class TimetableSnapshotSource {
     public final GtfsRealtimeStatistics statistics = new GtfsRealtimeStatistics();
 
     /**
-     * If a timetable snapshot is requested less than this number of milliseconds after the previous
-     * snapshot, just return the same one. Throttles the potentially resource-consuming task of
-     * duplicating a TripPattern -> Timetable map and indexing the new Timetables.
+     * If updates are applied less than this number of milliseconds after the previous snapshot was
+     * committed, they are kept in the buffer and only published with the next batch of updates
+     * arriving after this delay, by the first routing thread asking for the snapshot after it, or
+     * by the graph updater manager once the delay has elapsed.
+     * Throttles the potentially resource-consuming task of indexing the new Timetables.
      */
     public int maxSnapshotFrequency = 1000; // msec
 
     /**
-     * The last committed snapshot that was handed off to a routing thread. This snapshot may be
-     * given to more than one routing thread if the maximum snapshot frequency is exceeded.
+     * The last committed snapshot, handed off to all routing threads. Routing threads only ever
+     * read this reference and never take a lock: snapshots are immutable, and they are only
+     * committed and published by the thread applying the updates.
      */
     private volatile TimetableSnapshot snapshot = null;
 
+    /** The time at which the current snapshot was committed, in milliseconds since the epoch. */
+    private volatile long snapshotCommitTime = -1;
+
+    /** The time the last commit took, in microseconds. */
+    private volatile long lastCommitMicros = -1;
+
+    /**
+     * The time at which the buffer first held updates that have not been committed, in milliseconds
+     * since the epoch, or -1 if all updates have been committed.
+     */
+    private volatile long pendingSince = -1;
+
     /**
      * The working copy of the timetable snapshot. Should not be visible to routing threads. Should
      * only be modified by a thread that holds a lock on {@link #bufferLock}. All public methods that
@@ -75,21 +98,30 @@ public class TimetableSnapshotSource {
     private final TimetableSnapshot buffer = new TimetableSnapshot();
 
     /**
-     * Lock to indicate that buffer is in use
+     * Lock to indicate that buffer is in use. Only taken by threads applying updates.
      */
     private final ReentrantLock bufferLock = new ReentrantLock(true);
 
+    /** True while a batch of graph writes is running, see {@link #beginBatch()}. Guarded by the buffer lock. */
+    private boolean batching = false;
+
     /**
      * A synchronized cache of trip patterns that are added to the graph due to GTFS-realtime messages.
      */
     private final TripPatternCache tripPatternCache = new TripPatternCache();
 
+    /**
+     * For each feed whose last message was a full dataset, the trip updates of that message which are applied in the
+     * buffer, by trip and service date. Used to skip the updates which did not change in the next full dataset.
+     */
+    private final Map<String, Map<String, AppliedTripUpdate>> appliedFullDatasets = new HashMap<>();
+
     /** Should expired realtime data be purged from the graph. */
     public boolean purgeExpiredData = true;
 
     protected ServiceDate lastPurgeDate = null;
 
-    protected long lastSnapshotTime = -1;
+    protected volatile long lastSnapshotTime = -1;
 
     private final TimeZone timeZone;
 
@@ -110,37 +142,72 @@ public class TimetableSnapshotSource {
     }
 
     /**
-     * @return an up-to-date snapshot mapping TripPatterns to Timetables. This snapshot and the
+     * @return the latest snapshot mapping TripPatterns to Timetables. This snapshot and the
      *         timetable objects it references are guaranteed to never change, so the requesting
      *         thread is provided a consistent view of all TripTimes. The routing thread need only
-     *         release its reference to the snapshot to release resources.
+     *         release its reference to the snapshot to release resources. This never blocks. It
+     *         only tries to take the buffer lock when the buffer holds updates which the throttle
+     *         no longer keeps back, so that they are published even if no other message arrives
+     *         to commit them. Otherwise the snapshot is published by the thread applying the updates.
      */
     public TimetableSnapshot getTimetableSnapshot() {
-        TimetableSnapshot snapshotToReturn;
-
-        // Try to get a lock on the buffer
-        if (bufferLock.tryLock()) {
-            // Make a new snapshot if necessary
+        if (pendingSince >= 0 && System.currentTimeMillis() - lastSnapshotTime > maxSnapshotFrequency
+                && bufferLock.tryLock()) {
             try {
-                snapshotToReturn = getTimetableSnapshot(false);
+                // Do not publish part of a batch, its updates are committed together at its end.
+                if (!batching) {
+                    commitSnapshot(false);
+                }
             } finally {
                 bufferLock.unlock();
             }
-        } else {
-            // No lock could be obtained because there is either a snapshot commit busy or updates
-            // are applied at this moment, just return the current snapshot
-            snapshotToReturn = snapshot;
         }
+        return snapshot;
+    }
 
-        return snapshotToReturn;
+    /**
+     * @return the time in milliseconds since the current snapshot was committed, or -1 if no
+     *         snapshot has been committed yet.
+     */
+    public long getSnapshotAgeMillis() {
+        long commitTime = snapshotCommitTime;
+        return commitTime < 0 ? -1 : System.currentTimeMillis() - commitTime;
+    }
+
+    /** @return the time the last commit took in microseconds, or -1 if there has been none. */
+    public long getLastCommitMicros() {
+        return lastCommitMicros;
     }
 
-    private TimetableSnapshot getTimetableSnapshot(final boolean force) {
+    /**
+     * Commit the buffer and publish the resulting snapshot, unless the previous snapshot was
+     * committed less than maxSnapshotFrequency ago. Must be called while holding the buffer lock.
+     */
+    private TimetableSnapshot commitSnapshot(final boolean force) {
         final long now = System.currentTimeMillis();
+        if (pendingSince < 0 && buffer.isDirty()) {
+            pendingSince = now;
+        }
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
-                snapshot = buffer.commit(force);
+                long startNanos = System.nanoTime();
+                TimetableSnapshot committed = buffer.commit(force);
+                long commitMicros = (System.nanoTime() - startNanos) / 1000;
+                snapshot = committed;
+                snapshotCommitTime = now;
+                lastCommitMicros = commitMicros;
+                // How long routing threads were kept waiting for the oldest update in this snapshot
+                long delayMillis = pendingSince < 0 ? 0 : now - pendingSince;
+                pendingSince = -1;
+                LOG.debug("Committed snapshot in {} us, published {} ms after the first update", commitMicros,
+                        delayMillis);
+                if (store.isMonitoring("timetableSnapshotCommitTime")) {
+                    store.setLongMax("timetableSnapshotCommitTime", commitMicros);
+                }
+                if (store.isMonitoring("timetableSnapshotAge")) {
+                    store.setLongMax("timetableSnapshotAge", delayMillis);
+                }
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
@@ -151,6 +218,83 @@ public class TimetableSnapshotSource {
         return snapshot;
     }
 
+    /**
+     * Purge data if necessary (and force new snapshot if anything was purged), then commit. Must be called while
+     * holding the buffer lock.
+     * @param force whether to commit even if the previous snapshot was committed less than maxSnapshotFrequency ago
+     */
+    private void purgeAndCommit(final boolean force) {
+        boolean modified = false;
+        if (purgeExpiredData) {
+            modified = purgeExpiredData();
+            if (modified) {
+                // The purged trip times may belong to any feed
+                appliedFullDatasets.clear();
+            }
+        }
+        commitSnapshot(force || modified);
+    }
+
+    /**
+     * Defer the commits of the updates applied from now on until commitBatch is called. The graph updater manager
+     * runs the graph writes waiting to be executed as a batch, so that they are published in one snapshot.
+     */
+    public void beginBatch() {
+        bufferLock.lock();
+        try {
+            batching = true;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Commit the updates applied since beginBatch, unless the previous snapshot was committed less than
+     * maxSnapshotFrequency ago, and go back to committing after each message.
+     * @return the number of milliseconds after which the updates kept back by the throttle can be committed with
+     *         {@link #flushPending()}, or -1 if all updates are committed.
+     */
+    public long commitBatch() {
+        bufferLock.lock();
+        try {
+            batching = false;
+            purgeAndCommit(false);
+            return pendingDelayMillis();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Commit the updates kept back by the throttle, if maxSnapshotFrequency has elapsed since the previous snapshot
+     * was committed. The graph updater manager calls this once the delay returned by commitBatch has elapsed, so
+     * that the last updates of a burst are published even if no other message arrives to commit them.
+     * @return the number of milliseconds after which the updates still kept back can be committed, or -1 if all
+     *         updates are committed.
+     */
+    public long flushPending() {
+        bufferLock.lock();
+        try {
+            if (!batching && pendingSince >= 0) {
+                commitSnapshot(false);
+            }
+            return pendingDelayMillis();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of milliseconds after which the throttle lets the pending updates be committed, or -1 if
+     *         there are none. Must be called while holding the buffer lock.
+     */
+    private long pendingDelayMillis() {
+        if (pendingSince < 0) {
+            return -1;
+        }
+        return Math.max(0, lastSnapshotTime + maxSnapshotFrequency + 1 - System.currentTimeMillis());
+    }
+
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot. A
      * GTFS-RT feed is always applied against a single static feed (indicated by feedId).
@@ -175,14 +319,11 @@ public class TimetableSnapshotSource {
         bufferLock.lock();
 
         try {
-            if (fullDataset) {
-                // Remove all updates from the buffer
-                buffer.clear(feedId);
-            }
-
             LOG.debug("message contains {} trip updates", updates.size());
-            int uIndex = 0;
 
+            // Match the trips and find the service dates first, to tell which updates changed
+            final List<TripUpdate> tripUpdates = new ArrayList<>(updates.size());
+            final List<ServiceDate> serviceDates = new ArrayList<>(updates.size());
             for (TripUpdate tripUpdate : updates) {
                 SentryUtilities.setupSentryTripUpdate(tripUpdate);
 
@@ -212,6 +353,37 @@ public class TimetableSnapshotSource {
                     // TODO: figure out the correct service date. For the special case that a trip
                     // starts for example at 40:00, yesterday would probably be a better guess.
                 }
+                tripUpdates.add(tripUpdate);
+                serviceDates.add(serviceDate);
+            }
+
+            // The updates of the previous full dataset of this feed are still in the buffer, unless another
+            // message changed them since.
+            final Map<String, AppliedTripUpdate> previous = appliedFullDatasets.remove(feedId);
+            final Map<String, AppliedTripUpdate> applied = new HashMap<>();
+            final List<AppliedTripUpdate> received = new ArrayList<>(tripUpdates.size());
+            for (int i = 0; i < tripUpdates.size(); i++) {
+                received.add(new AppliedTripUpdate(tripUpdates.get(i), serviceDates.get(i), fullDataset));
+            }
+            final boolean incremental = fullDataset && canApplyChangesOnly(previous, received);
+            if (fullDataset && !incremental) {
+                // Remove all updates from the buffer
+                buffer.clear(feedId);
+            }
+
+            int uIndex = 0;
+
+            for (int i = 0; i < tripUpdates.size(); i++) {
+                final TripUpdate tripUpdate = tripUpdates.get(i);
+                final ServiceDate serviceDate = serviceDates.get(i);
+                final AppliedTripUpdate update = received.get(i);
+                final AppliedTripUpdate previousUpdate = incremental ? previous.get(update.key) : null;
+                if (previousUpdate != null && previousUpdate.fingerprint == update.fingerprint) {
+                    // The trip times in the buffer are still those of this update
+                    applied.put(update.key, previousUpdate);
+                    statistics.increaseSkipped();
+                    continue;
+                }
 
                 uIndex += 1;
                 LOG.debug("trip update #{} ({} updates) :",
@@ -219,47 +391,50 @@ public class TimetableSnapshotSource {
                 LOG.trace("{}", tripUpdate);
 
                 // Determine what kind of trip update this is
-                boolean applied = false;
-                final TripDescriptor.ScheduleRelationship tripScheduleRelationship = determineTripScheduleRelationship(
-                        tripUpdate);
-                switch (tripScheduleRelationship) {
+                boolean success = false;
+                switch (update.scheduleRelationship) {
                     case SCHEDULED:
-                        applied = handleScheduledTrip(tripUpdate, feedId, serviceDate);
+                        success = handleScheduledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case ADDED:
-                        applied = validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
+                        success = validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
                         break;
                     case UNSCHEDULED:
-                        applied = handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
+                        success = handleUnscheduledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case CANCELED:
-                        applied = handleCanceledTrip(tripUpdate, feedId, serviceDate);
+                        success = handleCanceledTrip(tripUpdate, feedId, serviceDate);
                         break;
                     case MODIFIED:
-                        applied = validateAndHandleModifiedTrip(graph, tripUpdate, feedId, serviceDate);
+                        success = validateAndHandleModifiedTrip(graph, tripUpdate, feedId, serviceDate);
                         break;
                 }
 
-                if (applied) {
+                if (success) {
+                    applied.put(update.key, update);
                     statistics.increaseApplied();
                 } else {
                     LOG.info("Failed to apply TripUpdate.");
                     LOG.trace(" Contents: {}", tripUpdate);
                     statistics.increaseRejected();
+                    if (previousUpdate != null) {
+                        // Without the previous update, as if the buffer had been cleared
+                        restoreScheduledTrip(feedId, tripUpdate.getTrip().getTripId(), serviceDate);
+                    }
                 }
 
             }
             LOG.debug("end of update message");
             statistics.printAndClear();
 
-            // Make a snapshot after each message in anticipation of incoming requests
-            // Purge data if necessary (and force new snapshot if anything was purged)
-            // Make sure that the public (locking) getTimetableSnapshot function is not called.
-            if (purgeExpiredData) {
-                final boolean modified = purgeExpiredData();
-                getTimetableSnapshot(modified);
-            } else {
-                getTimetableSnapshot(false);
+            if (fullDataset) {
+                appliedFullDatasets.put(feedId, applied);
+            }
+
+            // Make a snapshot after each message, or after the batch of graph writes it belongs to. Routing
+            // threads only ever see committed snapshots
+            if (!batching) {
+                purgeAndCommit(false);
             }
         } finally {
             // Always release lock
@@ -308,6 +483,48 @@ public class TimetableSnapshotSource {
         return tripScheduleRelationship;
     }
 
+    /**
+     * Whether a full dataset can be applied by only applying the trip updates which changed since the previous full
+     * dataset, leaving the trip times of the others in the buffer. This gives the same timetables as clearing the
+     * buffer and applying all of them if no trip was left out since, and the changed updates replace the trip times
+     * of scheduled trips. Added and modified trips also change patterns, which are only rebuilt from scratch.
+     *
+     * @param previous the updates applied from the previous full dataset of the feed, or null if there is none or the
+     *                 buffer was changed since
+     */
+    private boolean canApplyChangesOnly(final Map<String, AppliedTripUpdate> previous,
+            final List<AppliedTripUpdate> received) {
+        if (previous == null) {
+            return false;
+        }
+        final Set<String> keys = new HashSet<>();
+        for (final AppliedTripUpdate update : received) {
+            if (!keys.add(update.key)) {
+                // The same trip is updated twice
+                return false;
+            }
+            final AppliedTripUpdate previousUpdate = previous.get(update.key);
+            if (previousUpdate != null && previousUpdate.fingerprint != update.fingerprint
+                    && !(previousUpdate.replacesTripTimes() && update.replacesTripTimes())) {
+                return false;
+            }
+        }
+        return keys.containsAll(previous.keySet());
+    }
+
+    /**
+     * Set the scheduled trip times of a trip in the buffer, undoing an update of its times or a cancellation.
+     */
+    private void restoreScheduledTrip(final String feedId, final String tripId, final ServiceDate serviceDate) {
+        final TripPattern pattern = getPatternForTripId(feedId, tripId);
+        if (pattern != null) {
+            final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+            if (tripIndex != -1) {
+                buffer.update(feedId, pattern, pattern.scheduledTimetable.getTripTimes(tripIndex), serviceDate);
+            }
+        }
+    }
+
     private boolean handleScheduledTrip(final TripUpdate tripUpdate, final String feedId, final ServiceDate serviceDate) {
         final TripDescriptor tripDescriptor = tripUpdate.getTrip();
         // This does not include Agency ID or feed ID, trips are feed-unique and we currently assume a single static feed.
@@ -987,6 +1204,28 @@ public class TimetableSnapshotSource {
         return stop;
     }
 
+    /**
+     * The content fingerprint of a trip update, which identifies it together with its trip and service date.
+     */
+    private class AppliedTripUpdate {
+        final String key;
+        final long fingerprint;
+        final TripDescriptor.ScheduleRelationship scheduleRelationship;
+
+        AppliedTripUpdate(final TripUpdate tripUpdate, final ServiceDate serviceDate, final boolean fingerprinted) {
+            key = tripUpdate.getTrip().getTripId() + ":" + serviceDate.getAsString();
+            // Only full datasets are compared with the previous ones
+            fingerprint = fingerprinted ? Hashing.murmur3_128().hashBytes(tripUpdate.toByteArray()).asLong() : 0;
+            scheduleRelationship = determineTripScheduleRelationship(tripUpdate);
+        }
+
+        /** Whether applying this update only replaces the trip times of a scheduled trip. */
+        boolean replacesTripTimes() {
+            return scheduleRelationship == TripDescriptor.ScheduleRelationship.SCHEDULED
+                    || scheduleRelationship == TripDescriptor.ScheduleRelationship.CANCELED;
+        }
+    }
+
     /**
      * Simple logger to provide some statistics about processed GTFS-RT messages.
      */
@@ -996,6 +1235,7 @@ public class TimetableSnapshotSource {
         private int logFrequency = 2000;
         private int appliedBlockCount = 0;
         private int rejectedBlockCount = 0;
+        private int skippedBlockCount = 0;
 
         public void setLogFrequency(int frequency) {
             logFrequency = frequency;
@@ -1009,14 +1249,20 @@ public class TimetableSnapshotSource {
             rejectedBlockCount++;
         }
 
+        public void increaseSkipped() {
+            skippedBlockCount++;
+        }
+
         public void printAndClear() {
             int sum = appliedBlockCount + rejectedBlockCount;
-            if (sum >= logFrequency) {
-                float percentage = 100.0f * (float)appliedBlockCount / (float)sum;
-                LOG.info("Gtfs-Rt statistics: applied {} messages, rejected {} messages, success rate {} %",
-                        appliedBlockCount, rejectedBlockCount, percentage);
+            if (sum + skippedBlockCount >= logFrequency) {
+                float percentage = sum == 0 ? 100.0f : 100.0f * (float)appliedBlockCount / (float)sum;
+                LOG.info("Gtfs-Rt statistics: applied {} messages, skipped {} unchanged messages, rejected {} "
+                        + "messages, success rate {} %", appliedBlockCount, skippedBlockCount, rejectedBlockCount,
+                        percentage);
                 appliedBlockCount = 0;
                 rejectedBlockCount = 0;
+                skippedBlockCount = 0;
             }
         }
     }
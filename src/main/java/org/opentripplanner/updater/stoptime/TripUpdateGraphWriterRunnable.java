@@ -38,6 +38,17 @@ public class TripUpdateGraphWriterRunnable implements GraphWriterRunnable {
         this.feedId = feedId;
     }
 
+    /**
+     * A full dataset replaces all the earlier updates of the same feed. It is either applied on a buffer cleared of
+     * them, or only as its changes since the previous full dataset when it updates every trip that one did, which
+     * leaves the same trip times in the buffer.
+     */
+    @Override
+    public boolean supersedes(GraphWriterRunnable earlier) {
+        return fullDataset && earlier instanceof TripUpdateGraphWriterRunnable
+                && feedId.equals(((TripUpdateGraphWriterRunnable) earlier).feedId);
+    }
+
     @Override
     public void run(Graph graph) {
         // Apply updates to graph using realtime snapshot source
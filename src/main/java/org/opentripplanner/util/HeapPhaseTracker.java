@@ -0,0 +1,147 @@
+package org.opentripplanner.util;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the duration and the heap usage of consecutive phases of a long operation, such as reading OSM data or
+ * reloading a graph, for the caller to log or record.
+ *
+ * The heap in use only drops when it is collected, so its peak over a phase is the largest of the heap in use before
+ * each collection during the phase and at the end of the phase. These are received as garbage collection
+ * notifications, which leaves the peak usage of the memory pools, shared by the whole JVM, untouched. The peak is
+ * measured from the heap in use when the tracker was created, so it is reported both as is and as the growth over
+ * that baseline.
+ *
+ * The tracker must be closed once done with, to stop listening to the collections.
+ */
+public class HeapPhaseTracker implements AutoCloseable {
+
+    public static final long MB = 1024 * 1024;
+
+    /** The duration and heap usage of one phase, in milliseconds and bytes. */
+    public static class Phase {
+        public final long durationMillis;
+        public final long usedHeap;
+        public final long peakHeap;
+
+        private Phase(long durationMillis, long usedHeap, long peakHeap) {
+            this.durationMillis = durationMillis;
+            this.usedHeap = usedHeap;
+            this.peakHeap = peakHeap;
+        }
+    }
+
+    private final Set<String> heapPoolNames;
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    private final NotificationListener listener = this::handleNotification;
+
+    private final long startTime;
+
+    private final long baselineHeap;
+
+    private long phaseStartTime;
+
+    private long phasePeakHeap;
+
+    private long peakHeap;
+
+    public HeapPhaseTracker() {
+        heapPoolNames = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getName)
+                .collect(Collectors.toSet());
+        startTime = phaseStartTime = System.currentTimeMillis();
+        baselineHeap = phasePeakHeap = peakHeap = usedHeap();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) collector;
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    /** @return the heap in use right now, in bytes. */
+    public static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** End the current phase and start the next one. */
+    public synchronized Phase endPhase() {
+        long now = System.currentTimeMillis();
+        long usedHeap = usedHeap();
+        sample(usedHeap);
+        Phase phase = new Phase(now - phaseStartTime, usedHeap, phasePeakHeap);
+        phaseStartTime = now;
+        phasePeakHeap = usedHeap;
+        return phase;
+    }
+
+    /** @return the time since the tracker was created, in milliseconds. */
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /** @return the heap in use when the tracker was created, in bytes. */
+    public long getBaselineHeap() {
+        return baselineHeap;
+    }
+
+    /** @return the peak heap usage since the tracker was created, in bytes. */
+    public synchronized long getPeakHeap() {
+        sample(usedHeap());
+        return peakHeap;
+    }
+
+    private synchronized void sample(long usedHeap) {
+        phasePeakHeap = Math.max(phasePeakHeap, usedHeap);
+        peakHeap = Math.max(peakHeap, usedHeap);
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long usedBeforeGc = 0;
+        for (Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+            if (heapPoolNames.contains(entry.getKey())) {
+                usedBeforeGc += entry.getValue().getUsed();
+            }
+        }
+        sample(usedBeforeGc);
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // Already removed
+            }
+        }
+        emitters.clear();
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.opentripplanner.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestCopyOnWriteBucketMap extends TestCase {
+
+    public void testSnapshotsAreIsolated() {
+        CopyOnWriteBucketMap<String, Integer> map = new CopyOnWriteBucketMap<>(16);
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + i, i);
+        }
+        CopyOnWriteBucketMap<String, Integer> snapshot = map.snapshot();
+        assertEquals(0, map.getCopiedBucketCount());
+
+        map.put("k1", -1);
+        map.remove("k2");
+        map.put("new", 1000);
+        assertEquals(Integer.valueOf(-1), map.get("k1"));
+        assertNull(map.get("k2"));
+        assertEquals(100, map.size());
+
+        // The snapshot still sees the old entries
+        assertEquals(Integer.valueOf(1), snapshot.get("k1"));
+        assertEquals(Integer.valueOf(2), snapshot.get("k2"));
+        assertNull(snapshot.get("new"));
+        assertEquals(100, snapshot.size());
+
+        // Only the modified buckets were copied, and at most once each
+        assertTrue(map.getCopiedBucketCount() <= 3);
+        map.put("k1", -2);
+        assertTrue(map.getCopiedBucketCount() <= 3);
+
+        assertTrue(map.removeIf(k -> k.startsWith("k1")));
+        assertFalse(map.removeIf(k -> k.startsWith("k1")));
+        assertEquals(89, map.size());
+        assertEquals(Integer.valueOf(10), snapshot.get("k10"));
+    }
+
+    public void testSameContentsAsHashMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        CopyOnWriteBucketMap<Integer, Integer> map = new CopyOnWriteBucketMap<>();
+        CopyOnWriteBucketMap<Integer, Integer> snapshot = map.snapshot();
+        Map<Integer, Integer> expectedSnapshot = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            if (i % 1000 == 0) {
+                snapshot = map.snapshot();
+                expectedSnapshot = new HashMap<>(expected);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        Map<Integer, Integer> contents = new HashMap<>();
+        map.forEach(contents::put);
+        assertEquals(expected, contents);
+
+        Map<Integer, Integer> snapshotContents = new HashMap<>();
+        snapshot.forEach(snapshotContents::put);
+        assertEquals(expectedSnapshot, snapshotContents);
+        assertEquals(expectedSnapshot.size(), snapshot.size());
+    }
+
+}
@@ -129,5 +129,64 @@ public class TestPQueues extends TestCase {
 		    assertTrue(bh.empty());
 
         }
-    }    
+    }
+
+    public void testIndexedDaryHeapOrder() {
+        List<Integer> input = new ArrayList<Integer>(N);
+        for (int i=0; i<N; i++) input.add((int) (Math.random() * 10000));
+        PriorityQueue<Integer> q = new PriorityQueue<Integer>(input);
+        IndexedDaryHeap<Integer> heap = new IndexedDaryHeap<Integer>();
+        for (Integer i : input) {
+            heap.insert(i, i * 0.5);
+        }
+        while (!q.isEmpty()) {
+            assertEquals(q.remove(), heap.extract_min());
+        }
+        assertTrue(heap.empty());
+        assertNull(heap.peek_min());
+        assertNull(heap.extract_min());
+        assertEquals(N, heap.getInsertCount());
+        assertEquals(N, heap.getExtractCount());
+        assertEquals(N, heap.getMaxSize());
+    }
+
+    /*
+     * Elements removed through their handles must never come out of the queue, and stale handles must not remove
+     * anything once they have been recycled for other elements.
+     */
+    public void testIndexedDaryHeapRemoveAndDecreaseKey() {
+        final int N = 5000;
+        IndexedDaryHeap<Integer> heap = new IndexedDaryHeap<Integer>(20);
+        List<Integer> vals = new ArrayList<Integer>(N);
+        int[] handles = new int[N];
+        for (int i = 0; i < N; i++) {
+            // use distinct objects so identity checks on handles are meaningful
+            Integer val = new Integer(i);
+            vals.add(val);
+            handles[i] = heap.insert(val, Math.random() * 10000);
+        }
+        // remove every odd element, and give every element divisible by four a key reflecting its place in the list
+        for (int i = 1; i < N; i += 2) {
+            assertTrue(heap.remove(handles[i], vals.get(i)));
+            assertFalse(heap.remove(handles[i], vals.get(i)));
+        }
+        for (int i = 0; i < N; i += 4) {
+            heap.decrease_key(handles[i], vals.get(i), -N + i);
+        }
+        assertEquals(N / 2, heap.size());
+        assertEquals(N / 2, heap.getRemoveCount());
+
+        // the elements divisible by four come out first and in order, and no odd element ever comes out
+        for (int i = 0; i < N; i += 4) {
+            assertSame(vals.get(i), heap.extract_min());
+        }
+        // recycle the handles of removed elements: the old handle/element pairs must not match anymore
+        heap.insert(new Integer(-1), -1);
+        assertFalse(heap.remove(handles[N - 1], vals.get(N - 1)));
+        assertEquals(-1, heap.extract_min().intValue());
+        while (!heap.empty()) {
+            int val = heap.extract_min();
+            assertEquals(2, val % 4);
+        }
+    }
 }
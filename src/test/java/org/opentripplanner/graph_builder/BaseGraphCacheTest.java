@@ -0,0 +1,104 @@
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BaseGraphCacheTest {
+
+    @Test
+    public void testKeyDependsOnContents() throws Exception {
+        File dir = Files.createTempDir();
+        File osm = new File(dir, "a.osm");
+        File dem = new File(dir, "b.tif");
+        Files.write("streets", osm, StandardCharsets.UTF_8);
+        Files.write("elevation", dem, StandardCharsets.UTF_8);
+        ObjectMapper mapper = new ObjectMapper();
+
+        String key = BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true}"), null);
+        assertEquals(key, BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true}"), null));
+        // Touching a file does not change the key, changing its contents does
+        assertTrue(osm.setLastModified(osm.lastModified() - 60000));
+        assertEquals(key, BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true}"), null));
+        assertNotEquals(key, BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": false}"), null));
+        // Only the parameters read by the base graph modules and the source of the elevation tiles count
+        assertEquals(key, BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true, \"transit\": false}"), null));
+        assertNotEquals(key, BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true}"), "s3://elevation"));
+        Files.write("other streets", osm, StandardCharsets.UTF_8);
+        assertNotEquals(key, BaseGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true}"), null));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = Files.createTempDir();
+        File osm = new File(dir, "a.osm");
+        Files.write("streets", osm, StandardCharsets.UTF_8);
+        File cacheDirectory = new File(dir, "cache");
+        BaseGraphCache cache = new BaseGraphCache(cacheDirectory, Collections.singletonList(osm), null, null);
+        assertNull(cache.load());
+
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        cache.save(graph, 1234);
+        Graph loaded = new BaseGraphCache(cacheDirectory, Collections.singletonList(osm), null, null).load();
+        assertNotNull(loaded);
+        assertEquals(1234, cache.getBuildTimeMillis());
+        assertEquals(graph.countVertices(), loaded.countVertices());
+        assertEquals(graph.countEdges(), loaded.countEdges());
+        assertTrue(loaded.hasStreets);
+        assertNull(loaded.index);
+
+        // The vertices and edges built on the loaded graph are numbered after the loaded ones
+        int maxIndex = 0;
+        int maxId = 0;
+        for (Vertex v : loaded.getVertices()) {
+            maxIndex = Math.max(maxIndex, v.getIndex());
+            for (Edge e : v.getOutgoing()) {
+                maxId = Math.max(maxId, e.getId());
+            }
+        }
+        IntersectionVertex v0 = new IntersectionVertex(loaded, "new 0", -83, 40);
+        IntersectionVertex v1 = new IntersectionVertex(loaded, "new 1", -83, 40.001);
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { v0.getCoordinate(), v1.getCoordinate() });
+        StreetEdge e = new StreetEdge(v0, v1, geometry, "new", 100, StreetTraversalPermission.ALL, false);
+        assertTrue(v0.getIndex() > maxIndex);
+        assertTrue(e.getId() > maxId);
+
+        // Saving the base graph for other inputs replaces it
+        Files.write("other streets", osm, StandardCharsets.UTF_8);
+        BaseGraphCache otherCache = new BaseGraphCache(cacheDirectory, Collections.singletonList(osm), null, null);
+        otherCache.save(loaded, 10);
+        assertNotNull(otherCache.load());
+        assertFalse(new File(cacheDirectory, "base-graph-" + cache.getKey() + ".obj").exists());
+        assertEquals(-1, cache.getBuildTimeMillis());
+    }
+}
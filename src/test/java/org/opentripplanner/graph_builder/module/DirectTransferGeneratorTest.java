@@ -0,0 +1,57 @@
+package org.opentripplanner.graph_builder.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Iterables;
+import org.junit.Test;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+public class DirectTransferGeneratorTest {
+
+    private static final double RADIUS_METERS = 1000;
+
+    private static Graph buildGraph(boolean parallel) throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        DirectTransferGenerator generator = new DirectTransferGenerator(RADIUS_METERS);
+        generator.setParallel(parallel);
+        generator.buildGraph(graph, new HashMap<>());
+        return graph;
+    }
+
+    /** The transfers from each stop, described by their destination, distance and geometry, in edge order. */
+    private static Map<String, List<String>> transfersByStop(Graph graph) {
+        Map<String, List<String>> transfers = new HashMap<>();
+        for (TransitStop stop : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            List<String> stopTransfers = new ArrayList<>();
+            for (Edge e : stop.getOutgoing()) {
+                if (e instanceof SimpleTransfer) {
+                    stopTransfers.add(((TransitStop) e.getToVertex()).getStopId() + " " + e.getDistance() + " "
+                            + e.getGeometry());
+                }
+            }
+            transfers.put(stop.getStopId().toString(), stopTransfers);
+        }
+        return transfers;
+    }
+
+    /** Searching in parallel creates the same transfers, in the same order, as searching one stop at a time. */
+    @Test
+    public void testSameTransfersAsSerial() throws Exception {
+        Map<String, List<String>> serial = transfersByStop(buildGraph(false));
+        Map<String, List<String>> parallel = transfersByStop(buildGraph(true));
+        assertTrue(serial.values().stream().mapToInt(List::size).sum() > 0);
+        assertEquals(serial, parallel);
+    }
+
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.profile.StopTreeCache;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
@@ -29,8 +30,10 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.io.UnsupportedEncodingException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.opentripplanner.graph_builder.module.FakeGraph.*;
@@ -127,8 +130,8 @@ public class LinkingTest {
         StopTreeCache s2 = g2.index.getStopTreeCache();
 
         // convert the caches to be by stop label
-        Map<String, int[]> l1 = cacheByLabel(s1);
-        Map<String, int[]> l2 = cacheByLabel(s2);
+        Map<String, int[]> l1 = cacheByLabel(s1, g1);
+        Map<String, int[]> l2 = cacheByLabel(s2, g2);
 
         // do the comparison
         for (Entry<String, int[]> e : l1.entrySet()) {
@@ -151,6 +154,38 @@ public class LinkingTest {
         }
     }
 
+    /**
+     * Test that linking all the stops at once splits the streets at the same points as linking them one by one, with
+     * several stops on some of the edges.
+     */
+    @Test
+    public void testBatchLinkingSameAsSerial () throws UnsupportedEncodingException {
+        Graph g1 = buildGraphNoTransit();
+        addExtraStops(g1);
+        addRegularStopGrid(g1);
+        link(g1);
+
+        Graph g2 = buildGraphNoTransit();
+        addExtraStops(g2);
+        addRegularStopGrid(g2);
+        new SimpleStreetSplitter(g2).linkInBatch();
+
+        for (TransitStop ts : Iterables.filter(g1.getVertices(), TransitStop.class)) {
+            TransitStop other = (TransitStop) g2.getVertex(ts.getLabel());
+            assertEquals("Different links from stop " + ts, linkedCoordinates(ts), linkedCoordinates(other));
+        }
+        assertEquals(Iterables.size(Iterables.filter(g1.getEdges(), StreetEdge.class)),
+                Iterables.size(Iterables.filter(g2.getEdges(), StreetEdge.class)));
+    }
+
+    /** @return the coordinates of the street vertices the stop is linked to, rounded and sorted. */
+    private static List<String> linkedCoordinates (TransitStop ts) {
+        return stls(ts.getOutgoing()).stream()
+                .map(e -> String.format("%.7f,%.7f", e.getToVertex().getLat(), e.getToVertex().getLon()))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     private TObjectIntMap<String> jaggedArrayToVertexMap(int[] value, Graph g) {
         TObjectIntMap<String> ret = new TObjectIntHashMap<String>();
 
@@ -177,11 +212,11 @@ public class LinkingTest {
     }
 
     /** get the stop tree cache indexed by label */
-    public static Map<String, int[]> cacheByLabel (StopTreeCache c) {
+    public static Map<String, int[]> cacheByLabel (StopTreeCache c, Graph g) {
         Map<String, int[]> ret = Maps.newHashMap();
 
-        for (Entry<TransitStop, int[]> e : c.distancesForStop.entrySet()) {
-            ret.put(e.getKey().getLabel(), e.getValue());
+        for (int stopIndex : c.getStopVertexIndexes()) {
+            ret.put(g.getVertexById(stopIndex).getLabel(), c.getDistancesForStop(stopIndex));
         }
 
         return ret;
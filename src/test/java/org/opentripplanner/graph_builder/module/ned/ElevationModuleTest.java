@@ -0,0 +1,167 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.coverage.Coverage;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ElevationModuleTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElevationModuleTest.class);
+
+    private static final double MIN_LON = -122.8, MAX_LON = -122.6, MIN_LAT = 45.4, MAX_LAT = 45.6;
+
+    private static final int DEM_SIZE = 400;
+
+    /** Stored profiles are rounded to the centimeter. */
+    private static final double PROFILE_PRECISION = 0.01;
+
+    private static final int BENCHMARK_ITERATIONS = 3;
+
+    /** A DEM of hills with some noise, in longitude-first WGS84. */
+    private static GridCoverage2D makeDem() {
+        Random random = new Random(42);
+        float[][] elevations = new float[DEM_SIZE][DEM_SIZE];
+        for (int row = 0; row < DEM_SIZE; row++) {
+            for (int col = 0; col < DEM_SIZE; col++) {
+                elevations[row][col] = (float) (100 + 40 * Math.sin(row / 25.0) * Math.cos(col / 35.0)
+                        + random.nextDouble());
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(MIN_LON, MAX_LON, MIN_LAT, MAX_LAT,
+                GeometryUtils.WGS84_XY);
+        return new GridCoverageFactory().create("dem", elevations, envelope);
+    }
+
+    /**
+     * A grid of streets over the DEM, with a bend in each street, whose last column of vertices is outside the DEM.
+     */
+    private static List<StreetWithElevationEdge> makeStreets(Graph graph, int size) {
+        double step = (MAX_LON - MIN_LON) / (size - 1);
+        IntersectionVertex[][] vertices = new IntersectionVertex[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                vertices[i][j] = new IntersectionVertex(graph, i + "_" + j, MIN_LON + step * (j + 0.5),
+                        MIN_LAT + step * (i + 0.5));
+            }
+        }
+        List<StreetWithElevationEdge> edges = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (j + 1 < size) {
+                    addStreet(vertices[i][j], vertices[i][j + 1], edges);
+                }
+                if (i + 1 < size) {
+                    addStreet(vertices[i][j], vertices[i + 1][j], edges);
+                }
+            }
+        }
+        return edges;
+    }
+
+    private static void addStreet(IntersectionVertex a, IntersectionVertex b, List<StreetWithElevationEdge> edges) {
+        double midLon = (a.getLon() + b.getLon()) / 2 + (b.getLat() - a.getLat()) / 5;
+        double midLat = (a.getLat() + b.getLat()) / 2 + (b.getLon() - a.getLon()) / 5;
+        double length = GeometryUtils.makeLineString(a.getLon(), a.getLat(), midLon, midLat, b.getLon(), b.getLat())
+                .getLength() * 111111;
+        edges.add(new StreetWithElevationEdge(a, b, GeometryUtils.makeLineString(a.getLon(), a.getLat(), midLon,
+                midLat, b.getLon(), b.getLat()), "street", length, StreetTraversalPermission.ALL, false));
+        edges.add(new StreetWithElevationEdge(b, a, GeometryUtils.makeLineString(b.getLon(), b.getLat(), midLon,
+                midLat, a.getLon(), a.getLat()), "street", length, StreetTraversalPermission.ALL, true));
+    }
+
+    private static void setElevations(Graph graph, Coverage dem, boolean tiledSampling) {
+        ElevationModule module = new ElevationModule(new ElevationGridCoverageFactory() {
+            @Override
+            public Coverage getGridCoverage() {
+                return dem;
+            }
+
+            @Override
+            public void checkInputs() {
+            }
+
+            @Override
+            public void setGraph(Graph graph) {
+            }
+        }, 1);
+        module.setTiledSampling(tiledSampling);
+        module.buildGraph(graph, new HashMap<>());
+    }
+
+    /** The profiles sampled in parallel from the tiles are those sampled through GeoTools. */
+    @Test
+    public void testSameProfilesAsGeoTools() {
+        GridCoverage2D dem = makeDem();
+        Graph serialGraph = new Graph();
+        List<StreetWithElevationEdge> serialEdges = makeStreets(serialGraph, 25);
+        setElevations(serialGraph, dem, false);
+        Graph tiledGraph = new Graph();
+        List<StreetWithElevationEdge> tiledEdges = makeStreets(tiledGraph, 25);
+        setElevations(tiledGraph, dem, true);
+
+        assertEquals(serialEdges.size(), tiledEdges.size());
+        for (int e = 0; e < serialEdges.size(); e++) {
+            PackedCoordinateSequence expected = serialEdges.get(e).getElevationProfile();
+            PackedCoordinateSequence actual = tiledEdges.get(e).getElevationProfile();
+            assertNotNull(expected);
+            assertNotNull(actual);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getOrdinate(i, 0), actual.getOrdinate(i, 0), PROFILE_PRECISION);
+                assertEquals(expected.getOrdinate(i, 1), actual.getOrdinate(i, 1), PROFILE_PRECISION);
+            }
+            assertEquals(serialEdges.get(e).getMaxSlope(), tiledEdges.get(e).getMaxSlope(), 1e-3);
+        }
+    }
+
+    /** Not a strict benchmark, but gives an idea of the gain of the tiled sampler over GeoTools. */
+    @Test
+    public void testRelativeSpeed() {
+        GridCoverage2D dem = makeDem();
+        // warm up both code paths before timing
+        Graph warmUp = new Graph();
+        makeStreets(warmUp, 25);
+        setElevations(warmUp, dem, false);
+        warmUp = new Graph();
+        makeStreets(warmUp, 25);
+        setElevations(warmUp, dem, true);
+
+        long serialNanos = 0;
+        long tiledNanos = 0;
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            Graph serialGraph = new Graph();
+            makeStreets(serialGraph, 100);
+            Graph tiledGraph = new Graph();
+            makeStreets(tiledGraph, 100);
+            long t0 = System.nanoTime();
+            setElevations(serialGraph, dem, false);
+            long t1 = System.nanoTime();
+            setElevations(tiledGraph, dem, true);
+            long t2 = System.nanoTime();
+            serialNanos += t1 - t0;
+            tiledNanos += t2 - t1;
+        }
+        LOG.info("Average time to set elevation profiles: GeoTools {} ms, tiled parallel sampling {} ms",
+                serialNanos / BENCHMARK_ITERATIONS / 1000000, tiledNanos / BENCHMARK_ITERATIONS / 1000000);
+    }
+
+}
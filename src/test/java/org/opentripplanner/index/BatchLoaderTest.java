@@ -0,0 +1,52 @@
+package org.opentripplanner.index;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class BatchLoaderTest extends TestCase {
+
+    private final List<List<Integer>> batches = new ArrayList<>();
+
+    private final ResolverStatistics statistics = new ResolverStatistics();
+
+    private final BatchLoader<Integer, String> loader = new BatchLoader<>(Integer.class, keys -> {
+        batches.add(keys);
+        return keys.stream().collect(Collectors.toMap(key -> key, key -> "value " + key));
+    }, statistics);
+
+    /** The first load of a list loads the whole list, and the other items of the list are then memoized. */
+    public void testLoadSiblingsTogether() {
+        List<Integer> siblings = Arrays.asList(3, 1, 2, 1);
+        assertEquals("value 1", loader.load(1, siblings));
+        assertEquals("value 2", loader.load(2, siblings));
+        assertEquals("value 3", loader.load(3, siblings));
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList(1, 3, 2), batches.get(0));
+        assertEquals(1, statistics.getBatchCount());
+    }
+
+    /** Only the keys which are not loaded yet are loaded with a new list, and siblings of other types are ignored. */
+    public void testLoadMissingSiblings() {
+        loader.load(1, Collections.singletonList(1));
+        List<Object> siblings = Arrays.asList(1, "not a key", 4, 5);
+        assertEquals("value 4", loader.load(4, siblings));
+        assertEquals("value 5", loader.load(5, siblings));
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList(4, 5), batches.get(1));
+    }
+
+    public void testResolveCounts() {
+        statistics.recordResolve("Stop.name", 1000);
+        statistics.recordResolve("Stop.name", 2000);
+        statistics.recordResolve("Stop.alerts", 3000);
+        assertEquals(3, statistics.getResolveCount());
+        assertEquals(2, statistics.getResolveCount("Stop.name"));
+        assertEquals(0, statistics.getResolveCount("Stop.code"));
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.opentripplanner.openstreetmap.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PackedNodeStoreTest {
+
+    private static final double DELTA = 1e-7;
+
+    @Test
+    public void testLookupInFileOrder() {
+        PackedNodeStore store = new PackedNodeStore();
+        store.add(10, 45.5231234, -122.6765432);
+        store.add(20, -33.8688197, 151.2092955);
+        PackedNodeStore other = new PackedNodeStore();
+        other.add(30, 0, 0);
+        store.addAll(other);
+
+        assertEquals(3, store.size());
+        int i = store.indexOf(20);
+        assertEquals(20, store.getId(i));
+        assertEquals(-33.8688197, store.getLat(i), DELTA);
+        assertEquals(151.2092955, store.getLon(i), DELTA);
+        assertEquals(-1, store.indexOf(15));
+    }
+
+    @Test
+    public void testLookupOutOfOrder() {
+        PackedNodeStore store = new PackedNodeStore(2);
+        for (long id = 100; id > 0; id--) {
+            store.add(id * 7, id / 10.0, -id / 10.0);
+        }
+        PackedNodeStore other = new PackedNodeStore();
+        other.add(3, 89.9999999, -179.9999999);
+        store.addAll(other);
+
+        assertEquals(101, store.size());
+        int i = store.indexOf(3);
+        assertEquals(89.9999999, store.getLat(i), DELTA);
+        assertEquals(-179.9999999, store.getLon(i), DELTA);
+        for (long id = 1; id <= 100; id++) {
+            i = store.indexOf(id * 7);
+            assertEquals(id * 7, store.getId(i));
+            assertEquals(id / 10.0, store.getLat(i), DELTA);
+            assertEquals(-id / 10.0, store.getLon(i), DELTA);
+        }
+        assertEquals(-1, store.indexOf(8));
+    }
+
+    @Test
+    public void testRetainAll() {
+        PackedNodeStore store = new PackedNodeStore();
+        for (long id = 1; id <= 10; id++) {
+            store.add(id, id, -id);
+        }
+        store.retainAll(id -> id % 3 == 0);
+
+        assertEquals(3, store.size());
+        assertEquals(3, store.getId(0));
+        assertEquals(9, store.getId(2));
+        int i = store.indexOf(6);
+        assertEquals(6.0, store.getLat(i), DELTA);
+        assertEquals(-6.0, store.getLon(i), DELTA);
+        assertEquals(-1, store.indexOf(5));
+    }
+}
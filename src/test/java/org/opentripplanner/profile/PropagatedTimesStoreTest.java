@@ -66,4 +66,31 @@ public class PropagatedTimesStoreTest extends TestCase {
         // 1000 should not be included in average
         assertEquals(1, pts.avgs[0]);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that percentiles use the nearest rank over the iterations included in averages, and count unreached
+     * iterations as infinitely long.
+     */
+    @Test
+    public static void testPercentiles () {
+        ProfileRequest pr = new ProfileRequest();
+        pr.percentiles = new int[] { 0, 50, 75, 100 };
+        Graph g = new Graph();
+
+        int[][] times = new int[][] {
+                new int[] { 40 },
+                new int[] { 10 },
+                new int[] { RaptorWorker.UNREACHED },
+                new int[] { 30 },
+                new int[] { 20 }
+        };
+
+        PropagatedTimesStore pts = new PropagatedTimesStore(g, pr, 1);
+        pts.setFromArray(times, new boolean[] { true, false, true, true, true }, PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        // 10 is not included, leaving 20, 30, 40 and unreached
+        assertEquals(20, pts.percentileTimes[0][0]);
+        assertEquals(30, pts.percentileTimes[1][0]);
+        assertEquals(40, pts.percentileTimes[2][0]);
+        assertEquals(RaptorWorker.UNREACHED, pts.percentileTimes[3][0]);
+    }
+}
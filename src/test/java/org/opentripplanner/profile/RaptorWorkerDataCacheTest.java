@@ -0,0 +1,64 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+
+public class RaptorWorkerDataCacheTest extends TestCase {
+
+    private Graph graph;
+
+    @Override
+    protected void setUp() {
+        graph = ConstantsForTests.getInstance().getPortlandGraph();
+    }
+
+    private ProfileRequest request(LocalDate date) {
+        ProfileRequest req = new ProfileRequest();
+        req.date = date;
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.walkSpeed = 1.3f;
+        req.maxWalkTime = 15;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        return req;
+    }
+
+    public void testReuse() {
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(graph);
+        RaptorWorkerData data = cache.get(request(new LocalDate(2009, 11, 2)), null, new TaskStatistics());
+        assertTrue(data.nPatterns > 0);
+
+        // An equivalent request gets the same data, another day gets new data
+        assertSame(data, cache.get(request(new LocalDate(2009, 11, 2)), null, new TaskStatistics()));
+        RaptorWorkerData otherDay = cache.get(request(new LocalDate(2009, 11, 3)), null, new TaskStatistics());
+        assertNotSame(data, otherDay);
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(2, cache.stats().missCount());
+        assertEquals(2, cache.size());
+
+        ProfileRequest longerWalk = request(new LocalDate(2009, 11, 2));
+        longerWalk.maxWalkTime = 20;
+        assertNotSame(data, cache.get(longerWalk, null, new TaskStatistics()));
+
+        cache.invalidateAll();
+        assertNotSame(data, cache.get(request(new LocalDate(2009, 11, 2)), null, new TaskStatistics()));
+    }
+
+    public void testEviction() {
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(
+                request(new LocalDate(2009, 11, 2)), graph, null, new TaskStatistics());
+        assertTrue(RaptorWorkerDataCache.weigh(data) > 0);
+
+        // Nothing fits in an empty cache, but the data is still built and returned
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(graph, 0);
+        assertNotNull(cache.get(request(new LocalDate(2009, 11, 2)), null, new TaskStatistics()));
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.analyst.scenario.ConvertToFrequency;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+
+public class RaptorWorkerTest extends TestCase {
+
+    /**
+     * The Monte Carlo draws of the frequency searches are seeded per draw and each writes its own row of the results,
+     * so running them in parallel gives exactly the results of running them one after the other.
+     */
+    public void testParallelDrawsSameAsSerial() {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.fromLat = req.toLat = 39.9364;
+        req.fromLon = req.toLon = -83.0589;
+        req.date = new LocalDate(2015, 9, 17);
+        req.walkSpeed = 1.3f;
+        req.fromTime = 7 * 3600;
+        req.toTime = 8 * 3600;
+        req.maxWalkTime = 20;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.RANDOM;
+        req.percentiles = new int[] { 50 };
+        // The feed is scheduled, so convert its trips to frequencies to get random draws.
+        ConvertToFrequency toFrequency = new ConvertToFrequency();
+        toFrequency.groupBy = ConvertToFrequency.ConversionGroup.ROUTE_DIRECTION;
+        toFrequency.windowStart = 7 * 3600;
+        toFrequency.windowEnd = 9 * 3600;
+        req.scenario = new Scenario(0);
+        req.scenario.modifications.add(toFrequency);
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, graph, null, new TaskStatistics());
+        assertTrue(data.hasFrequencies);
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(graph, req).findInitialStops(false, data);
+        assertFalse(accessTimes.isEmpty());
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        PropagatedTimesStore parallel = run(graph, data, req, accessTimes, nonTransitTimes, true);
+        PropagatedTimesStore serial = run(graph, data, req, accessTimes, nonTransitTimes, false);
+        assertTrue(Arrays.equals(serial.mins, parallel.mins));
+        assertTrue(Arrays.equals(serial.avgs, parallel.avgs));
+        assertTrue(Arrays.equals(serial.maxs, parallel.maxs));
+        assertTrue(Arrays.deepEquals(serial.percentileTimes, parallel.percentileTimes));
+        assertTrue(Arrays.stream(serial.avgs).anyMatch(t -> t != RaptorWorker.UNREACHED));
+    }
+
+    private PropagatedTimesStore run(Graph graph, RaptorWorkerData data, ProfileRequest req, TIntIntMap accessTimes,
+            int[] nonTransitTimes, boolean parallelDraws) {
+        RaptorWorker worker = new RaptorWorker(data, req);
+        worker.drawSeed = 42;
+        worker.parallelDraws = parallelDraws;
+        return worker.runRaptor(graph, accessTimes, nonTransitTimes, new TaskStatistics());
+    }
+
+}
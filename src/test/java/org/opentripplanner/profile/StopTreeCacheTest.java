@@ -0,0 +1,53 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.algorithm.StreetDistanceSearch;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.Arrays;
+
+public class StopTreeCacheTest extends TestCase {
+
+    private static final int MAX_WALK_METERS = 500;
+
+    /** The decoded distances are those found by a distance search from each stop. */
+    public void testSameDistancesAsSearch() throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addRegularStopGrid(graph);
+        FakeGraph.link(graph);
+        graph.rebuildVertexAndEdgeIndices();
+
+        StopTreeCache cache = new StopTreeCache(graph, MAX_WALK_METERS);
+        assertTrue(cache.isValidFor(graph));
+        int[] stops = cache.getStopVertexIndexes();
+        assertTrue(stops.length > 0);
+
+        StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK);
+        search.maxDistanceMeters = MAX_WALK_METERS;
+        RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
+        for (int s = 0; s < stops.length; s += 50) {
+            TransitStop stop = (TransitStop) graph.getVertexById(stops[s]);
+            search.search(stop, rr);
+            int[] distances = cache.getDistancesForStop(stop);
+            assertEquals(search.getReachedCount() * 2, distances.length);
+            int[] propagated = new int[Vertex.getMaxIndex()];
+            cache.propagateStop(stop, 100, 1.0, propagated);
+            for (int i = 0; i < distances.length; i += 2) {
+                Vertex vertex = graph.getVertexById(distances[i]);
+                assertEquals((int) search.getDistance(vertex), distances[i + 1]);
+                // Vertices are stored in increasing index order.
+                if (i > 0) assertTrue(distances[i] > distances[i - 2]);
+                assertEquals(100 + distances[i + 1], propagated[distances[i]]);
+            }
+        }
+
+        assertNull(cache.getDistancesForStop(-1));
+        assertTrue(Arrays.equals(stops, cache.getStopVertexIndexes()));
+    }
+
+}
@@ -0,0 +1,117 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.PointFeature;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TravelTimeMatrixTest extends TestCase {
+
+    public void testParseStatistics() {
+        assertEquals(Arrays.asList(TravelTimeMatrix.MIN, TravelTimeMatrix.AVG, TravelTimeMatrix.MAX, 50, 90),
+                TravelTimeMatrix.parseStatistics("min, AVG,Max,p50 , P90"));
+        for (String invalid : new String[] { "median", "p101", "p" }) {
+            try {
+                TravelTimeMatrix.parseStatistics(invalid);
+                fail("Parsed invalid statistic " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * The rows are written in the order in which they complete, so check that each origin has exactly one row tagged
+     * with its index, and that the header and the rows have the documented layout.
+     */
+    public void testMatrixFormat() throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        PointSet origins = pointSet(new double[][] { { 39.9364, -83.0589 }, { 39.9400, -83.0550 },
+                { 39.9330, -83.0620 }, { 39.9380, -83.0600 }, { 39.9350, -83.0570 } });
+        PointSet destinations = pointSet(new double[][] { { 39.9370, -83.0580 }, { 39.9410, -83.0540 } });
+
+        ProfileRequest req = new ProfileRequest();
+        req.date = new LocalDate(2015, 9, 17);
+        req.walkSpeed = 1.3f;
+        req.fromTime = 7 * 3600;
+        req.toTime = 8 * 3600;
+        req.maxWalkTime = 20;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+
+        List<Integer> statistics = TravelTimeMatrix.parseStatistics("min,avg,p50");
+        TravelTimeMatrix matrix = new TravelTimeMatrix(graph, req, origins, destinations, statistics);
+        matrix.nThreads = 2;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        matrix.write(out);
+
+        int nOrigins = origins.capacity;
+        int nDestinations = destinations.capacity;
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals((5 + statistics.size() + nOrigins * (1 + statistics.size() * nDestinations)) * Integer.BYTES,
+                in.remaining());
+        assertEquals(TravelTimeMatrix.MAGIC, in.getInt());
+        assertEquals(TravelTimeMatrix.VERSION, in.getInt());
+        assertEquals(nOrigins, in.getInt());
+        assertEquals(nDestinations, in.getInt());
+        assertEquals(statistics.size(), in.getInt());
+        for (int statistic : statistics) {
+            assertEquals(statistic, in.getInt());
+        }
+
+        Set<Integer> rowOrigins = new HashSet<>();
+        boolean reached = false;
+        for (int row = 0; row < nOrigins; row++) {
+            int origin = in.getInt();
+            assertTrue(origin >= 0 && origin < nOrigins);
+            assertTrue("Origin " + origin + " written twice", rowOrigins.add(origin));
+            int[][] times = new int[statistics.size()][nDestinations];
+            for (int[] statisticTimes : times) {
+                for (int destination = 0; destination < nDestinations; destination++) {
+                    statisticTimes[destination] = in.getInt();
+                    assertTrue(statisticTimes[destination] >= 0
+                            || statisticTimes[destination] == TravelTimeMatrix.UNREACHED);
+                }
+            }
+            for (int destination = 0; destination < nDestinations; destination++) {
+                int min = times[0][destination];
+                int avg = times[1][destination];
+                if (min != TravelTimeMatrix.UNREACHED) {
+                    reached = true;
+                    assertTrue(avg == TravelTimeMatrix.UNREACHED || min <= avg);
+                }
+            }
+        }
+        assertFalse(in.hasRemaining());
+        assertTrue(reached);
+    }
+
+    private static PointSet pointSet(double[][] coordinates) {
+        PointSet pointSet = new PointSet(coordinates.length);
+        for (int i = 0; i < coordinates.length; i++) {
+            PointFeature feature = new PointFeature(Integer.toString(i));
+            feature.setLat(coordinates[i][0]);
+            feature.setLon(coordinates[i][1]);
+            pointSet.addFeature(feature, i);
+        }
+        return pointSet;
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.opentripplanner.routing.algorithm;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.ConstantIntersectionTraversalCostModel;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.TemporaryFreeEdge;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.NonLocalizedString;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+
+public class StreetDistanceSearchTest {
+
+    private Graph graph;
+
+    private StreetVertex a, b, c, d, e;
+
+    @Before
+    public void before() {
+        graph = new Graph();
+
+        // A square a-b-c-d with a short cut from a to c through e, and a car-only edge from a to d.
+        a = vertex("a", 0.0, 0.0);
+        b = vertex("b", 0.0, 1.0);
+        c = vertex("c", 1.0, 1.0);
+        d = vertex("d", 1.0, 0.0);
+        e = vertex("e", 0.5, 0.5);
+
+        twoWay(a, b, 100.0, StreetTraversalPermission.ALL);
+        twoWay(b, c, 100.0, StreetTraversalPermission.ALL);
+        twoWay(c, d, 100.0, StreetTraversalPermission.ALL);
+        twoWay(a, e, 60.0, StreetTraversalPermission.PEDESTRIAN);
+        twoWay(e, c, 60.0, StreetTraversalPermission.PEDESTRIAN);
+        twoWay(a, d, 10.0, StreetTraversalPermission.CAR);
+    }
+
+    @Test
+    public void testDistances() {
+        RoutingRequest options = walkOptions();
+        options.setRoutingContext(graph, a, null);
+        StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK);
+        search.search(a, options);
+
+        assertEquals(5, search.getReachedCount());
+        assertEquals(0, search.getDistance(a), 0.001);
+        assertEquals(100, search.getDistance(b), 0.001);
+        assertEquals(120, search.getDistance(c), 0.001);
+        // The car-only edge must not be used when walking
+        assertEquals(220, search.getDistance(d), 0.001);
+
+        List<Edge> path = search.getPath(c);
+        assertEquals(2, path.size());
+        assertEquals(e, path.get(0).getToVertex());
+
+        State state = search.getState(d);
+        assertNotNull(state);
+        assertEquals(d, state.getVertex());
+        assertEquals(220, state.getWalkDistance(), 0.001);
+        options.cleanup();
+    }
+
+    @Test
+    public void testMaxDistanceAndReuse() {
+        RoutingRequest options = walkOptions();
+        options.setRoutingContext(graph, a, null);
+        StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK);
+        search.maxDistanceMeters = 110;
+        search.search(a, options);
+        assertEquals(100, search.getDistance(b), 0.001);
+        assertTrue(Double.isInfinite(search.getDistance(c)));
+        assertNull(search.getPath(c));
+
+        // A second search must not see any of the labels of the first one
+        search.maxDistanceMeters = Double.POSITIVE_INFINITY;
+        search.search(d, options);
+        assertEquals(0, search.getDistance(d), 0.001);
+        assertEquals(100, search.getDistance(c), 0.001);
+        assertEquals(220, search.getDistance(a), 0.001);
+        options.cleanup();
+    }
+
+    /** The distances must agree with those found by AStar with a least-walk dominance function. */
+    @Test
+    public void testSameDistancesAsAStar() {
+        RoutingRequest options = walkOptions();
+        options.batch = true;
+        options.dominanceFunction = new DominanceFunction.LeastWalk();
+        options.setRoutingContext(graph, b, null);
+        ShortestPathTree spt = new AStar().getShortestPathTree(options);
+
+        StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK);
+        search.search(b, options);
+        for (Vertex v : new Vertex[] {a, b, c, d, e}) {
+            assertEquals(spt.getState(v).getWalkDistance(), search.getDistance(v), 0.01);
+        }
+        options.cleanup();
+    }
+
+    /** Reading the street edges from the compact graph must give the same distances and paths. */
+    @Test
+    public void testSameDistancesWithCompactStreetGraph() {
+        RoutingRequest options = walkOptions();
+        options.setRoutingContext(graph, a, null);
+        StreetDistanceSearch objectSearch = new StreetDistanceSearch(TraverseMode.WALK);
+        StreetDistanceSearch compactSearch = new StreetDistanceSearch(TraverseMode.WALK, new CompactStreetGraph(graph));
+        for (boolean arriveBy : new boolean[] {false, true}) {
+            options.setArriveBy(arriveBy);
+            objectSearch.search(a, options);
+            compactSearch.search(a, options);
+            assertEquals(objectSearch.getReachedCount(), compactSearch.getReachedCount());
+            for (Vertex v : new Vertex[] {a, b, c, d, e}) {
+                assertEquals(objectSearch.getDistance(v), compactSearch.getDistance(v), 0.001);
+                assertEquals(objectSearch.getPath(v), compactSearch.getPath(v));
+            }
+        }
+        options.cleanup();
+    }
+
+    /** Streets removed and split after the compact graph was built must be seen, as updaters do both. */
+    @Test
+    public void testSeesStreetsChangedAfterCompactStreetGraph() {
+        StreetDistanceSearch compactSearch = new StreetDistanceSearch(TraverseMode.WALK, new CompactStreetGraph(graph));
+        for (Edge edge : a.getOutgoing()) {
+            if (edge.getToVertex() == e) graph.removeEdge(edge);
+        }
+        for (Edge edge : a.getIncoming()) {
+            if (edge.getFromVertex() == e) graph.removeEdge(edge);
+        }
+        StreetVertex m = vertex("m", 0.5, 1.0);
+        twoWay(b, m, 5.0, StreetTraversalPermission.ALL);
+        twoWay(m, c, 5.0, StreetTraversalPermission.ALL);
+
+        RoutingRequest options = walkOptions();
+        options.setRoutingContext(graph, a, null);
+        StreetDistanceSearch objectSearch = new StreetDistanceSearch(TraverseMode.WALK);
+        for (boolean arriveBy : new boolean[] {false, true}) {
+            options.setArriveBy(arriveBy);
+            objectSearch.search(a, options);
+            compactSearch.search(a, options);
+            assertEquals(objectSearch.getReachedCount(), compactSearch.getReachedCount());
+            assertEquals(110, compactSearch.getDistance(c), 0.001);
+            assertEquals(170, compactSearch.getDistance(e), 0.001);
+            for (Vertex v : new Vertex[] {a, b, c, d, e, m}) {
+                assertEquals(objectSearch.getDistance(v), compactSearch.getDistance(v), 0.001);
+                assertEquals(objectSearch.getPath(v), compactSearch.getPath(v));
+            }
+        }
+        options.cleanup();
+    }
+
+    /** Temporary vertices created for another request must not be reached, as in StateEditor. */
+    @Test
+    public void testIgnoresTemporaryVerticesOfOtherRequests() {
+        TemporaryStreetLocation other = new TemporaryStreetLocation("other", b.getCoordinate(),
+                new NonLocalizedString("other"), true);
+        new TemporaryFreeEdge(b, other);
+
+        RoutingRequest options = walkOptions();
+        options.setRoutingContext(graph, a, null);
+        StreetDistanceSearch search = new StreetDistanceSearch(TraverseMode.WALK, new CompactStreetGraph(graph));
+        search.search(a, options);
+        assertTrue(Double.isInfinite(search.getDistance(other)));
+
+        // Without a routing context no temporary vertex belongs to the search
+        search.search(a, new RoutingRequest(TraverseMode.WALK));
+        assertTrue(Double.isInfinite(search.getDistance(other)));
+
+        options.rctx.temporaryVertices.add(other);
+        search.search(a, options);
+        assertEquals(100, search.getDistance(other), 0.001);
+        options.cleanup();
+    }
+
+    /** Turn costs add a small tie-breaker to the walk distance of States, disable them for exact comparisons. */
+    private RoutingRequest walkOptions() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.traversalCostModel = new ConstantIntersectionTraversalCostModel(0.0);
+        return options;
+    }
+
+    private StreetVertex vertex(String label, double lat, double lon) {
+        return new IntersectionVertex(graph, label, lat, lon);
+    }
+
+    private void twoWay(StreetVertex vA, StreetVertex vB, double length, StreetTraversalPermission perm) {
+        edge(vA, vB, length, perm, false);
+        edge(vB, vA, length, perm, true);
+    }
+
+    private StreetEdge edge(StreetVertex vA, StreetVertex vB, double length, StreetTraversalPermission perm,
+            boolean back) {
+        String name = String.format("%s_%s", vA.getLabel(), vB.getLabel());
+        Coordinate[] coords = new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new StreetEdge(vA, vB, geom, name, length, perm, back);
+    }
+
+}
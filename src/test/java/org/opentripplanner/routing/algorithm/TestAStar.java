@@ -86,4 +86,25 @@ public class TestAStar extends TestCase {
         assertNull(path);        
     }
 
+    /** Removing dominated states from the queue must not change the result of the search. */
+    public void testEvictDominatedStates() {
+
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+
+        GraphPath[] paths = new GraphPath[2];
+        for (int i = 0; i < 2; i++) {
+            RoutingRequest options = new RoutingRequest();
+            options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+            options.evictDominatedStates = (i == 1);
+            options.setRoutingContext(graph, start, end);
+            paths[i] = new AStar().getShortestPathTree(options).getPath(end, true);
+            assertNotNull(paths[i]);
+        }
+        assertEquals(paths[0].getWeight(), paths[1].getWeight(), 0.0);
+        assertEquals(paths[0].getEndTime(), paths[1].getEndTime());
+    }
+
 }
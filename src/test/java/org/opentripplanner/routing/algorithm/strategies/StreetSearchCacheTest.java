@@ -0,0 +1,60 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import junit.framework.TestCase;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * A search whose heuristic reuses the cached street searches of an identical earlier request must find the same path.
+ */
+public class StreetSearchCacheTest extends TestCase {
+
+    public void testReuseStreetSearches() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        StreetSearchCache cache = graph.getStreetSearchCache();
+        cache.invalidateAll();
+        long hits = cache.stats().hitCount();
+
+        GraphPath first = search(graph, 8);
+        assertEquals(hits, cache.stats().hitCount());
+
+        // A different number of heuristic steps does not change the street searches
+        GraphPath second = search(graph, 4);
+        assertEquals(hits + 2, cache.stats().hitCount());
+        assertEquals(first.getWeight(), second.getWeight(), 0.0);
+        assertEquals(first.getTrips(), second.getTrips());
+
+        // Other street parameters do not use the cached searches
+        RoutingRequest options = request(graph, 8);
+        options.walkSpeed *= 2;
+        new AStar().getShortestPathTree(options);
+        assertEquals(hits + 2, cache.stats().hitCount());
+
+        // Nothing is reused once the streets have changed
+        graph.invalidateStreetSearchCache();
+        search(graph, 8);
+        assertEquals(hits + 2, cache.stats().hitCount());
+    }
+
+    private GraphPath search(Graph graph, int heuristicSteps) {
+        RoutingRequest options = request(graph, heuristicSteps);
+        return new AStar().getShortestPathTree(options).getPath(options.rctx.target, true);
+    }
+
+    private RoutingRequest request(Graph graph, int heuristicSteps) {
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.setRoutingContext(graph, start, end);
+        options.rctx.remainingWeightHeuristic = new InterleavedBidirectionalHeuristic(heuristicSteps);
+        return options;
+    }
+
+}
@@ -0,0 +1,190 @@
+package org.opentripplanner.routing.contraction;
+
+import junit.framework.TestCase;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.graph_builder.module.osm.DefaultWayPropertySetSource;
+import org.opentripplanner.graph_builder.module.osm.OpenStreetMapModule;
+import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.standalone.Router;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+public class ContractionHierarchyTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyTest.class);
+
+    private static final int N_QUERIES = 100;
+
+    private Graph graph;
+
+    @Override
+    protected void setUp() throws Exception {
+        graph = new Graph();
+        OpenStreetMapModule loader = new OpenStreetMapModule();
+        loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        File file = new File(URLDecoder.decode(getClass().getResource(
+                "/org/opentripplanner/graph_builder/module/osm/NYC_small.osm.gz").getFile(), "UTF-8"));
+        provider.setPath(file);
+        loader.setProvider(provider);
+        loader.buildGraph(graph, new HashMap<>());
+        graph.rebuildVertexAndEdgeIndices();
+    }
+
+    /**
+     * The hierarchy ignores turn restrictions, leaving the paths which break them to A*. Without them (and without
+     * turn costs, see request) every path it finds can be compared with the one A* finds.
+     */
+    private void removeTurnRestrictions() {
+        for (Edge edge : graph.getEdges()) {
+            for (TurnRestriction restriction : graph.getTurnRestrictions(edge)) {
+                graph.removeTurnRestriction(edge, restriction);
+            }
+        }
+    }
+
+    private RoutingRequest request(TraverseMode mode, boolean arriveBy) {
+        RoutingRequest options = new RoutingRequest(mode);
+        options.setArriveBy(arriveBy);
+        // Without turn costs, the weight of a path is the sum of the weights the hierarchy is built with.
+        options.turnReluctance = options.bikeWalkingOptions.turnReluctance = 0;
+        options.dominanceFunction = new DominanceFunction.MinimumWeight();
+        return options;
+    }
+
+    public void testNotApplicableWithTurnCosts() {
+        List<Vertex> vertices = new ArrayList<>(graph.getVertices());
+        RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+        options.setRoutingContext(graph, vertices.get(0), vertices.get(1));
+        assertFalse(ContractionHierarchy.isApplicable(options));
+        options.turnReluctance = 0;
+        assertTrue(ContractionHierarchy.isApplicable(options));
+        assertFalse(ContractionHierarchy.profile(options).equals(ContractionHierarchy.profile(new RoutingRequest(
+                TraverseMode.CAR))));
+    }
+
+    /**
+     * On the graph with its turn restrictions, the paths found with a hierarchy must weigh the same as those found
+     * with A* alone: with the default turn costs, which the hierarchy does not model and leaves to A*, and without
+     * turn costs, for which the hierarchy answers unless its path breaks a turn restriction.
+     */
+    public void testSameWeightsAsAStarWithTurns() {
+        Router router = new Router("default", graph);
+        for (double turnReluctance : new double[] { new RoutingRequest().turnReluctance, 0 }) {
+            RoutingRequest defaults = new RoutingRequest(TraverseMode.CAR);
+            defaults.turnReluctance = turnReluctance;
+            ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(graph, defaults).build();
+            ContractionHierarchyService withHierarchy = new ContractionHierarchyService();
+            withHierarchy.addHierarchy(hierarchy);
+
+            Random random = new Random(42);
+            int nPaths = 0;
+            int nHierarchyPaths = 0;
+            for (int i = 0; i < N_QUERIES; i++) {
+                Vertex from = hierarchy.vertices[random.nextInt(hierarchy.getNodeCount())];
+                Vertex to = hierarchy.vertices[random.nextInt(hierarchy.getNodeCount())];
+                if (from == to) continue;
+
+                graph.putService(ContractionHierarchyService.class, withHierarchy);
+                RoutingRequest options = carRequest(from, to, turnReluctance);
+                assertEquals(turnReluctance == 0, withHierarchy.getHierarchy(options) != null);
+                if (turnReluctance == 0 && hierarchy.findPath(carRequest(from, to, turnReluctance)) != null) {
+                    nHierarchyPaths++;
+                }
+                List<GraphPath> paths = new GraphPathFinder(router).getPaths(options);
+                graph.putService(ContractionHierarchyService.class, new ContractionHierarchyService());
+                List<GraphPath> aStarPaths = new GraphPathFinder(router).getPaths(carRequest(from, to, turnReluctance));
+
+                assertEquals(aStarPaths.size(), paths.size());
+                if (aStarPaths.isEmpty()) continue;
+                nPaths++;
+                double aStarWeight = aStarPaths.get(0).getWeight();
+                assertEquals(aStarWeight, paths.get(0).getWeight(), aStarWeight * 1e-9);
+            }
+            LOG.info("turnReluctance={}: {} paths, {} found by the hierarchy.", turnReluctance, nPaths,
+                    nHierarchyPaths);
+            assertTrue(nPaths > 0);
+            assertTrue(turnReluctance != 0 || nHierarchyPaths > 0);
+        }
+    }
+
+    private RoutingRequest carRequest(Vertex from, Vertex to, double turnReluctance) {
+        RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+        options.turnReluctance = turnReluctance;
+        options.setRoutingContext(graph, from, to);
+        return options;
+    }
+
+    public void testSameWeightsAsAStarByCar() {
+        checkSameWeightsAsAStar(TraverseMode.CAR, false);
+        checkSameWeightsAsAStar(TraverseMode.CAR, true);
+    }
+
+    public void testSameWeightsAsAStarByBicycle() {
+        checkSameWeightsAsAStar(TraverseMode.BICYCLE, false);
+    }
+
+    /**
+     * On a graph without turn restrictions or turn costs, the static weights of the hierarchy are exactly the weights
+     * A* minimizes, so the hierarchy finds a path made of StreetEdges whenever A* finds one, with the same weight.
+     */
+    private void checkSameWeightsAsAStar(TraverseMode mode, boolean arriveBy) {
+        removeTurnRestrictions();
+        ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(graph, request(mode, false)).build();
+        assertTrue(hierarchy.getNodeCount() > 0);
+        assertEquals(ContractionHierarchy.profile(request(mode, arriveBy)), hierarchy.profile);
+
+        Random random = new Random(42);
+        AStar aStar = new AStar();
+        int nPaths = 0;
+        long hierarchyNanos = 0;
+        long aStarNanos = 0;
+        for (int i = 0; i < N_QUERIES; i++) {
+            RoutingRequest options = request(mode, arriveBy);
+            options.setRoutingContext(graph, hierarchy.vertices[random.nextInt(hierarchy.getNodeCount())],
+                    hierarchy.vertices[random.nextInt(hierarchy.getNodeCount())]);
+            if (options.rctx.origin == options.rctx.target) continue;
+            assertTrue(ContractionHierarchy.isApplicable(options));
+
+            long startTime = System.nanoTime();
+            GraphPath path = hierarchy.findPath(options);
+            hierarchyNanos += System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            ShortestPathTree tree = aStar.getShortestPathTree(options);
+            GraphPath aStarPath = tree.getPath(options.rctx.target, false);
+            aStarNanos += System.nanoTime() - startTime;
+            if (aStarPath == null) continue;
+
+            assertNotNull(path);
+            nPaths++;
+            for (Edge edge : path.edges) {
+                assertTrue(edge instanceof StreetEdge);
+            }
+            assertEquals(arriveBy ? options.rctx.target : options.rctx.origin, path.states.getFirst().getVertex());
+            assertEquals(arriveBy ? options.rctx.origin : options.rctx.target, path.states.getLast().getVertex());
+            assertEquals(aStarPath.getWeight(), path.getWeight(), aStarPath.getWeight() * 1e-9);
+        }
+        LOG.info("{} arriveBy={}: {} paths, hierarchy {} ms, A* {} ms.", mode, arriveBy, nPaths,
+                hierarchyNanos / 1000000, aStarNanos / 1000000);
+        assertTrue(nPaths > 0);
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.opentripplanner.routing.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.model.FareAttribute;
+import org.opentripplanner.model.FeedScopedId;
+
+public class FareEligibilityTest {
+
+    private static final FeedScopedId ROUTE_1 = new FeedScopedId("F", "r1");
+
+    private static final FeedScopedId ROUTE_2 = new FeedScopedId("F", "r2");
+
+    @Test
+    public void testZoneAndRouteMasks() {
+        FareRuleSet zoneA = ruleSet("A", "z1", "z2");
+        FareRuleSet zoneB = ruleSet("B", "z2", "z3");
+        FareRuleSet route1 = ruleSet("R");
+        route1.addRoute(ROUTE_1);
+        FareRuleSet other = ruleSet("X", "z9");
+        List<FareRuleSet> rules = Arrays.asList(zoneA, zoneB, route1, other);
+
+        FareEligibility eligibility = FareEligibility.build(rules, new HashSet<>(Arrays.asList("F:A", "F:B", "F:R")),
+                false);
+        assertNotNull(eligibility);
+
+        // Fare R has no zone restriction so it admits every zone, including zones only named by other fares
+        assertEquals(Arrays.asList("F:A", "F:R"), eligibility.getFareIds(eligibility.zoneMask("z1")));
+        assertEquals(Arrays.asList("F:A", "F:B", "F:R"), eligibility.getFareIds(eligibility.zoneMask("z2")));
+        assertEquals(Arrays.asList("F:R"), eligibility.getFareIds(eligibility.zoneMask("z4")));
+        // Fare X is not allowed, so its zone is not admitted by zone-restricted fares
+        assertEquals(Arrays.asList("F:R"), eligibility.getFareIds(eligibility.zoneMask("z9")));
+        assertEquals(Arrays.asList("F:R"), eligibility.getFareIds(eligibility.zoneMask(null)));
+
+        assertEquals(Arrays.asList("F:A", "F:B", "F:R"), eligibility.getFareIds(eligibility.routeMask(ROUTE_1)));
+        assertEquals(Arrays.asList("F:A", "F:B"), eligibility.getFareIds(eligibility.routeMask(ROUTE_2)));
+
+        assertEquals(Arrays.asList("F:A"), eligibility.getFareIds(eligibility.boardingMask("z1", ROUTE_2)));
+        assertEquals(0, eligibility.boardingMask("z4", ROUTE_2));
+
+        // Riding from z1 to z3 cannot be covered by A or B alone, only by R on route 1
+        long ride = eligibility.boardingMask("z1", ROUTE_1) & eligibility.zoneMask("z3");
+        assertEquals(Arrays.asList("F:R"), eligibility.getFareIds(ride));
+        ride = eligibility.boardingMask("z1", ROUTE_2) & eligibility.zoneMask("z3");
+        assertEquals(0, ride);
+    }
+
+    /** As in HSL fares, rule sets which only admit the zones they list admit none without zones, on any route. */
+    @Test
+    public void testListedZonesOnly() {
+        FareRuleSet zoneA = ruleSet("A", "z1", "z2");
+        zoneA.addRoute(ROUTE_1);
+        FareRuleSet noZones = ruleSet("N");
+        List<FareRuleSet> rules = Arrays.asList(zoneA, noZones);
+
+        FareEligibility eligibility = FareEligibility.build(rules, new HashSet<>(Arrays.asList("F:A", "F:N")), true);
+        assertEquals(Arrays.asList("F:A"), eligibility.getFareIds(eligibility.zoneMask("z1")));
+        assertEquals(0, eligibility.zoneMask("z4"));
+        assertEquals(0, eligibility.zoneMask(null));
+        assertEquals(Arrays.asList("F:A"), eligibility.getFareIds(eligibility.boardingMask("z2", ROUTE_2)));
+    }
+
+    @Test
+    public void testTooManyFares() {
+        List<FareRuleSet> rules = new ArrayList<>();
+        HashSet<String> allowed = new HashSet<>();
+        for (int i = 0; i <= FareEligibility.MAX_FARES; i++) {
+            rules.add(ruleSet("f" + i, "z"));
+            allowed.add("F:f" + i);
+        }
+        assertNull(FareEligibility.build(rules, allowed, false));
+        allowed.remove("F:f0");
+        assertNotNull(FareEligibility.build(rules, allowed, false));
+    }
+
+    private FareRuleSet ruleSet(String fareId, String... zones) {
+        FareAttribute attribute = new FareAttribute();
+        attribute.setId(new FeedScopedId("F", fareId));
+        FareRuleSet ruleSet = new FareRuleSet(attribute);
+        for (String zone : zones) {
+            ruleSet.addContains(zone);
+        }
+        return ruleSet;
+    }
+
+}
@@ -6,12 +6,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 
 import org.locationtech.jts.geom.Coordinate;
@@ -261,6 +265,42 @@ public class PlainStreetEdgeTest {
         return v;
     }
 
+    /**
+     * Test that splitting an edge with an elevation profile gives each part the profile along it, and the same slope
+     * costs as an edge with that profile.
+     */
+    @Test
+    public void testSplitKeepsElevationProfile() {
+        StreetVertex a = vertex("a", 0.0, 0.0);
+        StreetVertex b = vertex("b", 0.01, 0.0);
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { a.getCoordinate(), b.getCoordinate() });
+        double length = SphericalDistanceLibrary.distance(a.getCoordinate(), b.getCoordinate());
+        StreetWithElevationEdge e = new StreetWithElevationEdge(a, b, geom, "a_b", length,
+                StreetTraversalPermission.ALL, false);
+        e.setElevationProfile(new PackedCoordinateSequence.Double(new Coordinate[] {
+                new Coordinate(0, 10), new Coordinate(length / 2, 40), new Coordinate(length, 10) }), false);
+
+        SplitterVertex sv = new SplitterVertex(graph, "split", 0.005, 0.0, e);
+        P2<StreetEdge> split = e.split(sv, true);
+
+        assertTrue(split.first instanceof StreetWithElevationEdge);
+        assertTrue(split.second instanceof StreetWithElevationEdge);
+        PackedCoordinateSequence first = split.first.getElevationProfile();
+        PackedCoordinateSequence second = split.second.getElevationProfile();
+        assertEquals(10, first.getY(0), 0.1);
+        assertEquals(40, first.getY(first.size() - 1), 0.1);
+        assertEquals(40, second.getY(0), 0.1);
+        assertEquals(10, second.getY(second.size() - 1), 0.1);
+
+        // An edge with the profile of the first part
+        StreetWithElevationEdge expected = new StreetWithElevationEdge(a, sv, split.first.getGeometry(),
+                "a_split", split.first.getDistance(), StreetTraversalPermission.ALL, false);
+        expected.setElevationProfile(first, false);
+        assertEquals(expected.getBicycleSafetyFactor(), split.first.getBicycleSafetyFactor(), 1e-4);
+        assertEquals(expected.getSlopeWorkCostEffectiveLength(), split.first.getSlopeWorkCostEffectiveLength(), 1e-3);
+    }
+
     /**
      * Create an edge. If twoWay, create two edges (back and forth).
      * 
@@ -0,0 +1,162 @@
+package org.opentripplanner.routing.edgetype;
+
+import junit.framework.TestCase;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.util.TestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Check that searching for the next departure with the sorted per-stop indexes of a Timetable finds exactly the same
+ * trips as the linear search of an unindexed copy, on every pattern of the Portland graph, and compare their speed.
+ */
+public class TimetableDepartureIndexTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimetableDepartureIndexTest.class);
+
+    private static final int STEP_SECONDS = 20 * 60;
+
+    private static final int BENCHMARK_ITERATIONS = 5;
+
+    private Graph graph;
+
+    private RoutingRequest options;
+
+    private Vertex origin;
+
+    @Override
+    protected void setUp() {
+        graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        origin = graph.getVertex(feedId + ":8371");
+        options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 0, 0);
+        options.batch = true;
+        options.setRoutingContext(graph, origin, null);
+    }
+
+    @Override
+    protected void tearDown() {
+        options.cleanup();
+    }
+
+    public void testSameTripsAsLinearSearch() {
+        int nChecked = 0;
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            Timetable indexed = pattern.scheduledTimetable;
+            // The copy does not include frequency entries, which are searched in the same way either way.
+            if (!indexed.frequencyEntries.isEmpty()) continue;
+            Timetable linear = new Timetable(indexed, null);
+            int nStops = pattern.getStops().size();
+            for (ServiceDay serviceDay : options.rctx.serviceDays) {
+                long midnight = serviceDay.time(0);
+                for (int t = -STEP_SECONDS; t < 28 * 60 * 60; t += STEP_SECONDS) {
+                    State state = new State(origin, midnight + t, options);
+                    for (int stopIndex = 0; stopIndex < nStops; stopIndex++) {
+                        for (boolean boarding : new boolean[] { true, false }) {
+                            assertSame(linear.getNextTrip(state, serviceDay, stopIndex, boarding),
+                                    indexed.getNextTrip(state, serviceDay, stopIndex, boarding));
+                            nChecked++;
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(nChecked > 0);
+    }
+
+    /** Departure boards must list the same trips in the same order with and without the index. */
+    public void testSameDeparturesAsLinearScan() {
+        ServiceDay serviceDay = options.rctx.serviceDays.get(1);
+        int nChecked = 0;
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            Timetable indexed = pattern.scheduledTimetable;
+            Timetable linear = new Timetable(indexed, null);
+            for (int stopIndex = 0; stopIndex < pattern.getStops().size(); stopIndex++) {
+                for (int t = 0; t < 28 * 60 * 60; t += STEP_SECONDS * 3) {
+                    for (int maxTrips : new int[] { 1, 5, Integer.MAX_VALUE }) {
+                        List<TripTimes> expected = linear.getDepartures(serviceDay, stopIndex, t, t + 2 * 60 * 60,
+                                maxTrips, true);
+                        assertEquals(expected, indexed.getDepartures(serviceDay, stopIndex, t, t + 2 * 60 * 60,
+                                maxTrips, true));
+                        nChecked += expected.size();
+                    }
+                }
+            }
+        }
+        assertTrue(nChecked > 0);
+    }
+
+    /** Replacing a trip must not leave a stale index behind, and finishing the timetable must index it again. */
+    public void testUpdatedTimetable() {
+        TripPattern pattern = graph.index.patternForId.values().iterator().next();
+        Timetable timetable = new Timetable(pattern.scheduledTimetable, null);
+        timetable.finish();
+        // Make the first trip depart an hour later, so that it overtakes the trips following it.
+        TripTimes original = timetable.getTripTimes(0);
+        timetable.setTripTimes(0, original.timeShift(0, original.getDepartureTime(0) + 60 * 60, true));
+        assertSameTrips(timetable);
+        timetable.finish();
+        assertSameTrips(timetable);
+    }
+
+    private void assertSameTrips(Timetable timetable) {
+        Timetable linear = new Timetable(timetable, null);
+        ServiceDay serviceDay = options.rctx.serviceDays.get(1);
+        long midnight = serviceDay.time(0);
+        for (int t = 0; t < 28 * 60 * 60; t += STEP_SECONDS / 4) {
+            State state = new State(origin, midnight + t, options);
+            for (int stopIndex = 0; stopIndex < timetable.pattern.getStops().size(); stopIndex++) {
+                assertSame(linear.getNextTrip(state, serviceDay, stopIndex, true),
+                        timetable.getNextTrip(state, serviceDay, stopIndex, true));
+                assertSame(linear.getNextTrip(state, serviceDay, stopIndex, false),
+                        timetable.getNextTrip(state, serviceDay, stopIndex, false));
+            }
+        }
+    }
+
+    /** Not a strict benchmark, but gives an idea of the gain of the index over the linear search. */
+    public void testRelativeSpeed() {
+        ServiceDay serviceDay = options.rctx.serviceDays.get(1);
+        // warm up both code paths before timing
+        search(serviceDay, false);
+        search(serviceDay, true);
+
+        long linearNanos = 0;
+        long indexedNanos = 0;
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            long t0 = System.nanoTime();
+            search(serviceDay, false);
+            long t1 = System.nanoTime();
+            search(serviceDay, true);
+            long t2 = System.nanoTime();
+            linearNanos += t1 - t0;
+            indexedNanos += t2 - t1;
+        }
+        LOG.info("Average time to find all departures: linear search {} ms, departure index {} ms",
+                linearNanos / BENCHMARK_ITERATIONS / 1000000, indexedNanos / BENCHMARK_ITERATIONS / 1000000);
+    }
+
+    private void search(ServiceDay serviceDay, boolean indexed) {
+        long midnight = serviceDay.time(0);
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            Timetable timetable = indexed ? pattern.scheduledTimetable : new Timetable(pattern.scheduledTimetable, null);
+            int nStops = pattern.getStops().size();
+            for (int t = 0; t < 24 * 60 * 60; t += STEP_SECONDS) {
+                State state = new State(origin, midnight + t, options);
+                for (int stopIndex = 0; stopIndex < nStops; stopIndex++) {
+                    timetable.getNextTrip(state, serviceDay, stopIndex, true);
+                }
+            }
+        }
+    }
+
+}
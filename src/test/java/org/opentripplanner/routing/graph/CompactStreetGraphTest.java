@@ -0,0 +1,77 @@
+package org.opentripplanner.routing.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class CompactStreetGraphTest {
+
+    @Test
+    public void testArcs() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0.0, 0.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.0, 0.001);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", 0.001, 0.001);
+        StreetEdge ab = edge(a, b, 111.0, StreetTraversalPermission.ALL);
+        StreetEdge ba = edge(b, a, 111.0, StreetTraversalPermission.ALL);
+        StreetEdge bc = edge(b, c, 222.5, StreetTraversalPermission.PEDESTRIAN);
+        bc.setStairs(true);
+        new SimpleConcreteEdge(a, c);
+
+        CompactStreetGraph streets = new CompactStreetGraph(graph);
+        assertEquals(3, streets.getArcCount());
+        assertTrue(streets.contains(b.getIndex()));
+
+        // The arcs leaving b are those of its outgoing street edges.
+        int bi = b.getIndex();
+        assertEquals(2, streets.getArcsEnd(bi, false) - streets.getArcsStart(bi, false));
+        assertEquals(1, streets.getArcsEnd(bi, true) - streets.getArcsStart(bi, true));
+        int arc = streets.getArc(streets.getArcsStart(bi, true), true);
+        assertEquals(ab, streets.getEdge(arc));
+        assertEquals(a.getIndex(), streets.getFromVertex(arc));
+        assertEquals(111.0, streets.getDistance(arc), 0.001);
+
+        for (int i = streets.getArcsStart(bi, false); i < streets.getArcsEnd(bi, false); i++) {
+            StreetEdge edge = streets.getEdge(i);
+            assertEquals(edge.isStairs(), streets.hasFlag(i, CompactStreetGraph.STAIRS_FLAG));
+            assertEquals(edge.getDistance(), streets.getDistance(i), 0.001);
+            RoutingRequest options = new RoutingRequest();
+            for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.CAR}) {
+                assertEquals(edge.canTraverse(options, mode), streets.canTraverse(i, options, mode));
+            }
+        }
+        assertEquals(ba, streets.getEdge(streets.getArc(streets.getArcsStart(a.getIndex(), true), true)));
+
+        // Edges other than street edges are left to the object graph.
+        assertTrue(streets.hasOtherEdges(a.getIndex()));
+        assertTrue(streets.hasOtherEdges(c.getIndex()));
+        assertFalse(streets.hasOtherEdges(bi));
+        assertTrue(streets.getMemoryFootprint() > 0);
+
+        // Adding an edge changes the edge lists of both of its vertices, in the direction it is followed from each.
+        assertTrue(streets.isUnchanged(bi, false));
+        edge(b, a, 50.0, StreetTraversalPermission.ALL);
+        assertFalse(streets.isUnchanged(bi, false));
+        assertTrue(streets.isUnchanged(bi, true));
+        assertFalse(streets.isUnchanged(a.getIndex(), true));
+        assertTrue(streets.isUnchanged(a.getIndex(), false));
+    }
+
+    private StreetEdge edge(IntersectionVertex from, IntersectionVertex to, double length,
+            StreetTraversalPermission permission) {
+        Coordinate[] coords = new Coordinate[] { from.getCoordinate(), to.getCoordinate() };
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new StreetEdge(from, to, geometry, from.getLabel() + "_" + to.getLabel(), length, permission, false);
+    }
+
+}
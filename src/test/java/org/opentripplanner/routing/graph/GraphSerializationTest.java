@@ -7,19 +7,34 @@ import org.geotools.util.WeakValueHashMap;
 import org.jets3t.service.io.TempFile;
 import org.junit.Test;
 import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.HashGridSpatialIndex;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
 import org.opentripplanner.routing.trippattern.Deduplicator;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.TransitStation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 
 /**
@@ -58,6 +73,85 @@ public class GraphSerializationTest {
         assertNoDifferences(copiedGraph1, copiedGraph2);
     }
 
+    /**
+     * Tests that street vertices and edges split over several chunks are read back with their edge lists in the
+     * same order, and that references to them from the main section resolve to the same instances.
+     */
+    @Test
+    public void testChunkedStreetSections() throws Exception {
+        Graph graph = new Graph();
+        int n = 10;
+        IntersectionVertex[][] grid = new IntersectionVertex[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                grid[i][j] = new IntersectionVertex(graph, "v_" + i + "_" + j, i * 0.001, 45 + j * 0.001);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i + 1 < n) street(grid[i][j], grid[i + 1][j], "east-west " + j);
+                if (j + 1 < n) street(grid[i][j], grid[i][j + 1], "north-south " + i);
+            }
+        }
+        // A vertex and edge of classes that are not chunked, referring to a chunked vertex.
+        new SimpleConcreteEdge(new SimpleConcreteVertex(graph, "other", 45, 0), grid[0][0]);
+        Edge from = grid[0][0].getOutgoing().iterator().next();
+        Edge to = grid[1][0].getOutgoing().iterator().next();
+        graph.addTurnRestriction(from, new TurnRestriction(from, to, TurnRestrictionType.NO_TURN,
+                new TraverseModeSet("CAR")));
+
+        List<Edge> edges = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            edges.addAll(v.getOutgoing());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkedGraphSerializer.write(graph, MavenVersion.VERSION, edges, out, 7);
+        Graph copy = ChunkedGraphSerializer.read(new ByteArrayInputStream(out.toByteArray()));
+        assertSameEdgeLists(graph, copy);
+        Edge copiedFrom = copy.getVertex("v_0_0").getOutgoing().iterator().next();
+        Edge copiedTo = copy.getVertex("v_1_0").getOutgoing().iterator().next();
+        List<TurnRestriction> restrictions = copy.getTurnRestrictions(copiedFrom);
+        assertEquals(1, restrictions.size());
+        assertSame(copiedFrom, restrictions.get(0).from);
+        assertSame(copiedTo, restrictions.get(0).to);
+
+        // Loading from a file maps the chunks into memory instead.
+        File tempFile = TempFile.createTempFile("graph", "grid");
+        graph.save(tempFile);
+        assertSameEdgeLists(graph, Graph.load(tempFile));
+    }
+
+    private static void street(IntersectionVertex v0, IntersectionVertex v1, String name) {
+        double length = SphericalDistanceLibrary.distance(v0.getCoordinate(), v1.getCoordinate());
+        new StreetEdge(v0, v1, GeometryUtils.makeLineString(v0.getX(), v0.getY(), v1.getX(), v1.getY()), name,
+                length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(v1, v0, GeometryUtils.makeLineString(v1.getX(), v1.getY(), v0.getX(), v0.getY()), name,
+                length, StreetTraversalPermission.ALL, true);
+    }
+
+    private static void assertSameEdgeLists(Graph g1, Graph g2) {
+        assertEquals(g1.countVertices(), g2.countVertices());
+        assertEquals(g1.countEdges(), g2.countEdges());
+        for (Vertex v1 : g1.getVertices()) {
+            Vertex v2 = g2.getVertex(v1.getLabel());
+            assertNotNull(v2);
+            assertEquals(v1.getClass(), v2.getClass());
+            assertEquals(edgeIds(v1.getOutgoing()), edgeIds(v2.getOutgoing()));
+            assertEquals(edgeIds(v1.getIncoming()), edgeIds(v2.getIncoming()));
+        }
+    }
+
+    private static List<Integer> edgeIds(Iterable<Edge> edges) {
+        List<Integer> ids = new ArrayList<>();
+        for (Edge e : edges) {
+            ids.add(e.getId());
+            if (e instanceof StreetEdge) {
+                assertNotNull(((StreetEdge) e).getGeometry());
+            }
+        }
+        return ids;
+    }
+
     // Ideally we'd also test comparing two separate but identical complex graphs, built separately from the same inputs.
     // A test that builds the same graph twice will currently fail for the following reasons:
     // There is global state in Vertex.index and the feeds IDs that mean if you build the same graph twice the feed IDs
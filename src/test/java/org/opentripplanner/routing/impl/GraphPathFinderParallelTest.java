@@ -0,0 +1,67 @@
+package org.opentripplanner.routing.impl;
+
+import junit.framework.TestCase;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.model.FeedScopedId;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.TestUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parallel itinerary searches must find as many distinct itineraries as the serial searches, never before the
+ * requested time, along the MAX trackage between the stops 8371 and 8374 of the Portland graph. The first search and
+ * the parallel search in the earliest time window are the same as the first two serial searches, so their itineraries
+ * must be among the parallel ones. The later windows depart later, so the other itineraries may differ.
+ */
+public class GraphPathFinderParallelTest extends TestCase {
+
+    private static final int N_ITINERARIES = 4;
+
+    public void testParallelSearches() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        Router router = new Router("portland", graph);
+        long dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+
+        List<GraphPath> serial = new GraphPathFinder(router).getPaths(request(graph, dateTime, 1, N_ITINERARIES));
+        List<GraphPath> parallel = new GraphPathFinder(router).getPaths(
+                request(graph, dateTime, N_ITINERARIES, N_ITINERARIES));
+
+        assertTrue(serial.size() >= N_ITINERARIES);
+        assertTrue(parallel.size() >= N_ITINERARIES);
+
+        Set<List<FeedScopedId>> trips = new HashSet<>();
+        for (GraphPath path : parallel) {
+            assertTrue(path.getStartTime() >= dateTime);
+            assertTrue("Duplicate itinerary", trips.add(path.getTrips()));
+        }
+
+        List<GraphPath> firstSerial = new GraphPathFinder(router).getPaths(request(graph, dateTime, 1, 2));
+        assertTrue(firstSerial.size() >= 2);
+        for (GraphPath serialPath : firstSerial) {
+            assertTrue("Itinerary " + serialPath.getTrips() + " of the serial searches not found in parallel",
+                    parallel.stream().anyMatch(path -> path.getTrips().equals(serialPath.getTrips())
+                            && path.getStartTime() == serialPath.getStartTime()
+                            && path.getEndTime() == serialPath.getEndTime()));
+        }
+    }
+
+    private RoutingRequest request(Graph graph, long dateTime, int maxParallelSearches, int numItineraries) {
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = dateTime;
+        options.numItineraries = numItineraries;
+        options.maxParallelSearches = maxParallelSearches;
+        options.setRoutingContext(graph, start, end);
+        return options;
+    }
+
+}
@@ -14,6 +14,9 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.monitoring.MonitoringStore;
+import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
 
 import java.io.*;
 
@@ -186,6 +189,57 @@ public class GraphServiceTest extends TestCase {
         assertEquals(0, graphService.getRouterIds().size());
     }
 
+    @Test
+    public final void testPostEvictReload() throws IOException {
+        MonitoringStore store = MonitoringStoreFactory.getStore();
+        store.monitor("graphReloadLoadTime");
+        store.monitor("graphReloadSwapTime");
+        store.monitor("graphReloadPeakHeap");
+
+        GraphService graphService = new GraphService();
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        graphSourceFactory.save("A", new ByteArrayInputStream(emptyGraphData));
+        assertTrue(graphService.registerGraph("A", graphSourceFactory.createGraphSource("A")));
+        // A request in flight holds on to the router it started with
+        Router oldRouter = graphService.getRouter("A");
+
+        graphSourceFactory.save("A", new ByteArrayInputStream(smallGraphData));
+        assertTrue(graphService.reloadGraph("A", false, true));
+        Router newRouter = graphService.getRouter("A");
+
+        assertNotSame(oldRouter, newRouter);
+        assertEquals(0, oldRouter.graph.getVertices().size());
+        assertEquals(smallGraph.getVertices().size(), newRouter.graph.getVertices().size());
+        assertNotNull(store.getLong("graphReloadLoadTime"));
+        assertNotNull(store.getLong("graphReloadSwapTime"));
+        assertTrue(store.getLong("graphReloadPeakHeap") > 0);
+    }
+
+    @Test
+    public final void testReleaseSpeedupsOnReload() throws IOException {
+        GraphService graphService = new GraphService();
+        InputStreamGraphSource.FileFactory graphSourceFactory = new InputStreamGraphSource.FileFactory(basePath);
+        graphSourceFactory.save("A", new ByteArrayInputStream(smallGraphData));
+        try (Writer config = new FileWriter(new File(new File(basePath, "A"), Router.ROUTER_CONFIG_FILENAME))) {
+            config.write("{ \"compactStreetGraph\": true }");
+        }
+        assertTrue(graphService.registerGraph("A", graphSourceFactory.createGraphSource("A")));
+        Router oldRouter = graphService.getRouter("A");
+        assertNotNull(oldRouter.graph.compactStreetGraph);
+        oldRouter.releaseSpeedupsOnReload = true;
+
+        assertTrue(graphService.reloadGraph("A", false, true));
+        Router newRouter = graphService.getRouter("A");
+
+        assertNotSame(oldRouter, newRouter);
+        // The old router still answers requests, without its speed-ups
+        assertNull(oldRouter.graph.compactStreetGraph);
+        assertNull(oldRouter.graph.getStreetSearchCache());
+        assertEquals(smallGraph.getVertices().size(), oldRouter.graph.getVertices().size());
+        assertNotNull(newRouter.graph.compactStreetGraph);
+        assertNotNull(newRouter.graph.getStreetSearchCache());
+    }
+
     @Test
     public final void testGraphServiceAutoscan() throws IOException {
 
@@ -0,0 +1,63 @@
+package org.opentripplanner.routing.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opentripplanner.model.FareAttribute;
+import org.opentripplanner.model.FeedScopedId;
+import org.opentripplanner.routing.core.Fare.FareType;
+import org.opentripplanner.routing.core.FareEligibility;
+import org.opentripplanner.routing.core.FareRuleSet;
+
+public class HSLFareServiceImplTest {
+
+    private static final FeedScopedId ROUTE = new FeedScopedId("F", "r");
+
+    /**
+     * The search only checks the zones where rides board and alight against the allowed fares, so a ride passing
+     * through a zone no allowed fare covers must be rejected by the exact check of the path.
+     */
+    @Test
+    public void testIntermediateZoneNotAllowed() {
+        HSLFareServiceImpl fareService = new HSLFareServiceImpl();
+        fareService.addFareRules(FareType.regular, Arrays.asList(ruleSet("AC", 2.8f, "A", "C"),
+                ruleSet("ABC", 4.0f, "A", "B", "C")));
+        Set<String> allowed = Collections.singleton("F:AC");
+
+        FareEligibility eligibility = fareService.getFareEligibility(allowed);
+        assertEquals(Arrays.asList("F:AC"),
+                eligibility.getFareIds(eligibility.boardingMask("A", ROUTE) & eligibility.zoneMask("C")));
+
+        List<Ride> rides = Collections.singletonList(ride("A", "B", "C"));
+        assertFalse(fareService.ridesAllowed(rides, allowed));
+        assertTrue(fareService.ridesAllowed(rides, new HashSet<>(Arrays.asList("F:AC", "F:ABC"))));
+        assertTrue(fareService.ridesAllowed(Collections.singletonList(ride("A", "C")), allowed));
+    }
+
+    private Ride ride(String... zones) {
+        Ride ride = new Ride();
+        ride.route = ROUTE;
+        ride.startZone = zones[0];
+        ride.endZone = zones[zones.length - 1];
+        ride.zones.addAll(Arrays.asList(zones));
+        return ride;
+    }
+
+    private FareRuleSet ruleSet(String fareId, float price, String... zones) {
+        FareAttribute attribute = new FareAttribute();
+        attribute.setId(new FeedScopedId("F", fareId));
+        attribute.setPrice(price);
+        FareRuleSet ruleSet = new FareRuleSet(attribute);
+        for (String zone : zones) {
+            ruleSet.addContains(zone);
+        }
+        return ruleSet;
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.opentripplanner.routing.spt;
+
+import junit.framework.TestCase;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.util.TestUtils;
+
+/**
+ * Check that the index-addressed shortest path tree finds the same paths as the map-based one on the Portland graph.
+ */
+public class IndexedShortestPathTreeTest extends TestCase {
+
+    private static final String[][] STOP_PAIRS = {
+            { "8371", "8374" }, { "8374", "8371" }, { "10579", "8371" }, { "8371", "10579" }
+    };
+
+    public void testSamePathsAsMapBasedTree() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        int nPaths = 0;
+        for (String[] pair : STOP_PAIRS) {
+            Vertex start = graph.getVertex(feedId + ":" + pair[0]);
+            Vertex end = graph.getVertex(feedId + ":" + pair[1]);
+            assertNotNull(start);
+            assertNotNull(end);
+
+            ShortestPathTree mapTree = search(graph, start, end, false, false);
+            ShortestPathTree indexedTree = search(graph, start, end, true, false);
+            assertTrue(indexedTree instanceof IndexedShortestPathTree);
+
+            GraphPath mapPath = mapTree.getPath(end, true);
+            GraphPath indexedPath = indexedTree.getPath(end, true);
+            if (mapPath == null) {
+                assertNull(indexedPath);
+                continue;
+            }
+            nPaths++;
+            assertNotNull(indexedPath);
+            assertEquals(mapPath.getWeight(), indexedPath.getWeight(), 0.0);
+            assertEquals(mapPath.getEndTime(), indexedPath.getEndTime());
+            assertEquals(mapPath.edges.size(), indexedPath.edges.size());
+        }
+        assertTrue(nPaths > 0);
+    }
+
+    public void testSameTreeInBatchMode() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        assertNotNull(start);
+
+        ShortestPathTree mapTree = search(graph, start, null, false, true);
+        ShortestPathTree indexedTree = search(graph, start, null, true, true);
+
+        assertEquals(mapTree.getVertexCount(), indexedTree.getVertexCount());
+        assertEquals(mapTree.getVertices(), indexedTree.getVertices());
+        assertEquals(mapTree.getAllStates().size(), indexedTree.getAllStates().size());
+        for (Vertex v : mapTree.getVertices()) {
+            assertEquals(mapTree.getStates(v).size(), indexedTree.getStates(v).size());
+            assertTrue(indexedTree.visit(indexedTree.getStates(v).get(0)));
+        }
+    }
+
+    private ShortestPathTree search(Graph graph, Vertex start, Vertex end, boolean indexed, boolean batch) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.indexedShortestPathTree = indexed;
+        options.batch = batch;
+        if (batch) {
+            options.worstTime = options.dateTime + 60 * 60;
+            options.setRoutingContext(graph, start, null);
+        } else {
+            options.setRoutingContext(graph, start, end);
+        }
+        return new AStar().getShortestPathTree(options);
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.opentripplanner.updater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.stoptime.TripUpdateGraphWriterRunnable;
+
+public class GraphUpdaterManagerTest {
+
+    /** A write of the whole state of a source, which supersedes the earlier writes of the same source. */
+    private static class StateWriter implements GraphWriterRunnable {
+        final String source;
+        final int version;
+        final List<String> log;
+
+        StateWriter(String source, int version, List<String> log) {
+            this.source = source;
+            this.version = version;
+            this.log = log;
+        }
+
+        @Override
+        public void run(Graph graph) {
+            log.add(source + version);
+        }
+
+        @Override
+        public boolean supersedes(GraphWriterRunnable earlier) {
+            return earlier instanceof StateWriter && ((StateWriter) earlier).source.equals(source);
+        }
+    }
+
+    @Test
+    public void testBatchesAndCoalescesWrites() throws InterruptedException {
+        GraphUpdaterManager manager = new GraphUpdaterManager(new Graph());
+        List<String> log = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            // Hold the writer thread while the other writes are queued
+            manager.execute(graph -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+            manager.execute(new StateWriter("a", 1, log));
+            manager.execute(new StateWriter("b", 1, log));
+            manager.execute(graph -> log.add("x"));
+            manager.execute(new StateWriter("a", 2, log));
+            manager.execute(new StateWriter("a", 3, log));
+            manager.execute(graph -> done.countDown());
+            assertEquals(6, manager.getQueueDepth());
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            // Wait for the end of the batch
+            manager.stop();
+            assertEquals(Arrays.asList("b1", "x", "a3"), log);
+            assertEquals(4, manager.getLastBatchSize());
+            assertEquals(0, manager.getQueueDepth());
+            assertTrue(manager.getLastWriteLatency() >= 0);
+        } finally {
+            release.countDown();
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testFullDatasetSupersedesEarlierTripUpdates() {
+        TripUpdateGraphWriterRunnable differential =
+                new TripUpdateGraphWriterRunnable(false, Collections.emptyList(), "feed");
+        TripUpdateGraphWriterRunnable full = new TripUpdateGraphWriterRunnable(true, Collections.emptyList(), "feed");
+        TripUpdateGraphWriterRunnable otherFeed =
+                new TripUpdateGraphWriterRunnable(true, Collections.emptyList(), "other");
+        assertTrue(full.supersedes(differential));
+        assertTrue(full.supersedes(full));
+        assertFalse(differential.supersedes(full));
+        assertFalse(otherFeed.supersedes(full));
+    }
+}
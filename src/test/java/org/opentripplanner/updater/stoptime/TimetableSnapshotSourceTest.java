@@ -116,11 +116,16 @@ public class TimetableSnapshotSourceTest {
 
     @Test
     public void testGetSnapshot() throws InvalidProtocolBufferException {
+        assertNull(updater.getTimetableSnapshot());
+        assertEquals(-1, updater.getSnapshotAgeMillis());
+
         updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
 
         final TimetableSnapshot snapshot = updater.getTimetableSnapshot();
         assertNotNull(snapshot);
         assertSame(snapshot, updater.getTimetableSnapshot());
+        assertTrue(updater.getSnapshotAgeMillis() >= 0);
+        assertTrue(updater.getLastCommitMicros() >= 0);
 
         updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
         assertSame(snapshot, updater.getTimetableSnapshot());
@@ -474,6 +479,57 @@ public class TimetableSnapshotSourceTest {
          */
     }
 
+    @Test
+    public void testSkipUnchangedFullDataset() {
+        final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");
+        final FeedScopedId tripId2 = new FeedScopedId(feedId, "1.2");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+        final int tripIndex2 = pattern.scheduledTimetable.getTripIndex(tripId2);
+
+        updater.maxSnapshotFrequency = (-1);
+        updater.purgeExpiredData = (false);
+
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay("1.1", 1), delay("1.2", 1)), feedId);
+        final TimetableSnapshot snapshotA = updater.getTimetableSnapshot();
+        final Timetable forTodayA = snapshotA.resolve(pattern, serviceDate);
+        assertEquals(1, forTodayA.getTripTimes(tripIndex2).getArrivalDelay(1));
+
+        // Nothing changed, the buffer is not modified
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay("1.1", 1), delay("1.2", 1)), feedId);
+        assertSame(snapshotA, updater.getTimetableSnapshot());
+
+        // Only the changed trip update is applied
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay("1.1", 1), delay("1.2", 2)), feedId);
+        final TimetableSnapshot snapshotB = updater.getTimetableSnapshot();
+        assertNotSame(snapshotA, snapshotB);
+        final Timetable forTodayB = snapshotB.resolve(pattern, serviceDate);
+        assertSame(forTodayA.getTripTimes(tripIndex), forTodayB.getTripTimes(tripIndex));
+        assertEquals(2, forTodayB.getTripTimes(tripIndex2).getArrivalDelay(1));
+
+        // A trip left out of the full dataset is back to its schedule
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay("1.1", 1)), feedId);
+        final Timetable forTodayC = updater.getTimetableSnapshot().resolve(pattern, serviceDate);
+        assertEquals(1, forTodayC.getTripTimes(tripIndex).getArrivalDelay(1));
+        assertEquals(RealTimeState.SCHEDULED, forTodayC.getTripTimes(tripIndex2).getRealTimeState());
+        assertEquals(0, forTodayC.getTripTimes(tripIndex2).getArrivalDelay(1));
+    }
+
+    private static TripUpdate delay(final String tripId, final int delay) {
+        final TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.getTripBuilder().setTripId(tripId)
+                .setScheduleRelationship(TripDescriptor.ScheduleRelationship.SCHEDULED);
+
+        final StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder();
+        stopTimeUpdateBuilder.setScheduleRelationship(StopTimeUpdate.ScheduleRelationship.SCHEDULED);
+        stopTimeUpdateBuilder.setStopSequence(2);
+        stopTimeUpdateBuilder.getArrivalBuilder().setDelay(delay);
+        stopTimeUpdateBuilder.getDepartureBuilder().setDelay(delay);
+
+        return tripUpdateBuilder.build();
+    }
+
     @Test
     public void testPurgeExpiredData() throws InvalidProtocolBufferException {
         final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");